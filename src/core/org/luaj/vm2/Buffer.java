@@ -160,6 +160,21 @@ public final class Buffer {
         return this;
     }
 
+    /**
+     * Append a range of a byte array to the buffer.
+     *
+     * @param b   the bytes to append
+     * @param off offset of the first byte to append
+     * @param len number of bytes to append
+     * @return {@code this} to allow call chaining
+     */
+    public Buffer append(byte[] b, int off, int len) {
+        makeroom(0, len);
+        System.arraycopy(b, off, bytes, offset + length, len);
+        length += len;
+        return this;
+    }
+
     /**
      * Append a {@link LuaValue} to the buffer.
      *
@@ -0,0 +1,352 @@
+/*******************************************************************************
+* Copyright (c) 2009 Luaj.org. All rights reserved.
+* <p>
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* <p>
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* <p>
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+* Class to undump compiled lua bytecode held in a {@link ByteBuffer} into {@link Prototype} instances.
+* <p>
+* This reads the same binary format as {@link LoadState}, but decodes directly from
+* a heap or direct buffer, such as one obtained by memory-mapping a file with
+* {@link FileChannel#map(FileChannel.MapMode, long, long)}:
+* <ul>
+* <li>instruction arrays are decoded in bulk through an {@link java.nio.IntBuffer} view</li>
+* <li>strings in heap buffers share the backing array instead of being copied</li>
+* <li>line info, local variable names and upvalue names are only skipped over at load time,
+* and decoded on first use via {@link Prototype#loaddebug()}</li>
+* </ul>
+* <p>
+* To undump a file containing a precompiled chunk:
+* <pre> {@code
+* try (FileChannel c = FileChannel.open(Paths.get("main.luac"))) {
+*     Prototype p = BufferLoadState.undump(c, "main.lua");
+*     LuaClosure f = new LuaClosure(p, globals);
+*     f.call();
+* }
+* } </pre>
+*
+* The buffer, or the mapping, is retained by any prototype whose debug info has not yet been
+* decoded, so callers must not modify its contents afterwards.
+* <p>
+* It may also be installed as the {@link Globals.Undumper}, in which case the remainder of
+* any binary chunk input stream is read fully into memory and then undumped:
+* <pre> {@code
+* Globals globals = JsePlatform.standardGlobals();
+* BufferLoadState.install(globals);
+* } </pre>
+*
+* @see LoadState
+* @see Prototype#loaddebug()
+* @see org.luaj.vm2.compiler.DumpState
+*/
+public class BufferLoadState {
+
+	/** Shared instance of Globals.Undumper that reads binary chunks into a buffer before undumping them */
+	public static final Globals.Undumper instance = new GlobalsUndumper();
+
+	private static final LuaValue[]   NOVALUES     = {};
+	private static final Prototype[]  NOPROTOS     = {};
+	private static final LocVars[]    NOLOCVARS    = {};
+	private static final Upvaldesc[]  NOUPVALDESCS = {};
+	private static final int[]        NOINTS       = {};
+
+	/** buffer from which we are loading, in the byte order of the chunk */
+	private final ByteBuffer b;
+
+	/** backing array of the buffer, or null for direct buffers */
+	private final byte[] array;
+
+	/** offset of the first byte of the buffer in the backing array */
+	private final int arrayOffset;
+
+	// values read from the header
+	private int luacSizeofSizeT;
+	private int luacNumberFormat;
+
+	/** Install this class as the standard Globals.Undumper for the supplied Globals */
+	public static void install(Globals globals) {
+		globals.undumper = instance;
+	}
+
+	/**
+	 * Load the contents of a buffer as a lua binary chunk if the first 4 bytes are the lua binary signature.
+	 * <p>
+	 * The chunk is read starting at the buffer's position, which is left unchanged.
+	 * @param buffer ByteBuffer to read
+	 * @param chunkname Name to apply to the loaded chunk
+	 * @return {@link Prototype} that was loaded, or null if the first 4 bytes were not the lua signature.
+	 * @throws IOException if the buffer ends before the chunk does
+	 */
+	public static Prototype undump(ByteBuffer buffer, String chunkname) throws IOException {
+		final ByteBuffer b = buffer.slice();
+		if ( b.remaining() < LoadState.LUA_SIGNATURE.length )
+			return null;
+		for ( int i=0; i<LoadState.LUA_SIGNATURE.length; ++i )
+			if ( b.get() != LoadState.LUA_SIGNATURE[i] )
+				return null;
+		return new BufferLoadState(b).load(chunkname);
+	}
+
+	/**
+	 * Memory-map a file channel from its current position and load it as a lua binary chunk.
+	 * <p>
+	 * The mapping remains valid after the channel is closed.
+	 * @param channel FileChannel to map
+	 * @param chunkname Name to apply to the loaded chunk
+	 * @return {@link Prototype} that was loaded, or null if the first 4 bytes were not the lua signature.
+	 * @throws IOException if an IOException occurs
+	 */
+	public static Prototype undump(FileChannel channel, String chunkname) throws IOException {
+		final long position = channel.position();
+		return undump(channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position), chunkname);
+	}
+
+	/** Private constructor to create a load state positioned just after the signature */
+	private BufferLoadState(ByteBuffer b) {
+		this.b = b;
+		if ( b.hasArray() ) {
+			this.array = b.array();
+			this.arrayOffset = b.arrayOffset();
+		} else {
+			this.array = null;
+			this.arrayOffset = 0;
+		}
+	}
+
+	/** Private constructor for an independent cursor over the same chunk, used to load debug info later */
+	private BufferLoadState(BufferLoadState s, int position) {
+		this.b = s.b.duplicate().order(s.b.order());
+		this.b.position(position);
+		this.array = s.array;
+		this.arrayOffset = s.arrayOffset;
+		this.luacSizeofSizeT = s.luacSizeofSizeT;
+		this.luacNumberFormat = s.luacNumberFormat;
+	}
+
+	private Prototype load(String chunkname) throws IOException {
+		try {
+			loadHeader();
+			switch ( luacNumberFormat ) {
+			case LoadState.NUMBER_FORMAT_FLOATS_OR_DOUBLES:
+			case LoadState.NUMBER_FORMAT_INTS_ONLY:
+			case LoadState.NUMBER_FORMAT_NUM_PATCH_INT32:
+				break;
+			default:
+				throw new LuaError("unsupported int size");
+			}
+			return loadFunction();
+		} catch ( BufferUnderflowException | IllegalArgumentException e ) {
+			throw new EOFException("truncated binary chunk "+LoadState.getSourceName(chunkname));
+		}
+	}
+
+	/**
+	 * Load the lua chunk header values, and set the byte order of the buffer to match.
+	 */
+	private void loadHeader() {
+		b.get(); // luacVersion
+		b.get(); // luacFormat
+		final boolean littleEndian = (0 != b.get());
+		b.get(); // luacSizeofInt
+		luacSizeofSizeT = b.get();
+		b.get(); // luacSizeofInstruction
+		b.get(); // luacSizeofLuaNumber
+		luacNumberFormat = b.get();
+		for (int i=0; i < LoadState.LUAC_TAIL.length; ++i)
+			if (b.get() != LoadState.LUAC_TAIL[i])
+				throw new LuaError("Unexpeted byte in luac tail of header, index="+i);
+		b.order(littleEndian? ByteOrder.LITTLE_ENDIAN: ByteOrder.BIG_ENDIAN);
+	}
+
+	/** Load an array of int values from the buffer with a single bulk transfer */
+	private int[] loadIntArray() {
+		final int n = b.getInt();
+		if ( n == 0 )
+			return NOINTS;
+		final int[] array = new int[n];
+		b.asIntBuffer().get(array);
+		b.position(b.position() + (n << 2));
+		return array;
+	}
+
+	private int loadSize() {
+		return luacSizeofSizeT == 8? (int) b.getLong(): b.getInt();
+	}
+
+	/** Load a lua string, sharing the backing array when there is one */
+	private LuaString loadString() {
+		final int size = loadSize();
+		if ( size == 0 )
+			return null;
+		final int position = b.position();
+		b.position(position + size);
+		if ( array != null )
+			return LuaString.valueUsing(array, arrayOffset + position, size - 1);
+		final byte[] bytes = new byte[size - 1];
+		b.get(position, bytes);
+		return LuaString.valueUsing(bytes);
+	}
+
+	/** Skip over a lua string without decoding it */
+	private void skipString() {
+		final int size = loadSize();
+		b.position(b.position() + size);
+	}
+
+	private LuaValue loadNumber() {
+		if ( luacNumberFormat == LoadState.NUMBER_FORMAT_INTS_ONLY )
+			return LuaInteger.valueOf( b.getInt() );
+		return LoadState.longBitsToLuaNumber( b.getLong() );
+	}
+
+	private void loadConstants(Prototype f) {
+		int n = b.getInt();
+		LuaValue[] values = n>0? new LuaValue[n]: NOVALUES;
+		for ( int i=0; i<n; i++ )
+			values[i] = loadConstant();
+		f.k = values;
+
+		n = b.getInt();
+		Prototype[] protos = n>0? new Prototype[n]: NOPROTOS;
+		for ( int i=0; i<n; i++ )
+			protos[i] = loadFunction();
+		f.p = protos;
+	}
+
+	private LuaValue loadConstant() {
+		return loadConstant(b.get(), null);
+	}
+
+	private LuaValue loadConstant(int type, LuaString[] strings) {
+		return switch (type) {
+			case LoadState.LUA_TNIL -> LuaValue.NIL;
+			case LoadState.LUA_TBOOLEAN -> (0 != b.get() ? LuaValue.TRUE : LuaValue.FALSE);
+			case LoadState.LUA_TINT -> LuaInteger.valueOf(b.getInt());
+			case LoadState.LUA_TNUMBER -> loadNumber();
+			case LoadState.LUA_TSTRING -> strings != null ? strings[b.getInt()] : loadString();
+			case LoadState.LUA_TTABLE -> {
+				if ( strings == null ) {
+					strings = new LuaString[b.getInt()];
+					for ( int i=0; i<strings.length; i++ )
+						strings[i] = loadString();
+				}
+				LuaValue[] array = new LuaValue[b.getInt()];
+				LuaValue[] keys = new LuaValue[b.getInt()];
+				LuaValue[] values = new LuaValue[keys.length];
+				for ( int i=0; i<array.length; i++ )
+					array[i] = loadConstant(b.get(), strings);
+				for ( int i=0; i<keys.length; i++ ) {
+					keys[i] = loadConstant(b.get(), strings);
+					values[i] = loadConstant(b.get(), strings);
+				}
+				yield new ConstantTable(array, keys, values);
+			}
+			default -> throw new IllegalStateException("bad constant");
+		};
+	}
+
+	private void loadUpvalues(Prototype f) {
+		int n = b.getInt();
+		f.upvalues = n>0? new Upvaldesc[n]: NOUPVALDESCS;
+		for (int i=0; i<n; i++) {
+			boolean instack = b.get() != 0;
+			int idx = ((int) b.get()) & 0xff;
+			f.upvalues[i] = new Upvaldesc(null, instack, idx);
+		}
+	}
+
+	/**
+	 * Load the source name, then skip the rest of the debug info,
+	 * leaving it to be decoded by {@link #loadDebug(Prototype)} when first needed.
+	 */
+	private void skipDebug(Prototype f) {
+		f.source = loadString();
+		f.lineinfo = NOINTS;
+		f.locvars = NOLOCVARS;
+		final int start = b.position();
+		int nlineinfo = b.getInt();
+		b.position(b.position() + (nlineinfo << 2));
+		int nlocvars = b.getInt();
+		for ( int i=0; i<nlocvars; i++ ) {
+			skipString();
+			b.position(b.position() + 8);
+		}
+		int nupvalues = b.getInt();
+		for ( int i=0; i<nupvalues; i++ )
+			skipString();
+		if ( nlineinfo > 0 || nlocvars > 0 || nupvalues > 0 )
+			f.setlazydebug(new BufferLoadState(this, start));
+	}
+
+	/**
+	 * Decode the line info, local variables and upvalue names skipped by {@link #skipDebug(Prototype)}.
+	 * @param f the function Prototype, whose lazy debug state is this
+	 */
+	void loadDebug(Prototype f) {
+		int[] lineinfo = loadIntArray();
+		int n = b.getInt();
+		LocVars[] locvars = n>0? new LocVars[n]: NOLOCVARS;
+		for ( int i=0; i<n; i++ ) {
+			LuaString varname = loadString();
+			int startpc = b.getInt();
+			int endpc = b.getInt();
+			locvars[i] = new LocVars(varname, startpc, endpc);
+		}
+		n = b.getInt();
+		for ( int i=0; i<n; i++ )
+			f.upvalues[i].name = loadString();
+		f.locvars = locvars;
+		f.lineinfo = lineinfo;
+	}
+
+	private Prototype loadFunction() {
+		Prototype f = new Prototype();
+		f.linedefined = b.getInt();
+		f.lastlinedefined = b.getInt();
+		f.numparams = b.get() & 0xff;
+		f.is_vararg = b.get() & 0xff;
+		f.maxstacksize = b.get() & 0xff;
+		f.code = loadIntArray();
+		loadConstants(f);
+		loadUpvalues(f);
+		skipDebug(f);
+		return f;
+	}
+
+	private static final class GlobalsUndumper implements Globals.Undumper {
+		public Prototype undump(InputStream stream, String chunkname)
+				throws IOException {
+			for ( int i=0; i<LoadState.LUA_SIGNATURE.length; ++i )
+				if ( stream.read() != LoadState.LUA_SIGNATURE[i] )
+					return null;
+			return new BufferLoadState(ByteBuffer.wrap(stream.readAllBytes())).load(chunkname);
+		}
+	}
+}
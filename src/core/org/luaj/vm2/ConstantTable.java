@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+import org.luaj.vm2.lib.ZeroArgFunction;
+
+/**
+ * Compact form of a table constructor whose items are all constants, such as the
+ * tables of a data file, stored in {@link Prototype#k}.
+ * <p>
+ * When {@link org.luaj.vm2.compiler.LuaC} is installed with optimization enabled,
+ * a constructor such as {@code { 1, 2, x = "a", y = { true } }} is compiled into
+ * {@code LOADK R, K(template); CALL R 1 2} instead of {@code OP_NEWTABLE} followed by
+ * one load per item and {@code OP_SETLIST} and {@code OP_SETTABLE} instructions.
+ * Each call returns a new {@link LuaTable}, presized for its items,
+ * with nested templates instantiated in turn, so that tables are never shared
+ * between evaluations of the constructor.
+ * <p>
+ * Templates are written to binary chunks by {@link org.luaj.vm2.compiler.DumpState}
+ * as constants of type {@link LoadState#LUA_TTABLE}.
+ *
+ * @see org.luaj.vm2.compiler.LuaC#install(Globals, boolean)
+ */
+public final class ConstantTable extends ZeroArgFunction {
+
+    /**
+     * values of the array part, in order, which may be {@link LuaValue#NIL}
+     */
+    public final LuaValue[] array;
+    /**
+     * keys of the hash part, in source order
+     */
+    public final LuaValue[] keys;
+    /**
+     * values of the hash part, for each of {@link #keys}
+     */
+    public final LuaValue[] values;
+
+    /* array values with nil as null, as stored by LuaTable */
+    private final LuaValue[] slots;
+    /* true if any value is itself a template */
+    private final boolean nested;
+
+    /**
+     * Construct a template for a table constructor.
+     *
+     * @param array  values of the array part, in order
+     * @param keys   keys of the hash part, which must not be nil or NaN
+     * @param values values for each of the keys
+     */
+    public ConstantTable(LuaValue[] array, LuaValue[] keys, LuaValue[] values) {
+        this.array = array;
+        this.keys = keys;
+        this.values = values;
+        this.slots = new LuaValue[array.length];
+        boolean nested = false;
+        for (int i = 0; i < array.length; i++) {
+            slots[i] = array[i].isnil() ? null : array[i];
+            nested |= array[i] instanceof ConstantTable;
+        }
+        for (LuaValue v : values)
+            nested |= v instanceof ConstantTable;
+        this.nested = nested;
+    }
+
+    /**
+     * Create a new table holding the items of this template.
+     *
+     * @return a new {@link LuaTable}
+     */
+    public LuaValue call() {
+        LuaTable t = new LuaTable(slots.length, keys.length);
+        System.arraycopy(slots, 0, t.array, 0, slots.length);
+        if (nested)
+            for (int i = 0; i < slots.length; i++)
+                if (slots[i] instanceof ConstantTable c)
+                    t.array[i] = c.call();
+        for (int i = 0; i < keys.length; i++) {
+            LuaValue v = values[i];
+            t.rawset(keys[i], v instanceof ConstantTable c ? c.call() : v);
+        }
+        return t;
+    }
+
+    public String tojstring() {
+        return "table constant: " + array.length + " array, " + keys.length + " hash";
+    }
+}
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.util.Collection;
 
 /**
  * Global environment used by luaj.  Contains global variables referenced by executing lua.
@@ -96,6 +97,9 @@ import java.io.Reader;
  * which will be logically distinct and not interfere with each other, but share certain
  * static immutable resources such as class data and string data.
  * <p>
+ * When creating the state takes long, for example because many modules are loaded,
+ * a {@link GlobalsPool} can create it once as a template and hand out copies made by {@link #fork(Globals)}.
+ * <p>
  *
  * @see org.luaj.vm2.lib.jse.JsePlatform
  * @see LuaValue
@@ -166,6 +170,12 @@ public class Globals extends LuaTable {
      */
     public Undumper undumper;
 
+    /**
+     * The pool this globals was borrowed from, if any, and how to reset it to the template state.
+     */
+    GlobalsPool pool;
+    GlobalsCopier copier;
+
     /**
      * Check that this object is a Globals object, and return it, otherwise throw an error.
      */
@@ -197,7 +207,7 @@ public class Globals extends LuaTable {
      * @throws LuaError if the script could not be compiled.
      */
     public LuaValue load(String script, String chunkname) {
-        return load(new StrReader(script), chunkname);
+        return load(LuaString.valueOf(script).toInputStream(), chunkname, "t", this);
     }
 
     /**
@@ -208,7 +218,7 @@ public class Globals extends LuaTable {
      * @throws LuaError if the script could not be compiled.
      */
     public LuaValue load(String script) {
-        return load(new StrReader(script), script);
+        return load(LuaString.valueOf(script).toInputStream(), script, "t", this);
     }
 
     /**
@@ -222,7 +232,7 @@ public class Globals extends LuaTable {
      * @throws LuaError if the script could not be compiled.
      */
     public LuaValue load(String script, String chunkname, LuaTable environment) {
-        return load(new StrReader(script), chunkname, environment);
+        return load(LuaString.valueOf(script).toInputStream(), chunkname, "t", environment);
     }
 
     /**
@@ -288,7 +298,7 @@ public class Globals extends LuaTable {
             if (undumper == null)
                 error("No undumper.");
             if (!is.markSupported())
-                is = new BufferedStream(is);
+                is = new BufferedStream(8192, is);
             is.mark(4);
             final Prototype p = undumper.undump(is, chunkname);
             if (p != null)
@@ -322,6 +332,42 @@ public class Globals extends LuaTable {
         return compiler.compile(stream, chunkname);
     }
 
+    /**
+     * Locate, read and compile a set of modules in parallel, and register them in
+     * {@code package.preload} so that a later {@code require} only instantiates them.
+     *
+     * @param modnames names of the modules to preload, as they would be passed to {@code require}
+     * @return the number of modules that were preloaded
+     * @throws LuaError if the package library has not been loaded.
+     * @see PackageLib#preload(Collection, java.util.concurrent.ForkJoinPool)
+     */
+    public int preload(Collection<String> modnames) {
+        if (package_ == null)
+            error("No package library.");
+        return package_.preload(modnames);
+    }
+
+    /**
+     * Copy the state of this globals into another globals with the same libraries loaded,
+     * such as one from the same factory method, typically to give each request an isolated
+     * copy of an interpreter state that took a long time to set up.
+     * <p>
+     * Compiled {@link Prototype}s, strings, numbers, userdata and java functions are shared,
+     * while tables and lua functions are copied, so that changes in one globals
+     * do not affect the other.
+     * Library tables and functions keep their identity in the target, and are paired
+     * with those of this globals by their path, as in {@code string.format}.
+     *
+     * @param base a globals with the same libraries loaded as this, and no other state
+     * @return base, with the state of this globals
+     * @throws LuaError if this globals holds a coroutine
+     * @see GlobalsPool
+     */
+    public Globals fork(Globals base) {
+        new GlobalsCopier(this, base).copy();
+        return base;
+    }
+
     /**
      * Function which yields the current thread.
      *
@@ -365,35 +411,6 @@ public class Globals extends LuaTable {
         Prototype undump(InputStream stream, String chunkname) throws IOException;
     }
 
-    /**
-     * Reader implementation to read chars from a String in JME or JSE.
-     */
-    static class StrReader extends Reader {
-        final String s;
-        final int n;
-        int i = 0;
-
-        StrReader(String s) {
-            this.s = s;
-            n = s.length();
-        }
-
-        public void close() throws IOException {
-            i = n;
-        }
-
-        public int read() throws IOException {
-            return i < n ? s.charAt(i++) : -1;
-        }
-
-        public int read(char[] cbuf, int off, int len) throws IOException {
-            int j = 0;
-            for (; j < len && i < n; ++j, ++i)
-                cbuf[off + j] = s.charAt(i);
-            return j > 0 || len == 0 ? j : -1;
-        }
-    }
-
     /* Abstract base class to provide basic buffered input storage and delivery.
      * This class may be moved to its own package in the future.
      */
@@ -442,11 +459,11 @@ public class Globals extends LuaTable {
      * This class may be moved to its own package in the future.
      */
     static class UTF8Stream extends AbstractBufferedStream {
-        private final char[] c = new char[32];
+        private final char[] c = new char[2048];
         private final Reader r;
 
         UTF8Stream(Reader r) {
-            super(96);
+            super(6144);
             this.r = r;
         }
 
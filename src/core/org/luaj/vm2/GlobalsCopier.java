@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies the state of a template {@link Globals} into another {@link Globals}
+ * with the same libraries loaded, for {@link Globals#fork(Globals)} and {@link GlobalsPool}.
+ * <p>
+ * Library tables and functions of the template are paired with those at the same path
+ * in the target, such as {@code string.format} or {@code package.loaded}, since library
+ * functions are bound to the globals they were loaded into.
+ * Paired tables are updated in place so that they keep their identity in the target,
+ * and paired functions are replaced by their counterparts.
+ * Other tables are copied, lua functions are instantiated again from the same
+ * {@link Prototype} with copies of their upvalues, and upvalues shared between
+ * closures stay shared.
+ * Strings, numbers, userdata and other functions are shared.
+ * <p>
+ * The pairing is computed once, so that the same target can be reset to the template
+ * state again by another call to {@link #copy()}.
+ * <p>
+ * This class is not used directly.
+ */
+final class GlobalsCopier {
+
+    private final Globals template;
+    private final Globals target;
+
+    /**
+     * Template library tables and functions by their counterpart in the target.
+     */
+    private final Map<LuaValue, LuaValue> paired = new IdentityHashMap<>();
+
+    /**
+     * Paired tables, in the order they were found.
+     */
+    private final List<LuaTable> tables = new ArrayList<>();
+
+    private Map<LuaValue, LuaValue> seen;
+    private Map<UpValue, UpValue> upvalues;
+
+    GlobalsCopier(Globals template, Globals target) {
+        this.template = template;
+        this.target = target;
+        pair(template, target);
+    }
+
+    private void pair(LuaTable t, LuaTable u) {
+        if (paired.containsKey(t))
+            return;
+        paired.put(t, u);
+        tables.add(t);
+        for (Varargs e = t.next(LuaValue.NIL); !e.arg1().isnil(); e = t.next(e.arg1())) {
+            LuaValue k = e.arg1(), v = e.arg(2);
+            if (k.istable() || k.isfunction())
+                continue;
+            LuaValue w = u.rawget(k);
+            if (v instanceof LuaTable && w instanceof LuaTable)
+                pair((LuaTable) v, (LuaTable) w);
+            else if (v.isfunction() && !(v instanceof LuaClosure) && w.isfunction())
+                paired.putIfAbsent(v, w);
+        }
+    }
+
+    /**
+     * Make the state of the target a copy of the current state of the template.
+     *
+     * @throws LuaError if the template holds a coroutine
+     */
+    void copy() {
+        seen = new IdentityHashMap<>(paired);
+        upvalues = new IdentityHashMap<>();
+        try {
+            for (LuaTable t : tables)
+                sync(t, (LuaTable) paired.get(t));
+        } finally {
+            seen = null;
+            upvalues = null;
+        }
+        target.STDIN = template.STDIN;
+        target.STDOUT = template.STDOUT;
+        target.STDERR = template.STDERR;
+        if (!(template.finder instanceof LuaValue))
+            target.finder = template.finder;
+    }
+
+    /* replace the entries and metatable of a paired table with copies of those in the template */
+    private void sync(LuaTable t, LuaTable u) {
+        List<LuaValue> extra = new ArrayList<>();
+        for (Varargs e = u.next(LuaValue.NIL); !e.arg1().isnil(); e = u.next(e.arg1())) {
+            LuaValue k = e.arg1();
+            if (k.istable() || k.isfunction() || k.isuserdata() || t.rawget(k).isnil())
+                extra.add(k);
+        }
+        for (LuaValue k : extra)
+            u.rawset(k, LuaValue.NIL);
+        for (Varargs e = t.next(LuaValue.NIL); !e.arg1().isnil(); e = t.next(e.arg1())) {
+            LuaValue k = copy(e.arg1()), v = copy(e.arg(2));
+            if (u.rawget(k) != v)
+                u.rawset(k, v);
+        }
+        LuaValue mt = t.getmetatable();
+        if (mt != null || u.getmetatable() != null)
+            u.setmetatable(mt != null ? copy(mt) : null);
+    }
+
+    private LuaValue copy(LuaValue v) {
+        switch (v.type()) {
+            case LuaValue.TTABLE: {
+                LuaValue c = seen.get(v);
+                if (c != null)
+                    return c;
+                LuaTable t = (LuaTable) v, u = new LuaTable();
+                seen.put(t, u);
+                for (Varargs e = t.next(LuaValue.NIL); !e.arg1().isnil(); e = t.next(e.arg1()))
+                    u.rawset(copy(e.arg1()), copy(e.arg(2)));
+                LuaValue mt = t.getmetatable();
+                if (mt != null)
+                    u.setmetatable(copy(mt));
+                return u;
+            }
+            case LuaValue.TFUNCTION: {
+                LuaValue c = seen.get(v);
+                if (c != null || !(v instanceof LuaClosure))
+                    return c != null ? c : v;
+                LuaClosure f = (LuaClosure) v, g = new LuaClosure(f.p, target);
+                seen.put(f, g);
+                for (int i = 0; i < f.upValues.length; i++)
+                    g.upValues[i] = upvalue(f.upValues[i]);
+                return g;
+            }
+            case LuaValue.TTHREAD:
+                throw new LuaError("cannot fork globals holding a coroutine");
+            default:
+                return v;
+        }
+    }
+
+    private UpValue upvalue(UpValue u) {
+        if (u == null)
+            return new UpValue(new LuaValue[] {LuaValue.NIL}, 0);
+        UpValue c = upvalues.get(u);
+        if (c == null) {
+            c = new UpValue(new LuaValue[1], 0);
+            upvalues.put(u, c);
+            c.setValue(copy(u.getValue()));
+        }
+        return c;
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Pool of isolated {@link Globals} which all start from the state of one template.
+ * <p>
+ * The template is created once by the factory and then set up, for example by loading
+ * modules and defining globals.
+ * Each {@link #borrow()} returns a globals with a copy of the template state,
+ * made by {@link Globals#fork(Globals)}, so that the setup cost is paid once and
+ * compiled {@link Prototype}s are shared.
+ * When a globals is returned by {@link #release(Globals)} it is reset to the template
+ * state, reusing its libraries, and handed out again by a later {@link #borrow()}.
+ * <p>
+ * Only the state visible from lua is reset: the tables and functions reachable from the
+ * globals, and the standard streams.
+ * State the libraries keep in java is carried over to the next borrower, such as the default
+ * input and output files set by {@code io.input} and {@code io.output}, and the generator
+ * seeded by {@code math.randomseed}.
+ * Code that changes it should restore it before the globals is released.
+ * <p>
+ * The pool is thread safe, but each borrowed globals must only be used by one thread at a time,
+ * and the template must not be changed after the pool is created.
+ * <pre> {@code
+ * GlobalsPool pool = new GlobalsPool(JsePlatform::standardGlobals,
+ *     g -> g.get("require").call("handlers"));
+ * Globals globals = pool.borrow();
+ * try {
+ *     globals.get("handle").call(request);
+ * } finally {
+ *     pool.release(globals);
+ * }
+ * } </pre>
+ *
+ * @see Globals#fork(Globals)
+ */
+public class GlobalsPool {
+
+    private final Supplier<Globals> factory;
+    private final Globals template;
+    private final ConcurrentLinkedQueue<Globals> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Construct a pool, creating and setting up its template.
+     *
+     * @param factory creates a globals with the libraries loaded, such as
+     *                {@code JsePlatform::standardGlobals}
+     * @param setup   sets up the template state, such as by loading modules
+     */
+    public GlobalsPool(Supplier<Globals> factory, Consumer<Globals> setup) {
+        this.factory = factory;
+        this.template = factory.get();
+        setup.accept(template);
+    }
+
+    /**
+     * Get a globals with the template state, reusing a released one when there is any.
+     *
+     * @return a globals to be used by one thread, and then released
+     */
+    public Globals borrow() {
+        Globals g = idle.poll();
+        if (g != null)
+            return g;
+        g = factory.get();
+        GlobalsCopier c = new GlobalsCopier(template, g);
+        c.copy();
+        g.pool = this;
+        g.copier = c;
+        return g;
+    }
+
+    /**
+     * Return a globals to the pool, resetting its lua visible state to the template state.
+     * The globals must not be used after it is released.
+     *
+     * @param globals a globals returned by {@link #borrow()}
+     * @throws IllegalArgumentException if the globals was not borrowed from this pool
+     */
+    public void release(Globals globals) {
+        if (globals.pool != this)
+            throw new IllegalArgumentException("not borrowed from this pool");
+        globals.copier.copy();
+        idle.offer(globals);
+    }
+
+    /**
+     * The number of released globals that are ready to be borrowed again.
+     */
+    public int idle() {
+        return idle.size();
+    }
+}
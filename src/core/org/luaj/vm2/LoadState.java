@@ -270,16 +270,8 @@ public class LoadState {
 	void loadConstants(Prototype f) throws IOException {
 		int n = loadInt();
 		LuaValue[] values = n>0? new LuaValue[n]: NOVALUES;
-		for ( int i=0; i<n; i++ ) {
-			switch (is.readByte()) {
-				case LUA_TNIL -> values[i] = LuaValue.NIL;
-				case LUA_TBOOLEAN -> values[i] = (0 != is.readUnsignedByte() ? LuaValue.TRUE : LuaValue.FALSE);
-				case LUA_TINT -> values[i] = LuaInteger.valueOf(loadInt());
-				case LUA_TNUMBER -> values[i] = loadNumber();
-				case LUA_TSTRING -> values[i] = loadString();
-				default -> throw new IllegalStateException("bad constant");
-			}
-		}
+		for ( int i=0; i<n; i++ )
+			values[i] = loadConstant();
 		f.k = values;
 		
 		n = loadInt();
@@ -289,6 +281,49 @@ public class LoadState {
 		f.p = protos;
 	}
 
+	/**
+	 * Load a constant from a binary chunk
+	 * @return the {@link LuaValue} loaded
+	 * @throws IOException if an i/o exception occurs
+	 */
+	LuaValue loadConstant() throws IOException {
+		return loadConstant(is.readByte(), null);
+	}
+
+	/**
+	 * Load a constant of a given type from a binary chunk
+	 * @param type the type of the constant
+	 * @param strings the strings of the enclosing constant table, or null
+	 * @return the {@link LuaValue} loaded
+	 * @throws IOException if an i/o exception occurs
+	 */
+	LuaValue loadConstant(int type, LuaString[] strings) throws IOException {
+		return switch (type) {
+			case LUA_TNIL -> LuaValue.NIL;
+			case LUA_TBOOLEAN -> (0 != is.readUnsignedByte() ? LuaValue.TRUE : LuaValue.FALSE);
+			case LUA_TINT -> LuaInteger.valueOf(loadInt());
+			case LUA_TNUMBER -> loadNumber();
+			case LUA_TSTRING -> strings != null ? strings[loadInt()] : loadString();
+			case LUA_TTABLE -> {
+				if ( strings == null ) {
+					strings = new LuaString[loadInt()];
+					for ( int i=0; i<strings.length; i++ )
+						strings[i] = loadString();
+				}
+				LuaValue[] array = new LuaValue[loadInt()];
+				LuaValue[] keys = new LuaValue[loadInt()];
+				LuaValue[] values = new LuaValue[keys.length];
+				for ( int i=0; i<array.length; i++ )
+					array[i] = loadConstant(is.readByte(), strings);
+				for ( int i=0; i<keys.length; i++ ) {
+					keys[i] = loadConstant(is.readByte(), strings);
+					values[i] = loadConstant(is.readByte(), strings);
+				}
+				yield new ConstantTable(array, keys, values);
+			}
+			default -> throw new IllegalStateException("bad constant");
+		};
+	}
 
 	void loadUpvalues(Prototype f) throws IOException {
 		int n = loadInt();
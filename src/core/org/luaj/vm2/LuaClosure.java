@@ -207,18 +207,25 @@ public class LuaClosure extends LuaFunction {
     protected Varargs execute(LuaValue[] stack, Varargs varargs) {
         // loop through instructions
         int i, a, b, c, pc = 0, top = 0;
-        LuaValue o;
+        LuaValue o, r;
         Varargs v = NONE;
-        int[] code = p.code;
         LuaValue[] k = p.k;
 
         // upvalues are only possible when closures create closures
         // TODO: use linked list.
         UpValue[] openups = p.p.length > 0 ? new UpValue[stack.length] : null;
 
-        // allow for debug hooks
-        if (globals != null && globals.debuglib != null)
+        // allow for debug hooks, which need to see every instruction
+        final int[] code;
+        final boolean quicken;
+        if (globals != null && globals.debuglib != null) {
+            code = p.code;
+            quicken = false;
             globals.debuglib.onCall(this, varargs, stack);
+        } else {
+            code = p.superinstructions();
+            quicken = true;
+        }
 
         // process instructions
         try {
@@ -283,16 +290,32 @@ public class LuaClosure extends LuaFunction {
                         stack[a] = o.get((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
                     }
                     case Lua.OP_ADD -> { /*	A B C	R(A):= RK(B) + RK(C)				*/
-                        stack[a] = ((b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b]).add((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        stack[a] = o.add(r);
+                        if (quicken)
+                            code[pc] = Superinstructions.quicken(i, o, r);
                     }
                     case Lua.OP_SUB -> { /*	A B C	R(A):= RK(B) - RK(C)				*/
-                        stack[a] = ((b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b]).sub((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        stack[a] = o.sub(r);
+                        if (quicken)
+                            code[pc] = Superinstructions.quicken(i, o, r);
                     }
                     case Lua.OP_MUL -> { /*	A B C	R(A):= RK(B) * RK(C)				*/
-                        stack[a] = ((b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b]).mul((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        stack[a] = o.mul(r);
+                        if (quicken)
+                            code[pc] = Superinstructions.quicken(i, o, r);
                     }
                     case Lua.OP_DIV -> { /*	A B C	R(A):= RK(B) / RK(C)				*/
-                        stack[a] = ((b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b]).div((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        stack[a] = o.div(r);
+                        if (quicken)
+                            code[pc] = Superinstructions.quicken(i, o, r);
                     }
                     case Lua.OP_MOD -> { /*	A B C	R(A):= RK(B) % RK(C)				*/
                         stack[a] = ((b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b]).mod((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
@@ -442,6 +465,8 @@ public class LuaClosure extends LuaFunction {
                         {
                             LuaValue limit = stack[a + 1];
                             LuaValue step = stack[a + 2];
+                            if (quicken)
+                                code[pc] = Superinstructions.quicken(i, stack[a], limit, step);
                             LuaValue idx = stack[a].add(step);
                             if (step.gt_b(0) ? idx.lteq_b(limit) : idx.gteq_b(limit)) {
                                 stack[a] = idx;
@@ -519,6 +544,233 @@ public class LuaClosure extends LuaFunction {
                                 stack[a + j - 1] = varargs.arg(j);
                         }
                     }
+                    case Superinstructions.OP_GETTABUP_GETTABLE -> {
+                        stack[a] = upValues[i >>> 23].getValue().get((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                        i = code[++pc];
+                        stack[(i >> 6) & 0xff] = stack[i >>> 23].get((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                    }
+                    case Superinstructions.OP_SELF_CALL -> {
+                        stack[a + 1] = (o = stack[i >>> 23]);
+                        stack[a] = o.get((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                        i = code[++pc];
+                        switch (i & (Lua.MASK_B | Lua.MASK_C)) {
+                            case (2 << Lua.POS_B) | (1 << Lua.POS_C) -> stack[a].call(stack[a + 1]);
+                            case (3 << Lua.POS_B) | (1 << Lua.POS_C) -> stack[a].call(stack[a + 1], stack[a + 2]);
+                            case (4 << Lua.POS_B) | (1 << Lua.POS_C) -> stack[a].call(stack[a + 1], stack[a + 2], stack[a + 3]);
+                            case (2 << Lua.POS_B) | (2 << Lua.POS_C) -> stack[a] = stack[a].call(stack[a + 1]);
+                            case (3 << Lua.POS_B) | (2 << Lua.POS_C) -> stack[a] = stack[a].call(stack[a + 1], stack[a + 2]);
+                            case (4 << Lua.POS_B) | (2 << Lua.POS_C) -> stack[a] = stack[a].call(stack[a + 1], stack[a + 2], stack[a + 3]);
+                            default -> throw new IllegalArgumentException("Illegal fused call: " + i);
+                        }
+                    }
+                    case Superinstructions.OP_EQ_JMP -> {
+                        if (((b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b]).eq_b((c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]) == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_LT_JMP -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (quicken)
+                            code[pc] = Superinstructions.quicken(i, o, r);
+                        if (o.lt_b(r) == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_LE_JMP -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (quicken)
+                            code[pc] = Superinstructions.quicken(i, o, r);
+                        if (o.lteq_b(r) == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_TEST_JMP -> {
+                        if (stack[a].toboolean() == ((i & (0x1ff << 14)) == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_GETTABLE_SETTABLE -> {
+                        stack[a] = stack[i >>> 23].get(k[(i >> 14) & 0x0ff]);
+                        i = code[++pc];
+                        stack[(i >> 6) & 0xff].set(k[(i >>> 23) & 0x0ff], (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c]);
+                    }
+                    case Superinstructions.OP_ADD_II -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (o instanceof LuaInteger x && r instanceof LuaInteger y)
+                            stack[a] = LuaInteger.valueOf((long) x.v + y.v);
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_ADD;
+                            stack[a] = o.add(r);
+                        }
+                    }
+                    case Superinstructions.OP_ADD_DD -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (Superinstructions.isfloat(o, r))
+                            stack[a] = LuaDouble.valueOf(o.todouble() + r.todouble());
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_ADD;
+                            stack[a] = o.add(r);
+                        }
+                    }
+                    case Superinstructions.OP_SUB_II -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (o instanceof LuaInteger x && r instanceof LuaInteger y)
+                            stack[a] = LuaInteger.valueOf((long) x.v - y.v);
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_SUB;
+                            stack[a] = o.sub(r);
+                        }
+                    }
+                    case Superinstructions.OP_SUB_DD -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (Superinstructions.isfloat(o, r))
+                            stack[a] = LuaDouble.valueOf(o.todouble() - r.todouble());
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_SUB;
+                            stack[a] = o.sub(r);
+                        }
+                    }
+                    case Superinstructions.OP_MUL_II -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (o instanceof LuaInteger x && r instanceof LuaInteger y)
+                            stack[a] = LuaInteger.valueOf((long) x.v * y.v);
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_MUL;
+                            stack[a] = o.mul(r);
+                        }
+                    }
+                    case Superinstructions.OP_MUL_DD -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (Superinstructions.isfloat(o, r))
+                            stack[a] = LuaDouble.valueOf(o.todouble() * r.todouble());
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_MUL;
+                            stack[a] = o.mul(r);
+                        }
+                    }
+                    case Superinstructions.OP_DIV_DD -> {
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (Superinstructions.isnumber(o) && Superinstructions.isnumber(r))
+                            stack[a] = LuaDouble.ddiv(o.todouble(), r.todouble());
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_DIV;
+                            stack[a] = o.div(r);
+                        }
+                    }
+                    case Superinstructions.OP_LT_JMP_II -> {
+                        final boolean t;
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (o instanceof LuaInteger x && r instanceof LuaInteger y)
+                            t = x.v < y.v;
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Superinstructions.OP_LT_JMP;
+                            t = o.lt_b(r);
+                        }
+                        if (t == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_LT_JMP_DD -> {
+                        final boolean t;
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (Superinstructions.isnumber(o) && Superinstructions.isnumber(r))
+                            t = o.todouble() < r.todouble();
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Superinstructions.OP_LT_JMP;
+                            t = o.lt_b(r);
+                        }
+                        if (t == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_LE_JMP_II -> {
+                        final boolean t;
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (o instanceof LuaInteger x && r instanceof LuaInteger y)
+                            t = x.v <= y.v;
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Superinstructions.OP_LE_JMP;
+                            t = o.lteq_b(r);
+                        }
+                        if (t == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_LE_JMP_DD -> {
+                        final boolean t;
+                        o = (b = i >>> 23) > 0xff ? k[b & 0x0ff] : stack[b];
+                        r = (c = (i >> 14) & 0x1ff) > 0xff ? k[c & 0x0ff] : stack[c];
+                        if (Superinstructions.isnumber(o) && Superinstructions.isnumber(r))
+                            t = o.todouble() <= r.todouble();
+                        else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Superinstructions.OP_LE_JMP;
+                            t = o.lteq_b(r);
+                        }
+                        if (t == (a == 0))
+                            ++pc;
+                        else {
+                            i = code[++pc];
+                            pc += (i >>> 14) - 0x1ffff;
+                        }
+                    }
+                    case Superinstructions.OP_FORLOOP_I -> {
+                        if (stack[a] instanceof LuaInteger x && stack[a + 1] instanceof LuaInteger y && stack[a + 2] instanceof LuaInteger z) {
+                            final long n = (long) x.v + z.v;
+                            if (z.v > 0 ? n <= y.v : n >= y.v) {
+                                stack[a] = stack[a + 3] = LuaInteger.valueOf((int) n);
+                                pc += (i >>> 14) - 0x1ffff;
+                            }
+                        } else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_FORLOOP;
+                            --pc; /* execute the generic FORLOOP */
+                        }
+                    }
+                    case Superinstructions.OP_FORLOOP_D -> {
+                        if (Superinstructions.isnumber(o = stack[a]) && Superinstructions.isnumber(stack[a + 1]) && Superinstructions.isnumber(stack[a + 2])) {
+                            final double step = stack[a + 2].todouble();
+                            final double n = o.todouble() + step;
+                            if (step > 0 ? n <= stack[a + 1].todouble() : n >= stack[a + 1].todouble()) {
+                                stack[a] = stack[a + 3] = LuaDouble.valueOf(n);
+                                pc += (i >>> 14) - 0x1ffff;
+                            }
+                        } else {
+                            code[pc] = (i & Lua.MASK_NOT_OP) | Lua.OP_FORLOOP;
+                            --pc; /* execute the generic FORLOOP */
+                        }
+                    }
                     case Lua.OP_EXTRAARG -> throw new IllegalArgumentException("Uexecutable opcode: OP_EXTRAARG");
                     default -> throw new IllegalArgumentException("Illegal opcode: " + (i & 0x3f));
                 }
@@ -579,6 +831,7 @@ public class LuaClosure extends LuaFunction {
             }
             if (frame == null) {
                 file = p.source != null ? p.source.tojstring() : "?";
+                p.loaddebug();
                 line = p.lineinfo != null && pc >= 0 && pc < p.lineinfo.length ? p.lineinfo[pc] : -1;
             }
         }
@@ -30,6 +30,8 @@ import org.luaj.vm2.lib.MathLib;
  * via the static functions {@link LuaValue#valueOf(int)} or {@link LuaValue#valueOf(double)}
  * functions.  This ensures that values which can be represented as int
  * are wrapped in {@link LuaInteger} instead of {@link LuaDouble}.
+ * Other integral values stay doubles; only integer literals and
+ * integer operations produce a {@link LuaLong}.
  * <p>
  * Almost all API's implemented in LuaDouble are defined and documented in {@link LuaValue}.
  * <p>
@@ -49,6 +51,7 @@ import org.luaj.vm2.lib.MathLib;
  * @see LuaValue
  * @see LuaNumber
  * @see LuaInteger
+ * @see LuaLong
  * @see LuaValue#valueOf(int)
  * @see LuaValue#valueOf(double)
  */
@@ -167,7 +170,17 @@ public class LuaDouble extends LuaNumber {
     }
 
     public int hashCode() {
-        long l = Double.doubleToLongBits(v + 1);
+        return hashCode(v);
+    }
+
+    /**
+     * Hash code of a double value, shared with {@link LuaLong} so that equal keys hash alike.
+     *
+     * @param d the value
+     * @return hash code for the value
+     */
+    public static int hashCode(double d) {
+        long l = Double.doubleToLongBits(d + 1);
         return ((int) (l >> 32)) + (int) l;
     }
 
@@ -37,6 +37,7 @@ import org.luaj.vm2.lib.MathLib;
  * @see LuaValue
  * @see LuaNumber
  * @see LuaDouble
+ * @see LuaLong
  * @see LuaValue#valueOf(int)
  * @see LuaValue#valueOf(double)
  */
@@ -73,15 +74,15 @@ public class LuaInteger extends LuaNumber {
      * Return a LuaNumber that represents the value provided
      *
      * @param l long value to represent.
-     * @return LuaNumber that is eithe LuaInteger or LuaDouble representing l
+     * @return LuaNumber that is either LuaInteger or LuaLong representing l
      * @see LuaValue#valueOf(int)
-     * @see LuaValue#valueOf(double)
+     * @see LuaValue#valueOf(long)
      */
     public static LuaNumber valueOf(long l) {
         int i = (int) l;
         return l == i ? (i <= 255 && i >= -256 ? intValues[i + 256] :
 				new LuaInteger(i)) :
-				LuaDouble.valueOf(l);
+				new LuaLong(l);
     }
 
     public static int hashCode(int x) {
@@ -230,7 +231,7 @@ public class LuaInteger extends LuaNumber {
     }
 
     public LuaValue sub(int rhs) {
-        return LuaDouble.valueOf(v - rhs);
+        return LuaInteger.valueOf((long) v - rhs);
     }
 
     public LuaValue subFrom(double lhs) {
@@ -290,7 +291,7 @@ public class LuaInteger extends LuaNumber {
     }
 
     public LuaValue mod(LuaValue rhs) {
-        return rhs.modFrom(v);
+        return rhs instanceof LuaLong ? LuaLong.lmod(v, ((LuaLong) rhs).v) : rhs.modFrom(v);
     }
 
     public LuaValue mod(double rhs) {
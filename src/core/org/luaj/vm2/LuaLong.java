@@ -0,0 +1,471 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+import org.luaj.vm2.lib.MathLib;
+
+/**
+ * Extension of {@link LuaNumber} which can hold a Java long as its value.
+ * <p>
+ * These instance are not instantiated directly by clients, but indirectly
+ * via the static function {@link LuaValue#valueOf(long)}, which wraps values
+ * that can be represented as int in {@link LuaInteger} instead.
+ * Integer literals and integer operations produce them; a double that
+ * happens to be integral stays a {@link LuaDouble}, and compares equal
+ * to a LuaLong holding the same value.
+ * <p>
+ * Addition, subtraction, multiplication and modulo of two integral values are exact,
+ * and give a {@link LuaDouble} only when the result does not fit in a long,
+ * so that values such as ids and timestamps from Java keep all 64 bits.
+ * Division and exponentiation are done in double precision, as for other numbers.
+ * <p>
+ * Almost all API's implemented in LuaLong are defined and documented in {@link LuaValue}.
+ *
+ * @see LuaValue
+ * @see LuaNumber
+ * @see LuaInteger
+ * @see LuaDouble
+ * @see LuaValue#valueOf(long)
+ */
+public class LuaLong extends LuaNumber {
+
+    /**
+     * The value being held by this instance.
+     */
+    public final long v;
+
+    /**
+     * Package protected constructor, for values outside the range of int.
+     *
+     * @see LuaValue#valueOf(long)
+     */
+    LuaLong(long l) {
+        this.v = l;
+    }
+
+    /**
+     * Add two longs according to lua math, and return a {@link LuaValue} result.
+     *
+     * @param lhs Left-hand-side of the addition.
+     * @param rhs Right-hand-side of the addition.
+     * @return the exact sum, or the sum as a {@link LuaDouble} if it overflows a long
+     */
+    public static LuaNumber ladd(long lhs, long rhs) {
+        long r = lhs + rhs;
+        return ((lhs ^ r) & (rhs ^ r)) < 0 ? LuaDouble.valueOf((double) lhs + rhs) : LuaInteger.valueOf(r);
+    }
+
+    /**
+     * Subtract two longs according to lua math, and return a {@link LuaValue} result.
+     *
+     * @param lhs Left-hand-side of the subtraction.
+     * @param rhs Right-hand-side of the subtraction.
+     * @return the exact difference, or the difference as a {@link LuaDouble} if it overflows a long
+     */
+    public static LuaNumber lsub(long lhs, long rhs) {
+        long r = lhs - rhs;
+        return ((lhs ^ rhs) & (lhs ^ r)) < 0 ? LuaDouble.valueOf((double) lhs - rhs) : LuaInteger.valueOf(r);
+    }
+
+    /**
+     * Multiply two longs according to lua math, and return a {@link LuaValue} result.
+     *
+     * @param lhs Left-hand-side of the multiplication.
+     * @param rhs Right-hand-side of the multiplication.
+     * @return the exact product, or the product as a {@link LuaDouble} if it overflows a long
+     */
+    public static LuaNumber lmul(long lhs, long rhs) {
+        long r = lhs * rhs;
+        long hi = Math.multiplyHigh(lhs, rhs);
+        return hi == (r >> 63) ? LuaInteger.valueOf(r) : LuaDouble.valueOf((double) lhs * rhs);
+    }
+
+    /**
+     * Take modulo of two longs according to lua math, and return a {@link LuaValue} result.
+     *
+     * @param lhs Left-hand-side of the modulo.
+     * @param rhs Right-hand-side of the modulo.
+     * @return the exact result of {@code lhs - floor(lhs/rhs)*rhs}, or nan if rhs is zero
+     */
+    public static LuaValue lmod(long lhs, long rhs) {
+        return rhs != 0 ? LuaInteger.valueOf(Math.floorMod(lhs, rhs)) : LuaDouble.NAN;
+    }
+
+    /* values held exactly as ints or longs */
+    private static boolean integral(LuaValue v) {
+        return v instanceof LuaInteger || v instanceof LuaLong;
+    }
+
+    public int hashCode() {
+        double d = v;
+        return (long) d == v && d != 0x1p63 ? LuaDouble.hashCode(d) : Long.hashCode(v);
+    }
+
+    public boolean islong() {
+        return true;
+    }
+
+    public byte tobyte() {
+        return (byte) v;
+    }
+
+    public char tochar() {
+        return (char) v;
+    }
+
+    public double todouble() {
+        return v;
+    }
+
+    public float tofloat() {
+        return v;
+    }
+
+    public int toint() {
+        return (int) v;
+    }
+
+    public long tolong() {
+        return v;
+    }
+
+    public short toshort() {
+        return (short) v;
+    }
+
+    public double optdouble(double defval) {
+        return v;
+    }
+
+    public int optint(int defval) {
+        return (int) v;
+    }
+
+    public LuaInteger optinteger(LuaInteger defval) {
+        return LuaInteger.valueOf((int) v);
+    }
+
+    public long optlong(long defval) {
+        return v;
+    }
+
+    public LuaInteger checkinteger() {
+        return LuaInteger.valueOf((int) v);
+    }
+
+    public String tojstring() {
+        return Long.toString(v);
+    }
+
+    public LuaString strvalue() {
+        return LuaString.valueOf(Long.toString(v));
+    }
+
+    public LuaString optstring(LuaString defval) {
+        return LuaString.valueOf(Long.toString(v));
+    }
+
+    public LuaValue tostring() {
+        return LuaString.valueOf(Long.toString(v));
+    }
+
+    public String optjstring(String defval) {
+        return Long.toString(v);
+    }
+
+    // unary operators
+    public LuaValue neg() {
+        return v != Long.MIN_VALUE ? LuaInteger.valueOf(-v) : LuaDouble.valueOf(-(double) v);
+    }
+
+    // object equality, used for key comparison
+    public boolean equals(Object o) {
+        return o instanceof LuaLong && ((LuaLong) o).v == v;
+    }
+
+    // equality w/ metatable processing
+    public LuaValue eq(LuaValue val) {
+        return raweq(val) ? TRUE : FALSE;
+    }
+
+    public boolean eq_b(LuaValue val) {
+        return raweq(val);
+    }
+
+    // equality w/o metatable processing
+    public boolean raweq(LuaValue val) {
+        return val instanceof LuaLong ? ((LuaLong) val).v == v : val instanceof LuaDouble && raweq(val.todouble());
+    }
+
+    public boolean raweq(double val) {
+        return val >= -0x1p63 && val < 0x1p63 && (long) val == v;
+    }
+
+    public boolean raweq(int val) {
+        return v == val;
+    }
+
+    // arithmetic operators
+    public LuaValue add(LuaValue rhs) {
+        return integral(rhs) ? ladd(v, rhs.tolong()) : rhs.add((double) v);
+    }
+
+    public LuaValue add(double lhs) {
+        return LuaDouble.valueOf(lhs + v);
+    }
+
+    public LuaValue add(int lhs) {
+        return ladd(lhs, v);
+    }
+
+    public LuaValue sub(LuaValue rhs) {
+        return integral(rhs) ? lsub(v, rhs.tolong()) : rhs.subFrom((double) v);
+    }
+
+    public LuaValue sub(double rhs) {
+        return LuaDouble.valueOf(v - rhs);
+    }
+
+    public LuaValue sub(int rhs) {
+        return lsub(v, rhs);
+    }
+
+    public LuaValue subFrom(double lhs) {
+        return LuaDouble.valueOf(lhs - v);
+    }
+
+    public LuaValue subFrom(int lhs) {
+        return lsub(lhs, v);
+    }
+
+    public LuaValue mul(LuaValue rhs) {
+        return integral(rhs) ? lmul(v, rhs.tolong()) : rhs.mul((double) v);
+    }
+
+    public LuaValue mul(double lhs) {
+        return LuaDouble.valueOf(lhs * v);
+    }
+
+    public LuaValue mul(int lhs) {
+        return lmul(lhs, v);
+    }
+
+    public LuaValue pow(LuaValue rhs) {
+        return rhs.powWith((double) v);
+    }
+
+    public LuaValue pow(double rhs) {
+        return MathLib.dpow(v, rhs);
+    }
+
+    public LuaValue pow(int rhs) {
+        return MathLib.dpow(v, rhs);
+    }
+
+    public LuaValue powWith(double lhs) {
+        return MathLib.dpow(lhs, v);
+    }
+
+    public LuaValue powWith(int lhs) {
+        return MathLib.dpow(lhs, v);
+    }
+
+    public LuaValue div(LuaValue rhs) {
+        return rhs.divInto((double) v);
+    }
+
+    public LuaValue div(double rhs) {
+        return LuaDouble.ddiv(v, rhs);
+    }
+
+    public LuaValue div(int rhs) {
+        return LuaDouble.ddiv(v, rhs);
+    }
+
+    public LuaValue divInto(double lhs) {
+        return LuaDouble.ddiv(lhs, v);
+    }
+
+    public LuaValue mod(LuaValue rhs) {
+        return integral(rhs) ? lmod(v, rhs.tolong()) : rhs.modFrom((double) v);
+    }
+
+    public LuaValue mod(double rhs) {
+        return LuaDouble.dmod(v, rhs);
+    }
+
+    public LuaValue mod(int rhs) {
+        return lmod(v, rhs);
+    }
+
+    public LuaValue modFrom(double lhs) {
+        return LuaDouble.dmod(lhs, v);
+    }
+
+    /*
+     * Exact comparisons of a long with a double, as LTnum and LEnum in lua 5.3:
+     * a double within the range of long is compared by its ceiling or floor,
+     * and any other double is beyond every long, or NaN and unordered.
+     */
+    static boolean ltnum(long l, double d) {
+        return d >= -0x1p63 && d < 0x1p63 ? l < (long) Math.ceil(d) : d > 0;
+    }
+
+    static boolean lenum(long l, double d) {
+        return d >= -0x1p63 && d < 0x1p63 ? l <= (long) Math.floor(d) : d > 0;
+    }
+
+    static boolean gtnum(long l, double d) {
+        return d >= -0x1p63 && d < 0x1p63 ? l > (long) Math.floor(d) : d < 0;
+    }
+
+    static boolean genum(long l, double d) {
+        return d >= -0x1p63 && d < 0x1p63 ? l >= (long) Math.ceil(d) : d < 0;
+    }
+
+    // relational operators
+    public LuaValue lt(LuaValue rhs) {
+        return rhs instanceof LuaNumber ? (lt_b(rhs) ? TRUE : FALSE) : super.lt(rhs);
+    }
+
+    public LuaValue lt(double rhs) {
+        return ltnum(v, rhs) ? TRUE : FALSE;
+    }
+
+    public LuaValue lt(int rhs) {
+        return v < rhs ? TRUE : FALSE;
+    }
+
+    public boolean lt_b(LuaValue rhs) {
+        return integral(rhs) ? v < rhs.tolong() :
+                rhs instanceof LuaDouble ? ltnum(v, rhs.todouble()) : super.lt_b(rhs);
+    }
+
+    public boolean lt_b(int rhs) {
+        return v < rhs;
+    }
+
+    public boolean lt_b(double rhs) {
+        return ltnum(v, rhs);
+    }
+
+    public LuaValue lteq(LuaValue rhs) {
+        return rhs instanceof LuaNumber ? (lteq_b(rhs) ? TRUE : FALSE) : super.lteq(rhs);
+    }
+
+    public LuaValue lteq(double rhs) {
+        return lenum(v, rhs) ? TRUE : FALSE;
+    }
+
+    public LuaValue lteq(int rhs) {
+        return v <= rhs ? TRUE : FALSE;
+    }
+
+    public boolean lteq_b(LuaValue rhs) {
+        return integral(rhs) ? v <= rhs.tolong() :
+                rhs instanceof LuaDouble ? lenum(v, rhs.todouble()) : super.lteq_b(rhs);
+    }
+
+    public boolean lteq_b(int rhs) {
+        return v <= rhs;
+    }
+
+    public boolean lteq_b(double rhs) {
+        return lenum(v, rhs);
+    }
+
+    public LuaValue gt(LuaValue rhs) {
+        return rhs instanceof LuaNumber ? (gt_b(rhs) ? TRUE : FALSE) : super.gt(rhs);
+    }
+
+    public LuaValue gt(double rhs) {
+        return gtnum(v, rhs) ? TRUE : FALSE;
+    }
+
+    public LuaValue gt(int rhs) {
+        return v > rhs ? TRUE : FALSE;
+    }
+
+    public boolean gt_b(LuaValue rhs) {
+        return integral(rhs) ? v > rhs.tolong() :
+                rhs instanceof LuaDouble ? gtnum(v, rhs.todouble()) : super.gt_b(rhs);
+    }
+
+    public boolean gt_b(int rhs) {
+        return v > rhs;
+    }
+
+    public boolean gt_b(double rhs) {
+        return gtnum(v, rhs);
+    }
+
+    public LuaValue gteq(LuaValue rhs) {
+        return rhs instanceof LuaNumber ? (gteq_b(rhs) ? TRUE : FALSE) : super.gteq(rhs);
+    }
+
+    public LuaValue gteq(double rhs) {
+        return genum(v, rhs) ? TRUE : FALSE;
+    }
+
+    public LuaValue gteq(int rhs) {
+        return v >= rhs ? TRUE : FALSE;
+    }
+
+    public boolean gteq_b(LuaValue rhs) {
+        return integral(rhs) ? v >= rhs.tolong() :
+                rhs instanceof LuaDouble ? genum(v, rhs.todouble()) : super.gteq_b(rhs);
+    }
+
+    public boolean gteq_b(int rhs) {
+        return v >= rhs;
+    }
+
+    public boolean gteq_b(double rhs) {
+        return genum(v, rhs);
+    }
+
+    // string comparison
+    public int strcmp(LuaString rhs) {
+        typerror("attempt to compare number with string");
+        return 0;
+    }
+
+    public int checkint() {
+        return (int) v;
+    }
+
+    public long checklong() {
+        return v;
+    }
+
+    public double checkdouble() {
+        return v;
+    }
+
+    public String checkjstring() {
+        return Long.toString(v);
+    }
+
+    public LuaString checkstring() {
+        return LuaString.valueOf(Long.toString(v));
+    }
+}
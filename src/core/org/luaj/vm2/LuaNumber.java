@@ -25,9 +25,11 @@ package org.luaj.vm2;
  * Base class for representing numbers as lua values directly.
  * <p>
  * The main subclasses are {@link LuaInteger} which holds values that fit in a java int,
+ * {@link LuaLong} which holds other integral values that fit in a java long,
  * and {@link LuaDouble} which holds all other number values.
  *
  * @see LuaInteger
+ * @see LuaLong
  * @see LuaDouble
  * @see LuaValue
  */
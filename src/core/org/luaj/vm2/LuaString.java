@@ -25,6 +25,10 @@ package org.luaj.vm2;
 import org.luaj.vm2.lib.MathLib;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 /**
  * Subclass of {@link LuaValue} for representing lua strings.
@@ -274,10 +278,68 @@ public class LuaString extends LuaValue {
     public static boolean equals(byte[] a, int i, byte[] b, int j, int n) {
         if (a.length < i + n || b.length < j + n)
             return false;
-        while (--n >= 0)
-            if (a[i++] != b[j++])
-                return false;
-        return true;
+        return Arrays.equals(a, i, i + n, b, j, j + n);
+    }
+
+    /**
+     * View of a byte array as little-endian longs, for scanning eight bytes at a time.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    /**
+     * Find the first occurrence of a byte in a range of a byte array.
+     * <p>
+     * Ranges of 16 bytes or more are scanned eight bytes at a time.
+     *
+     * @param a    the array to search
+     * @param from index of the first byte to search
+     * @param to   index after the last byte to search
+     * @param b    the byte to look for
+     * @return index in the array of the first match, or -1 if not found.
+     */
+    public static int indexOf(byte[] a, int from, int to, byte b) {
+        int i = from;
+        if (to - i >= 16) {
+            final long pattern = (b & 0xFFL) * ONES;
+            for (final int last = to - 8; i <= last; i += 8) {
+                long x = (long) LONGS.get(a, i) ^ pattern;
+                long zeros = (x - ONES) & ~x & HIGHS;
+                if (zeros != 0)
+                    return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+            }
+        }
+        for (; i < to; i++)
+            if (a[i] == b)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Find the first occurrence of a sequence of bytes in a range of a byte array.
+     *
+     * @param a    the array to search
+     * @param from index of the first byte to search
+     * @param to   index after the last byte to search
+     * @param b    the array holding the bytes to look for
+     * @param off  offset of the first byte to look for
+     * @param len  number of bytes to look for
+     * @return index in the array of the first match, or -1 if not found.
+     */
+    public static int indexOf(byte[] a, int from, int to, byte[] b, int off, int len) {
+        if (len == 0)
+            return from <= to ? from : -1;
+        final byte first = b[off];
+        for (int i = from, last = to - len; i <= last; i++) {
+            i = indexOf(a, i, last + 1, first);
+            if (i < 0)
+                return -1;
+            if (Arrays.equals(a, i + 1, i + len, b, off + 1, off + len))
+                return i;
+        }
+        return -1;
     }
 
     /**
@@ -587,11 +649,10 @@ public class LuaString extends LuaValue {
     }
 
     public int strcmp(LuaString rhs) {
-        for (int i = 0, j = 0; i < m_length && j < rhs.m_length; ++i, ++j) {
-            if (m_bytes[m_offset + i] != rhs.m_bytes[rhs.m_offset + j]) {
-                return ((int) m_bytes[m_offset + i]) - ((int) rhs.m_bytes[rhs.m_offset + j]);
-            }
-        }
+        final int n = Math.min(m_length, rhs.m_length);
+        final int i = Arrays.mismatch(m_bytes, m_offset, m_offset + n, rhs.m_bytes, rhs.m_offset, rhs.m_offset + n);
+        if (i >= 0)
+            return ((int) m_bytes[m_offset + i]) - ((int) rhs.m_bytes[rhs.m_offset + i]);
         return m_length - rhs.m_length;
     }
 
@@ -625,10 +686,14 @@ public class LuaString extends LuaValue {
     }
 
     public LuaNumber checknumber() {
-        return valueOf(checkdouble());
+        LuaNumber n = scaninteger(10);
+        return n != null ? n : valueOf(checkdouble());
     }
 
     public LuaNumber checknumber(String msg) {
+        LuaNumber n = scaninteger(10);
+        if (n != null)
+            return n;
         double d = scannumber();
         if (Double.isNaN(d))
             error(msg);
@@ -772,10 +837,7 @@ public class LuaString extends LuaValue {
             return true;
         if (s.hashCode() != hashCode())
             return false;
-        for (int i = 0; i < m_length; i++)
-            if (s.m_bytes[s.m_offset + i] != m_bytes[m_offset + i])
-                return false;
-        return true;
+        return Arrays.equals(s.m_bytes, s.m_offset, s.m_offset + m_length, m_bytes, m_offset, m_offset + m_length);
     }
 
     /**
@@ -867,11 +929,10 @@ public class LuaString extends LuaValue {
      * @return index of first match found, or -1 if not found.
      */
     public int indexOf(byte b, int start) {
-        for (int i = start; i < m_length; ++i) {
-            if (m_bytes[m_offset + i] == b)
-                return i;
-        }
-        return -1;
+        if (start >= m_length)
+            return -1;
+        final int i = indexOf(m_bytes, m_offset + start, m_offset + m_length, b);
+        return i < 0 ? -1 : i - m_offset;
     }
 
     /**
@@ -882,13 +943,10 @@ public class LuaString extends LuaValue {
      * @return index of first match found, or -1 if not found.
      */
     public int indexOf(LuaString s, int start) {
-        final int slen = s.length();
-        final int limit = m_length - slen;
-        for (int i = start; i <= limit; ++i) {
-            if (equals(m_bytes, m_offset + i, s.m_bytes, s.m_offset, slen))
-                return i;
-        }
-        return -1;
+        if (start > m_length)
+            return -1;
+        final int i = indexOf(m_bytes, m_offset + start, m_offset + m_length, s.m_bytes, s.m_offset, s.m_length);
+        return i < 0 ? -1 : i - m_offset;
     }
 
     /**
@@ -939,6 +997,9 @@ public class LuaString extends LuaValue {
      * @see LuaValue#tonumber()
      */
     public LuaValue tonumber() {
+        LuaNumber n = scaninteger(10);
+        if (n != null)
+            return n;
         double d = scannumber();
         return Double.isNaN(d) ? NIL : valueOf(d);
     }
@@ -953,10 +1014,41 @@ public class LuaString extends LuaValue {
      * @see LuaValue#tonumber()
      */
     public LuaValue tonumber(int base) {
+        LuaNumber n = scaninteger(base);
+        if (n != null)
+            return n;
         double d = scannumber(base);
         return Double.isNaN(d) ? NIL : valueOf(d);
     }
 
+    /**
+     * Convert a plain integer in a base to an exact integral value, as the lexer does for literals.
+     *
+     * @param base the base to use between 2 and 36
+     * @return {@link LuaInteger} or {@link LuaLong}, or null if the string is not an integer within the range of long
+     */
+    private LuaNumber scaninteger(int base) {
+        if (base < 2 || base > 36)
+            return null;
+        int i = m_offset, j = m_offset + m_length;
+        while (i < j && m_bytes[i] == ' ') ++i;
+        while (i < j && m_bytes[j - 1] == ' ') --j;
+        boolean neg = i < j && m_bytes[i] == '-';
+        if (neg)
+            ++i;
+        if (i >= j)
+            return null;
+        long x = 0;
+        for (; i < j; i++) {
+            int digit = m_bytes[i] - (base <= 10 || (m_bytes[i] >= '0' && m_bytes[i] <= '9') ? '0' :
+                    m_bytes[i] >= 'A' && m_bytes[i] <= 'Z' ? ('A' - 10) : ('a' - 10));
+            if (digit < 0 || digit >= base || x > (Long.MAX_VALUE - digit) / base)
+                return null;
+            x = x * base + digit;
+        }
+        return valueOf(neg ? -x : x);
+    }
+
     /**
      * Convert to a number in base 10, or base 16 if the string starts with '0x',
      * or return Double.NaN if it cannot be converted to a number.
@@ -229,7 +229,7 @@ public class LuaTable extends LuaValue implements Metatable {
     protected static Entry defaultEntry(LuaValue key, LuaValue value) {
         if (key.isinttype()) {
             return new IntKeyEntry(key.toint(), value);
-        } else if (value.type() == TNUMBER) {
+        } else if (value.type() == TNUMBER && !(value instanceof LuaLong)) {
             return new NumberValueEntry(key, value.todouble());
         } else {
             return new NormalEntry(key, value);
@@ -885,6 +885,124 @@ public class LuaTable extends LuaValue implements Metatable {
         return a;
     }
 
+    /**
+     * Copy the list elements {@code 1..rawlen()} into a new {@code int[]},
+     * converting each as by {@link LuaValue#toint()}.
+     *
+     * @return array of the list elements, with 0 for non-numbers
+     */
+    public int[] toIntArray() {
+        int n = rawlen();
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++)
+            a[i] = listget(i).toint();
+        return a;
+    }
+
+    /**
+     * Copy the list elements {@code 1..rawlen()} into a new {@code long[]},
+     * converting each as by {@link LuaValue#tolong()}.
+     *
+     * @return array of the list elements, with 0 for non-numbers
+     */
+    public long[] toLongArray() {
+        int n = rawlen();
+        long[] a = new long[n];
+        for (int i = 0; i < n; i++)
+            a[i] = listget(i).tolong();
+        return a;
+    }
+
+    /**
+     * Copy the list elements {@code 1..rawlen()} into a new {@code double[]},
+     * converting each as by {@link LuaValue#todouble()}.
+     *
+     * @return array of the list elements, with 0 for non-numbers
+     */
+    public double[] toDoubleArray() {
+        int n = rawlen();
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++)
+            a[i] = listget(i).todouble();
+        return a;
+    }
+
+    /**
+     * Copy the list elements {@code 1..rawlen()} into a new {@code String[]},
+     * converting each as by {@link LuaValue#tojstring()}.
+     *
+     * @return array of the list elements, with null for nil
+     */
+    public String[] toStringArray() {
+        int n = rawlen();
+        String[] a = new String[n];
+        for (int i = 0; i < n; i++) {
+            LuaValue v = listget(i);
+            a[i] = v.isnil() ? null : v.tojstring();
+        }
+        return a;
+    }
+
+    /* raw element at 0-based index i, reading the array part directly when possible */
+    private LuaValue listget(int i) {
+        LuaValue v;
+        return i < array.length && m_metatable == null ? ((v = array[i]) != null ? v : NIL) : rawget(i + 1);
+    }
+
+    /**
+     * Construct a list-table of the values in an {@code int[]}.
+     *
+     * @param a the values
+     * @return new {@link LuaTable} with an array part of {@code a.length} elements
+     */
+    public static LuaTable fromIntArray(int[] a) {
+        LuaTable t = new LuaTable(a.length, 0);
+        for (int i = 0; i < a.length; i++)
+            t.array[i] = LuaInteger.valueOf(a[i]);
+        return t;
+    }
+
+    /**
+     * Construct a list-table of the values in a {@code long[]}.
+     *
+     * @param a the values
+     * @return new {@link LuaTable} with an array part of {@code a.length} elements
+     */
+    public static LuaTable fromLongArray(long[] a) {
+        LuaTable t = new LuaTable(a.length, 0);
+        for (int i = 0; i < a.length; i++)
+            t.array[i] = LuaValue.valueOf(a[i]);
+        return t;
+    }
+
+    /**
+     * Construct a list-table of the values in a {@code double[]}.
+     *
+     * @param a the values
+     * @return new {@link LuaTable} with an array part of {@code a.length} elements
+     */
+    public static LuaTable fromDoubleArray(double[] a) {
+        LuaTable t = new LuaTable(a.length, 0);
+        for (int i = 0; i < a.length; i++)
+            t.array[i] = LuaValue.valueOf(a[i]);
+        return t;
+    }
+
+    /**
+     * Construct a list-table of the values in a {@code String[]}.
+     * Null elements become nil.
+     *
+     * @param a the values
+     * @return new {@link LuaTable} with an array part of {@code a.length} elements
+     */
+    public static LuaTable fromStringArray(String[] a) {
+        LuaTable t = new LuaTable(a.length, 0);
+        for (int i = 0; i < a.length; i++)
+            if (a[i] != null)
+                t.array[i] = LuaValue.valueOf(a[i]);
+        return t;
+    }
+
     // equality w/ metatable processing
     public LuaValue eq(LuaValue val) {
         return eq_b(val) ? TRUE : FALSE;
@@ -1307,7 +1425,7 @@ public class LuaTable extends LuaValue implements Metatable {
         }
 
         public Entry set(LuaValue value) {
-            if (value.type() == TNUMBER) {
+            if (value.type() == TNUMBER && !(value instanceof LuaLong)) {
                 LuaValue n = value.tonumber();
                 if (!n.isnil()) {
                     this.value = n.todouble();
@@ -298,6 +298,14 @@ public class LuaValue extends Varargs {
      * LuaString constant with value "__concat" for use as metatag
      */
     public static final LuaString CONCAT = valueOf("__concat");
+    /**
+     * LuaString constant with value "__pairs" for use as metatag
+     */
+    public static final LuaString PAIRS = valueOf("__pairs");
+    /**
+     * LuaString constant with value "__ipairs" for use as metatag
+     */
+    public static final LuaString IPAIRS = valueOf("__ipairs");
     /**
      * LuaString constant with value ""
      */
@@ -400,6 +408,18 @@ public class LuaValue extends Varargs {
         return LuaInteger.valueOf(i);
     }
 
+    /**
+     * Convert java long to a {@link LuaValue}.
+     * This may return a {@link LuaInteger} or {@link LuaLong} depending
+     * on the value supplied.
+     *
+     * @param l long value to convert
+     * @return {@link LuaNumber} instance, possibly pooled, whose value is l
+     */
+    public static LuaNumber valueOf(long l) {
+        return LuaInteger.valueOf(l);
+    }
+
     /**
      * Convert java double to a {@link LuaValue}.
      * This may return a {@link LuaInteger} or {@link LuaDouble} depending
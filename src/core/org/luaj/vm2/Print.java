@@ -301,6 +301,7 @@ public class Print extends Lua {
     }
 
     private static int getline(Prototype f, int pc) {
+        f.loaddebug();
         return pc > 0 && f.lineinfo != null && pc < f.lineinfo.length ? f.lineinfo[pc] : -1;
     }
 
@@ -365,6 +366,7 @@ public class Print extends Lua {
      */
     public static void printFunction(Prototype prototype, boolean full) {
         int i, n = prototype.p.length;
+        prototype.loaddebug();
         printHeader(prototype);
         printCode(prototype);
         if (full) {
@@ -102,6 +102,11 @@ public class Prototype {
     public int numparams;
     public int is_vararg;
     public int maxstacksize;
+    /* undumper state for debug info not yet decoded, or null */
+    private volatile BufferLoadState lazydebug;
+    /* code executed by LuaClosure, and the code array it was derived from */
+    private volatile int[] fused;
+    private int[] fusedfrom;
 
     public Prototype() {
         p = NOSUBPROTOS;
@@ -113,6 +118,59 @@ public class Prototype {
         upvalues = new Upvaldesc[n_upvalues];
     }
 
+    /**
+     * Defer decoding of {@link #lineinfo}, {@link #locvars} and upvalue names
+     * until {@link #loaddebug()} is called.
+     *
+     * @param state undumper positioned at the start of the debug info
+     */
+    void setlazydebug(BufferLoadState state) {
+        lazydebug = state;
+    }
+
+    /**
+     * Decode debug information that an undumper such as {@link BufferLoadState}
+     * deferred, so that {@link #lineinfo}, {@link #locvars} and the
+     * {@link Upvaldesc#name} fields are populated.
+     * <p>
+     * Code that reads those fields directly should call this first;
+     * it does nothing when the debug information is already present.
+     */
+    public void loaddebug() {
+        if (lazydebug != null) {
+            synchronized (this) {
+                final BufferLoadState s = lazydebug;
+                if (s != null) {
+                    s.loadDebug(this);
+                    lazydebug = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the code array that {@link LuaClosure} executes.
+     * <p>
+     * This is a private copy of {@link #code} with common instruction pairs
+     * replaced by superinstructions, which the interpreter also quickens
+     * while it runs, see {@link Superinstructions}.
+     * It is built on first use and rebuilt if {@link #code} is replaced;
+     * the contents of {@link #code} should not be modified in place after
+     * the prototype has been executed.
+     *
+     * @return code array with the same length and pc numbering as {@link #code}
+     */
+    int[] superinstructions() {
+        final int[] c = code;
+        int[] f = fused;
+        if (f == null || fusedfrom != c) {
+            f = Superinstructions.rewrite(c);
+            fusedfrom = c;
+            fused = f;
+        }
+        return f;
+    }
+
     public String toString() {
         return source + ":" + linedefined + "-" + lastlinedefined;
     }
@@ -125,6 +183,7 @@ public class Prototype {
      * @return the name, or null if not found
      */
     public LuaString getlocalname(int number, int pc) {
+        loaddebug();
         int i;
         for (i = 0; i < locvars.length && locvars[i].startpc <= pc; i++) {
             if (pc < locvars[i].endpc) {  /* is variable active? */
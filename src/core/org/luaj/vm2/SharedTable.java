@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread safe table which can be used from several {@link Globals} at once,
+ * to share caches and counters between scripts running on different threads.
+ * <p>
+ * Entries are held in a {@link ConcurrentHashMap}, so reads never block and
+ * writes to different keys rarely contend.
+ * {@link #compareAndSet(LuaValue, LuaValue, LuaValue)} and {@link #increment(LuaValue, LuaValue)}
+ * update a single entry atomically.
+ * <p>
+ * {@code pairs} and {@link #next(LuaValue)} iterate over a snapshot of all entries,
+ * taken while no write is in progress, so that a traversal never sees a partial update.
+ * The snapshot is reused until the next write.
+ * Each {@code pairs} call iterates over one snapshot, while successive {@link #next(LuaValue)} calls
+ * use the latest snapshot that contains the key.
+ * <p>
+ * Only values that are safe to share can be stored: nil, booleans, numbers,
+ * strings and other shared tables.
+ * Integral numbers are stored as integers, so that {@code 2^40} and {@code 1099511627776}
+ * are the same key, as in a {@link LuaTable}.
+ * Lua tables can be converted with {@link #copyOf(LuaValue)}.
+ * <p>
+ * In lua a shared table is a userdata which supports indexing, {@code #}, {@code pairs} and {@code ipairs}.
+ * There is no metatable to modify, and no metamethods are called on the entries.
+ * Shared tables are created and updated atomically by the {@code shared} library.
+ *
+ * @see org.luaj.vm2.lib.SharedLib
+ * @see LuaTable
+ */
+public final class SharedTable extends LuaUserdata {
+
+    private static final LuaTable shared_metatable;
+
+    static {
+        shared_metatable = new LuaTable();
+        shared_metatable.rawset(METATABLE, valueOf("shared"));
+        shared_metatable.rawset(PAIRS, new PairsFunction());
+        shared_metatable.rawset(IPAIRS, new IPairsFunction());
+    }
+
+    private final ConcurrentHashMap<LuaValue, LuaValue> map = new ConcurrentHashMap<>();
+
+    /**
+     * Held in read mode by writers, which can run concurrently with each other,
+     * and in write mode while a snapshot is copied.
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Number of completed writes, to tell when the cached snapshot is stale.
+     */
+    private final LongAdder writes = new LongAdder();
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Construct an empty shared table.
+     */
+    public SharedTable() {
+        super(null, shared_metatable);
+        m_instance = this;
+    }
+
+    /**
+     * Copy a value so that it can be stored in a shared table.
+     * Tables are copied deeply into new shared tables, preserving shared references and cycles.
+     *
+     * @param value the value to copy
+     * @return the value itself if it can be shared already, or its copy
+     * @throws LuaError if the value or an entry of a table cannot be shared, or a table has a metatable
+     */
+    public static LuaValue copyOf(LuaValue value) {
+        return copyOf(value, new IdentityHashMap<>());
+    }
+
+    private static LuaValue copyOf(LuaValue value, Map<LuaValue, SharedTable> seen) {
+        if (!value.istable())
+            return checkshareable(value);
+        SharedTable s = seen.get(value);
+        if (s != null)
+            return s;
+        if (value.getmetatable() != null)
+            throw new LuaError("cannot share a table with a metatable");
+        seen.put(value, s = new SharedTable());
+        for (Varargs e = value.next(NIL); !e.arg1().isnil(); e = value.next(e.arg1()))
+            s.rawset(copyOf(e.arg1(), seen), copyOf(e.arg(2), seen));
+        return s;
+    }
+
+    /**
+     * Check that a value can be stored in a shared table.
+     *
+     * @param value the value to check
+     * @return value, with any integral double within the range of long as a {@link LuaInteger} or {@link LuaLong}
+     * @throws LuaError if it cannot be shared
+     */
+    public static LuaValue checkshareable(LuaValue value) {
+        switch (value.type()) {
+            case TNIL:
+            case TBOOLEAN:
+            case TSTRING:
+                return value;
+            case TNUMBER: {
+                if (value instanceof LuaDouble) {
+                    double d = ((LuaDouble) value).v;
+                    if (d >= -0x1p63 && d < 0x1p63 && d == (long) d)
+                        return LuaValue.valueOf((long) d);
+                }
+                return value;
+            }
+            default:
+                if (value instanceof SharedTable)
+                    return value;
+                throw new LuaError("cannot share a " + value.typename());
+        }
+    }
+
+    private static LuaValue checkkey(LuaValue key) {
+        if (key.isnil())
+            throw new LuaError("table index is nil");
+        if (key.type() == TNUMBER && Double.isNaN(key.todouble()))
+            throw new LuaError("table index is NaN");
+        return checkshareable(key);
+    }
+
+    public String tojstring() {
+        return "shared: " + Integer.toHexString(System.identityHashCode(this));
+    }
+
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    public boolean raweq(LuaUserdata val) {
+        return this == val;
+    }
+
+    public LuaValue setmetatable(LuaValue metatable) {
+        return error("cannot change the metatable of a shared table");
+    }
+
+    public LuaValue get(LuaValue key) {
+        return rawget(key);
+    }
+
+    public LuaValue rawget(LuaValue key) {
+        if (key.isnil())
+            return NIL;
+        LuaValue v = map.get(key instanceof LuaDouble ? checkshareable(key) : key);
+        return v != null ? v : NIL;
+    }
+
+    public void set(LuaValue key, LuaValue value) {
+        rawset(key, value);
+    }
+
+    public void rawset(LuaValue key, LuaValue value) {
+        LuaValue k = checkkey(key);
+        LuaValue v = checkshareable(value);
+        long stamp = lock.readLock();
+        try {
+            if (v.isnil())
+                map.remove(k);
+            else
+                map.put(k, v);
+        } finally {
+            writes.increment();
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Atomically set the value for a key if it currently holds an expected value.
+     *
+     * @param key    the key to update
+     * @param expect the expected value, or nil if the key should be absent
+     * @param update the new value, or nil to remove the entry
+     * @return true if the entry was updated
+     * @throws LuaError if the key or update cannot be shared
+     */
+    public boolean compareAndSet(LuaValue key, LuaValue expect, LuaValue update) {
+        LuaValue k = checkkey(key);
+        LuaValue e = checkshareable(expect);
+        LuaValue u = checkshareable(update);
+        long stamp = lock.readLock();
+        try {
+            if (e.isnil())
+                return u.isnil() ? !map.containsKey(k) : map.putIfAbsent(k, u) == null;
+            return u.isnil() ? map.remove(k, e) : map.replace(k, e, u);
+        } finally {
+            writes.increment();
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Atomically add to the number held for a key.
+     *
+     * @param key   the key to update
+     * @param delta the number to add; an absent entry counts as 0
+     * @return the new value
+     * @throws LuaError if the entry is not a number
+     */
+    public LuaValue increment(LuaValue key, LuaValue delta) {
+        LuaValue k = checkkey(key);
+        LuaValue d = checkshareable(delta.checknumber());
+        long stamp = lock.readLock();
+        try {
+            return map.merge(k, d, (v, x) -> {
+                if (v.type() != TNUMBER)
+                    throw new LuaError("attempt to increment a " + v.typename() + " value");
+                return checkshareable(v.add(x));
+            });
+        } finally {
+            writes.increment();
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Get the shared table held for a key, atomically creating it if absent.
+     *
+     * @param key the key of the table
+     * @return the shared table for key
+     * @throws LuaError if key holds a value that is not a shared table
+     */
+    public SharedTable subtable(LuaValue key) {
+        LuaValue k = checkkey(key);
+        LuaValue v = map.get(k);
+        if (v == null) {
+            long stamp = lock.readLock();
+            try {
+                v = map.computeIfAbsent(k, x -> new SharedTable());
+            } finally {
+                writes.increment();
+                lock.unlockRead(stamp);
+            }
+        }
+        if (!(v instanceof SharedTable))
+            throw new LuaError("shared table expected for " + key.tojstring() + ", got " + v.typename());
+        return (SharedTable) v;
+    }
+
+    /**
+     * Copy the entries into a new {@link LuaTable}, as one consistent snapshot.
+     * Nested shared tables are not copied.
+     *
+     * @return a new table with the entries of this table
+     */
+    public LuaTable snapshot() {
+        Snapshot s = current();
+        LuaTable t = new LuaTable();
+        for (int i = 0; i < s.keys.length; i++)
+            t.rawset(s.keys[i], s.values[i]);
+        return t;
+    }
+
+    public Varargs next(LuaValue key) {
+        Snapshot s = key.isnil() ? current() : snapshot;
+        int i = 0;
+        if (!key.isnil()) {
+            LuaValue k = checkshareable(key);
+            i = s != null ? s.indexOf(k) : -1;
+            if (i < 0) {
+                s = current();
+                i = s.indexOf(k);
+                if (i < 0)
+                    error("invalid key to 'next'");
+            }
+            i++;
+        }
+        return i < s.keys.length ? varargsOf(s.keys[i], s.values[i]) : NIL;
+    }
+
+    public Varargs inext(LuaValue key) {
+        int k = key.checkint() + 1;
+        LuaValue v = rawget(k);
+        return v.isnil() ? NONE : varargsOf(LuaInteger.valueOf(k), v);
+    }
+
+    public LuaValue len() {
+        return LuaInteger.valueOf(length());
+    }
+
+    public int length() {
+        return rawlen();
+    }
+
+    /**
+     * A border of the table, found by doubling and then bisecting over the integer keys,
+     * as for the hash part of {@link LuaTable}.
+     */
+    public int rawlen() {
+        if (!map.containsKey(LuaInteger.valueOf(1)))
+            return 0;
+        int i = 1, j = 2;
+        while (map.containsKey(LuaInteger.valueOf(j))) {
+            i = j;
+            if (j > Integer.MAX_VALUE / 2)
+                return j;
+            j *= 2;
+        }
+        while (j - i > 1) {
+            int m = (i + j) >>> 1;
+            if (map.containsKey(LuaInteger.valueOf(m)))
+                i = m;
+            else
+                j = m;
+        }
+        return i;
+    }
+
+    /**
+     * The number of entries.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /* the cached snapshot if there was no write since it was taken, otherwise a new one */
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s != null && s.writes == writes.sum())
+            return s;
+        long stamp = lock.writeLock();
+        try {
+            s = new Snapshot(map, writes.sum());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        snapshot = s;
+        return s;
+    }
+
+    private static final class Snapshot {
+        final LuaValue[] keys;
+        final LuaValue[] values;
+        final long writes;
+        private Map<LuaValue, Integer> index;
+
+        Snapshot(Map<LuaValue, LuaValue> map, long writes) {
+            int n = map.size(), i = 0;
+            keys = new LuaValue[n];
+            values = new LuaValue[n];
+            for (Map.Entry<LuaValue, LuaValue> e : map.entrySet()) {
+                keys[i] = e.getKey();
+                values[i++] = e.getValue();
+            }
+            this.writes = writes;
+        }
+
+        synchronized int indexOf(LuaValue key) {
+            if (index == null) {
+                index = new HashMap<>(keys.length * 2);
+                for (int i = 0; i < keys.length; i++)
+                    index.put(keys[i], i);
+            }
+            Integer i = index.get(key);
+            return i != null ? i : -1;
+        }
+    }
+
+    /* (shared) -> iter-func, shared, nil; iterating over one snapshot */
+    private static final class PairsFunction extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            SharedTable t = (SharedTable) args.checkuserdata(1, SharedTable.class);
+            return varargsOf(new NextFunction(t.current()), t, NIL);
+        }
+    }
+
+    private static final class NextFunction extends VarArgFunction {
+        private final Snapshot snapshot;
+        private int i;
+
+        NextFunction(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public Varargs invoke(Varargs args) {
+            if (i >= snapshot.keys.length)
+                return NIL;
+            int k = i++;
+            return varargsOf(snapshot.keys[k], snapshot.values[k]);
+        }
+    }
+
+    /* (shared) -> iter-func, shared, 0; reading the live table */
+    private static final class IPairsFunction extends VarArgFunction {
+        private static final VarArgFunction INEXT = new VarArgFunction() {
+            public Varargs invoke(Varargs args) {
+                return args.arg1().inext(args.arg(2));
+            }
+        };
+
+        public Varargs invoke(Varargs args) {
+            args.checkuserdata(1, SharedTable.class);
+            return varargsOf(INEXT, args.arg1(), ZERO);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+/**
+ * Rewrites prototype code so that common pairs of instructions are
+ * executed by {@link LuaClosure} with a single dispatch.
+ * <p>
+ * The rewritten array has the same length as {@link Prototype#code}.
+ * Only the opcode bits of the first instruction of a pair are replaced
+ * by one of the luaj-internal opcodes below; the second instruction is left
+ * in place, so jumps into it, {@link Prototype#lineinfo} and all other
+ * pc based debug information remain valid.
+ * The superinstruction decodes the operands of the second instruction from
+ * the following word and advances the program counter past it.
+ * <p>
+ * The rewritten code is private to the interpreter and never appears in
+ * {@link Prototype#code}, dumped chunks or {@link Print} output.
+ * <p>
+ * Because the array is private it is also quickened while it runs:
+ * arithmetic, comparison and numeric for-loop instructions observe their
+ * operand types and are rewritten in place to int-int or double-double
+ * variants by {@link #quicken(int, LuaValue, LuaValue)}.
+ * A quickened instruction checks its operand types on each execution and
+ * writes the generic opcode back when they no longer match.
+ * The double-double variants accept any mix of {@link LuaInteger} and
+ * {@link LuaDouble} operands and give the same results as the generic
+ * operation, which also computes mixed arithmetic in double precision.
+ * Addition, subtraction and multiplication of two ints are exact in the
+ * generic operation, so their double-double variants also require one
+ * {@link LuaDouble} operand, and write the generic opcode back otherwise.
+ * Constant operands are read through the same RK decoding, so a site such as
+ * {@code i + 1} quickens on the type of its register operand alone.
+ *
+ * @see Prototype#superinstructions()
+ */
+final class Superinstructions {
+
+    /* GETTABUP A B C; GETTABLE A' B' C'	as in string.format		*/
+    static final int OP_GETTABUP_GETTABLE = Lua.NUM_OPCODES;
+    /* SELF A B C; CALL A B' C'	with 2 <= B' <= 4 and 1 <= C' <= 2	*/
+    static final int OP_SELF_CALL = Lua.NUM_OPCODES + 1;
+    /* EQ A B C; JMP 0 sBx						*/
+    static final int OP_EQ_JMP = Lua.NUM_OPCODES + 2;
+    /* LT A B C; JMP 0 sBx						*/
+    static final int OP_LT_JMP = Lua.NUM_OPCODES + 3;
+    /* LE A B C; JMP 0 sBx						*/
+    static final int OP_LE_JMP = Lua.NUM_OPCODES + 4;
+    /* TEST A C; JMP 0 sBx						*/
+    static final int OP_TEST_JMP = Lua.NUM_OPCODES + 5;
+    /* GETTABLE A B K(C); SETTABLE A' K(B') C'				*/
+    static final int OP_GETTABLE_SETTABLE = Lua.NUM_OPCODES + 6;
+
+    /* quickened forms of ADD, SUB, MUL and DIV				*/
+    static final int OP_ADD_II = Lua.NUM_OPCODES + 7;
+    static final int OP_ADD_DD = Lua.NUM_OPCODES + 8;
+    static final int OP_SUB_II = Lua.NUM_OPCODES + 9;
+    static final int OP_SUB_DD = Lua.NUM_OPCODES + 10;
+    static final int OP_MUL_II = Lua.NUM_OPCODES + 11;
+    static final int OP_MUL_DD = Lua.NUM_OPCODES + 12;
+    static final int OP_DIV_DD = Lua.NUM_OPCODES + 13;
+    /* quickened forms of LT+JMP and LE+JMP				*/
+    static final int OP_LT_JMP_II = Lua.NUM_OPCODES + 14;
+    static final int OP_LT_JMP_DD = Lua.NUM_OPCODES + 15;
+    static final int OP_LE_JMP_II = Lua.NUM_OPCODES + 16;
+    static final int OP_LE_JMP_DD = Lua.NUM_OPCODES + 17;
+    /* quickened forms of FORLOOP					*/
+    static final int OP_FORLOOP_I = Lua.NUM_OPCODES + 18;
+    static final int OP_FORLOOP_D = Lua.NUM_OPCODES + 19;
+
+    private Superinstructions() {
+    }
+
+    /**
+     * Build the code array executed by {@link LuaClosure} for a prototype.
+     *
+     * @param code the original code of the prototype
+     * @return a copy of {@code code} with fused pairs, which may be
+     * quickened while it is executed.
+     */
+    static int[] rewrite(int[] code) {
+        final int[] fused = code.clone();
+        for (int pc = 0, n = code.length - 1; pc < n; ++pc) {
+            final int i = code[pc];
+            final int op = fuse(i, code[pc + 1]);
+            if (op >= 0) {
+                fused[pc] = (i & Lua.MASK_NOT_OP) | op;
+                ++pc;
+            } else if (Lua.GET_OPCODE(i) == Lua.OP_SETLIST && Lua.GETARG_C(i) == 0
+                    || Lua.GET_OPCODE(i) == Lua.OP_LOADKX) {
+                ++pc; /* the next word is an argument, not an instruction */
+            }
+        }
+        return fused;
+    }
+
+    private static int fuse(int i, int next) {
+        final int op = Lua.GET_OPCODE(i);
+        final int nextop = Lua.GET_OPCODE(next);
+        return switch (op) {
+            case Lua.OP_GETTABUP -> nextop == Lua.OP_GETTABLE ? OP_GETTABUP_GETTABLE : -1;
+            case Lua.OP_SELF -> nextop == Lua.OP_CALL
+                    && Lua.GETARG_A(next) == Lua.GETARG_A(i)
+                    && Lua.GETARG_B(next) >= 2 && Lua.GETARG_B(next) <= 4
+                    && Lua.GETARG_C(next) >= 1 && Lua.GETARG_C(next) <= 2 ? OP_SELF_CALL : -1;
+            case Lua.OP_EQ -> isPlainJump(next) ? OP_EQ_JMP : -1;
+            case Lua.OP_LT -> isPlainJump(next) ? OP_LT_JMP : -1;
+            case Lua.OP_LE -> isPlainJump(next) ? OP_LE_JMP : -1;
+            case Lua.OP_TEST -> isPlainJump(next) ? OP_TEST_JMP : -1;
+            case Lua.OP_GETTABLE -> nextop == Lua.OP_SETTABLE
+                    && Lua.ISK(Lua.GETARG_C(i))
+                    && Lua.ISK(Lua.GETARG_B(next)) ? OP_GETTABLE_SETTABLE : -1;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Choose the quickened form of an instruction for the operands it has
+     * just been executed with.
+     *
+     * @param i   the generic instruction, one of ADD, SUB, MUL, DIV,
+     *            {@link #OP_LT_JMP} or {@link #OP_LE_JMP}
+     * @param lhs the left operand
+     * @param rhs the right operand
+     * @return the quickened instruction, or {@code i} if the operands are
+     * not both numbers.
+     */
+    static int quicken(int i, LuaValue lhs, LuaValue rhs) {
+        final boolean ints = lhs instanceof LuaInteger && rhs instanceof LuaInteger;
+        if (!ints && !(isnumber(lhs) && isnumber(rhs)))
+            return i;
+        final int op = switch (i & Lua.MASK_OP) {
+            case Lua.OP_ADD -> ints ? OP_ADD_II : OP_ADD_DD;
+            case Lua.OP_SUB -> ints ? OP_SUB_II : OP_SUB_DD;
+            case Lua.OP_MUL -> ints ? OP_MUL_II : OP_MUL_DD;
+            case Lua.OP_DIV -> OP_DIV_DD;
+            case OP_LT_JMP -> ints ? OP_LT_JMP_II : OP_LT_JMP_DD;
+            case OP_LE_JMP -> ints ? OP_LE_JMP_II : OP_LE_JMP_DD;
+            default -> i & Lua.MASK_OP;
+        };
+        return (i & Lua.MASK_NOT_OP) | op;
+    }
+
+    /**
+     * Choose the quickened form of a FORLOOP instruction for the
+     * loop control values it has just been executed with.
+     *
+     * @param i     the generic FORLOOP instruction
+     * @param idx   the loop index before the step was added
+     * @param limit the loop limit
+     * @param step  the loop step
+     * @return the quickened instruction, or {@code i} if a value is not a number
+     */
+    static int quicken(int i, LuaValue idx, LuaValue limit, LuaValue step) {
+        if (idx instanceof LuaInteger && limit instanceof LuaInteger && step instanceof LuaInteger)
+            return (i & Lua.MASK_NOT_OP) | OP_FORLOOP_I;
+        if (isnumber(idx) && isnumber(limit) && isnumber(step))
+            return (i & Lua.MASK_NOT_OP) | OP_FORLOOP_D;
+        return i;
+    }
+
+    /**
+     * Test if a value can be used by the double-double variants.
+     *
+     * @param v the operand
+     * @return true if v is a {@link LuaInteger} or {@link LuaDouble}
+     */
+    static boolean isnumber(LuaValue v) {
+        return v instanceof LuaDouble || v instanceof LuaInteger;
+    }
+
+    /**
+     * Test if operands can be used by the double-double add, subtract and
+     * multiply variants, whose results differ from the exact int-int ones.
+     *
+     * @param lhs the left operand
+     * @param rhs the right operand
+     * @return true if both are numbers for {@link #isnumber(LuaValue)} and one is a {@link LuaDouble}
+     */
+    static boolean isfloat(LuaValue lhs, LuaValue rhs) {
+        return lhs instanceof LuaDouble ? isnumber(rhs) : rhs instanceof LuaDouble && isnumber(lhs);
+    }
+
+    /* a jump that does not close upvalues */
+    private static boolean isPlainJump(int i) {
+        return Lua.GET_OPCODE(i) == Lua.OP_JMP && Lua.GETARG_A(i) == 0;
+    }
+}
@@ -24,7 +24,10 @@ package org.luaj.vm2.compiler;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.luaj.vm2.ConstantTable;
 import org.luaj.vm2.Globals;
 import org.luaj.vm2.LoadState;
 import org.luaj.vm2.LocVars;
@@ -149,49 +152,88 @@ public class DumpState {
 		final LuaValue[] k = f.k;
 		int i, n = k.length;
 		dumpInt(n);
-		for (i = 0; i < n; i++) {
-			final LuaValue o = k[i];
-			switch (o.type()) {
-				case LuaValue.TNIL -> writer.write(LuaValue.TNIL);
-				case LuaValue.TBOOLEAN -> {
-					writer.write(LuaValue.TBOOLEAN);
-					dumpChar(o.toboolean() ? 1 : 0);
-				}
-				case LuaValue.TNUMBER -> {
-					switch (NUMBER_FORMAT) {
-						case NUMBER_FORMAT_FLOATS_OR_DOUBLES -> {
+		for (i = 0; i < n; i++)
+			dumpConstant(k[i], null);
+		n = f.p.length;
+		dumpInt(n);
+		for (i = 0; i < n; i++)
+			dumpFunction(f.p[i]);
+	}
+
+	/** Dump a constant, where a {@link ConstantTable} is written once with each of its distinct strings,
+	 * and then as the size of its array and hash parts followed by its items, 
+	 * with strings as indexes into those strings. 
+	 * @param strings indexes of the strings of the enclosing constant table, or null
+	 */
+	void dumpConstant(final LuaValue o, Map<LuaString, Integer> strings) throws IOException {
+		if (o instanceof ConstantTable t) {
+			writer.write(LuaValue.TTABLE);
+			if (strings == null) {
+				strings = new LinkedHashMap<>();
+				collectStrings(t, strings);
+				dumpInt(strings.size());
+				for (LuaString s : strings.keySet())
+					dumpString(s);
+			}
+			dumpInt(t.array.length);
+			dumpInt(t.keys.length);
+			for (LuaValue v : t.array)
+				dumpConstant(v, strings);
+			for (int i = 0; i < t.keys.length; i++) {
+				dumpConstant(t.keys[i], strings);
+				dumpConstant(t.values[i], strings);
+			}
+			return;
+		}
+		switch (o.type()) {
+			case LuaValue.TNIL -> writer.write(LuaValue.TNIL);
+			case LuaValue.TBOOLEAN -> {
+				writer.write(LuaValue.TBOOLEAN);
+				dumpChar(o.toboolean() ? 1 : 0);
+			}
+			case LuaValue.TNUMBER -> {
+				switch (NUMBER_FORMAT) {
+					case NUMBER_FORMAT_FLOATS_OR_DOUBLES -> {
+						writer.write(LuaValue.TNUMBER);
+						dumpDouble(o.todouble());
+					}
+					case NUMBER_FORMAT_INTS_ONLY -> {
+						if (!ALLOW_INTEGER_CASTING && !o.isint())
+							throw new IllegalArgumentException("not an integer: " + o);
+						writer.write(LuaValue.TNUMBER);
+						dumpInt(o.toint());
+					}
+					case NUMBER_FORMAT_NUM_PATCH_INT32 -> {
+						if (o.isint()) {
+							writer.write(LuaValue.TINT);
+							dumpInt(o.toint());
+						} else {
 							writer.write(LuaValue.TNUMBER);
 							dumpDouble(o.todouble());
 						}
-						case NUMBER_FORMAT_INTS_ONLY -> {
-							if (!ALLOW_INTEGER_CASTING && !o.isint())
-								throw new IllegalArgumentException("not an integer: " + o);
-							writer.write(LuaValue.TNUMBER);
-							dumpInt(o.toint());
-						}
-						case NUMBER_FORMAT_NUM_PATCH_INT32 -> {
-							if (o.isint()) {
-								writer.write(LuaValue.TINT);
-								dumpInt(o.toint());
-							} else {
-								writer.write(LuaValue.TNUMBER);
-								dumpDouble(o.todouble());
-							}
-						}
-						default -> throw new IllegalArgumentException("number format not supported: " + NUMBER_FORMAT);
 					}
+					default -> throw new IllegalArgumentException("number format not supported: " + NUMBER_FORMAT);
 				}
-				case LuaValue.TSTRING -> {
-					writer.write(LuaValue.TSTRING);
+			}
+			case LuaValue.TSTRING -> {
+				writer.write(LuaValue.TSTRING);
+				if (strings != null)
+					dumpInt(strings.get(o));
+				else
 					dumpString((LuaString) o);
-				}
-				default -> throw new IllegalArgumentException("bad type for " + o);
 			}
+			default -> throw new IllegalArgumentException("bad type for " + o);
 		}
-		n = f.p.length;
-		dumpInt(n);
-		for (i = 0; i < n; i++)
-			dumpFunction(f.p[i]);
+	}
+
+	static void collectStrings(ConstantTable t, Map<LuaString, Integer> strings) {
+		for (LuaValue[] items : new LuaValue[][] {t.array, t.keys, t.values})
+			for (LuaValue v : items) {
+				if (v instanceof ConstantTable c)
+					collectStrings(c, strings);
+				else if (v.type() == LuaValue.TSTRING)
+					strings.putIfAbsent((LuaString) v, strings.size());
+			}
 	}
 
 	void dumpUpvalues(final Prototype f) throws IOException {
@@ -205,6 +247,8 @@ public class DumpState {
 
 	void dumpDebug(final Prototype f) throws IOException {
 		int i, n;
+		if (!strip)
+			f.loaddebug();
 		if (strip)
 			dumpInt(0);
 		else
@@ -27,6 +27,8 @@ import org.luaj.vm2.lib.MathLib;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Hashtable;
 
 
@@ -109,6 +111,7 @@ public class LexState extends Constants {
     private static final int UCHAR_MAX = 255; // TODO, convert to unicode CHAR_MAX?
     private static final int LUAI_MAXCCALLS = 200;
     private static final int LUA_COMPAT_LSTR = 1; // 1 for compatibility, 2 for old behavior
+    private static final int ZBUFSIZE = 8192; // bytes read from the input at once
 
 	private static final boolean LUA_COMPAT_VARARG = true;
 
@@ -140,15 +143,21 @@ public class LexState extends Constants {
     FuncState fs;  /* `FuncState' is private to the parser */
     LuaC.CompileState L;
     InputStream z;  /* input stream */
-    char[] buff;  /* buffer for tokens */
+    byte[] zbuf;  /* window of input read ahead from z */
+    int zpos, zlim;  /* next byte and end of the bytes in the window */
+    byte[] buff;  /* buffer for tokens */
     int nbuff; /* length of buffer */
     Dyndata dyd = new Dyndata();  /* dynamic structures used by the parser */
     LuaString source;  /* current source name */
     LuaString envn;  /* environment variable name */
     byte decpoint;  /* locale decimal point */
+    static final ConstantTable EMPTYTABLE = new ConstantTable(LuaValue.NOVALS, LuaValue.NOVALS, LuaValue.NOVALS);
+    ConstantTable lasttable;  /* template of the last constant constructor */
+    int lasttablepc, lasttablereg;  /* pc after its code, and register holding its table */
     public LexState(LuaC.CompileState state, InputStream stream) {
         this.z = stream;
-        this.buff = new char[32];
+        this.zbuf = new byte[ZBUFSIZE];
+        this.buff = new byte[32];
         this.L = state;
     }
 
@@ -219,14 +228,38 @@ public class LexState extends Constants {
     }
 
     void nextChar() {
+        current = zpos < zlim ? zbuf[zpos++] & 0xff : fill();
+    }
+
+    /* refill the window with as many bytes as the input has ready, and return the first */
+    private int fill() {
         try {
-            current = z.read();
+            int n;
+            do {
+                n = z.read(zbuf, 0, zbuf.length);
+            } while (n == 0);
+            if (n < 0)
+                return EOZ;
+            zpos = 1;
+            zlim = n;
+            return zbuf[0] & 0xff;
         } catch (IOException e) {
             e.printStackTrace();
-            current = EOZ;
+            return EOZ;
         }
     }
 
+    /* save the bytes ahead in the window up to end, then read the character after them */
+    private void save_window(int end) {
+        int n = end - zpos;
+        if (nbuff + n > buff.length)
+            buff = realloc(buff, Math.max(nbuff + n, nbuff * 2 + 1));
+        System.arraycopy(zbuf, zpos, buff, nbuff, n);
+        nbuff += n;
+        zpos = end;
+        nextChar();
+    }
+
     boolean currIsNewline() {
         return current == '\n' || current == '\r';
     }
@@ -239,7 +272,7 @@ public class LexState extends Constants {
     void save(int c) {
         if (buff == null || nbuff + 1 > buff.length)
             buff = realloc(buff, nbuff * 2 + 1);
-        buff[nbuff++] = (char) c;
+        buff[nbuff++] = (byte) c;
     }
 
     String token2str(int token) {
@@ -254,7 +287,7 @@ public class LexState extends Constants {
 
     String txtToken(int token) {
 		return switch (token) {
-			case TK_NAME, TK_STRING, TK_NUMBER -> new String(buff, 0, nbuff);
+			case TK_NAME, TK_STRING, TK_NUMBER -> new String(buff, 0, nbuff, StandardCharsets.ISO_8859_1);
 			default -> token2str(token);
 		};
     }
@@ -276,8 +309,8 @@ public class LexState extends Constants {
         return L.newTString(s);
     }
 
-    LuaString newstring(char[] chars, int offset, int len) {
-        return L.newTString(new String(chars, offset, len));
+    LuaString newstring(byte[] bytes, int offset, int len) {
+        return L.newTString(LuaString.valueOf(bytes, offset, len));
     }
 
 
@@ -309,14 +342,25 @@ public class LexState extends Constants {
         this.source = source;
         this.envn = LuaValue.ENV;  /* environment variable name */
         this.nbuff = 0;   /* initialize buffer */
+        this.zpos = this.zlim = 0;
         this.current = firstByte; /* read first char */
         this.skipShebang();
     }
 
     private void skipShebang() {
         if (current == '#')
-            while (!currIsNewline() && current != EOZ)
-                nextChar();
+            skip_line();
+    }
+
+    /* skip to the end of the line, scanning the window for it */
+    private void skip_line() {
+        while (!currIsNewline() && current != EOZ) {
+            int i = zpos;
+            while (i < zlim && zbuf[i] != '\n' && zbuf[i] != '\r')
+                i++;
+            zpos = i;
+            nextChar();
+        }
     }
 
     boolean check_next(String set) {
@@ -326,9 +370,9 @@ public class LexState extends Constants {
         return true;
     }
 
-    void buffreplace(char from, char to) {
+    void buffreplace(byte from, byte to) {
         int n = nbuff;
-        char[] p = buff;
+        byte[] p = buff;
         while ((--n) >= 0)
             if (p[n] == from)
                 p[n] = to;
@@ -399,21 +443,36 @@ public class LexState extends Constants {
     }
 
     void read_numeral(SemInfo seminfo) {
-        String expo = "Ee";
+        int expo = 'e';
         int first = current;
         _assert(isdigit(current));
         save_and_next();
         if (first == '0' && check_next("Xx"))
-            expo = "Pp";
+            expo = 'p';
+        boolean digits = expo == 'e' && isdigit(buff[0]);
         while (true) {
-            if (check_next(expo))
+            if ((current | 0x20) == expo) {
+                save_and_next();
                 check_next("+-");
-            if (isxdigit(current) || current == '.')
+                digits = false;
+            }
+            if (isxdigit(current) || current == '.') {
+                digits &= isdigit(current);
                 save_and_next();
-            else
+            } else
                 break;
         }
-        String str = new String(buff, 0, nbuff);
+        if (digits && nbuff <= 19) {
+            /* plain decimal integers are kept exact; 19 digits wrap negative at most once on overflow */
+            long v = 0;
+            for (int i = 0; i < nbuff; i++)
+                v = v * 10 + (buff[i] - '0');
+            if (v >= 0) {
+                seminfo.r = LuaValue.valueOf(v);
+                return;
+            }
+        }
+        String str = new String(buff, 0, nbuff, StandardCharsets.ISO_8859_1);
         str2d(str, seminfo);
     }
 
@@ -468,9 +527,17 @@ public class LexState extends Constants {
                 }
                 default -> {
                     if (seminfo != null)
-                        save_and_next();
-                    else
+                        save(current);
+                    int i = zpos;
+                    byte b;
+                    while (i < zlim && (b = zbuf[i]) != '[' && b != ']' && b != '\n' && b != '\r')
+                        i++;
+                    if (seminfo != null)
+                        save_window(i);
+                    else {
+                        zpos = i;
                         nextChar();
+                    }
                 }
             }
         }
@@ -558,7 +625,14 @@ public class LexState extends Constants {
                     save(c);
                     nextChar();
                 }
-                default -> save_and_next();
+                default -> {
+                    save(current);
+                    int i = zpos;
+                    byte b;
+                    while (i < zlim && (b = zbuf[i]) != del && b != '\\' && b != '\n' && b != '\r')
+                        i++;
+                    save_window(i);
+                }
             }
         }
         save_and_next(); /* skip delimiter */
@@ -606,8 +680,7 @@ public class LexState extends Constants {
                         }
                     }
                     /* else short comment */
-                    while (!currIsNewline() && current != EOZ)
-                        nextChar();
+                    skip_line();
                     continue;
                 }
                 case '[': {
@@ -705,11 +778,16 @@ public class LexState extends Constants {
                         /* identifier or reserved word */
                         LuaString ts;
                         do {
-                            save_and_next();
+                            save(current);
+                            int i = zpos;
+                            while (i < zlim && isalnum(zbuf[i]))
+                                i++;
+                            save_window(i);
                         } while (isalnum(current));
                         ts = newstring(buff, 0, nbuff);
-                        if (RESERVED.containsKey(ts))
-                            return RESERVED.get(ts);
+                        Integer reserved = RESERVED.get(ts);
+                        if (reserved != null)
+                            return reserved;
                         else {
                             seminfo.ts = ts;
                             return TK_NAME;
@@ -1013,6 +1091,7 @@ public class LexState extends Constants {
         fs.f.source = this.source;
         fs.f.maxstacksize = 2;  /* registers 0/1 are always valid */
         fs.enterblock(bl, false);
+        this.lasttable = null;
     }
 
     void close_func() {
@@ -1028,6 +1107,7 @@ public class LexState extends Constants {
         f.upvalues = realloc(f.upvalues, fs.nups);
         _assert(fs.bl == null);
         this.fs = fs.prev;
+        this.lasttable = null;
         // last token read was anchored in defunct function; must reanchor it
         // ls.anchor_token();
     }
@@ -1065,8 +1145,19 @@ public class LexState extends Constants {
             this.yindex(key);
         cc.nh++;
         this.checknext('=');
+        LuaValue k = cc.array != null ? this.constvalue(key) : null;
         rkkey = fs.exp2RK(key);
         this.expr(val);
+        if (cc.array != null) {
+            LuaValue v = this.constvalue(val);
+            if (k == null || v == null || k.isnil() || k instanceof ConstantTable
+                    || k.isnumber() && Double.isNaN(k.todouble()))
+                cc.array = null;
+            else {
+                cc.keys.add(k);
+                cc.values.add(v);
+            }
+        }
         fs.codeABC(Lua.OP_SETTABLE, cc.t.u.info, rkkey, fs.exp2RK(val));
         fs.freereg = (short) reg; /* free registers */
     }
@@ -1078,6 +1169,13 @@ public class LexState extends Constants {
     void listfield(ConsControl cc) {
         this.expr(cc.v);
         fs.checklimit(cc.na, MAX_INT, "items in a constructor");
+        if (cc.array != null) {
+            LuaValue v = this.constvalue(cc.v);
+            if (v != null)
+                cc.array.add(v);
+            else
+                cc.array = null;
+        }
         cc.na++;
         cc.tostore++;
     }
@@ -1092,6 +1190,12 @@ public class LexState extends Constants {
         cc.t = t;
         t.init(VRELOCABLE, pc);
         cc.v.init(VVOID, 0); /* no value (yet) */
+        if (L.constantTables) {
+            cc.array = new ArrayList<>();
+            cc.keys = new ArrayList<>();
+            cc.values = new ArrayList<>();
+            cc.nk = fs.nk;
+        }
         fs.exp2nextreg(t); /* fix it at stack top (for gc) */
         this.checknext('{');
         do {
@@ -1120,6 +1224,54 @@ public class LexState extends Constants {
         InstructionPtr i = new InstructionPtr(fs.f.code, pc);
         SETARG_B(i, luaO_int2fb(cc.na)); /* set initial array size */
         SETARG_C(i, luaO_int2fb(cc.nh));  /* set initial table size */
+        if (cc.array != null && cc.na + cc.nh > 0)
+            this.constanttable(cc, pc);
+        else if (cc.array != null) { /* keep OP_NEWTABLE, but may be an item of a constant constructor */
+            lasttable = EMPTYTABLE;
+            lasttablepc = fs.pc;
+            lasttablereg = t.u.info;
+        }
+    }
+
+    /* the value of an item of a constructor that is a constant, or null */
+    LuaValue constvalue(expdesc e) {
+        if (e.hasjumps())
+            return null;
+        return switch (e.k) {
+            case VNIL -> LuaValue.NIL;
+            case VTRUE -> LuaValue.TRUE;
+            case VFALSE -> LuaValue.FALSE;
+            case VK -> fs.f.k[e.u.info];
+            case VKNUM -> {
+                LuaValue r = e.u.nval();
+                double d = r.todouble();
+                yield r instanceof LuaDouble && d == (int) d ? LuaInteger.valueOf((int) d) : r;
+            }
+            case VNONRELOC -> lasttable != null && fs.pc == lasttablepc && e.u.info == lasttablereg ? lasttable : null;
+            default -> null;
+        };
+    }
+
+    /* replace the code of a constructor whose items are all constants by a call to a template */
+    void constanttable(ConsControl cc, int pc) {
+        FuncState fs = this.fs;
+        for (LuaValue k : cc.keys)
+            if (k.isinttype() && k.toint() >= 1 && k.toint() <= cc.na)
+                return; /* result depends on when the list items are flushed */
+        int reg = cc.t.u.info;
+        for (int i = cc.nk; i < fs.nk; i++) { /* drop constants only used by the items */
+            fs.h.remove(fs.f.k[i]);
+            fs.f.k[i] = null;
+        }
+        fs.nk = cc.nk;
+        fs.pc = pc;
+        fs.freereg = (short) (reg + 1);
+        lasttable = new ConstantTable(cc.array.toArray(new LuaValue[0]),
+                cc.keys.toArray(new LuaValue[0]), cc.values.toArray(new LuaValue[0]));
+        fs.codeK(reg, fs.addk(lasttable));
+        fs.codeABC(Lua.OP_CALL, reg, 1, 2);
+        lasttablepc = fs.pc;
+        lasttablereg = reg;
     }
 
 
@@ -2006,6 +2158,9 @@ public class LexState extends Constants {
         int nh; /* total number of `record' elements */
         int na; /* total number of array elements */
         int tostore; /* number of array elements pending to be stored */
+        ArrayList<LuaValue> array; /* constant list items, or null if an item is not constant */
+        ArrayList<LuaValue> keys, values; /* constant record items */
+        int nk; /* number of constants before the constructor */
     }
 
     static class Priority {
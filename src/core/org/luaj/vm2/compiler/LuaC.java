@@ -23,8 +23,9 @@ package org.luaj.vm2.compiler;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Hashtable;
+import java.util.HashMap;
 
+import org.luaj.vm2.ConstantTable;
 import org.luaj.vm2.Globals;
 import org.luaj.vm2.LuaClosure;
 import org.luaj.vm2.LuaFunction;
@@ -62,6 +63,14 @@ import org.luaj.vm2.lib.BaseLib;
  * LuaC.install(globals);
  * } </pre>
  * 
+ * To also run the {@link Optimizer} over each compiled prototype, install it with optimization enabled:
+ * <pre> {@code
+ * LuaC.install(globals, true);
+ * } </pre>
+ * With optimization enabled, table constructors whose items are all constants, 
+ * such as those of data files, are also compiled into a {@link ConstantTable} template 
+ * that creates the table directly, rather than into code that sets each item. 
+ * 
  * @see #install(Globals)
  * @see Globals#compiler
  * @see Globals#loader
@@ -77,17 +86,41 @@ public class LuaC extends Constants implements Globals.Compiler, Globals.Loader
 	/** A sharable instance of the LuaC compiler. */
 	public static final LuaC instance = new LuaC();
 	
+	/** A sharable instance of the LuaC compiler that runs the {@link Optimizer} over its output. */
+	public static final LuaC optimizing = new LuaC(true);
+	
 	/** Install the compiler so that LoadState will first 
 	 * try to use it when handed bytes that are 
 	 * not already a compiled lua chunk.
 	 * @param globals the Globals into which this is to be installed.
 	 */
 	public static void install(Globals globals) {
-		globals.compiler = instance;
-		globals.loader = instance;
+		install(globals, false);
 	}
 
-	protected LuaC() {}
+	/** Install the compiler so that LoadState will first 
+	 * try to use it when handed bytes that are 
+	 * not already a compiled lua chunk.
+	 * @param globals the Globals into which this is to be installed.
+	 * @param optimize true to run the {@link Optimizer} over each compiled prototype, 
+	 * and compile constant table constructors into {@link ConstantTable} templates.
+	 */
+	public static void install(Globals globals, boolean optimize) {
+		LuaC c = optimize? optimizing: instance;
+		globals.compiler = c;
+		globals.loader = c;
+	}
+
+	/** true if the {@link Optimizer} is run over each compiled prototype */
+	private final boolean optimize;
+
+	protected LuaC() {
+		this(false);
+	}
+
+	protected LuaC(boolean optimize) {
+		this.optimize = optimize;
+	}
 
 	/** Compile lua source into a Prototype.
 	 * @param stream InputStream representing the text source conforming to lua source syntax.
@@ -96,7 +129,10 @@ public class LuaC extends Constants implements Globals.Compiler, Globals.Loader
 	 * @throws IOException
 	 */
 	public Prototype compile(InputStream stream, String chunkname) throws IOException {
-		return (new CompileState()).luaY_parser(stream, chunkname);
+		Prototype p = (new CompileState(optimize)).luaY_parser(stream, chunkname);
+		if (optimize)
+			Optimizer.optimize(p);
+		return p;
 	}
 
 	public LuaFunction load(Prototype prototype, String chunkname, LuaValue env) throws IOException {
@@ -114,8 +150,15 @@ public class LuaC extends Constants implements Globals.Compiler, Globals.Loader
 
 	static class CompileState {
 		int nCcalls = 0;
-		private Hashtable strings = new Hashtable();
-		protected CompileState() {}
+		private final HashMap<LuaString, LuaString> strings = new HashMap<>();
+		/** true to compile constant table constructors into {@link ConstantTable} templates */
+		final boolean constantTables;
+		protected CompileState() {
+			this(false);
+		}
+		protected CompileState(boolean constantTables) {
+			this.constantTables = constantTables;
+		}
 	
 		/** Parse the input */
 		Prototype luaY_parser(InputStream z, String name) throws IOException{
@@ -146,7 +189,7 @@ public class LuaC extends Constants implements Globals.Compiler, Globals.Loader
 		}
 	
 		public LuaString cachedLuaString(LuaString s) {
-			LuaString c = (LuaString) strings.get(s);
+			LuaString c = strings.get(s);
 			if (c != null) 
 				return c;
 			strings.put(s, s);
@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.compiler;
+
+import org.luaj.vm2.LocVars;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.Upvaldesc;
+
+/**
+ * Optional optimization pass over the bytecode of a compiled {@link Prototype}.
+ * <p>
+ * This runs after {@link FuncState} has generated code, and rewrites {@link Prototype#code} in place
+ * with the following transformations:
+ * <ul>
+ * <li>jump threading: an {@code OP_JMP} to another {@code OP_JMP} that closes no upvalues
+ * jumps directly to the final target</li>
+ * <li>dead code elimination: instructions that are unreachable, such as those after an
+ * unconditional jump or return, and jumps to the next instruction are removed</li>
+ * <li>redundant {@code OP_MOVE} removal: moves of a register to itself, and the second of
+ * {@code MOVE A B; MOVE B A}, are removed</li>
+ * <li>{@code OP_LOADNIL} coalescing: adjacent or overlapping {@code OP_LOADNIL} ranges are merged</li>
+ * <li>{@code OP_NOT}+{@code OP_TEST} folding: when the result of the {@code OP_NOT} is a temporary
+ * that is not used afterwards, the test is inverted and applied to the operand directly</li>
+ * </ul>
+ * Instructions that are jump targets, or that must stay adjacent to the previous instruction
+ * (the instruction skipped by a test or {@code OP_LOADBOOL}, {@code OP_EXTRAARG},
+ * and {@code OP_SETLIST} data), are never removed or merged into.
+ * {@link Prototype#lineinfo} and the {@link LocVars} ranges are remapped to the new program counters.
+ * <p>
+ * It is typically enabled when installing the compiler:
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * LuaC.install(globals, true);
+ * } </pre>
+ *
+ * @see LuaC#install(org.luaj.vm2.Globals, boolean)
+ */
+public class Optimizer extends Constants {
+
+    private final Prototype p;
+    private final int[] code;
+    private final int n;
+
+    /* instruction may be reached by a jump */
+    private boolean[] target;
+    /* instruction must stay immediately after the previous instruction */
+    private final boolean[] pinned;
+    /* code word is an argument of the previous OP_SETLIST, not an instruction */
+    private final boolean[] data;
+    /* instruction will be dropped when the code is compacted */
+    private final boolean[] removed;
+
+    /**
+     * Optimize the code of a prototype and all its nested prototypes.
+     *
+     * @param p the Prototype to optimize, which is modified in place
+     */
+    public static void optimize(Prototype p) {
+        for (Prototype sub : p.p)
+            optimize(sub);
+        new Optimizer(p).run();
+    }
+
+    private Optimizer(Prototype p) {
+        this.p = p;
+        this.code = p.code;
+        this.n = code.length;
+        this.pinned = new boolean[n + 2];
+        this.data = new boolean[n + 2];
+        this.removed = new boolean[n];
+        for (int pc = 0; pc < n; pc++) {
+            final int i = code[pc];
+            switch (GET_OPCODE(i)) {
+                case OP_EQ, OP_LT, OP_LE, OP_TEST, OP_TESTSET, OP_LOADKX -> pinned[pc + 1] = true;
+                case OP_LOADBOOL -> pinned[pc + 1] = GETARG_C(i) != 0;
+                case OP_SETLIST -> {
+                    if (GETARG_C(i) == 0) {
+                        pinned[pc + 1] = true;
+                        data[pc + 1] = true;
+                        ++pc;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void run() {
+        p.loaddebug();
+        threadJumps();
+        target = findTargets();
+        for (int pc = 0; pc + 1 < n; pc++) {
+            if (data[pc])
+                continue;
+            switch (GET_OPCODE(code[pc])) {
+                case OP_MOVE -> removeMove(pc);
+                case OP_LOADNIL -> coalesceLoadNil(pc);
+                case OP_NOT -> foldNotTest(pc);
+                default -> {
+                }
+            }
+        }
+        removeUnreachable();
+        compact();
+    }
+
+    private static int jumpTarget(int pc, int i) {
+        return pc + 1 + GETARG_sBx(i);
+    }
+
+    private static int setJumpTarget(int pc, int i, int dest) {
+        return (i & MASK_NOT_Bx) | (((dest - (pc + 1) + MAXARG_sBx) << POS_Bx) & MASK_Bx);
+    }
+
+    private boolean isJump(int pc) {
+        if (data[pc])
+            return false;
+        return switch (GET_OPCODE(code[pc])) {
+            case OP_JMP, OP_FORLOOP, OP_FORPREP, OP_TFORLOOP -> true;
+            default -> false;
+        };
+    }
+
+    /** Retarget jumps to unconditional jumps which close no upvalues, and drop jumps to the next instruction */
+    private void threadJumps() {
+        for (int pc = 0; pc < n; pc++) {
+            if (data[pc] || GET_OPCODE(code[pc]) != OP_JMP)
+                continue;
+            int dest = jumpTarget(pc, code[pc]);
+            for (int hops = 0; hops < n && dest < n && GET_OPCODE(code[dest]) == OP_JMP && GETARG_A(code[dest]) == 0; hops++) {
+                final int next = jumpTarget(dest, code[dest]);
+                if (next == dest)
+                    break;
+                dest = next;
+            }
+            code[pc] = setJumpTarget(pc, code[pc], dest);
+            if (dest == pc + 1 && GETARG_A(code[pc]) == 0 && !pinned[pc])
+                removed[pc] = true;
+        }
+    }
+
+    private boolean[] findTargets() {
+        final boolean[] t = new boolean[n + 2];
+        for (int pc = 0; pc < n; pc++) {
+            if (removed[pc] || data[pc])
+                continue;
+            if (isJump(pc))
+                t[jumpTarget(pc, code[pc])] = true;
+            else if (pinned[pc + 1] && GET_OPCODE(code[pc]) != OP_LOADKX)
+                t[pc + 2] = true;  /* skipped to by a test or OP_LOADBOOL */
+        }
+        return t;
+    }
+
+    /** An instruction can be dropped or merged into its predecessor */
+    private boolean removable(int pc) {
+        return !target[pc] && !pinned[pc] && !removed[pc];
+    }
+
+    private void removeMove(int pc) {
+        final int i = code[pc];
+        final int a = GETARG_A(i);
+        final int b = GETARG_B(i);
+        if (a == b && !pinned[pc]) {
+            removed[pc] = true;
+        } else if (removable(pc + 1) && !removed[pc] && GET_OPCODE(code[pc + 1]) == OP_MOVE) {
+            final int j = code[pc + 1];
+            if (GETARG_A(j) == b && GETARG_B(j) == a)
+                removed[pc + 1] = true;
+        }
+    }
+
+    private void coalesceLoadNil(int pc) {
+        if (removed[pc])
+            return;
+        int from = GETARG_A(code[pc]);
+        int to = from + GETARG_B(code[pc]);
+        int next = pc + 1;
+        while (next < n && removable(next) && GET_OPCODE(code[next]) == OP_LOADNIL) {
+            final int f = GETARG_A(code[next]);
+            final int l = f + GETARG_B(code[next]);
+            if (f > to + 1 || l + 1 < from)
+                break;
+            from = Math.min(from, f);
+            to = Math.max(to, l);
+            removed[next++] = true;
+        }
+        code[pc] = CREATE_ABC(OP_LOADNIL, from, to - from, 0);
+    }
+
+    private void foldNotTest(int pc) {
+        final int i = code[pc];
+        final int j = code[pc + 1];
+        final int a = GETARG_A(i);
+        if (removed[pc] || pinned[pc] || !removable(pc + 1) || GET_OPCODE(j) != OP_TEST || GETARG_A(j) != a)
+            return;
+        if (isLocal(a, pc + 1) || isCaptured(a) || isLive(a, pc + 2) || isLive(a, pc + 3))
+            return;
+        code[pc + 1] = CREATE_ABC(OP_TEST, GETARG_B(i), 0, GETARG_C(j) != 0 ? 0 : 1);
+        removed[pc] = true;
+    }
+
+    /** Register is a named local variable at pc, so may be observed by the debug library */
+    private boolean isLocal(int reg, int pc) {
+        int nactive = 0;
+        for (LocVars l : p.locvars)
+            if (l.startpc <= pc && pc < l.endpc)
+                ++nactive;
+        return reg < nactive;
+    }
+
+    /** Register is referred to by an upvalue of any closure created by this function */
+    private boolean isCaptured(int reg) {
+        for (Prototype sub : p.p)
+            for (Upvaldesc u : sub.upvalues)
+                if (u.instack && u.idx == reg)
+                    return true;
+        return false;
+    }
+
+    /** Register may be read on some path starting at pc before being written */
+    private boolean isLive(int reg, int start) {
+        final boolean[] visited = new boolean[n + 1];
+        final int[] work = new int[2 * n + 2];
+        int nwork = 0;
+        work[nwork++] = start;
+        while (nwork > 0) {
+            final int pc = work[--nwork];
+            if (pc >= n || visited[pc])
+                continue;
+            visited[pc] = true;
+            final int i = code[pc];
+            if (reads(p, i, reg))
+                return true;
+            if (writes(i, reg))
+                continue;
+            nwork = successors(pc, work, nwork);
+        }
+        return false;
+    }
+
+    private static boolean rk(int x, int reg) {
+        return !ISK(x) && x == reg;
+    }
+
+    private static boolean reads(Prototype p, int i, int r) {
+        final int a = GETARG_A(i);
+        final int b = GETARG_B(i);
+        final int c = GETARG_C(i);
+        return switch (GET_OPCODE(i)) {
+            case OP_LOADK, OP_LOADKX, OP_LOADBOOL, OP_LOADNIL, OP_GETUPVAL, OP_NEWTABLE, OP_VARARG, OP_JMP, OP_EXTRAARG -> false;
+            case OP_MOVE, OP_UNM, OP_NOT, OP_LEN, OP_TESTSET -> b == r;
+            case OP_GETTABUP -> rk(c, r);
+            case OP_GETTABLE, OP_SELF -> b == r || rk(c, r);
+            case OP_SETTABUP, OP_ADD, OP_SUB, OP_MUL, OP_DIV, OP_MOD, OP_POW, OP_EQ, OP_LT, OP_LE -> rk(b, r) || rk(c, r);
+            case OP_SETUPVAL, OP_TEST -> a == r;
+            case OP_SETTABLE -> a == r || rk(b, r) || rk(c, r);
+            case OP_CONCAT -> b <= r && r <= c;
+            case OP_CALL, OP_TAILCALL -> r >= a && (b == 0 || r < a + b);
+            case OP_RETURN -> r >= a && (b == 0 || r < a + b - 1);
+            case OP_FORLOOP, OP_FORPREP, OP_TFORCALL -> a <= r && r <= a + 2;
+            case OP_TFORLOOP -> r == a + 1;
+            case OP_SETLIST -> r >= a && (b == 0 || r <= a + b);
+            case OP_CLOSURE -> {
+                for (Upvaldesc u : p.p[GETARG_Bx(i)].upvalues)
+                    if (u.instack && u.idx == r)
+                        yield true;
+                yield false;
+            }
+            default -> true;
+        };
+    }
+
+    /** Instruction always assigns the register, assuming it does not also read it */
+    private static boolean writes(int i, int r) {
+        final int a = GETARG_A(i);
+        final int b = GETARG_B(i);
+        final int c = GETARG_C(i);
+        return switch (GET_OPCODE(i)) {
+            case OP_MOVE, OP_LOADK, OP_LOADKX, OP_LOADBOOL, OP_GETUPVAL, OP_GETTABUP, OP_GETTABLE, OP_NEWTABLE,
+                 OP_ADD, OP_SUB, OP_MUL, OP_DIV, OP_MOD, OP_POW, OP_UNM, OP_NOT, OP_LEN, OP_CONCAT, OP_CLOSURE -> a == r;
+            case OP_LOADNIL -> a <= r && r <= a + b;
+            case OP_SELF -> r == a || r == a + 1;
+            case OP_CALL -> c > 0 && a <= r && r <= a + c - 2;
+            case OP_VARARG -> b > 0 && a <= r && r <= a + b - 2;
+            case OP_TFORCALL -> a + 3 <= r && r <= a + 2 + c;
+            default -> false;
+        };
+    }
+
+    /** Push the possible successors of the instruction at pc onto a work list */
+    private int successors(int pc, int[] work, int nwork) {
+        final int i = code[pc];
+        switch (GET_OPCODE(i)) {
+            case OP_RETURN -> {
+            }
+            case OP_JMP, OP_FORPREP -> work[nwork++] = jumpTarget(pc, i);
+            case OP_FORLOOP, OP_TFORLOOP -> {
+                work[nwork++] = pc + 1;
+                work[nwork++] = jumpTarget(pc, i);
+            }
+            case OP_EQ, OP_LT, OP_LE, OP_TEST, OP_TESTSET -> {
+                work[nwork++] = pc + 1;
+                work[nwork++] = pc + 2;
+            }
+            case OP_LOADBOOL -> work[nwork++] = GETARG_C(i) != 0 ? pc + 2 : pc + 1;
+            case OP_SETLIST -> work[nwork++] = GETARG_C(i) == 0 ? pc + 2 : pc + 1;
+            default -> work[nwork++] = pc + 1;
+        }
+        return nwork;
+    }
+
+    /** Remove instructions that cannot be reached from the function entry */
+    private void removeUnreachable() {
+        final boolean[] reachable = new boolean[n + 1];
+        final int[] work = new int[2 * n + 2];
+        int nwork = 0;
+        work[nwork++] = 0;
+        while (nwork > 0) {
+            final int pc = work[--nwork];
+            if (pc >= n || reachable[pc])
+                continue;
+            reachable[pc] = true;
+            if (data[pc + 1])
+                reachable[pc + 1] = true;
+            nwork = successors(pc, work, nwork);
+        }
+        for (int pc = 0; pc < n; pc++)
+            if (!reachable[pc] && (!pinned[pc] || pc == 0 || removed[pc - 1]))
+                removed[pc] = true;
+    }
+
+    /** Drop removed instructions and remap jumps, line info and local variable ranges */
+    private void compact() {
+        final int[] map = new int[n + 1];
+        int m = 0;
+        for (int pc = 0; pc < n; pc++) {
+            map[pc] = m;
+            if (!removed[pc])
+                ++m;
+        }
+        map[n] = m;
+        if (m == n)
+            return;
+
+        final int[] newcode = new int[m];
+        final boolean haslines = p.lineinfo != null && p.lineinfo.length == n;
+        final int[] newlines = haslines ? new int[m] : p.lineinfo;
+        for (int pc = 0; pc < n; pc++) {
+            if (removed[pc])
+                continue;
+            final int to = map[pc];
+            newcode[to] = isJump(pc) ? setJumpTarget(to, code[pc], map[jumpTarget(pc, code[pc])]) : code[pc];
+            if (haslines)
+                newlines[to] = p.lineinfo[pc];
+        }
+        p.code = newcode;
+        p.lineinfo = newlines;
+        for (LocVars l : p.locvars) {
+            l.startpc = map[Math.min(l.startpc, n)];
+            l.endpc = map[Math.min(l.endpc, n)];
+        }
+    }
+}
@@ -397,7 +397,10 @@ public class BaseLib extends TwoArgFunction implements ResourceFinder {
 			this.next = next;
 		}
 		public Varargs invoke(Varargs args) {
-				return varargsOf( next, args.checktable(1), NIL );
+			LuaValue h = args.arg1().metatag(PAIRS);
+			if (!h.isnil())
+				return first3(h.invoke(args.arg1()));
+			return varargsOf( next, args.checktable(1), NIL );
 		}
 	}
 	
@@ -405,9 +408,17 @@ public class BaseLib extends TwoArgFunction implements ResourceFinder {
 	static final class ipairs extends VarArgFunction {
 		inext inext = new inext();
 		public Varargs invoke(Varargs args) {
+			LuaValue h = args.arg1().metatag(IPAIRS);
+			if (!h.isnil())
+				return first3(h.invoke(args.arg1()));
 			return varargsOf( inext, args.checktable(1), ZERO );
 		}
 	}
+
+	// the first three results of a __pairs or __ipairs metamethod
+	static Varargs first3(Varargs v) {
+		return varargsOf( v.arg1(), v.arg(2), v.arg(3) );
+	}
 	
 	// "next"  ( table, [index] ) -> next-index, next-value
 	static final class next extends VarArgFunction {
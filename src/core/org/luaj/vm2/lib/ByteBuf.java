@@ -0,0 +1,299 @@
+/*******************************************************************************
+* Copyright (c) 2007-2011 LuaJ. All rights reserved.
+* <p>
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* <p>
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* <p>
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.lib;
+
+import java.util.Arrays;
+
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Mutable sequence of bytes, exposed to lua as a userdata by {@link ByteBufLib}.
+ * <p>
+ * A buffer owns a growable byte array, and a slice is a fixed-length view of a range of the bytes of a buffer,
+ * which sees and makes changes to those bytes, including after the buffer grows.
+ * When the buffer shrinks, a slice loses the bytes beyond the new end of the buffer.
+ * <p>
+ * Converting more than 64 bytes to a {@link LuaString} shares the array with the string.
+ * The buffer then copies its array before it is next written to, so that strings never change.
+ * <p>
+ * In lua, a buffer is indexed by position, from 1, to get or set byte values, its length is given by
+ * the {@code #} operator, and its methods are those of {@link ByteBufLib}.
+ *
+ * @see ByteBufLib
+ */
+public final class ByteBuf extends LuaValue {
+
+	private static final int MINCAPACITY = 16;
+
+	/* ranges no longer than this are copied into new strings instead of shared */
+	private static final int MAXCOPY = 64;
+
+	/** The buffer owning the bytes, this one unless this is a slice. */
+	final ByteBuf root;
+
+	/** Offset of the first byte in the array of the root. */
+	final int offset;
+
+	/** Number of bytes of a buffer, or the most bytes a slice can see, which {@link #length()} bounds by the buffer. */
+	int length;
+
+	/* the array of a root buffer, and whether a string shares it */
+	private byte[] data;
+	private boolean shared;
+
+	/**
+	 * Create an empty buffer.
+	 * @param capacity the initial size of its array
+	 */
+	public ByteBuf(int capacity) {
+		this.root = this;
+		this.offset = 0;
+		this.data = new byte[Math.max(capacity, 0)];
+	}
+
+	/**
+	 * Create a buffer holding a copy of a range of bytes.
+	 * @param b the bytes to copy
+	 * @param off the offset of the first byte to copy
+	 * @param len the number of bytes to copy
+	 */
+	public ByteBuf(byte[] b, int off, int len) {
+		this(len);
+		System.arraycopy(b, off, data, 0, len);
+		length = len;
+	}
+
+	private ByteBuf(ByteBuf root, int offset, int length) {
+		this.root = root;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public int type() {
+		return TUSERDATA;
+	}
+
+	public String typename() {
+		return "userdata";
+	}
+
+	public String tojstring() {
+		return "bytebuf: " + Integer.toHexString(hashCode());
+	}
+
+	/**
+	 * @return the number of bytes, which for a slice excludes any beyond the end of its buffer
+	 */
+	public int length() {
+		return root == this ? length : Math.max(0, Math.min(length, root.length - offset));
+	}
+
+	public LuaValue len() {
+		return valueOf(length());
+	}
+
+	public int rawlen() {
+		return length();
+	}
+
+	/**
+	 * @return whether this is a slice of another buffer
+	 */
+	public boolean isslice() {
+		return root != this;
+	}
+
+	/**
+	 * Get the array holding the bytes, which are from {@link #offset()} for {@link #length()} bytes.
+	 * The array must not be modified, as strings may share it.
+	 * @return the array holding the bytes
+	 */
+	public byte[] array() {
+		return root.data;
+	}
+
+	/**
+	 * @return the offset of the first byte in {@link #array()}
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * Get a byte.
+	 * @param index the index of the byte, from 0
+	 * @return the value of the byte, from 0 to 255
+	 * @throws IndexOutOfBoundsException if index is not less than the length
+	 */
+	public int byteAt(int index) {
+		if (index < 0 || index >= length())
+			throw new IndexOutOfBoundsException(index);
+		return root.data[offset + index] & 0xff;
+	}
+
+	public LuaValue get(int key) {
+		return key >= 1 && key <= length() ? valueOf(root.data[offset + key - 1] & 0xff) : NIL;
+	}
+
+	public LuaValue get(LuaValue key) {
+		if (key.type() == TNUMBER)
+			return key.isinttype() ? get(key.toint()) : NIL;
+		return ByteBufLib.METHODS.get(key);
+	}
+
+	public void set(int key, LuaValue value) {
+		int c = value.checkint();
+		if (c < 0 || c > 255)
+			error("byte value out of range");
+		if (key == length + 1 && root == this) {
+			reserve(1)[length++] = (byte) c;
+			return;
+		}
+		if (key < 1 || key > length())
+			error("index out of range");
+		writable()[offset + key - 1] = (byte) c;
+	}
+
+	public void set(LuaValue key, LuaValue value) {
+		if (key.type() != TNUMBER)
+			error("cannot set field '" + key.tojstring() + "' of a bytebuf");
+		if (!key.isinttype())
+			error("index out of range");
+		set(key.toint(), value);
+	}
+
+	/**
+	 * Get the array of the root for writing, copying it first if a string shares it.
+	 * @return the array holding the bytes
+	 */
+	byte[] writable() {
+		ByteBuf r = root;
+		if (r.shared) {
+			r.data = r.data.clone();
+			r.shared = false;
+		}
+		return r.data;
+	}
+
+	/**
+	 * Make room for more bytes at the end of a buffer.
+	 * @param n the number of bytes to make room for
+	 * @return the array to write them to, from index {@link #length()}
+	 * @throws org.luaj.vm2.LuaError if this is a slice
+	 */
+	byte[] reserve(int n) {
+		if (root != this)
+			error("cannot grow a slice of a bytebuf");
+		if (n > data.length - length) {
+			if (n > Integer.MAX_VALUE - 8 - length)
+				error("bytebuf too large");
+			long size = Math.max((long) length + n, Math.max(MINCAPACITY, data.length * 2L));
+			data = Arrays.copyOf(data, (int) Math.min(size, Integer.MAX_VALUE - 8));
+			shared = false;
+		}
+		return writable();
+	}
+
+	/**
+	 * Append bytes to the end of a buffer.
+	 * @param b the bytes to append
+	 * @param off the offset of the first byte to append
+	 * @param len the number of bytes to append
+	 * @return this buffer
+	 * @throws org.luaj.vm2.LuaError if this is a slice
+	 */
+	public ByteBuf append(byte[] b, int off, int len) {
+		byte[] d = reserve(len);
+		System.arraycopy(b, off, d, length, len);
+		length += len;
+		return this;
+	}
+
+	/**
+	 * Append the bytes of a string to the end of a buffer.
+	 * @param s the string to append
+	 * @return this buffer
+	 * @throws org.luaj.vm2.LuaError if this is a slice
+	 */
+	public ByteBuf append(LuaString s) {
+		return append(s.m_bytes, s.m_offset, s.m_length);
+	}
+
+	/**
+	 * Change the length of a buffer, adding zero bytes to it or dropping bytes from its end.
+	 * @param n the new length
+	 * @throws org.luaj.vm2.LuaError if this is a slice
+	 */
+	public void resize(int n) {
+		if (n > length) {
+			byte[] d = reserve(n - length);
+			Arrays.fill(d, length, n, (byte) 0);
+		} else if (root != this) {
+			error("cannot resize a slice of a bytebuf");
+		}
+		length = n;
+	}
+
+	/**
+	 * Get a view of a range of the bytes.
+	 * @param start the index of the first byte, from 0
+	 * @param end the index after the last byte
+	 * @return a slice sharing the bytes
+	 */
+	public ByteBuf slice(int start, int end) {
+		if (start < 0 || end > length() || start > end)
+			throw new IndexOutOfBoundsException();
+		return new ByteBuf(root, offset + start, end - start);
+	}
+
+	/**
+	 * Get a range of the bytes as a string, which shares the array unless the range is short.
+	 * @param start the index of the first byte, from 0
+	 * @param end the index after the last byte
+	 * @return a string holding the bytes
+	 */
+	public LuaString tostring(int start, int end) {
+		if (start < 0 || end > length() || start > end)
+			throw new IndexOutOfBoundsException();
+		if (end - start <= MAXCOPY)
+			return LuaString.valueOf(root.data, offset + start, end - start);
+		root.shared = true;
+		return LuaString.valueUsing(root.data, offset + start, end - start);
+	}
+
+	/**
+	 * Find bytes within the bytes of this buffer.
+	 * @param b the array holding the bytes to find
+	 * @param off the offset of the first byte to find
+	 * @param len the number of bytes to find
+	 * @param start the index to search from, from 0
+	 * @return the index of the first occurrence from start, or -1
+	 */
+	public int indexOf(byte[] b, int off, int len, int start) {
+		int l = length();
+		if (start > l)
+			return -1;
+		int i = LuaString.indexOf(root.data, offset + start, offset + l, b, off, len);
+		return i < 0 ? -1 : i - offset;
+	}
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+* Copyright (c) 2007-2011 LuaJ. All rights reserved.
+* <p>
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* <p>
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* <p>
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.lib;
+
+import java.io.IOException;
+
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Subclass of {@link LibFunction} which implements the {@code bytebuf} library,
+ * whose {@link ByteBuf} userdata are mutable byte sequences for building and parsing binary data
+ * without making a new string for each piece.
+ * <p>
+ * The library contains {@code bytebuf.new([s | n])}, which returns a new buffer holding
+ * a copy of the string or buffer s, or an empty buffer with room for n bytes.
+ * <p>
+ * A buffer b is indexed like an array of byte values, {@code b[i]}, with {@code #b} bytes,
+ * and assigning {@code b[#b + 1]} appends a byte.
+ * Its methods are as follows, where positions may be negative to count from the end, as in the string library:
+ * <ul>
+ * <li>{@code b:append(...)} appends strings, numbers and buffers, and returns b</li>
+ * <li>{@code b:byte([i [, j]])} returns the byte values from i to j, as {@code string.byte}</li>
+ * <li>{@code b:pack(fmt, ...)} appends values packed as by {@code string.pack}, and returns b</li>
+ * <li>{@code b:packat(i, fmt, ...)} packs values at position i, over the bytes there, and returns b</li>
+ * <li>{@code b:unpack(fmt [, i])} unpacks values from position i, as {@code string.unpack}</li>
+ * <li>{@code b:slice([i [, j]])} returns a view of the bytes from i to j, which shares them with b</li>
+ * <li>{@code b:find(s [, init])} returns the positions of the first occurrence of the bytes of the string
+ * or buffer s from position init, or nil</li>
+ * <li>{@code b:tostring([i [, j]])} returns the bytes from i to j as a string</li>
+ * <li>{@code b:resize(n)} sets the length to n, adding zero bytes or dropping bytes from the end, and returns b</li>
+ * <li>{@code b:readfrom(file [, n])} appends n bytes read from an open file, or all its remaining bytes,
+ * and returns the number of bytes read, or nil at the end of the file</li>
+ * </ul>
+ * Slices have a fixed length, so they cannot be appended to or resized.
+ * <p>
+ * Buffers can also be passed to {@code io.write} and {@code file:write}, which write their bytes directly.
+ * <p>
+ * Typically, this library is included as part of a call to
+ * {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()}
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * globals.load("local b = bytebuf.new() b:pack('>I2', 5):append('hello') io.write(b)").call();
+ * } </pre>
+ * <p>
+ * To instantiate and use it directly,
+ * link it into your globals table via {@link LuaValue#load(LuaValue)} using code such as:
+ * <pre> {@code
+ * Globals globals = new Globals();
+ * globals.load(new JseBaseLib());
+ * globals.load(new PackageLib());
+ * globals.load(new ByteBufLib());
+ * } </pre>
+ * <p>
+ * @see ByteBuf
+ * @see LibFunction
+ * @see org.luaj.vm2.lib.jse.JsePlatform
+ */
+public class ByteBufLib extends TwoArgFunction {
+
+	/** Methods of buffers, shared by all globals. */
+	static final LuaTable METHODS = new LuaTable();
+	static {
+		METHODS.set("append", new append());
+		METHODS.set("byte", new _byte());
+		METHODS.set("find", new find());
+		METHODS.set("pack", new pack());
+		METHODS.set("packat", new packat());
+		METHODS.set("readfrom", new readfrom());
+		METHODS.set("resize", new resize());
+		METHODS.set("slice", new slice());
+		METHODS.set("tostring", new tostring());
+		METHODS.set("unpack", new unpack());
+	}
+
+	/** Perform one-time initialization on the library by creating a table
+	 * containing the library functions, adding that table to the supplied environment,
+	 * adding the table to package.loaded, and returning table as the return value.
+	 * @param modname the module name supplied if this is loaded via 'require'.
+	 * @param env the environment to load into, typically a Globals instance.
+	 */
+	public LuaValue call(LuaValue modname, LuaValue env) {
+		LuaTable bytebuf = new LuaTable();
+		bytebuf.set("new", new _new());
+		env.set("bytebuf", bytebuf);
+		if (!env.get("package").isnil()) env.get("package").get("loaded").set("bytebuf", bytebuf);
+		return bytebuf;
+	}
+
+	static ByteBuf checkbuf(Varargs args, int i) {
+		LuaValue v = args.arg(i);
+		if (!(v instanceof ByteBuf))
+			argerror(i, "bytebuf expected, got " + v.typename());
+		return (ByteBuf) v;
+	}
+
+	/* the zero-based range [start, end) of a buffer from one-based positions i and j, as string.sub */
+	static int[] range(ByteBuf b, Varargs args, int i) {
+		int l = b.length();
+		int start = StringLib.posrelat(args.optint(i, 1), l);
+		int end = StringLib.posrelat(args.optint(i + 1, -1), l);
+		if (start < 1)
+			start = 1;
+		if (end > l)
+			end = l;
+		return start <= end ? new int[] {start - 1, end} : new int[] {0, 0};
+	}
+
+	static final class _new extends OneArgFunction {
+		public LuaValue call(LuaValue arg) {
+			if (arg instanceof ByteBuf b)
+				return new ByteBuf(b.array(), b.offset, b.length());
+			if (arg.type() == TNUMBER) {
+				int n = arg.checkint();
+				if (n < 0)
+					argerror(1, "negative size");
+				return new ByteBuf(n);
+			}
+			if (arg.isnil())
+				return new ByteBuf(64);
+			LuaString s = arg.checkstring();
+			return new ByteBuf(s.m_bytes, s.m_offset, s.m_length);
+		}
+	}
+
+	static final class append extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			for (int i = 2, n = args.narg(); i <= n; i++) {
+				LuaValue v = args.arg(i);
+				if (v instanceof ByteBuf s)
+					b.append(s.array(), s.offset, s.length());
+				else
+					b.append(args.checkstring(i));
+			}
+			return b;
+		}
+	}
+
+	static final class _byte extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			int l = b.length();
+			int posi = StringLib.posrelat(args.optint(2, 1), l);
+			int pose = StringLib.posrelat(args.optint(3, posi), l);
+			if (posi < 1)
+				posi = 1;
+			if (pose > l)
+				pose = l;
+			if (posi > pose)
+				return NONE;
+			LuaValue[] v = new LuaValue[pose - posi + 1];
+			byte[] d = b.array();
+			for (int i = 0; i < v.length; i++)
+				v[i] = valueOf(d[b.offset + posi - 1 + i] & 0xff);
+			return varargsOf(v);
+		}
+	}
+
+	static final class pack extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			PackFormat f = PackFormat.of(args.checkstring(2));
+			int n = f.size(args, 3);
+			byte[] d = b.reserve(n);
+			f.pack(args, 3, d, b.length());
+			b.length += n;
+			return b;
+		}
+	}
+
+	static final class packat extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			int i = StringLib.posrelat(args.checkint(2), b.length());
+			PackFormat f = PackFormat.of(args.checkstring(3));
+			int n = f.size(args, 4);
+			if (i < 1 || i > b.length() + 1)
+				argerror(2, "position out of range");
+			if (i - 1 + n > b.length())
+				b.resize(i - 1 + n);
+			f.pack(args, 4, b.writable(), b.offset + i - 1);
+			return b;
+		}
+	}
+
+	static final class unpack extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			PackFormat f = PackFormat.of(args.checkstring(2));
+			int pos = StringLib.posrelat(args.optint(3, 1), b.length()) - 1;
+			if (pos < 0 || pos > b.length())
+				argerror(3, "initial position out of string");
+			return f.unpack(b.array(), b.offset, b.length(), pos, null);
+		}
+	}
+
+	static final class slice extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			int[] r = range(b, args, 2);
+			return b.slice(r[0], r[1]);
+		}
+	}
+
+	static final class tostring extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			int[] r = range(b, args, 2);
+			return b.tostring(r[0], r[1]);
+		}
+	}
+
+	static final class find extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			LuaValue v = args.arg(2);
+			byte[] s;
+			int off, len;
+			if (v instanceof ByteBuf p) {
+				s = p.array();
+				off = p.offset;
+				len = p.length();
+			} else {
+				LuaString p = args.checkstring(2);
+				s = p.m_bytes;
+				off = p.m_offset;
+				len = p.m_length;
+			}
+			int init = StringLib.posrelat(args.optint(3, 1), b.length());
+			if (init < 1)
+				init = 1;
+			if (init > b.length() + 1)
+				return NIL;
+			int i = b.indexOf(s, off, len, init - 1);
+			return i < 0 ? NIL : varargsOf(valueOf(i + 1), valueOf(i + len));
+		}
+	}
+
+	static final class resize extends TwoArgFunction {
+		public LuaValue call(LuaValue arg, LuaValue n) {
+			ByteBuf b = checkbuf(arg, 1);
+			int len = n.checkint();
+			if (len < 0)
+				argerror(2, "negative size");
+			b.resize(len);
+			return b;
+		}
+	}
+
+	static final class readfrom extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			ByteBuf b = checkbuf(args, 1);
+			if (!(args.arg(2) instanceof IoLib.File f))
+				return argerror(2, "file expected");
+			if (f.isclosed())
+				error("attempt to use a closed file");
+			int want = args.optint(3, -1);
+			int total = 0;
+			try {
+				while (want < 0 || total < want) {
+					int room = want >= 0 ? want - total : Math.max(8192, (int) Math.min(f.remaining(), 1 << 30));
+					byte[] d = b.reserve(room);
+					int r = f.read(d, b.length(), room);
+					if (r <= 0)
+						break;
+					b.length += r;
+					total += r;
+				}
+			} catch (IOException e) {
+				return varargsOf(NIL, valueOf(e.getMessage()));
+			}
+			return total == 0 && want != 0 ? NIL : valueOf(total);
+		}
+	}
+}
@@ -98,9 +98,10 @@ public class DebugLib extends TwoArgFunction {
 
     static LuaString findupvalue(LuaClosure c, int up) {
         if (c.upValues != null && up > 0 && up <= c.upValues.length) {
-            if (c.p.upvalues != null && up <= c.p.upvalues.length)
+            if (c.p.upvalues != null && up <= c.p.upvalues.length) {
+                c.p.loaddebug();
                 return c.p.upvalues[up - 1].name;
-            else
+            } else
                 return LuaString.valueOf("." + up);
         }
         return null;
@@ -712,7 +713,9 @@ public class DebugLib extends TwoArgFunction {
 
         public int currentline() {
             if (!f.isclosure()) return -1;
-            int[] li = f.checkclosure().p.lineinfo;
+            final Prototype p = f.checkclosure().p;
+            p.loaddebug();
+            int[] li = p.lineinfo;
             return li == null || pc < 0 || pc >= li.length ? -1 : li[pc];
         }
 
@@ -44,6 +44,9 @@ import org.luaj.vm2.Varargs;
  * while the JME implementation follows closely except in the area of random-access files,
  * which are difficult to support properly on JME.
  * <p>
+ * In the JSE implementation writes are buffered only after {@code file:setvbuf("full")}
+ * or {@code file:setvbuf("line")}, and such a file must be flushed or closed for its last writes to reach it.
+ * <p>
  * Typically, this library is included as part of a call to
  * {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()}
  * <pre> {@code
@@ -81,17 +84,27 @@ public class IoLib extends TwoArgFunction {
 		abstract public void close() throws IOException;
 		abstract public boolean isclosed();
 		// returns new position
-		abstract public int seek(String option, int bytecount) throws IOException;
+		abstract public long seek(String option, long bytecount) throws IOException;
 		abstract public void setvbuf(String mode, int size);
-		// get length remaining to read
-		abstract public int remaining() throws IOException;
+		// get length remaining to read, or -1 if unknown
+		abstract public long remaining() throws IOException;
 		// peek ahead one character
 		abstract public int peek() throws IOException, EOFException;
 		// return char if read, -1 if eof, throw IOException on other exception
 		abstract public int read() throws IOException, EOFException;
 		// return number of bytes read if positive, false if eof, throw IOException on other exception
 		abstract public int read(byte[] bytes, int offset, int length) throws IOException;
+
+		// write a range of bytes; files that can write them without making a string override this
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			write(LuaString.valueOf(bytes, offset, length));
+		}
 		
+		// read a line, or nil at end of file; files with a buffer can scan it directly
+		public LuaValue readline(boolean withend) throws IOException {
+			return freaduntil(this,true,withend);
+		}
+
 		public boolean eof() throws IOException {
 			try {
 				return peek() < 0;
@@ -167,6 +180,17 @@ public class IoLib extends TwoArgFunction {
 	 */
 	abstract protected File openFile( String filename, boolean readMode, boolean appendMode, boolean updateMode, boolean binaryMode ) throws IOException;
 
+	/**
+	 * Open a file for reading from memory, for the mode "rm".
+	 * By default the file is opened in the normal read mode.
+	 * @param filename
+	 * @return File object if successful
+	 * @throws IOException if could not be opened
+	 */
+	protected File openMappedFile( String filename ) throws IOException {
+		return openFile( filename, true, false, false, true );
+	}
+
 	/**
 	 * Open a temporary file.
 	 * @return File object if successful
@@ -316,7 +340,7 @@ public class IoLib extends TwoArgFunction {
 				case FILE_SETVBUF:	return iolib._file_setvbuf(args.arg1(),args.checkjstring(2),args.optint(3,8192));
 				case FILE_LINES:	return iolib._file_lines(args);
 				case FILE_READ:		return iolib._file_read(args.arg1(),args.subargs(2));
-				case FILE_SEEK:		return iolib._file_seek(args.arg1(),args.optjstring(2,"cur"),args.optint(3,0));
+				case FILE_SEEK:		return iolib._file_seek(args.arg1(),args.optjstring(2,"cur"),args.optlong(3,0));
 				case FILE_WRITE:	return iolib._file_write(args.arg1(),args.subargs(2));
 
 				case IO_INDEX:		return iolib._io_index(args.arg(2));
@@ -445,7 +469,7 @@ public class IoLib extends TwoArgFunction {
 	}
 
 	//  file:seek([whence][,offset]) -> pos | nil,error
-	public Varargs _file_seek(LuaValue file, String whence, int offset) throws IOException {
+	public Varargs _file_seek(LuaValue file, String whence, long offset) throws IOException {
 		if ("set".equals(whence)) {
 		} else if ("end".equals(whence)) {
 		} else if ("cur".equals(whence)) {
@@ -525,8 +549,14 @@ public class IoLib extends TwoArgFunction {
 	}
 
 	private static Varargs iowrite(File f, Varargs args) throws IOException {
-		for ( int i=1, n=args.narg(); i<=n; i++ )
-			f.write( args.checkstring(i) );
+		for ( int i=1, n=args.narg(); i<=n; i++ ) {
+			LuaValue v = args.arg(i);
+			if ( v instanceof ByteBuf ) {
+				ByteBuf b = (ByteBuf) v;
+				f.write( b.array(), b.offset(), b.length() );
+			} else
+				f.write( args.checkstring(i) );
+		}
 		return f;
 	}
 
@@ -580,11 +610,12 @@ public class IoLib extends TwoArgFunction {
 
 	private File rawopenfile(int filetype, String filename, String mode) throws IOException {
 		int len = mode.length();
-		for (int i = 0; i < len; i++) { // [rwa][+]?b*
+		for (int i = 0; i < len; i++) { // [rwa][+]?b* or r[mb]*
 			char ch = mode.charAt(i);
 			if (i == 0 && "rwa".indexOf(ch) >= 0) continue;
 			if (i == 1 && ch == '+') continue;
 			if (i >= 1 && ch == 'b') continue;
+			if (i >= 1 && ch == 'm' && mode.charAt(0) == 'r' && mode.indexOf('+') < 0) continue;
 			len = -1;
 			break;
 		}
@@ -599,6 +630,8 @@ public class IoLib extends TwoArgFunction {
 		boolean isappend = mode.startsWith("a");
 		boolean isupdate = mode.indexOf('+') > 0;
 		boolean isbinary = mode.endsWith("b");
+		if ( mode.indexOf('m') > 0 )
+			return openMappedFile( filename );
 		return openFile( filename, isreadmode, isappend, isupdate, isbinary );
 	}
 
@@ -637,12 +670,14 @@ public class IoLib extends TwoArgFunction {
 			(LuaValue) LuaString.valueUsing(baos.toByteArray());
 	}
 	public static LuaValue freadline(File f,boolean withend) throws IOException {
-		return freaduntil(f,true,withend);
+		return f.readline(withend);
 	}
 	public static LuaValue freadall(File f) throws IOException {
-		int n = f.remaining();
+		long n = f.remaining();
+		if ( n > Integer.MAX_VALUE - 8 )
+			throw new IOException("file too large to read at once");
 		if ( n >= 0 ) {
-			return n == 0 ? EMPTYSTRING : freadbytes(f, n);
+			return n == 0 ? EMPTYSTRING : freadbytes(f, (int) n);
 		} else {
 			return freaduntil(f,false,false);
 		}
@@ -0,0 +1,919 @@
+/*******************************************************************************
+* Copyright (c) 2007-2011 LuaJ. All rights reserved.
+* <p>
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* <p>
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* <p>
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.lib;
+
+import java.nio.charset.StandardCharsets;
+
+import org.luaj.vm2.Buffer;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaInteger;
+import org.luaj.vm2.LuaLong;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaUserdata;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Subclass of {@link LibFunction} which implements the {@code json} library,
+ * which converts between lua values and JSON text.
+ * <p>
+ * The library contains:
+ * <ul>
+ * <li>{@code json.encode(v [, opts])} returns the JSON text of v</li>
+ * <li>{@code json.decode(s [, opts])} returns the value of the JSON text s</li>
+ * <li>{@code json.events(s [, opts])} returns an iterator over the parse events of the JSON text s</li>
+ * <li>{@code json.null}, the value of JSON {@code null}</li>
+ * <li>{@code json.empty_array}, a value which encodes as {@code []}</li>
+ * <li>{@code json.array_mt}, a metatable marking tables to encode as arrays even when empty</li>
+ * </ul>
+ * The text to decode is either a string, or a function returning successive pieces
+ * of the text and nil at its end, such as {@code io.lines(name, 65536)},
+ * so that large documents are parsed without reading them into a single string.
+ * <p>
+ * Objects decode to tables with string keys, and arrays to sequences.
+ * The decoding options are {@code null}, the value to decode JSON {@code null} to instead of {@code json.null},
+ * and {@code array_mt}, which when true sets {@code json.array_mt} as metatable of the decoded arrays,
+ * or a table to set instead, so that empty arrays encode back as arrays.
+ * <p>
+ * Sequences encode as arrays and other tables as objects, with string or number keys.
+ * A table whose metatable has a {@code __jsontype} field of {@code "array"} or {@code "object"} encodes as that.
+ * Nil and {@code json.null} encode as {@code null}, and the encoding option {@code null} names
+ * another value to encode as {@code null}.
+ * Functions, threads, other userdata, non-finite numbers and cyclic tables cannot be encoded.
+ * <p>
+ * For documents too large to hold as tables, {@code json.events} decodes incrementally:
+ * each call of the iterator returns the next event and its value, which is one of
+ * {@code "begin_object"}, {@code "end_object"}, {@code "begin_array"}, {@code "end_array"},
+ * {@code "key"} with the key, or {@code "value"} with a string, number, boolean or null.
+ * With the option {@code depth}, objects and arrays nested within that many others
+ * are decoded whole, and returned as a single {@code "value"} event.
+ * <pre> {@code
+ * for event, v in json.events(io.lines("log.json", 65536), { depth = 1 }) do
+ *   if event == "value" then print(v.id) end
+ * end
+ * } </pre>
+ * The iterator can be called from a coroutine, which can yield between events.
+ * <p>
+ * The parser reads bytes from the text directly into presized tables, and reuses the strings
+ * of object keys repeated within a document.
+ * The encoder writes into a single {@link Buffer}, formats numbers without intermediate strings
+ * where they have a short exact decimal form, and copies runs of bytes needing no escapes at once.
+ * <p>
+ * Typically, this library is included as part of a call to
+ * {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()}
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * globals.load("print(json.encode(json.decode('{\"a\": [1, 2.5, null]}')))").call();
+ * } </pre>
+ * <p>
+ * To instantiate and use it directly,
+ * link it into your globals table via {@link LuaValue#load(LuaValue)} using code such as:
+ * <pre> {@code
+ * Globals globals = new Globals();
+ * globals.load(new JseBaseLib());
+ * globals.load(new PackageLib());
+ * globals.load(new JsonLib());
+ * } </pre>
+ * <p>
+ * @see LibFunction
+ * @see org.luaj.vm2.lib.jse.JsePlatform
+ */
+public class JsonLib extends TwoArgFunction {
+
+	/** The value of JSON {@code null}. */
+	public static final LuaUserdata NULL = sentinel("json.null");
+
+	/** A value which encodes as an empty JSON array. */
+	public static final LuaUserdata EMPTY_ARRAY = sentinel("json.empty_array");
+
+	static final int MAXDEPTH = 1000;
+
+	static final LuaString JSONTYPE = valueOf("__jsontype");
+	static final LuaString ARRAY = valueOf("array");
+	static final LuaString OBJECT = valueOf("object");
+
+	static final LuaString BEGIN_OBJECT = valueOf("begin_object");
+	static final LuaString END_OBJECT = valueOf("end_object");
+	static final LuaString BEGIN_ARRAY = valueOf("begin_array");
+	static final LuaString END_ARRAY = valueOf("end_array");
+	static final LuaString KEY = valueOf("key");
+	static final LuaString VALUE = valueOf("value");
+
+	private static final byte[] TRUE_BYTES = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE_BYTES = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] NULL_BYTES = { 'n', 'u', 'l', 'l' };
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	/* escape character of each ascii byte needing one in a string, or 0 */
+	private static final byte[] ESCAPES = new byte[128];
+	static {
+		for (int c = 0; c < 0x20; c++)
+			ESCAPES[c] = 'u';
+		ESCAPES['\b'] = 'b';
+		ESCAPES['\f'] = 'f';
+		ESCAPES['\n'] = 'n';
+		ESCAPES['\r'] = 'r';
+		ESCAPES['\t'] = 't';
+		ESCAPES['"'] = '"';
+		ESCAPES['\\'] = '\\';
+	}
+
+	/* powers of ten exactly representable as doubles */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+
+	private static LuaUserdata sentinel(final String name) {
+		return new LuaUserdata(new Object() {
+			public String toString() {
+				return name;
+			}
+		});
+	}
+
+	LuaTable arraymt;
+
+	/** Perform one-time initialization on the library by creating a table
+	 * containing the library functions, adding that table to the supplied environment,
+	 * adding the table to package.loaded, and returning table as the return value.
+	 * @param modname the module name supplied if this is loaded via 'require'.
+	 * @param env the environment to load into, typically a Globals instance.
+	 */
+	public LuaValue call(LuaValue modname, LuaValue env) {
+		arraymt = new LuaTable();
+		arraymt.rawset(JSONTYPE, ARRAY);
+		LuaTable json = new LuaTable();
+		json.set("encode", new Encode());
+		json.set("decode", new Decode());
+		json.set("events", new Events());
+		json.set("null", NULL);
+		json.set("empty_array", EMPTY_ARRAY);
+		json.set("array_mt", arraymt);
+		env.set("json", json);
+		if (!env.get("package").isnil()) env.get("package").get("loaded").set("json", json);
+		return json;
+	}
+
+	static final class Encode extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			LuaTable opts = args.opttable(2, null);
+			Buffer out = new Buffer();
+			new Encoder(out, opts != null ? opts.get("null") : NIL).value(args.arg1());
+			return out.tostring();
+		}
+	}
+
+	final class Decode extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			return parser(args).decode();
+		}
+	}
+
+	final class Events extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			Parser p = parser(args);
+			LuaTable opts = args.opttable(2, null);
+			if (opts != null)
+				p.maxevents = opts.get("depth").optint(Integer.MAX_VALUE);
+			return new EventIterator(p);
+		}
+	}
+
+	private Parser parser(Varargs args) {
+		LuaValue src = args.arg1();
+		Parser p = src.isfunction() ? new Parser(src) : new Parser(args.checkstring(1));
+		LuaTable opts = args.opttable(2, null);
+		if (opts != null) {
+			LuaValue nul = opts.get("null");
+			if (!nul.isnil())
+				p.nul = nul;
+			LuaValue mt = opts.get("array_mt");
+			if (mt.istable())
+				p.arraymt = mt;
+			else if (mt.toboolean())
+				p.arraymt = arraymt;
+		}
+		return p;
+	}
+
+	/**
+	 * Encode a value as JSON text.
+	 * @param value the value to encode
+	 * @return {@link LuaString} holding the JSON text
+	 * @throws LuaError if the value cannot be encoded
+	 */
+	public static LuaString encode(LuaValue value) {
+		Buffer out = new Buffer();
+		encode(value, out);
+		return out.tostring();
+	}
+
+	/**
+	 * Encode a value as JSON text, appending it to a {@link Buffer}.
+	 * @param value the value to encode
+	 * @param out the buffer to append the JSON text to
+	 * @throws LuaError if the value cannot be encoded
+	 */
+	public static void encode(LuaValue value, Buffer out) {
+		new Encoder(out, NIL).value(value);
+	}
+
+	/**
+	 * Decode JSON text.
+	 * @param s the JSON text
+	 * @return the decoded value, with JSON {@code null} decoded as {@link #NULL}
+	 * @throws LuaError if the text is not valid JSON
+	 */
+	public static LuaValue decode(LuaString s) {
+		return new Parser(s).decode();
+	}
+
+	static final class Encoder {
+		private final Buffer out;
+		private final LuaValue nul;
+		private final byte[] num = new byte[24];
+		private int depth;
+
+		Encoder(Buffer out, LuaValue nul) {
+			this.out = out;
+			this.nul = nul;
+		}
+
+		void value(LuaValue v) {
+			if (v == NULL || v == nul) {
+				out.append(NULL_BYTES, 0, 4);
+				return;
+			}
+			switch (v.type()) {
+				case TNIL -> out.append(NULL_BYTES, 0, 4);
+				case TBOOLEAN -> {
+					if (v.toboolean())
+						out.append(TRUE_BYTES, 0, 4);
+					else
+						out.append(FALSE_BYTES, 0, 5);
+				}
+				case TNUMBER -> number(v);
+				case TSTRING -> string(v.strvalue());
+				case TTABLE -> table(v);
+				default -> {
+					if (v != EMPTY_ARRAY)
+						throw new LuaError("cannot encode a " + v.typename());
+					out.append((byte) '[').append((byte) ']');
+				}
+			}
+		}
+
+		private void number(LuaValue v) {
+			if (v instanceof LuaInteger || v instanceof LuaLong) {
+				integer(v.tolong());
+				return;
+			}
+			double d = v.todouble();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				throw new LuaError("cannot encode " + v.tojstring());
+			/* the cast saturates, so 2^63 and beyond would otherwise pass for Long.MAX_VALUE */
+			if (d >= -0x1p63 && d < 0x1p63 && (long) d == d) {
+				integer((long) d);
+				return;
+			}
+			/* the shortest decimal with up to 8 fraction digits which reads back exactly */
+			for (int k = 1; k <= 8; k++) {
+				double s = d * POW10[k];
+				if (Math.abs(s) >= 0x1p53)
+					break;
+				long m = (long) s;
+				if (m == s && m / POW10[k] == d) {
+					decimal(m, k);
+					return;
+				}
+			}
+			String s = Double.toString(d);
+			for (int i = 0, n = s.length(); i < n; i++)
+				num[i] = (byte) s.charAt(i);
+			out.append(num, 0, s.length());
+		}
+
+		private void integer(long l) {
+			int i = digits(l, 0);
+			out.append(num, i, num.length - i);
+		}
+
+		private void decimal(long m, int k) {
+			int i = digits(m, k + 1);
+			int dot = num.length - k;
+			System.arraycopy(num, i, num, i - 1, dot - i);
+			num[dot - 1] = '.';
+			out.append(num, i - 1, num.length - i + 1);
+		}
+
+		/* writes the digits of l at the end of num, at least mindigits of them, and returns the first index */
+		private int digits(long l, int mindigits) {
+			int i = num.length;
+			boolean neg = l < 0;
+			if (!neg)
+				l = -l;
+			do {
+				num[--i] = (byte) ('0' - l % 10);
+				l /= 10;
+			} while (l != 0 || num.length - i < mindigits);
+			if (neg)
+				num[--i] = '-';
+			return i;
+		}
+
+		private void string(LuaString s) {
+			byte[] b = s.m_bytes;
+			int run = s.m_offset, end = run + s.m_length;
+			out.append((byte) '"');
+			for (int i = run; i < end; i++) {
+				int c = b[i];
+				if (c >= 0 && ESCAPES[c] != 0) {
+					if (i > run)
+						out.append(b, run, i - run);
+					run = i + 1;
+					byte e = ESCAPES[c];
+					out.append((byte) '\\').append(e);
+					if (e == 'u')
+						out.append((byte) '0').append((byte) '0').append(HEX[c >> 4]).append(HEX[c & 15]);
+				}
+			}
+			if (end > run)
+				out.append(b, run, end - run);
+			out.append((byte) '"');
+		}
+
+		private void table(LuaValue t) {
+			if (++depth > MAXDEPTH)
+				throw new LuaError("cannot encode a table nested too deeply or with cycles");
+			LuaValue mt = t.getmetatable();
+			LuaValue type = mt != null ? mt.rawget(JSONTYPE) : NIL;
+			int n = t.rawlen();
+			if (type.raweq(ARRAY) || !type.raweq(OBJECT) && n > 0 && sequence(t, n)) {
+				out.append((byte) '[');
+				for (int i = 1; i <= n; i++) {
+					if (i > 1)
+						out.append((byte) ',');
+					value(t.rawget(i));
+				}
+				out.append((byte) ']');
+			} else {
+				out.append((byte) '{');
+				boolean first = true;
+				for (Varargs e = t.next(NIL); !e.arg1().isnil(); e = t.next(e.arg1())) {
+					if (!first)
+						out.append((byte) ',');
+					first = false;
+					key(e.arg1());
+					out.append((byte) ':');
+					value(e.arg(2));
+				}
+				out.append((byte) '}');
+			}
+			depth--;
+		}
+
+		/* whether the keys of t are exactly 1 to n */
+		private static boolean sequence(LuaValue t, int n) {
+			int count = 0;
+			for (LuaValue k = t.next(NIL).arg1(); !k.isnil(); k = t.next(k).arg1())
+				if (++count > n)
+					return false;
+			return count == n;
+		}
+
+		private void key(LuaValue k) {
+			switch (k.type()) {
+				case TSTRING -> string((LuaString) k);
+				case TNUMBER -> {
+					out.append((byte) '"');
+					number(k);
+					out.append((byte) '"');
+				}
+				default -> throw new LuaError("cannot encode a table key of type " + k.typename());
+			}
+		}
+	}
+
+	/**
+	 * Reads JSON text from a string, or from the strings returned by a reader function.
+	 * <p>
+	 * The bytes are scanned where they are, in the string or in the last string returned by the reader,
+	 * and only values spanning two strings or holding escapes are first copied to a scratch array.
+	 */
+	static final class Parser {
+		private final LuaValue reader;
+		private byte[] b;
+		private int pos, lim;
+		/* position in the text of b[0] */
+		private long origin;
+
+		LuaValue nul = NULL;
+		LuaValue arraymt;
+		int maxevents = Integer.MAX_VALUE;
+
+		private byte[] scratch = new byte[64];
+		private int n;
+
+		/* values of the arrays and objects being decoded */
+		private LuaValue[] stack = new LuaValue[32];
+		private int top;
+
+		/* recent object keys by hash */
+		private final LuaString[] keys = new LuaString[256];
+
+		Parser(LuaString s) {
+			this.reader = null;
+			this.b = s.m_bytes;
+			this.pos = s.m_offset;
+			this.lim = s.m_offset + s.m_length;
+			this.origin = -s.m_offset;
+		}
+
+		Parser(LuaValue reader) {
+			this.reader = reader;
+			this.b = scratch;
+		}
+
+		/* replaces the consumed window with the next string of the reader */
+		private boolean fill() {
+			if (reader == null)
+				return false;
+			LuaValue v = reader.call();
+			if (v.isnil())
+				return false;
+			if (!v.isstring())
+				throw new LuaError("reader function must return a string");
+			LuaString s = v.strvalue();
+			if (s.m_length == 0)
+				return false;
+			origin += lim - s.m_offset;
+			b = s.m_bytes;
+			pos = s.m_offset;
+			lim = pos + s.m_length;
+			return true;
+		}
+
+		/* the next byte after white space, not consumed, or -1 at the end of the text */
+		int peek() {
+			for (;;) {
+				while (pos < lim) {
+					int c = b[pos];
+					if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+						return c & 0xff;
+					pos++;
+				}
+				if (!fill())
+					return -1;
+			}
+		}
+
+		private int next() {
+			if (pos == lim && !fill())
+				return -1;
+			return b[pos++] & 0xff;
+		}
+
+		LuaError error(String message) {
+			return new LuaError("invalid json at position " + (origin + pos + 1) + ": " + message);
+		}
+
+		LuaError unexpected(int c) {
+			if (c < 0)
+				return error("unexpected end of text");
+			return error(c > ' ' && c < 0x7f ? "unexpected character '" + (char) c + "'" : "unexpected byte " + c);
+		}
+
+		LuaValue decode() {
+			LuaValue v = value(0);
+			int c = peek();
+			if (c >= 0)
+				throw unexpected(c);
+			return v;
+		}
+
+		LuaValue value(int depth) {
+			int c = peek();
+			switch (c) {
+				case '{':
+					pos++;
+					return object(depth);
+				case '[':
+					pos++;
+					return array(depth);
+				default:
+					return scalar(c);
+			}
+		}
+
+		LuaValue scalar(int c) {
+			switch (c) {
+				case '"':
+					pos++;
+					return string(false);
+				case 't':
+					literal(TRUE_BYTES);
+					return TRUE;
+				case 'f':
+					literal(FALSE_BYTES);
+					return FALSE;
+				case 'n':
+					literal(NULL_BYTES);
+					return nul;
+				case '-': case '0': case '1': case '2': case '3': case '4':
+				case '5': case '6': case '7': case '8': case '9':
+					return number();
+				default:
+					throw unexpected(c);
+			}
+		}
+
+		private void literal(byte[] word) {
+			for (byte w : word) {
+				int c = next();
+				if (c != w) {
+					if (c >= 0)
+						pos--;
+					throw unexpected(c);
+				}
+			}
+		}
+
+		private void push(LuaValue v) {
+			if (top == stack.length) {
+				LuaValue[] s = new LuaValue[top * 2];
+				System.arraycopy(stack, 0, s, 0, top);
+				stack = s;
+			}
+			stack[top++] = v;
+		}
+
+		private LuaValue array(int depth) {
+			if (depth >= MAXDEPTH)
+				throw error("arrays and objects nested too deeply");
+			int base = top;
+			int c = peek();
+			if (c == ']') {
+				pos++;
+			} else {
+				for (;;) {
+					push(value(depth + 1));
+					c = peek();
+					if (c != ',' && c != ']')
+						throw unexpected(c);
+					pos++;
+					if (c == ']')
+						break;
+				}
+			}
+			int count = top - base;
+			LuaTable t = new LuaTable(count, 0);
+			for (int i = 0; i < count; i++) {
+				t.rawset(i + 1, stack[base + i]);
+				stack[base + i] = null;
+			}
+			top = base;
+			if (arraymt != null)
+				t.setmetatable(arraymt);
+			return t;
+		}
+
+		private LuaValue object(int depth) {
+			if (depth >= MAXDEPTH)
+				throw error("arrays and objects nested too deeply");
+			int base = top;
+			int c = peek();
+			if (c == '}') {
+				pos++;
+			} else {
+				for (;;) {
+					push(key(c));
+					c = peek();
+					if (c != ':')
+						throw unexpected(c);
+					pos++;
+					push(value(depth + 1));
+					c = peek();
+					if (c != ',' && c != '}')
+						throw unexpected(c);
+					pos++;
+					if (c == '}')
+						break;
+					c = peek();
+				}
+			}
+			int count = (top - base) / 2;
+			LuaTable t = new LuaTable(0, count);
+			for (int i = base; i < top; i += 2) {
+				t.rawset(stack[i], stack[i + 1]);
+				stack[i] = stack[i + 1] = null;
+			}
+			top = base;
+			return t;
+		}
+
+		/* the object key starting at the byte c, not consumed */
+		LuaString key(int c) {
+			if (c != '"')
+				throw unexpected(c);
+			pos++;
+			return string(true);
+		}
+
+		private LuaString string(boolean key) {
+			int start = pos, i = pos;
+			while (i < lim && b[i] != '"' && b[i] != '\\')
+				i++;
+			if (i < lim && b[i] == '"') {
+				pos = i + 1;
+				return key ? intern(b, start, i - start) : LuaString.valueOf(b, start, i - start);
+			}
+			n = 0;
+			for (;;) {
+				append(b, pos, i - pos);
+				pos = i;
+				if (i == lim) {
+					if (!fill())
+						throw error("unterminated string");
+				} else if (b[pos++] == '"') {
+					break;
+				} else {
+					escape();
+				}
+				i = pos;
+				while (i < lim && b[i] != '"' && b[i] != '\\')
+					i++;
+			}
+			return key ? intern(scratch, 0, n) : LuaString.valueOf(scratch, 0, n);
+		}
+
+		private LuaString intern(byte[] b, int off, int len) {
+			if (len > 64)
+				return LuaString.valueOf(b, off, len);
+			int slot = LuaString.hashCode(b, off, len) & (keys.length - 1);
+			LuaString k = keys[slot];
+			if (k == null || k.m_length != len || !LuaString.equals(k.m_bytes, k.m_offset, b, off, len))
+				keys[slot] = k = LuaString.valueOf(b, off, len);
+			return k;
+		}
+
+		private void escape() {
+			int c = next();
+			switch (c) {
+				case '"': case '\\': case '/': put(c); break;
+				case 'b': put('\b'); break;
+				case 'f': put('\f'); break;
+				case 'n': put('\n'); break;
+				case 'r': put('\r'); break;
+				case 't': put('\t'); break;
+				case 'u': {
+					int u = hex4();
+					if (u >= 0xd800 && u < 0xdc00) {
+						int lo = next() == '\\' && next() == 'u' ? hex4() : -1;
+						if (lo < 0xdc00 || lo >= 0xe000)
+							throw error("invalid surrogate pair");
+						u = 0x10000 + ((u - 0xd800) << 10) + (lo - 0xdc00);
+					}
+					utf8(u);
+					break;
+				}
+				default:
+					if (c >= 0)
+						pos--;
+					throw error(c < 0 ? "unterminated string" : "invalid escape");
+			}
+		}
+
+		private int hex4() {
+			int u = 0;
+			for (int i = 0; i < 4; i++) {
+				int c = next(), d = Character.digit(c, 16);
+				if (c < 0 || d < 0)
+					throw error("invalid unicode escape");
+				u = (u << 4) | d;
+			}
+			return u;
+		}
+
+		private void utf8(int u) {
+			if (u < 0x80) {
+				put(u);
+			} else if (u < 0x800) {
+				put(0xc0 | u >> 6);
+				put(0x80 | u & 0x3f);
+			} else if (u < 0x10000) {
+				put(0xe0 | u >> 12);
+				put(0x80 | u >> 6 & 0x3f);
+				put(0x80 | u & 0x3f);
+			} else {
+				put(0xf0 | u >> 18);
+				put(0x80 | u >> 12 & 0x3f);
+				put(0x80 | u >> 6 & 0x3f);
+				put(0x80 | u & 0x3f);
+			}
+		}
+
+		private void put(int c) {
+			if (n == scratch.length)
+				grow(1);
+			scratch[n++] = (byte) c;
+		}
+
+		private void append(byte[] src, int off, int len) {
+			if (n + len > scratch.length)
+				grow(len);
+			System.arraycopy(src, off, scratch, n, len);
+			n += len;
+		}
+
+		private void grow(int len) {
+			byte[] s = new byte[Math.max(n + len, scratch.length * 2)];
+			System.arraycopy(scratch, 0, s, 0, n);
+			scratch = s;
+		}
+
+		private static boolean isnumber(byte c) {
+			return c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+		}
+
+		private LuaValue number() {
+			int i = pos;
+			while (i < lim && isnumber(b[i]))
+				i++;
+			if (i < lim || reader == null) {
+				int start = pos;
+				pos = i;
+				return number(b, start, i);
+			}
+			n = 0;
+			do {
+				append(b, pos, i - pos);
+				pos = i;
+				if (!fill())
+					break;
+				i = pos;
+				while (i < lim && isnumber(b[i]))
+					i++;
+			} while (i == lim);
+			append(b, pos, i - pos);
+			pos = i;
+			return number(scratch, 0, n);
+		}
+
+		private LuaValue number(byte[] b, int off, int end) {
+			int i = off, nd = 0, exp = 0;
+			long m = 0;
+			boolean neg = b[i] == '-', integral = true;
+			if (neg)
+				i++;
+			int d0 = i;
+			if (i < end && b[i] == '0' && i + 1 < end && b[i + 1] >= '0' && b[i + 1] <= '9')
+				throw error("malformed number");
+			for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+				if (nd < 18) {
+					m = m * 10 + (b[i] - '0');
+					if (m != 0)
+						nd++;
+				} else {
+					exp++;
+				}
+			}
+			if (i == d0)
+				throw error("malformed number");
+			if (i < end && b[i] == '.') {
+				integral = false;
+				int f0 = ++i;
+				for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+					if (nd < 18) {
+						m = m * 10 + (b[i] - '0');
+						if (m != 0)
+							nd++;
+						exp--;
+					}
+				}
+				if (i == f0)
+					throw error("malformed number");
+			}
+			if (i < end && (b[i] == 'e' || b[i] == 'E')) {
+				integral = false;
+				boolean eneg = ++i < end && b[i] == '-';
+				if (i < end && (b[i] == '-' || b[i] == '+'))
+					i++;
+				int e0 = i, e = 0;
+				for (; i < end && b[i] >= '0' && b[i] <= '9'; i++)
+					if (e < 100000)
+						e = e * 10 + (b[i] - '0');
+				if (i == e0)
+					throw error("malformed number");
+				exp += eneg ? -e : e;
+			}
+			if (i != end)
+				throw error("malformed number");
+			if (integral && exp == 0)
+				return valueOf(neg ? -m : m);
+			if (nd <= 15 && exp >= -22 && exp <= 22) {
+				double d = exp < 0 ? m / POW10[-exp] : m * POW10[exp];
+				return valueOf(neg ? -d : d);
+			}
+			return valueOf(Double.parseDouble(new String(b, off, end - off, StandardCharsets.ISO_8859_1)));
+		}
+	}
+
+	/**
+	 * Iterator returned by {@code json.events}, which parses one event per call.
+	 */
+	static final class EventIterator extends VarArgFunction {
+		private final Parser p;
+		/* whether each open container is an object */
+		private boolean[] objects = new boolean[16];
+		private int depth;
+		/* whether the open container has no element yet, and whether an object expects a value */
+		private boolean first, member, started, done;
+
+		EventIterator(Parser p) {
+			this.p = p;
+		}
+
+		public Varargs invoke(Varargs args) {
+			if (done)
+				return NIL;
+			if (depth == 0) {
+				if (!started) {
+					started = true;
+					return value();
+				}
+				int c = p.peek();
+				if (c >= 0)
+					throw p.unexpected(c);
+				done = true;
+				return NIL;
+			}
+			boolean object = objects[depth - 1];
+			int c = p.peek();
+			if (member) {
+				if (c != ':')
+					throw p.unexpected(c);
+				p.pos++;
+				member = false;
+				return value();
+			}
+			if (c == (object ? '}' : ']')) {
+				p.pos++;
+				depth--;
+				first = false;
+				return object ? END_OBJECT : END_ARRAY;
+			}
+			if (!first) {
+				if (c != ',')
+					throw p.unexpected(c);
+				p.pos++;
+				c = p.peek();
+			}
+			first = false;
+			if (!object)
+				return value();
+			member = true;
+			return varargsOf(KEY, p.key(c));
+		}
+
+		private Varargs value() {
+			int c = p.peek();
+			if ((c == '{' || c == '[') && depth < p.maxevents) {
+				p.pos++;
+				if (depth == objects.length) {
+					if (depth >= MAXDEPTH)
+						throw p.error("arrays and objects nested too deeply");
+					boolean[] o = new boolean[depth * 2];
+					System.arraycopy(objects, 0, o, 0, depth);
+					objects = o;
+				}
+				objects[depth++] = c == '{';
+				first = true;
+				return c == '{' ? BEGIN_OBJECT : BEGIN_ARRAY;
+			}
+			return varargsOf(VALUE, p.value(depth));
+		}
+	}
+}
@@ -0,0 +1,654 @@
+/*******************************************************************************
+* Copyright (c) 2007-2011 LuaJ. All rights reserved.
+* <p>
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* <p>
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* <p>
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaInteger;
+import org.luaj.vm2.LuaLong;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.UpValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.compiler.DumpState;
+
+/**
+ * Subclass of {@link LibFunction} which implements the {@code marshal} library,
+ * which serializes graphs of lua values into a compact binary form.
+ * <p>
+ * The library contains:
+ * <ul>
+ * <li>{@code marshal.encode(v)} returns a string holding the encoding of v</li>
+ * <li>{@code marshal.decode(s [, init [, opts]])} decodes the value starting at position init of s, by default 1,
+ * and returns it with the position following it, so that values encoded one after the other can be decoded in turn</li>
+ * </ul>
+ * Nil, booleans, numbers, strings, tables and lua functions can be encoded.
+ * Tables keep their metatables, and tables and functions that are reached more than once,
+ * including through cycles, are decoded as a single value.
+ * Functions are encoded with the binary chunk of their {@link Prototype} as written by {@link DumpState}
+ * and the values of their upvalues, and can only be decoded when the globals have an undumper, such as
+ * installed by {@link org.luaj.vm2.LoadState#install(Globals)}.
+ * Since a binary chunk is loaded without the checks of {@code load}, decoding functions is off
+ * by default, and is enabled with the decoding option {@code functions = true}
+ * or {@link Decoder#functions(boolean)}.
+ * The globals table itself is encoded as a reference to the globals of the decoder,
+ * so that functions are bound to the globals they are decoded into.
+ * Userdata, threads and java functions cannot be encoded.
+ * <p>
+ * Java code can stream values to and from an {@link OutputStream}, {@link InputStream} or
+ * {@link ByteBuffer} with an {@link Encoder} and a {@link Decoder}.
+ * <p>
+ * Each value is encoded as a tag byte followed by its data, with counts, lengths and
+ * integers written as variable-length integers of 7 bits per byte, and doubles as 8 bytes.
+ * Tables are written with the sizes of their array and hash parts, so that they are
+ * decoded presized, up to the size the remaining input can fill, and repeated strings are written once.
+ * Short strings are interned when they are decoded.
+ * <p>
+ * Typically, this library is included as part of a call to
+ * {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()}
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * globals.load("local s = marshal.encode({ 1, 2, x = 'y' }) print(#s, marshal.decode(s).x)").call();
+ * } </pre>
+ * <p>
+ * To instantiate and use it directly,
+ * link it into your globals table via {@link LuaValue#load(LuaValue)} using code such as:
+ * <pre> {@code
+ * Globals globals = new Globals();
+ * globals.load(new JseBaseLib());
+ * globals.load(new PackageLib());
+ * globals.load(new MarshalLib());
+ * } </pre>
+ * <p>
+ * @see LibFunction
+ * @see org.luaj.vm2.lib.jse.JsePlatform
+ */
+public class MarshalLib extends TwoArgFunction {
+
+	static final int TAG_NIL = 0;
+	static final int TAG_FALSE = 1;
+	static final int TAG_TRUE = 2;
+	static final int TAG_INT = 3;
+	static final int TAG_DOUBLE = 4;
+	static final int TAG_STRING = 5;
+	static final int TAG_STRINGREF = 6;
+	static final int TAG_TABLE = 7;
+	static final int TAG_TABLEMT = 8;
+	static final int TAG_REF = 9;
+	static final int TAG_FUNCTION = 10;
+	static final int TAG_GLOBALS = 11;
+
+	Globals globals;
+
+	/** Perform one-time initialization on the library by creating a table
+	 * containing the library functions, adding that table to the supplied environment,
+	 * adding the table to package.loaded, and returning table as the return value.
+	 * @param modname the module name supplied if this is loaded via 'require'.
+	 * @param env the environment to load into, which must be a Globals instance.
+	 */
+	public LuaValue call(LuaValue modname, LuaValue env) {
+		globals = env.checkglobals();
+		LuaTable marshal = new LuaTable();
+		marshal.set("encode", new Encode());
+		marshal.set("decode", new Decode());
+		env.set("marshal", marshal);
+		if (!env.get("package").isnil()) env.get("package").get("loaded").set("marshal", marshal);
+		return marshal;
+	}
+
+	final class Encode extends OneArgFunction {
+		public LuaValue call(LuaValue v) {
+			return encode(v, globals);
+		}
+	}
+
+	final class Decode extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			LuaString s = args.checkstring(1);
+			int init = args.optint(2, 1);
+			if (init < 1 || init > s.m_length)
+				argerror(2, "out of range");
+			LuaTable opts = args.opttable(3, null);
+			Decoder d = new Decoder(s.m_bytes, s.m_offset + init - 1, s.m_length - init + 1, globals);
+			if (opts != null)
+				d.functions(opts.get("functions").toboolean());
+			LuaValue v = d.decode();
+			return varargsOf(v, valueOf(d.pos - s.m_offset + 1));
+		}
+	}
+
+	/**
+	 * Encode a value.
+	 * @param value the value to encode
+	 * @param globals the globals whose table is encoded as a reference to the globals of the decoder
+	 * @return {@link LuaString} holding the encoded value
+	 * @throws LuaError if the value cannot be encoded
+	 */
+	public static LuaString encode(LuaValue value, Globals globals) {
+		Encoder e = new Encoder((OutputStream) null, globals);
+		try {
+			e.write(value);
+		} catch (IOException x) {
+			throw new LuaError(x);
+		}
+		return LuaString.valueUsing(e.buf, 0, e.n);
+	}
+
+	/**
+	 * Decode a value, without functions.
+	 * @param s the encoded value
+	 * @param globals the globals to bind references to the globals to
+	 * @return the decoded value
+	 * @throws LuaError if the data is malformed or holds a function
+	 */
+	public static LuaValue decode(LuaString s, Globals globals) {
+		return new Decoder(s.m_bytes, s.m_offset, s.m_length, globals).decode();
+	}
+
+	/**
+	 * Writes encoded values to an {@link OutputStream} or a {@link ByteBuffer}.
+	 * <p>
+	 * Each call to {@link #write(LuaValue)} writes a value that is decoded
+	 * by one call to {@link Decoder#read()}, and shares no references with the others.
+	 */
+	public static final class Encoder {
+		private final OutputStream out;
+		private final ByteBuffer buffer;
+		private final Globals globals;
+		byte[] buf = new byte[256];
+		int n;
+		private final Map<LuaValue, Integer> objects = new IdentityHashMap<>();
+		private final Map<LuaString, Integer> strings = new HashMap<>();
+		private final Map<Prototype, Integer> protos = new IdentityHashMap<>();
+		private final Map<UpValue, Integer> upvalues = new IdentityHashMap<>();
+
+		/**
+		 * Construct an encoder writing to an {@link OutputStream}.
+		 * @param out the stream to write to
+		 * @param globals the globals whose table is encoded as a reference to the globals of the decoder
+		 */
+		public Encoder(OutputStream out, Globals globals) {
+			this.out = out;
+			this.buffer = null;
+			this.globals = globals;
+		}
+
+		/**
+		 * Construct an encoder writing to a {@link ByteBuffer}.
+		 * @param buffer the buffer to write to, from its position
+		 * @param globals the globals whose table is encoded as a reference to the globals of the decoder
+		 */
+		public Encoder(ByteBuffer buffer, Globals globals) {
+			this.out = null;
+			this.buffer = buffer;
+			this.globals = globals;
+		}
+
+		/**
+		 * Encode a value, and write it to the stream or buffer.
+		 * @param value the value to encode
+		 * @throws LuaError if the value cannot be encoded
+		 * @throws IOException if the stream cannot be written to
+		 * @throws java.nio.BufferOverflowException if the buffer is too small
+		 */
+		public void write(LuaValue value) throws IOException {
+			try {
+				value(value);
+				flush();
+			} finally {
+				objects.clear();
+				strings.clear();
+				protos.clear();
+				upvalues.clear();
+			}
+		}
+
+		private void flush() throws IOException {
+			if (out != null)
+				out.write(buf, 0, n);
+			else if (buffer != null)
+				buffer.put(buf, 0, n);
+			else
+				return;
+			n = 0;
+		}
+
+		private void ensure(int len) throws IOException {
+			if (n + len <= buf.length)
+				return;
+			if (n > 0 && (out != null || buffer != null) && buf.length >= 8192)
+				flush();
+			if (n + len > buf.length) {
+				byte[] b = new byte[Math.max(n + len, buf.length * 2)];
+				System.arraycopy(buf, 0, b, 0, n);
+				buf = b;
+			}
+		}
+
+		private void tag(int tag) throws IOException {
+			ensure(1);
+			buf[n++] = (byte) tag;
+		}
+
+		private void varint(long v) throws IOException {
+			ensure(10);
+			while ((v & ~0x7fL) != 0) {
+				buf[n++] = (byte) (v | 0x80);
+				v >>>= 7;
+			}
+			buf[n++] = (byte) v;
+		}
+
+		private void bytes(byte[] b, int off, int len) throws IOException {
+			ensure(len);
+			System.arraycopy(b, off, buf, n, len);
+			n += len;
+		}
+
+		private void value(LuaValue v) throws IOException {
+			switch (v.type()) {
+				case TNIL -> tag(TAG_NIL);
+				case TBOOLEAN -> tag(v.toboolean() ? TAG_TRUE : TAG_FALSE);
+				case TNUMBER -> {
+					if (v instanceof LuaInteger || v instanceof LuaLong) {
+						long l = v.tolong();
+						tag(TAG_INT);
+						varint((l << 1) ^ (l >> 63));
+					} else {
+						long bits = Double.doubleToLongBits(v.todouble());
+						tag(TAG_DOUBLE);
+						ensure(8);
+						for (int i = 0; i < 8; i++, bits >>>= 8)
+							buf[n++] = (byte) bits;
+					}
+				}
+				case TSTRING -> {
+					LuaString s = v.strvalue();
+					Integer r = strings.get(s);
+					if (r != null) {
+						tag(TAG_STRINGREF);
+						varint(r);
+					} else {
+						strings.put(s, strings.size());
+						tag(TAG_STRING);
+						varint(s.m_length);
+						bytes(s.m_bytes, s.m_offset, s.m_length);
+					}
+				}
+				case TTABLE, TFUNCTION -> {
+					Integer r = objects.get(v);
+					if (v == globals) {
+						tag(TAG_GLOBALS);
+					} else if (r != null) {
+						tag(TAG_REF);
+						varint(r);
+					} else if (v instanceof LuaTable t) {
+						objects.put(v, objects.size());
+						table(t);
+					} else if (v instanceof LuaClosure c) {
+						objects.put(v, objects.size());
+						function(c);
+					} else {
+						throw new LuaError("cannot marshal a java function");
+					}
+				}
+				default -> throw new LuaError("cannot marshal a " + v.typename());
+			}
+		}
+
+		private void table(LuaTable t) throws IOException {
+			int na = 0, nh = 0;
+			while (!t.rawget(na + 1).isnil())
+				na++;
+			LuaValue k = NIL;
+			for (Varargs e; !(k = (e = t.next(k)).arg1()).isnil(); )
+				if (!k.isinttype() || k.toint() < 1 || k.toint() > na)
+					nh++;
+			LuaValue mt = t.getmetatable();
+			tag(mt != null ? TAG_TABLEMT : TAG_TABLE);
+			varint(na);
+			varint(nh);
+			for (int i = 1; i <= na; i++)
+				value(t.rawget(i));
+			for (Varargs e; !(k = (e = t.next(k)).arg1()).isnil(); ) {
+				if (!k.isinttype() || k.toint() < 1 || k.toint() > na) {
+					value(k);
+					value(e.arg(2));
+				}
+			}
+			if (mt != null)
+				value(mt);
+		}
+
+		private void function(LuaClosure c) throws IOException {
+			tag(TAG_FUNCTION);
+			Integer p = protos.get(c.p);
+			if (p != null) {
+				varint(p + 1);
+			} else {
+				protos.put(c.p, protos.size());
+				ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+				DumpState.dump(c.p, chunk, false);
+				varint(0);
+				varint(chunk.size());
+				bytes(chunk.toByteArray(), 0, chunk.size());
+			}
+			for (UpValue u : c.upValues) {
+				Integer r = u != null ? upvalues.get(u) : null;
+				if (r != null) {
+					varint(r + 1);
+				} else {
+					if (u != null)
+						upvalues.put(u, upvalues.size());
+					varint(0);
+					value(u != null ? u.getValue() : NIL);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads values encoded by an {@link Encoder} or by {@code marshal.encode}
+	 * from an {@link InputStream}, a {@link ByteBuffer} or a byte array.
+	 * <p>
+	 * Input is read ahead from a stream, which should then only be read through the decoder.
+	 * When decoding a buffer, its position is left after the last value decoded.
+	 */
+	public static final class Decoder {
+		private static final int BUFSIZE = 8192;
+		private final InputStream in;
+		private final ByteBuffer buffer;
+		private final Globals globals;
+		/* true when decoding from an immutable array, whose bytes can be shared by long strings */
+		private final boolean shared;
+		private boolean functions;
+		private byte[] buf;
+		int pos, lim;
+		private final ArrayList<LuaValue> objects = new ArrayList<>();
+		private final ArrayList<LuaString> strings = new ArrayList<>();
+		private final ArrayList<Prototype> protos = new ArrayList<>();
+		private final ArrayList<UpValue> upvalues = new ArrayList<>();
+
+		/**
+		 * Construct a decoder reading from an {@link InputStream}.
+		 * @param in the stream to read from
+		 * @param globals the globals to bind decoded functions and references to the globals to
+		 */
+		public Decoder(InputStream in, Globals globals) {
+			this.in = in;
+			this.buffer = null;
+			this.globals = globals;
+			this.shared = false;
+			this.buf = new byte[BUFSIZE];
+		}
+
+		/**
+		 * Construct a decoder reading from a {@link ByteBuffer}.
+		 * @param buffer the buffer to read from, from its position to its limit
+		 * @param globals the globals to bind decoded functions and references to the globals to
+		 */
+		public Decoder(ByteBuffer buffer, Globals globals) {
+			this.globals = globals;
+			this.shared = false;
+			if (buffer.hasArray()) {
+				this.in = null;
+				this.buffer = buffer;
+				this.buf = buffer.array();
+				this.pos = buffer.arrayOffset() + buffer.position();
+				this.lim = buffer.arrayOffset() + buffer.limit();
+			} else {
+				this.in = new InputStream() {
+					public int read() {
+						return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+					}
+					public int read(byte[] b, int off, int len) {
+						if (!buffer.hasRemaining())
+							return -1;
+						len = Math.min(len, buffer.remaining());
+						buffer.get(b, off, len);
+						return len;
+					}
+				};
+				this.buffer = buffer;
+				this.buf = new byte[BUFSIZE];
+			}
+		}
+
+		Decoder(byte[] bytes, int off, int len, Globals globals) {
+			this.in = null;
+			this.buffer = null;
+			this.globals = globals;
+			this.shared = true;
+			this.buf = bytes;
+			this.pos = off;
+			this.lim = off + len;
+		}
+
+		/**
+		 * Decode the next value.
+		 * @return the decoded value
+		 * @throws LuaError if the data is malformed
+		 * @throws IOException if the stream cannot be read
+		 */
+		public LuaValue read() throws IOException {
+			try {
+				return value();
+			} finally {
+				objects.clear();
+				strings.clear();
+				protos.clear();
+				upvalues.clear();
+				if (buffer != null && in == null) {
+					buffer.position(pos - buffer.arrayOffset());
+				} else if (buffer != null) { /* give back the bytes read ahead */
+					buffer.position(buffer.position() - (lim - pos));
+					pos = lim = 0;
+				}
+			}
+		}
+
+		/**
+		 * Allow or refuse decoding functions, which are refused by default,
+		 * since their binary chunks are loaded without the checks of {@code load}.
+		 * @param allow true to decode functions through the undumper of the globals
+		 * @return this decoder
+		 */
+		public Decoder functions(boolean allow) {
+			this.functions = allow;
+			return this;
+		}
+
+		LuaValue decode() {
+			try {
+				return read();
+			} catch (IOException e) {
+				throw new LuaError(e);
+			}
+		}
+
+		/* make at least len bytes available from pos */
+		private void require(int len) throws IOException {
+			if (lim - pos >= len)
+				return;
+			if (in == null)
+				throw new LuaError("truncated marshal data");
+			if (len > buf.length - pos) {
+				byte[] b = len > buf.length ? new byte[Math.max(len, buf.length * 2)] : buf;
+				System.arraycopy(buf, pos, b, 0, lim - pos);
+				buf = b;
+				lim -= pos;
+				pos = 0;
+			}
+			while (lim - pos < len) {
+				int r = in.read(buf, lim, buf.length - lim);
+				if (r < 0)
+					throw new LuaError("truncated marshal data");
+				lim += r;
+			}
+		}
+
+		private int read1() throws IOException {
+			if (pos == lim)
+				require(1);
+			return buf[pos++] & 0xff;
+		}
+
+		private long varint() throws IOException {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read1();
+				v |= (long) (b & 0x7f) << shift;
+				if (b < 0x80)
+					return v;
+			}
+			throw new LuaError("malformed marshal data");
+		}
+
+		private int count() throws IOException {
+			long n = varint();
+			if (n > Integer.MAX_VALUE)
+				throw new LuaError("malformed marshal data");
+			return (int) n;
+		}
+
+		private <T> T ref(ArrayList<T> list) throws IOException {
+			int r = count();
+			if (r >= list.size())
+				throw new LuaError("malformed marshal data");
+			return list.get(r);
+		}
+
+		private LuaValue value() throws IOException {
+			int tag = read1();
+			switch (tag) {
+				case TAG_NIL:
+					return NIL;
+				case TAG_FALSE:
+					return LuaValue.FALSE;
+				case TAG_TRUE:
+					return LuaValue.TRUE;
+				case TAG_INT: {
+					long l = varint();
+					return LuaValue.valueOf((l >>> 1) ^ -(l & 1));
+				}
+				case TAG_DOUBLE: {
+					require(8);
+					long bits = 0;
+					for (int i = 7; i >= 0; i--)
+						bits = (bits << 8) | (buf[pos + i] & 0xff);
+					pos += 8;
+					return LuaValue.valueOf(Double.longBitsToDouble(bits));
+				}
+				case TAG_STRING: {
+					int len = count();
+					require(len);
+					LuaString s = shared && len > 32 ? LuaString.valueUsing(buf, pos, len) : LuaString.valueOf(buf, pos, len);
+					pos += len;
+					strings.add(s);
+					return s;
+				}
+				case TAG_STRINGREF:
+					return ref(strings);
+				case TAG_TABLE:
+				case TAG_TABLEMT: {
+					int na = count(), nh = count();
+					/* each element takes at least a byte, so presize no further than the input goes */
+					int left = lim - pos;
+					LuaTable t = new LuaTable(Math.min(na, left), Math.min(nh, left / 2));
+					objects.add(t);
+					for (int i = 1; i <= na; i++)
+						t.rawset(i, value());
+					for (int i = 0; i < nh; i++) {
+						LuaValue k = value();
+						if (k.isnil())
+							throw new LuaError("malformed marshal data");
+						if (k.type() == TNUMBER && Double.isNaN(k.todouble()))
+							throw new LuaError("table index is NaN");
+						t.rawset(k, value());
+					}
+					if (tag == TAG_TABLEMT)
+						t.setmetatable(value());
+					return t;
+				}
+				case TAG_REF:
+					return ref(objects);
+				case TAG_FUNCTION:
+					return function();
+				case TAG_GLOBALS:
+					if (globals == null)
+						throw new LuaError("cannot decode globals without globals");
+					return globals;
+				default:
+					throw new LuaError("malformed marshal data");
+			}
+		}
+
+		private LuaValue function() throws IOException {
+			if (!functions)
+				throw new LuaError("decoding functions is not enabled");
+			int r = count();
+			Prototype p;
+			if (r > 0) {
+				if (r > protos.size())
+					throw new LuaError("malformed marshal data");
+				p = protos.get(r - 1);
+			} else {
+				int len = count();
+				require(len);
+				if (globals == null || globals.undumper == null)
+					throw new LuaError("cannot decode functions without an undumper");
+				p = globals.undumper.undump(new ByteArrayInputStream(buf, pos, len), "=marshal");
+				pos += len;
+				protos.add(p);
+			}
+			LuaClosure c = new LuaClosure(p, globals);
+			objects.add(c);
+			for (int i = 0; i < c.upValues.length; i++) {
+				int u = count();
+				if (u > 0) {
+					if (u > upvalues.size())
+						throw new LuaError("malformed marshal data");
+					c.upValues[i] = upvalues.get(u - 1);
+				} else {
+					c.upValues[i] = new UpValue(new LuaValue[] {NIL}, 0);
+					upvalues.add(c.upValues[i]);
+					c.upValues[i].setValue(value());
+				}
+			}
+			return c;
+		}
+	}
+}
@@ -24,6 +24,7 @@ package org.luaj.vm2.lib;
 import java.util.Random;
 
 import org.luaj.vm2.LuaDouble;
+import org.luaj.vm2.LuaLong;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
@@ -164,7 +165,8 @@ public class MathLib extends TwoArgFunction {
 	static final class fmod extends TwoArgFunction {
 		public LuaValue call(LuaValue xv, LuaValue yv) {
 			if (xv.islong() && yv.islong()) {
-				return valueOf(xv.tolong() % yv.tolong());
+				long r = xv.tolong() % yv.tolong();
+				return xv instanceof LuaLong || yv instanceof LuaLong ? valueOf(r) : valueOf((double) r);
 			}
 			return valueOf(xv.checkdouble() % yv.checkdouble());
 		}
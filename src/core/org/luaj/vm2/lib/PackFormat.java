@@ -0,0 +1,458 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2011 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.luaj.vm2.Buffer;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Compiled format string of {@code string.pack}, {@code string.unpack} and {@code string.packsize},
+ * with the syntax of lua 5.3.
+ * <p>
+ * The format is parsed once into arrays of options, sizes and alignments, and kept in a small cache
+ * of recently used formats, so that packing and unpacking only read and write the bytes.
+ * Packing computes the exact size first and writes into a single array,
+ * and unpacking reads all values directly from the bytes of the string.
+ * <p>
+ * This class is not used directly.
+ *
+ * @see StringLib
+ */
+final class PackFormat {
+
+    static final byte KINT = 0;       /* signed integers */
+    static final byte KUINT = 1;      /* unsigned integers */
+    static final byte KFLOAT = 2;     /* single-precision floats */
+    static final byte KDOUBLE = 3;    /* double-precision floats */
+    static final byte KCHAR = 4;      /* fixed-length strings */
+    static final byte KSTRING = 5;    /* strings with prefixed length */
+    static final byte KZSTR = 6;      /* zero-terminated strings */
+    static final byte KPADDING = 7;   /* padding */
+    static final byte KPADDALIGN = 8; /* padding for alignment */
+    static final byte KNOP = 9;       /* no-op (configuration or spaces) */
+
+    static final int MAXINTSIZE = 16;
+    static final int NATIVEALIGN = 8;
+
+    private static final boolean NATIVELITTLE = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Recently used formats by hash, replaced on collision.
+     */
+    private static final PackFormat[] CACHE = new PackFormat[64];
+
+    final LuaString fmt;
+    final byte[] kind;
+    final int[] size;
+    final int[] align;
+    final boolean[] little;
+
+    /**
+     * Number of values packed or unpacked.
+     */
+    final int nvalues;
+
+    /**
+     * Total size when the format has no variable-length options, or -1.
+     */
+    final int fixedsize;
+
+    private PackFormat(LuaString fmt, byte[] kind, int[] size, int[] align, boolean[] little, int n) {
+        this.fmt = fmt;
+        this.kind = kind;
+        this.size = size;
+        this.align = align;
+        this.little = little;
+        int nvalues = 0, total = 0;
+        for (int i = 0; i < n && total >= 0; i++) {
+            if (kind[i] == KSTRING || kind[i] == KZSTR)
+                total = -1;
+            else
+                total += pad(total, align[i]) + size[i];
+        }
+        for (int i = 0; i < n; i++)
+            if (kind[i] < KPADDING)
+                nvalues++;
+        this.nvalues = nvalues;
+        this.fixedsize = total;
+    }
+
+    /**
+     * Get the compiled form of a format string.
+     *
+     * @param fmt the format string
+     * @return the compiled format
+     * @throws org.luaj.vm2.LuaError if the format is invalid
+     */
+    static PackFormat of(LuaString fmt) {
+        int slot = fmt.hashCode() & (CACHE.length - 1);
+        PackFormat f = CACHE[slot];
+        if (f == null || !f.fmt.raweq(fmt))
+            CACHE[slot] = f = compile(fmt);
+        return f;
+    }
+
+    private static int pad(int total, int align) {
+        return (align - (total & (align - 1))) & (align - 1);
+    }
+
+    private static PackFormat compile(LuaString fmt) {
+        int n = fmt.m_length;
+        byte[] kind = new byte[n];
+        int[] size = new int[n];
+        int[] align = new int[n];
+        boolean[] little = new boolean[n];
+        boolean islittle = NATIVELITTLE;
+        int maxalign = 1, count = 0;
+        int[] pos = {0};
+        while (pos[0] < n) {
+            int c = fmt.luaByte(pos[0]++);
+            byte k;
+            int sz;
+            switch (c) {
+                case 'b': k = KINT; sz = 1; break;
+                case 'B': k = KUINT; sz = 1; break;
+                case 'h': k = KINT; sz = 2; break;
+                case 'H': k = KUINT; sz = 2; break;
+                case 'l': case 'j': k = KINT; sz = 8; break;
+                case 'L': case 'J': case 'T': k = KUINT; sz = 8; break;
+                case 'f': k = KFLOAT; sz = 4; break;
+                case 'd': case 'n': k = KDOUBLE; sz = 8; break;
+                case 'i': k = KINT; sz = intsize(fmt, pos, 4); break;
+                case 'I': k = KUINT; sz = intsize(fmt, pos, 4); break;
+                case 's': k = KSTRING; sz = intsize(fmt, pos, 8); break;
+                case 'c':
+                    k = KCHAR;
+                    sz = number(fmt, pos, -1);
+                    if (sz == -1)
+                        LuaValue.argerror(1, "missing size for format option 'c'");
+                    break;
+                case 'z': k = KZSTR; sz = 0; break;
+                case 'x': k = KPADDING; sz = 1; break;
+                case 'X': k = KPADDALIGN; sz = 0; break;
+                case ' ': k = KNOP; sz = 0; break;
+                case '<': islittle = true; k = KNOP; sz = 0; break;
+                case '>': islittle = false; k = KNOP; sz = 0; break;
+                case '=': islittle = NATIVELITTLE; k = KNOP; sz = 0; break;
+                case '!': maxalign = intsize(fmt, pos, NATIVEALIGN); k = KNOP; sz = 0; break;
+                default:
+                    LuaValue.argerror(1, "invalid format option '" + (char) c + "'");
+                    return null;
+            }
+            int a = sz;
+            if (k == KPADDALIGN) {
+                /* align to the size of the next option, which is otherwise ignored */
+                if (pos[0] >= n)
+                    LuaValue.argerror(1, "invalid next option for option 'X'");
+                PackFormat next = compile(fmt.substring(pos[0], pos[0] + 1 + digits(fmt, pos[0] + 1)));
+                pos[0] += next.fmt.m_length;
+                if (next.kind.length == 0 || next.kind[0] == KCHAR || next.size[0] == 0)
+                    LuaValue.argerror(1, "invalid next option for option 'X'");
+                a = next.size[0];
+            }
+            if (a <= 1 || k == KCHAR) {
+                a = 1;
+            } else {
+                if (a > maxalign)
+                    a = maxalign;
+                if ((a & (a - 1)) != 0)
+                    LuaValue.argerror(1, "format asks for alignment not power of 2");
+            }
+            if (k == KNOP)
+                continue;
+            kind[count] = k;
+            size[count] = sz;
+            align[count] = a;
+            little[count] = islittle;
+            count++;
+        }
+        return new PackFormat(fmt, trim(kind, count), trim(size, count), trim(align, count), trim(little, count), count);
+    }
+
+    private static int digits(LuaString fmt, int i) {
+        int n = 0;
+        while (i + n < fmt.m_length && Character.isDigit(fmt.luaByte(i + n)))
+            n++;
+        return n;
+    }
+
+    private static int number(LuaString fmt, int[] pos, int df) {
+        int n = digits(fmt, pos[0]);
+        if (n == 0)
+            return df;
+        long v = 0;
+        for (int i = 0; i < n; i++)
+            if (v < Integer.MAX_VALUE / 10)
+                v = v * 10 + fmt.luaByte(pos[0] + i) - '0';
+        pos[0] += n;
+        return (int) v;
+    }
+
+    private static int intsize(LuaString fmt, int[] pos, int df) {
+        int sz = number(fmt, pos, df);
+        if (sz > MAXINTSIZE || sz <= 0)
+            LuaValue.argerror(1, "integral size (" + sz + ") out of limits [1," + MAXINTSIZE + "]");
+        return sz;
+    }
+
+    private static byte[] trim(byte[] a, int n) {
+        byte[] b = new byte[n];
+        System.arraycopy(a, 0, b, 0, n);
+        return b;
+    }
+
+    private static int[] trim(int[] a, int n) {
+        int[] b = new int[n];
+        System.arraycopy(a, 0, b, 0, n);
+        return b;
+    }
+
+    private static boolean[] trim(boolean[] a, int n) {
+        boolean[] b = new boolean[n];
+        System.arraycopy(a, 0, b, 0, n);
+        return b;
+    }
+
+    /**
+     * Total size of packed values, as by {@code string.packsize}.
+     *
+     * @throws org.luaj.vm2.LuaError if the format has variable-length options
+     */
+    int packsize() {
+        if (fixedsize < 0)
+            LuaValue.argerror(1, "variable-length format");
+        return fixedsize;
+    }
+
+    /**
+     * Size of packed values.
+     *
+     * @param args     the arguments holding the values
+     * @param firstarg the index of the first value in args
+     * @return the number of bytes written by {@link #pack(Varargs, int, byte[], int)}
+     */
+    int size(Varargs args, int firstarg) {
+        if (fixedsize >= 0)
+            return fixedsize;
+        long total = 0;
+        for (int i = 0, arg = firstarg; i < kind.length; i++) {
+            total += pad((int) total, align[i]);
+            switch (kind[i]) {
+                case KSTRING -> total += size[i] + args.checkstring(arg).m_length;
+                case KZSTR -> total += args.checkstring(arg).m_length + 1;
+                default -> total += size[i];
+            }
+            if (kind[i] < KPADDING)
+                arg++;
+        }
+        if (total > Integer.MAX_VALUE)
+            LuaValue.argerror(1, "result too large");
+        return (int) total;
+    }
+
+    /**
+     * Pack values, as by {@code string.pack}.
+     *
+     * @param args     the arguments holding the values
+     * @param firstarg the index of the first value in args
+     * @return the packed bytes
+     * @throws org.luaj.vm2.LuaError if a value does not fit its option
+     */
+    byte[] pack(Varargs args, int firstarg) {
+        byte[] b = new byte[size(args, firstarg)];
+        pack(args, firstarg, b, 0);
+        return b;
+    }
+
+    /**
+     * Pack values, as by {@code string.pack}, appending the bytes to a buffer.
+     */
+    void pack(Varargs args, int firstarg, Buffer out) {
+        byte[] b = pack(args, firstarg);
+        out.append(b, 0, b.length);
+    }
+
+    /**
+     * Pack values into an array, which must have room for {@link #size(Varargs, int)} bytes.
+     *
+     * @param args     the arguments holding the values
+     * @param firstarg the index of the first value in args
+     * @param b        the array to write to
+     * @param start    the index in b of the first byte to write, from which alignment is counted
+     * @throws org.luaj.vm2.LuaError if a value does not fit its option
+     */
+    void pack(Varargs args, int firstarg, byte[] b, int start) {
+        int p = start;
+        for (int i = 0, arg = firstarg; i < kind.length; i++) {
+            int padding = pad(p - start, align[i]);
+            if (padding > 0)
+                Arrays.fill(b, p, p += padding, (byte) 0);
+            int sz = size[i];
+            switch (kind[i]) {
+                case KINT, KUINT -> {
+                    LuaValue v = args.checknumber(arg);
+                    if (!v.islong())
+                        LuaValue.argerror(arg, "number has no integer representation");
+                    long l = v.tolong();
+                    if (sz < 8) {
+                        if (kind[i] == KINT) {
+                            long lim = 1L << (sz * 8 - 1);
+                            if (l < -lim || l >= lim)
+                                LuaValue.argerror(arg, "integer overflow");
+                        } else if (Long.compareUnsigned(l, 1L << (sz * 8)) >= 0) {
+                            LuaValue.argerror(arg, "unsigned overflow");
+                        }
+                    }
+                    putint(b, p, sz, little[i], l, kind[i] == KINT && l < 0);
+                }
+                case KFLOAT -> putint(b, p, 4, little[i], Float.floatToRawIntBits((float) args.checkdouble(arg)), false);
+                case KDOUBLE -> putint(b, p, 8, little[i], Double.doubleToRawLongBits(args.checkdouble(arg)), false);
+                case KCHAR -> {
+                    LuaString s = args.checkstring(arg);
+                    if (s.m_length > sz)
+                        LuaValue.argerror(arg, "string longer than given size");
+                    s.copyInto(0, b, p, s.m_length);
+                    Arrays.fill(b, p + s.m_length, p + sz, (byte) 0);
+                }
+                case KSTRING -> {
+                    LuaString s = args.checkstring(arg);
+                    if (sz < 8 && s.m_length >= 1L << (sz * 8))
+                        LuaValue.argerror(arg, "string length does not fit in given size");
+                    putint(b, p, sz, little[i], s.m_length, false);
+                    s.copyInto(0, b, p + sz, s.m_length);
+                    sz += s.m_length;
+                }
+                case KZSTR -> {
+                    LuaString s = args.checkstring(arg);
+                    if (s.indexOf((byte) 0, 0) >= 0)
+                        LuaValue.argerror(arg, "string contains zeros");
+                    s.copyInto(0, b, p, s.m_length);
+                    b[p + s.m_length] = 0;
+                    sz = s.m_length + 1;
+                }
+                case KPADDING -> b[p] = 0;
+                default -> {
+                }
+            }
+            p += sz;
+            if (kind[i] < KPADDING)
+                arg++;
+        }
+    }
+
+    private static void putint(byte[] b, int p, int size, boolean little, long v, boolean neg) {
+        for (int i = 0; i < size; i++, v >>= 8) {
+            byte x = i < 8 ? (byte) v : (byte) (neg ? 0xff : 0);
+            b[little ? p + i : p + size - 1 - i] = x;
+        }
+    }
+
+    /**
+     * Unpack values, as by {@code string.unpack}.
+     *
+     * @param s    the string holding the packed values
+     * @param init the zero-based position of the first value
+     * @return the values followed by the one-based position after the last one
+     * @throws org.luaj.vm2.LuaError if the string is too short or holds an invalid value
+     */
+    Varargs unpack(LuaString s, int init) {
+        return unpack(s.m_bytes, s.m_offset, s.m_length, init, s);
+    }
+
+    /**
+     * Unpack values from a range of an array.
+     *
+     * @param b    the array holding the packed values
+     * @param base the index in b of the start of the data, from which positions and alignment are counted
+     * @param len  the length of the data
+     * @param init the zero-based position of the first value
+     * @param s    the string holding the data, whose strings are substrings of it, or null to copy them
+     * @return the values followed by the one-based position after the last one
+     * @throws org.luaj.vm2.LuaError if the data is too short or holds an invalid value
+     */
+    Varargs unpack(byte[] b, int base, int len, int init, LuaString s) {
+        int p = init;
+        LuaValue[] v = new LuaValue[nvalues + 1];
+        int nv = 0;
+        for (int i = 0; i < kind.length; i++) {
+            p += pad(p, align[i]);
+            int sz = size[i];
+            if (sz > len - p || p > len)
+                LuaValue.argerror(2, "data string too short");
+            switch (kind[i]) {
+                case KINT, KUINT -> v[nv++] = LuaValue.valueOf(getint(b, base + p, sz, little[i], kind[i] == KINT));
+                case KFLOAT -> v[nv++] = LuaValue.valueOf(Float.intBitsToFloat((int) getint(b, base + p, 4, little[i], false)));
+                case KDOUBLE -> v[nv++] = LuaValue.valueOf(Double.longBitsToDouble(getint(b, base + p, 8, little[i], false)));
+                case KCHAR -> v[nv++] = string(b, base, p, p + sz, s);
+                case KSTRING -> {
+                    long l = getint(b, base + p, sz, little[i], false);
+                    if (l < 0 || l > len - p - sz)
+                        LuaValue.argerror(2, "data string too short");
+                    v[nv++] = string(b, base, p + sz, p + sz + (int) l, s);
+                    sz += (int) l;
+                }
+                case KZSTR -> {
+                    int e = p;
+                    while (e < len && b[base + e] != 0)
+                        e++;
+                    if (e == len)
+                        LuaValue.argerror(2, "unfinished string for format 'z'");
+                    v[nv++] = string(b, base, p, e, s);
+                    sz = e - p + 1;
+                }
+                default -> {
+                }
+            }
+            p += sz;
+        }
+        v[nv] = LuaValue.valueOf(p + 1);
+        return LuaValue.varargsOf(v);
+    }
+
+    private static LuaString string(byte[] b, int base, int start, int end, LuaString s) {
+        return s != null ? s.substring(start, end) : LuaString.valueOf(b, base + start, end - start);
+    }
+
+    private static long getint(byte[] b, int p, int size, boolean little, boolean signed) {
+        long v = 0;
+        int limit = Math.min(size, 8);
+        for (int i = limit - 1; i >= 0; i--)
+            v = (v << 8) | (b[little ? p + i : p + size - 1 - i] & 0xff);
+        if (size < 8) {
+            if (signed) {
+                int shift = 64 - size * 8;
+                v = (v << shift) >> shift;
+            }
+        } else if (size > 8) {
+            int mask = !signed || v >= 0 ? 0 : 0xff;
+            for (int i = limit; i < size; i++)
+                if ((b[little ? p + i : p + size - 1 - i] & 0xff) != mask)
+                    LuaValue.error(size + "-byte integer does not fit into Lua Integer");
+        }
+        return v;
+    }
+}
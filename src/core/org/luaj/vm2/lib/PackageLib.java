@@ -24,6 +24,12 @@ package org.luaj.vm2.lib;
 import org.luaj.vm2.*;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Subclass of {@link LibFunction} which implements the lua standard package and module
@@ -207,6 +213,140 @@ public class PackageLib extends TwoArgFunction {
         package_.set(_PATH, LuaValue.valueOf(newLuaPath));
     }
 
+    /**
+     * Locate, read and compile a set of lua modules in parallel on the common
+     * {@link ForkJoinPool}, and register a loader for each in {@code package.preload}.
+     *
+     * @param modnames names of the modules to preload, as they would be passed to {@code require}
+     * @return the number of modules that were preloaded
+     * @see #preload(Collection, ForkJoinPool)
+     */
+    public int preload(Collection<String> modnames) {
+        return preload(modnames, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Locate, read and compile a set of lua modules in parallel, and register
+     * a loader for each in {@code package.preload}.
+     * <p>
+     * Modules are located using the current {@code package.path} and the {@link Globals#finder},
+     * and compiled into {@link Prototype}s using the {@link Globals#undumper} and {@link Globals#compiler}.
+     * A subsequent {@code require} then only instantiates and runs the closure,
+     * with the same arguments and chunk name that the lua searcher would have supplied.
+     * <p>
+     * Modules that are already loaded or have a preload entry are skipped,
+     * as are modules that are not found or fail to compile,
+     * so that {@code require} reports those errors in the usual way.
+     * The compiler, undumper and finder must be safe to use from multiple threads,
+     * which is the case for the ones installed by {@link org.luaj.vm2.lib.jse.JsePlatform}.
+     *
+     * @param modnames names of the modules to preload, as they would be passed to {@code require}
+     * @param pool     the pool on which to search for and compile the modules
+     * @return the number of modules that were preloaded
+     */
+    public int preload(Collection<String> modnames, ForkJoinPool pool) {
+        final LuaValue path = package_.get(_PATH);
+        if (!path.isstring())
+            return 0;
+        final String luapath = path.tojstring();
+        final LuaValue loaded = package_.get(_LOADED);
+        final LuaTable preload = package_.get(_PRELOAD).checktable();
+        final List<String> names = new ArrayList<>(modnames.size());
+        final List<Callable<PreloadedModule>> tasks = new ArrayList<>(modnames.size());
+        for (String modname : modnames) {
+            if (loaded.get(modname).toboolean() || !preload.get(modname).isnil())
+                continue;
+            names.add(modname);
+            tasks.add(() -> compileModule(modname, luapath));
+        }
+        int n = 0;
+        final List<Future<PreloadedModule>> results = pool.invokeAll(tasks);
+        for (int i = 0; i < results.size(); i++) {
+            final PreloadedModule m;
+            try {
+                m = results.get(i).get();
+            } catch (Exception e) {
+                continue;
+            }
+            if (m != null) {
+                preload.set(names.get(i), m);
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Find and compile one module, or return null if it cannot be found or compiled.
+     */
+    private PreloadedModule compileModule(String modname, String luapath) {
+        final String filename = searchpath(modname, luapath, ".", FILE_SEP, null);
+        if (filename == null)
+            return null;
+        final InputStream is = globals.finder.findResource(filename);
+        if (is == null)
+            return null;
+        try {
+            return new PreloadedModule(globals.loadPrototype(is, "@" + filename, "bt"), filename);
+        } catch (Exception e) {
+            return null;
+        } finally {
+            try {
+                is.close();
+            } catch (java.io.IOException ioe) {
+            }
+        }
+    }
+
+    /**
+     * Search a path for the first file name that can be opened by the {@link Globals#finder}.
+     *
+     * @param notfound if not null, receives the file names that were tried
+     * @return the file name, or null if not found
+     */
+    String searchpath(String name, String path, String sep, String rep, StringBuilder notfound) {
+        // check the path elements
+        ResourceFinder finder = globals.finder;
+        boolean useRawParamString = finder.useRawParamString();
+        int e = -1;
+        int n = path.length();
+        if (!useRawParamString) {
+            name = name.replace(sep.charAt(0), rep.charAt(0));
+        }
+        while (e < n) {
+
+            // find next template
+            int b = e + 1;
+            e = path.indexOf(';', b);
+            if (e < 0)
+                e = path.length();
+            String template = path.substring(b, e);
+
+            // create filename
+            int q = template.indexOf('?');
+            String filename = template;
+            if (q >= 0) {
+                filename = template.substring(0, q) + name + template.substring(q + 1);
+            }
+
+            // try opening the file
+
+            InputStream is = finder.findResource(filename);
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (java.io.IOException ioe) {
+                }
+                return filename;
+            }
+
+            // report error
+            if (notfound != null)
+                notfound.append("\n\t").append(filename);
+        }
+        return null;
+    }
+
     public String tojstring() {
         return "package";
     }
@@ -328,49 +468,35 @@ public class PackageLib extends TwoArgFunction {
             String path = args.checkjstring(2);
             String sep = args.optjstring(3, ".");
             String rep = args.optjstring(4, FILE_SEP);
+            StringBuilder sb = new StringBuilder();
+            String filename = searchpath(name, path, sep, rep, sb);
+            if (filename != null)
+                return valueOf(filename);
+            return varargsOf(NIL, valueOf(sb.toString()));
+        }
+    }
 
-            // check the path elements
-            ResourceFinder finder = globals.finder;
-            boolean useRawParamString = finder.useRawParamString();
-            int e = -1;
-            int n = path.length();
-            StringBuilder sb = null;
-            if (!useRawParamString) {
-                name = name.replace(sep.charAt(0), rep.charAt(0));
-            }
-            while (e < n) {
-
-                // find next template
-                int b = e + 1;
-                e = path.indexOf(';', b);
-                if (e < 0)
-                    e = path.length();
-                String template = path.substring(b, e);
-
-                // create filename
-                int q = template.indexOf('?');
-                String filename = template;
-                if (q >= 0) {
-                    filename = template.substring(0, q) + name + template.substring(q + 1);
-                }
-
-                // try opening the file
+    /**
+     * Loader registered in {@code package.preload} by {@link #preload(Collection, ForkJoinPool)},
+     * which instantiates a precompiled module using {@link Globals#loader}.
+     */
+    class PreloadedModule extends TwoArgFunction {
+        final Prototype prototype;
+        final LuaString filename;
 
-                InputStream is = finder.findResource(filename);
-                if (is != null) {
-                    try {
-                        is.close();
-                    } catch (java.io.IOException ioe) {
-                    }
-                    return valueOf(filename);
-                }
+        PreloadedModule(Prototype prototype, String filename) {
+            this.prototype = prototype;
+            this.filename = valueOf(filename);
+        }
 
-                // report error
-                if (sb == null)
-                    sb = new StringBuilder();
-                sb.append("\n\t").append(filename);
+        public LuaValue call(LuaValue modname, LuaValue extra) {
+            final LuaValue chunk;
+            try {
+                chunk = globals.loader.load(prototype, "@" + filename, globals);
+            } catch (java.io.IOException e) {
+                return error("load " + filename + ": " + e);
             }
-            return varargsOf(NIL, valueOf(sb.toString()));
+            return chunk.call(modname, filename);
         }
     }
 
@@ -0,0 +1,138 @@
+/*******************************************************************************
+* Copyright (c) 2007-2011 LuaJ. All rights reserved.
+* <p>
+* Permission is hereby granted, free of charge, to any person obtaining a copy
+* of this software and associated documentation files (the "Software"), to deal
+* in the Software without restriction, including without limitation the rights
+* to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the Software is
+* furnished to do so, subject to the following conditions:
+* <p>
+* The above copyright notice and this permission notice shall be included in
+* all copies or substantial portions of the Software.
+* <p>
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+* IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+* FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+* AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+* LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+* OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+* THE SOFTWARE.
+******************************************************************************/
+package org.luaj.vm2.lib;
+
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.SharedTable;
+import org.luaj.vm2.Varargs;
+
+/**
+ * Subclass of {@link LibFunction} which implements the {@code shared} library,
+ * for state shared between {@link org.luaj.vm2.Globals} running on different threads.
+ * <p>
+ * The library contains:
+ * <ul>
+ * <li>{@code shared.new([t])} returns a new {@link SharedTable}, with a deep copy of the table t if given</li>
+ * <li>{@code shared.open(name)} returns the shared table with that name, creating it if needed;
+ * all globals loaded with the same root see the same tables</li>
+ * <li>{@code shared.cas(s, k, expect, update)} sets s[k] to update if it is expect, and returns true if it did</li>
+ * <li>{@code shared.incr(s, k [, delta])} adds delta, by default 1, to s[k] and returns the new value</li>
+ * <li>{@code shared.snapshot(s)} returns a plain table with a consistent copy of the entries of s</li>
+ * </ul>
+ * Shared tables can only hold nil, booleans, numbers, strings and other shared tables.
+ * <p>
+ * Typically, this library is included as part of a call to
+ * {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()}
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * globals.load("shared.incr(shared.open('stats'), 'requests')").call();
+ * } </pre>
+ * <p>
+ * To instantiate and use it directly,
+ * link it into your globals table via {@link LuaValue#load(LuaValue)} using code such as:
+ * <pre> {@code
+ * Globals globals = new Globals();
+ * globals.load(new JseBaseLib());
+ * globals.load(new PackageLib());
+ * globals.load(new SharedLib());
+ * } </pre>
+ * <p>
+ * @see LibFunction
+ * @see SharedTable
+ * @see org.luaj.vm2.lib.jse.JsePlatform
+ */
+public class SharedLib extends TwoArgFunction {
+
+	/** The root of the tables returned by {@code shared.open}, unless another is supplied. */
+	public static final SharedTable ROOT = new SharedTable();
+
+	final SharedTable root;
+
+	/** Construct a shared library whose named tables are held in {@link #ROOT}. */
+	public SharedLib() {
+		this(ROOT);
+	}
+
+	/** Construct a shared library whose named tables are held in a given root,
+	 * to separate the state of unrelated groups of globals.
+	 * @param root the table to hold the tables returned by {@code shared.open}
+	 */
+	public SharedLib(SharedTable root) {
+		this.root = root;
+	}
+
+	/** Perform one-time initialization on the library by creating a table
+	 * containing the library functions, adding that table to the supplied environment,
+	 * adding the table to package.loaded, and returning table as the return value.
+	 * @param modname the module name supplied if this is loaded via 'require'.
+	 * @param env the environment to load into, which must be a Globals instance.
+	 */
+	public LuaValue call(LuaValue modname, LuaValue env) {
+		LuaTable shared = new LuaTable();
+		shared.set("new", new New());
+		shared.set("open", new Open());
+		shared.set("cas", new Cas());
+		shared.set("incr", new Incr());
+		shared.set("snapshot", new Snapshot());
+		env.set("shared", shared);
+		if (!env.get("package").isnil()) env.get("package").get("loaded").set("shared", shared);
+		return shared;
+	}
+
+	static SharedTable checkshared(Varargs args, int i) {
+		return (SharedTable) args.checkuserdata(i, SharedTable.class);
+	}
+
+	static final class New extends LibFunction {
+		public LuaValue call() {
+			return new SharedTable();
+		}
+		public LuaValue call(LuaValue t) {
+			return t.isnil() ? new SharedTable() : SharedTable.copyOf(t.checktable());
+		}
+	}
+
+	final class Open extends LibFunction {
+		public LuaValue call(LuaValue name) {
+			return root.subtable(name.checkstring());
+		}
+	}
+
+	static final class Cas extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			return valueOf(checkshared(args, 1).compareAndSet(args.arg(2), args.arg(3), args.arg(4)));
+		}
+	}
+
+	static final class Incr extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			return checkshared(args, 1).increment(args.arg(2), args.optnumber(3, ONE));
+		}
+	}
+
+	static final class Snapshot extends VarArgFunction {
+		public Varargs invoke(Varargs args) {
+			return checkshared(args, 1).snapshot();
+		}
+	}
+}
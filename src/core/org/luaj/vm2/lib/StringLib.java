@@ -216,9 +216,12 @@ public class StringLib extends TwoArgFunction {
         string.set("len", new len());
         string.set("lower", new lower());
         string.set("match", new match());
+        string.set("pack", new pack());
+        string.set("packsize", new packsize());
         string.set("rep", new rep());
         string.set("reverse", new reverse());
         string.set("sub", new sub());
+        string.set("unpack", new unpack());
         string.set("upper", new upper());
 
         env.set("string", string);
@@ -512,6 +515,45 @@ public class StringLib extends TwoArgFunction {
         }
     }
 
+    /**
+     * string.pack (fmt, v1, v2, ...)
+     * <p>
+     * Returns a binary string containing the values v1, v2, etc.
+     * packed (that is, serialized in binary form) according to the format string fmt,
+     * as in lua 5.3.
+     *
+     * @see PackFormat
+     */
+    static final class pack extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            return LuaString.valueUsing(PackFormat.of(args.checkstring(1)).pack(args, 2));
+        }
+    }
+
+    /**
+     * string.packsize (fmt)
+     * <p>
+     * Returns the size of a string resulting from string.pack with the given format.
+     * The format string cannot have the variable-length options 's' or 'z'.
+     */
+    static final class packsize extends OneArgFunction {
+        public LuaValue call(LuaValue arg) {
+            return valueOf(PackFormat.of(arg.checkstring()).packsize());
+        }
+    }
+
+    /**
+     * Pack values as by {@code string.pack}, appending the bytes to a {@link Buffer}.
+     *
+     * @param fmt    the format string
+     * @param values the values to pack
+     * @param out    the buffer to append the packed bytes to
+     * @throws LuaError if the format is invalid or a value does not fit its option
+     */
+    public static void pack(LuaString fmt, Varargs values, Buffer out) {
+        PackFormat.of(fmt).pack(values, 1, out);
+    }
+
     /**
      * string.rep (s, n)
      * <p>
@@ -578,6 +620,24 @@ public class StringLib extends TwoArgFunction {
         }
     }
 
+    /**
+     * string.unpack (fmt, s [, pos])
+     * <p>
+     * Returns the values packed in string s according to the format string fmt,
+     * as in lua 5.3, followed by the index of the first unread byte in s.
+     * An optional pos marks where to start reading in s, by default 1.
+     */
+    static final class unpack extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            PackFormat f = PackFormat.of(args.checkstring(1));
+            LuaString s = args.checkstring(2);
+            int pos = posrelat(args.optint(3, 1), s.m_length) - 1;
+            if (pos < 0 || pos > s.m_length)
+                argerror(3, "initial position out of string");
+            return f.unpack(s, pos);
+        }
+    }
+
     /**
      * string.upper (s)
      * <p>
@@ -21,6 +21,9 @@
  ******************************************************************************/
 package org.luaj.vm2.lib;
 
+import org.luaj.vm2.Buffer;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
@@ -79,19 +82,19 @@ public class TableLib extends TwoArgFunction {
     // "concat" (table [, sep [, i [, j]]]) -> string
     static class concat extends TableLibFunction {
         public LuaValue call(LuaValue list) {
-            return list.checktable().concat(EMPTYSTRING, 1, list.length());
+            return TableLib.concat(checklist(list), EMPTYSTRING, 1, list.length());
         }
 
         public LuaValue call(LuaValue list, LuaValue sep) {
-            return list.checktable().concat(sep.checkstring(), 1, list.length());
+            return TableLib.concat(checklist(list), sep.checkstring(), 1, list.length());
         }
 
         public LuaValue call(LuaValue list, LuaValue sep, LuaValue i) {
-            return list.checktable().concat(sep.checkstring(), i.checkint(), list.length());
+            return TableLib.concat(checklist(list), sep.checkstring(), i.checkint(), list.length());
         }
 
         public LuaValue call(LuaValue list, LuaValue sep, LuaValue i, LuaValue j) {
-            return list.checktable().concat(sep.checkstring(), i.checkint(), j.checkint());
+            return TableLib.concat(checklist(list), sep.checkstring(), i.checkint(), j.checkint());
         }
     }
 
@@ -100,17 +103,17 @@ public class TableLib extends TwoArgFunction {
         public Varargs invoke(Varargs args) {
             switch (args.narg()) {
                 case 2: {
-                    LuaTable table = args.checktable(1);
-                    table.insert(table.length() + 1, args.arg(2));
+                    LuaValue table = checklist(args.arg1());
+                    TableLib.insert(table, table.length() + 1, args.arg(2));
                     return NONE;
                 }
                 case 3: {
-                    LuaTable table = args.checktable(1);
+                    LuaValue table = checklist(args.arg1());
                     int pos = args.checkint(2);
                     int max = table.length() + 1;
                     if (pos < 1 || pos > max)
                         argerror(2, "position out of bounds: " + pos + " not between 1 and " + max);
-                    table.insert(pos, args.arg(3));
+                    TableLib.insert(table, pos, args.arg(3));
                     return NONE;
                 }
                 default: {
@@ -132,20 +135,20 @@ public class TableLib extends TwoArgFunction {
     // "remove" (table [, pos]) -> removed-ele
     static class remove extends VarArgFunction {
         public Varargs invoke(Varargs args) {
-            LuaTable table = args.checktable(1);
+            LuaValue table = checklist(args.arg1());
             int size = table.length();
             int pos = args.optint(2, size);
             if (pos != size && (pos < 1 || pos > size + 1)) {
                 argerror(2, "position out of bounds: " + pos + " not between 1 and " + (size + 1));
             }
-            return table.remove(pos);
+            return TableLib.remove(table, pos);
         }
     }
 
     // "sort" (table [, comp])
     static class sort extends VarArgFunction {
         public Varargs invoke(Varargs args) {
-            args.checktable(1).sort(
+            TableLib.sort(checklist(args.arg1()),
                     args.isnil(2) ? NIL : args.checkfunction(2));
             return NONE;
         }
@@ -155,10 +158,118 @@ public class TableLib extends TwoArgFunction {
     // "unpack", // (list [,i [,j]]) -> result1, ...
     static class unpack extends VarArgFunction {
         public Varargs invoke(Varargs args) {
-            LuaTable t = args.checktable(1);
+            LuaValue t = checklist(args.arg1());
             // do not waste resource for calc rawlen if arg3 is not nil
             int len = args.arg(3).isnil() ? t.length() : 0;
-            return t.unpack(args.optint(2, 1), args.optint(3, len));
+            return TableLib.unpack(t, args.optint(2, 1), args.optint(3, len));
         }
     }
+
+    /**
+     * Marker for userdata that views a java array, list or map,
+     * which the functions of this library accept in place of a table.
+     * <p>
+     * Insertion and removal shift the elements through get and set by default,
+     * and views whose length is fixed, or that can move their elements directly, override them.
+     */
+    public interface View {
+
+        /**
+         * Insert a value, moving the elements from its position up by one.
+         *
+         * @param pos   the position, from 1 to {@code length() + 1}
+         * @param value the value to insert
+         */
+        default void insert(int pos, LuaValue value) {
+            LuaValue list = (LuaValue) this;
+            for (int i = list.length(); i >= pos; --i)
+                list.set(i + 1, list.get(i));
+            list.set(pos, value);
+        }
+
+        /**
+         * Remove a value, moving the elements after it down by one.
+         *
+         * @param pos the position, from 1 to {@code length()}
+         * @return the value removed
+         */
+        default LuaValue remove(int pos) {
+            LuaValue list = (LuaValue) this;
+            int n = list.length();
+            LuaValue v = list.get(pos);
+            for (; pos < n; ++pos)
+                list.set(pos, list.get(pos + 1));
+            list.set(n, NIL);
+            return v;
+        }
+    }
+
+    /*
+     * The functions below also accept views, and then work through get, set
+     * and the length operator, as the table library of lua 5.3 does.
+     */
+
+    static LuaValue checklist(LuaValue list) {
+        return list.istable() || list instanceof View ? list : list.checktable();
+    }
+
+    static LuaValue concat(LuaValue list, LuaString sep, int i, int j) {
+        if (list instanceof LuaTable t)
+            return t.concat(sep, i, j);
+        Buffer sb = new Buffer();
+        if (i <= j) {
+            sb.append(list.get(i).checkstring());
+            while (++i <= j) {
+                sb.append(sep);
+                sb.append(list.get(i).checkstring());
+            }
+        }
+        return sb.tostring();
+    }
+
+    static void insert(LuaValue list, int pos, LuaValue value) {
+        if (list instanceof LuaTable t) {
+            t.insert(pos, value);
+            return;
+        }
+        ((View) list).insert(pos, value);
+    }
+
+    static Varargs remove(LuaValue list, int pos) {
+        if (list instanceof LuaTable t)
+            return t.remove(pos);
+        if (pos < 1 || pos > list.length())
+            return NONE;
+        LuaValue v = ((View) list).remove(pos);
+        return v.isnil() ? NONE : v;
+    }
+
+    static void sort(LuaValue list, LuaValue comparator) {
+        if (list instanceof LuaTable t) {
+            t.sort(comparator);
+            return;
+        }
+        int n = list.length();
+        LuaTable t = new LuaTable(n, 0);
+        for (int i = 1; i <= n; i++)
+            t.rawset(i, list.get(i));
+        t.sort(comparator);
+        for (int i = 1; i <= n; i++)
+            list.set(i, t.rawget(i));
+    }
+
+    static Varargs unpack(LuaValue list, int i, int j) {
+        if (list instanceof LuaTable t)
+            return t.unpack(i, j);
+        if (j < i)
+            return NONE;
+        int count = j - i;
+        int max = 0x00ffffff;
+        if (count < 0 || count >= max)
+            throw new LuaError("too many results to unpack: " + count + " (max is " + max + ')');
+        LuaValue[] v = new LuaValue[count + 1];
+        for (int k = 0; k <= count; k++)
+            v[k] = list.get(i + k);
+        return varargsOf(v);
+    }
 }
@@ -0,0 +1,433 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaThread;
+import org.luaj.vm2.LuaUserdata;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.LibFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subclass of {@link JseIoLib} whose files do not block the {@link org.luaj.vm2.Globals}
+ * while they wait for input or output, so that one scheduler can drive many
+ * coroutines doing input and output at the same time.
+ * <p>
+ * Files are read and written through an {@link AsynchronousFileChannel}, and programs
+ * opened with {@code io.popen} are read and written on a shared pool of daemon threads.
+ * When a coroutine started with {@code io.spawn} waits for one of these operations,
+ * it is suspended and the scheduler resumes another task, then resumes it when the
+ * operation completes, so lua code reads as if it were synchronous.
+ * Outside a task, the operations simply wait for completion.
+ * The standard input and output are not affected.
+ * <p>
+ * The library adds the following functions to the {@code io} table:
+ * <ul>
+ * <li>{@code io.spawn(fn, ...)} creates a task running {@code fn(...)} and returns its coroutine</li>
+ * <li>{@code io.run([fn, ...])} spawns {@code fn(...)} if given, then runs tasks
+ * until all of them are done, and returns the results of {@code fn}.
+ * An error in any task is raised by {@code io.run}.</li>
+ * <li>{@code io.sleep(seconds)} suspends the current task for some time</li>
+ * </ul>
+ * A task that yields with {@code coroutine.yield} is resumed after the other ready tasks.
+ * Coroutines resumed by a task with {@code coroutine.resume} are not tasks,
+ * so their input and output blocks the task that resumed them.
+ * <p>
+ * This library replaces the {@code io} library, and is not loaded by
+ * {@link JsePlatform#standardGlobals()}:
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * globals.load(new AsyncIoLib());
+ * globals.load("for i = 1, 100 do io.spawn(function() ... end) end io.run()").call();
+ * } </pre>
+ *
+ * @see JseIoLib
+ * @see org.luaj.vm2.lib.CoroutineLib
+ */
+public class AsyncIoLib extends JseIoLib {
+
+    /**
+     * Size of the read buffer of files, larger than for {@link JseIoLib} since each read
+     * that fills the buffer suspends the task.
+     * Writes are not buffered unless the script calls {@code file:setvbuf}, as in {@link JseIoLib}.
+     */
+    static final int ASYNC_BUFSIZE = 65536;
+
+    private static final ThreadFactory DAEMON = r -> {
+        Thread t = new Thread(r, "luaj-aio");
+        t.setDaemon(true);
+        return t;
+    };
+
+    /**
+     * Threads doing the blocking reads and writes of programs.
+     */
+    private static final ExecutorService streams = Executors.newCachedThreadPool(DAEMON);
+
+    /**
+     * Thread completing {@code io.sleep}.
+     */
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(DAEMON);
+
+    /**
+     * Value yielded by a task waiting for an operation, rather than yielding to the scheduler.
+     */
+    private static final LuaValue PENDING = new LuaUserdata(new Object());
+
+    /**
+     * Tasks ready to be resumed, added to by the threads completing operations.
+     */
+    private final LinkedBlockingQueue<LuaThread> ready = new LinkedBlockingQueue<>();
+
+    /**
+     * Tasks spawned and not yet done.
+     */
+    private final Set<LuaThread> tasks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Arguments for the first resume of spawned tasks.
+     */
+    private final IdentityHashMap<LuaThread, Varargs> pending = new IdentityHashMap<>();
+
+    private boolean running;
+
+    public LuaValue call(LuaValue modname, LuaValue env) {
+        LuaValue io = super.call(modname, env);
+        io.set("spawn", new spawn());
+        io.set("run", new run());
+        io.set("sleep", new sleep());
+        return io;
+    }
+
+    /**
+     * The number of tasks spawned and not yet done.
+     */
+    public int tasks() {
+        return tasks.size();
+    }
+
+    protected File openFile(String filename, boolean readMode, boolean appendMode, boolean updateMode, boolean binaryMode) throws IOException {
+        EnumSet<StandardOpenOption> options = EnumSet.of(StandardOpenOption.READ);
+        if (!readMode || updateMode)
+            options.add(StandardOpenOption.WRITE);
+        if (!readMode)
+            options.add(StandardOpenOption.CREATE);
+        if (!readMode && !appendMode)
+            options.add(StandardOpenOption.TRUNCATE_EXISTING);
+        Path path = Paths.get(filename);
+        AsyncFile f = new AsyncFile(AsynchronousFileChannel.open(path, options.toArray(new StandardOpenOption[0])));
+        if (appendMode)
+            f.position(f.size());
+        File file = openChannel(f);
+        file.setvbuf("no", ASYNC_BUFSIZE);
+        return file;
+    }
+
+    protected File openProgram(String prog, String mode) throws IOException {
+        final Process p = Runtime.getRuntime().exec(prog);
+        return "w".equals(mode) ?
+                openChannel(null, new AsyncStream(null, p.getOutputStream())) :
+                openChannel(new AsyncStream(p.getInputStream(), null), null);
+    }
+
+    protected File tmpFile() throws IOException {
+        java.io.File f = java.io.File.createTempFile(".luaj", "bin");
+        f.deleteOnExit();
+        return openFile(f.getPath(), false, false, true, true);
+    }
+
+    final class spawn extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            LuaThread t = new LuaThread(globals, args.checkfunction(1));
+            schedule(t, args.subargs(2));
+            return t;
+        }
+    }
+
+    final class run extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            if (running)
+                error("io.run: tasks are already running");
+            LuaThread main = args.isnil(1) ? null : new LuaThread(globals, args.checkfunction(1));
+            if (main != null)
+                schedule(main, args.subargs(2));
+            Varargs result = NONE;
+            running = true;
+            try {
+                while (!tasks.isEmpty()) {
+                    LuaThread t = ready.take();
+                    Varargs r = t.resume(pending.getOrDefault(t, NONE));
+                    pending.remove(t);
+                    if (!r.arg1().toboolean()) {
+                        tasks.clear();
+                        ready.clear();
+                        pending.clear();
+                        throw new LuaError(r.arg(2).tojstring());
+                    }
+                    if (t.state.status == LuaThread.STATUS_DEAD) {
+                        tasks.remove(t);
+                        if (t == main)
+                            result = r.subargs(2);
+                    } else if (r.arg(2) != PENDING) {
+                        ready.add(t);
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new LuaError("io.run: interrupted");
+            } finally {
+                running = false;
+            }
+            return result;
+        }
+    }
+
+    final class sleep extends LibFunction {
+        public LuaValue call(LuaValue seconds) {
+            long nanos = (long) (seconds.checkdouble() * 1e9);
+            try {
+                await((op) -> timer.schedule(() -> op.completed(0, null), nanos, TimeUnit.NANOSECONDS));
+            } catch (IOException e) {
+                error(e.getMessage());
+            }
+            return NONE;
+        }
+    }
+
+    private void schedule(LuaThread t, Varargs args) {
+        tasks.add(t);
+        pending.put(t, args.dealias());
+        ready.add(t);
+    }
+
+    /**
+     * An operation started by {@link #await}, completed by another thread.
+     */
+    interface Start {
+        void start(Operation op) throws IOException;
+    }
+
+    /**
+     * Completion of one operation, which wakes up the waiting task or thread.
+     */
+    final class Operation implements CompletionHandler<Integer, Object> {
+        private final LuaThread task;
+        private int result;
+        private Throwable error;
+        private boolean done;
+        private boolean suspended;
+
+        Operation(LuaThread task) {
+            this.task = task;
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        public void completed(Integer result, Object attachment) {
+            finish(result, null);
+        }
+
+        public void failed(Throwable error, Object attachment) {
+            finish(0, error);
+        }
+
+        /* mark the task as suspended until completion, unless the operation is already done */
+        synchronized boolean suspend() {
+            return suspended = !done;
+        }
+
+        private void finish(int result, Throwable error) {
+            boolean wake;
+            synchronized (this) {
+                this.result = result;
+                this.error = error;
+                this.done = true;
+                wake = suspended;
+                notifyAll();
+            }
+            if (wake)
+                ready.add(task);
+        }
+    }
+
+    /**
+     * Start an operation and wait for it to complete, suspending the current coroutine
+     * if it is a task, or the current thread otherwise.
+     *
+     * @return the result passed to {@link Operation#completed}
+     */
+    int await(Start start) throws IOException {
+        LuaThread current = globals.running;
+        Operation op = new Operation(running && tasks.contains(current) ? current : null);
+        start.start(op);
+        if (op.task != null) {
+            while (op.suspend())
+                globals.yield(PENDING);
+        } else {
+            synchronized (op) {
+                try {
+                    while (!op.isDone())
+                        op.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+        synchronized (op) {
+            if (op.error instanceof IOException)
+                throw (IOException) op.error;
+            if (op.error != null)
+                throw new IOException(op.error.toString(), op.error);
+            return op.result;
+        }
+    }
+
+    /**
+     * Seekable channel over an {@link AsynchronousFileChannel}, awaiting each read and write.
+     */
+    final class AsyncFile implements SeekableByteChannel {
+        private final AsynchronousFileChannel file;
+        private long position;
+
+        AsyncFile(AsynchronousFileChannel file) {
+            this.file = file;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            int n = await((op) -> file.read(dst, position, null, op));
+            if (n > 0)
+                position += n;
+            return n;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            int n = await((op) -> file.write(src, position, null, op));
+            position += n;
+            return n;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        public SeekableByteChannel position(long position) {
+            this.position = position;
+            return this;
+        }
+
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        public SeekableByteChannel truncate(long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        public boolean isOpen() {
+            return file.isOpen();
+        }
+
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Channel over a stream of a program, awaiting each read and write done on another thread.
+     */
+    final class AsyncStream implements ReadableByteChannel, WritableByteChannel {
+        private final InputStream in;
+        private final OutputStream out;
+        private boolean open = true;
+
+        AsyncStream(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            return await((op) -> streams.execute(() -> {
+                try {
+                    int n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                    if (n > 0)
+                        dst.position(dst.position() + n);
+                    op.completed(n, null);
+                } catch (Throwable e) {
+                    op.failed(e, null);
+                }
+            }));
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            return await((op) -> streams.execute(() -> {
+                try {
+                    int n = src.remaining();
+                    out.write(src.array(), src.arrayOffset() + src.position(), n);
+                    out.flush();
+                    src.position(src.position() + n);
+                    op.completed(n, null);
+                } catch (Throwable e) {
+                    op.failed(e, null);
+                }
+            }));
+        }
+
+        public boolean isOpen() {
+            return open;
+        }
+
+        public void close() throws IOException {
+            open = false;
+            if (in != null)
+                in.close();
+            if (out != null)
+                out.close();
+        }
+    }
+}
@@ -23,8 +23,11 @@ package org.luaj.vm2.lib.jse;
 
 import org.luaj.vm2.*;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,6 +43,7 @@ import java.util.Map;
  * <li>{@link LuaValue#valueOf(byte[])}</li>
  * <li>{@link LuaValue#valueOf(double)}</li>
  * <li>{@link LuaValue#valueOf(int)}</li>
+ * <li>{@link LuaValue#valueOf(long)}</li>
  * <li>{@link LuaValue#valueOf(String)}</li>
  * </ul>
  * <p>
@@ -60,31 +64,55 @@ import java.util.Map;
  */
 public class CoerceJavaToLua {
 
-    static final Map<Class<?>, Coercion> COERCIONS = Collections.synchronizedMap(new HashMap<>());
+    /**
+     * Coercions for the boxed primitives, strings and classes,
+     * fixed when this class is initialized.
+     */
+    static final Map<Class<?>, Coercion> PREDEFINED = new HashMap<>();
+
+    /**
+     * Coercion for each class that has been coerced.
+     * Entries are held by the class itself, so classes from discarded
+     * class loaders can still be unloaded.
+     */
+    static final ClassValue<Coercion> COERCIONS = new ClassValue<>() {
+        protected Coercion computeValue(Class<?> c) {
+            Coercion co = PREDEFINED.get(c);
+            return co != null ? co :
+                    c.isArray() ? arrayCoercion :
+                            LuaValue.class.isAssignableFrom(c) ? luaCoercion :
+                                    List.class.isAssignableFrom(c) ? listCoercion :
+                                            Map.class.isAssignableFrom(c) ? mapCoercion :
+                                                    instanceCoercion;
+        }
+    };
 
 	static final Coercion instanceCoercion = new InstanceCoercion();
     static final Coercion arrayCoercion = new ArrayCoercion();
     static final Coercion luaCoercion = new LuaCoercion();
+    static final Coercion listCoercion = new ListCoercion();
+    static final Coercion mapCoercion = new MapCoercion();
 
     static {
         Coercion boolCoercion = new BoolCoercion();
         Coercion intCoercion = new IntCoercion();
         Coercion charCoercion = new CharCoercion();
+        Coercion longCoercion = new LongCoercion();
         Coercion doubleCoercion = new DoubleCoercion();
         Coercion stringCoercion = new StringCoercion();
         Coercion bytesCoercion = new BytesCoercion();
         Coercion classCoercion = new ClassCoercion();
-        COERCIONS.put(Boolean.class, boolCoercion);
-        COERCIONS.put(Byte.class, intCoercion);
-        COERCIONS.put(Character.class, charCoercion);
-        COERCIONS.put(Short.class, intCoercion);
-        COERCIONS.put(Integer.class, intCoercion);
-        COERCIONS.put(Long.class, doubleCoercion);
-        COERCIONS.put(Float.class, doubleCoercion);
-        COERCIONS.put(Double.class, doubleCoercion);
-        COERCIONS.put(String.class, stringCoercion);
-        COERCIONS.put(byte[].class, bytesCoercion);
-        COERCIONS.put(Class.class, classCoercion);
+        PREDEFINED.put(Boolean.class, boolCoercion);
+        PREDEFINED.put(Byte.class, intCoercion);
+        PREDEFINED.put(Character.class, charCoercion);
+        PREDEFINED.put(Short.class, intCoercion);
+        PREDEFINED.put(Integer.class, intCoercion);
+        PREDEFINED.put(Long.class, longCoercion);
+        PREDEFINED.put(Float.class, doubleCoercion);
+        PREDEFINED.put(Double.class, doubleCoercion);
+        PREDEFINED.put(String.class, stringCoercion);
+        PREDEFINED.put(byte[].class, bytesCoercion);
+        PREDEFINED.put(Class.class, classCoercion);
     }
 
     /**
@@ -92,9 +120,12 @@ public class CoerceJavaToLua {
      * <p>
      * Integral types {@code boolean}, {@code byte},  {@code char}, and {@code int}
      * will become {@link LuaInteger};
-     * {@code long}, {@code float}, and {@code double} will become {@link LuaDouble};
+     * {@code long} will become {@link LuaInteger} or {@link LuaLong}, without loss of precision;
+     * {@code float}, and {@code double} will become {@link LuaDouble};
      * {@code String} and {@code byte[]} will become {@link LuaString};
      * types inheriting from {@link LuaValue} will be returned without coercion;
+     * arrays, {@link List} and {@link Map} will become userdata that can be
+     * indexed, iterated and measured with {@code #} like tables;
      * other types will become {@link LuaUserdata}.
      *
      * @param o Java object needing conversion
@@ -108,15 +139,76 @@ public class CoerceJavaToLua {
     public static LuaValue coerce(Object o) {
         if (o == null)
             return LuaValue.NIL;
-        Class<?> clazz = o.getClass();
-        Coercion c = COERCIONS.get(clazz);
-        if (c == null) {
-            c = clazz.isArray() ? arrayCoercion :
-                    o instanceof LuaValue ? luaCoercion :
-                            instanceCoercion;
-            COERCIONS.put(clazz, c);
-        }
-        return c.coerce(o);
+        return COERCIONS.get(o.getClass()).coerce(o);
+    }
+
+    /**
+     * Copy a Java map into a new lua table, unlike {@link #coerce(Object)}
+     * which gives a view of the map.
+     * <p>
+     * Nested maps, collections and arrays of {@code int}, {@code long}, {@code double}
+     * and objects are copied into nested tables, sharing one table per Java object
+     * so that shared and cyclic references are preserved;
+     * other keys and values are coerced with {@link #coerce(Object)}.
+     * Entries with a null key or value are skipped.
+     *
+     * @param map Java map to copy
+     * @return new {@link LuaTable} with a hash part presized to the map size
+     * @see CoerceLuaToJava#toMap(LuaTable)
+     */
+    public static LuaTable tableOf(Map<?, ?> map) {
+        return tableOf(map, new IdentityHashMap<>());
+    }
+
+    /**
+     * Copy a Java collection into a new lua list-table, unlike {@link #coerce(Object)}
+     * which gives a view of a {@link List}.
+     * <p>
+     * Elements are converted as the values in {@link #tableOf(Map)}, and null elements become nil.
+     *
+     * @param list Java collection to copy
+     * @return new {@link LuaTable} with an array part presized to the collection size
+     * @see CoerceLuaToJava#toList(LuaTable)
+     */
+    public static LuaTable listOf(Collection<?> list) {
+        return listOf(list, list.size(), list, new IdentityHashMap<>());
+    }
+
+    private static LuaTable tableOf(Map<?, ?> map, IdentityHashMap<Object, LuaTable> seen) {
+        LuaTable t = new LuaTable(0, map.size());
+        seen.put(map, t);
+        for (Map.Entry<?, ?> e : map.entrySet())
+            if (e.getKey() != null && e.getValue() != null)
+                t.rawset(copy(e.getKey(), seen), copy(e.getValue(), seen));
+        return t;
+    }
+
+    private static LuaTable listOf(Iterable<?> list, int n, Object identity, IdentityHashMap<Object, LuaTable> seen) {
+        LuaTable t = new LuaTable(n, 0);
+        seen.put(identity, t);
+        int i = 0;
+        for (Object o : list)
+            t.rawset(++i, copy(o, seen));
+        return t;
+    }
+
+    private static LuaValue copy(Object o, IdentityHashMap<Object, LuaTable> seen) {
+        LuaTable t = seen.get(o);
+        if (t != null)
+            return t;
+        if (o instanceof Map<?, ?> m)
+            return tableOf(m, seen);
+        if (o instanceof Collection<?> c)
+            return listOf(c, c.size(), c, seen);
+        if (o instanceof int[] a)
+            return LuaTable.fromIntArray(a);
+        if (o instanceof long[] a)
+            return LuaTable.fromLongArray(a);
+        if (o instanceof double[] a)
+            return LuaTable.fromDoubleArray(a);
+        if (o instanceof Object[] a)
+            return listOf(Arrays.asList(a), a.length, a, seen);
+        return coerce(o);
     }
 
     interface Coercion {
@@ -144,6 +236,13 @@ public class CoerceJavaToLua {
         }
     }
 
+    private static final class LongCoercion implements Coercion {
+        public LuaValue coerce(Object javaValue) {
+            Long l = (Long) javaValue;
+            return LuaValue.valueOf(l.longValue());
+        }
+    }
+
     private static final class DoubleCoercion implements Coercion {
         public LuaValue coerce(Object javaValue) {
             Number n = (Number) javaValue;
@@ -182,6 +281,18 @@ public class CoerceJavaToLua {
         }
     }
 
+    private static final class ListCoercion implements Coercion {
+        public LuaValue coerce(Object javaValue) {
+            return new JavaList((List<?>) javaValue);
+        }
+    }
+
+    private static final class MapCoercion implements Coercion {
+        public LuaValue coerce(Object javaValue) {
+            return new JavaMap((Map<?, ?>) javaValue);
+        }
+    }
+
     private static final class LuaCoercion implements Coercion {
         public LuaValue coerce(Object javaValue) {
             return (LuaValue) javaValue;
@@ -21,13 +21,18 @@
  ******************************************************************************/
 package org.luaj.vm2.lib.jse;
 
+import org.luaj.vm2.LuaLong;
 import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
 
 import java.lang.reflect.Array;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -59,7 +64,25 @@ import java.util.Map;
  */
 public class CoerceLuaToJava {
 
-    static final Map<Class<?>, Coercion> COERCIONS = Collections.synchronizedMap(new HashMap<>());
+    /**
+     * Coercions for the primitive types, their wrappers and strings,
+     * fixed when this class is initialized.
+     */
+    static final Map<Class<?>, Coercion> PREDEFINED = new HashMap<>();
+
+    /**
+     * Coercion to each class that has been a coercion target.
+     * Entries are held by the class itself, so classes from discarded
+     * class loaders can still be unloaded.
+     */
+    static final ClassValue<Coercion> COERCIONS = new ClassValue<>() {
+        protected Coercion computeValue(Class<?> c) {
+            Coercion co = PREDEFINED.get(c);
+            return co != null ? co :
+                    c.isArray() ? new ArrayCoercion(c.getComponentType()) :
+                            new ObjectCoercion(c);
+        }
+    };
     static int SCORE_NULL_VALUE = 0x10;
     static int SCORE_WRONG_TYPE = 0x100;
     static int SCORE_UNCOERCIBLE = 0x10000;
@@ -76,24 +99,24 @@ public class CoerceLuaToJava {
         Coercion stringCoercion = new StringCoercion(StringCoercion.TARGET_TYPE_STRING);
         Coercion bytesCoercion = new StringCoercion(StringCoercion.TARGET_TYPE_BYTES);
 
-        COERCIONS.put(Boolean.TYPE, boolCoercion);
-        COERCIONS.put(Boolean.class, boolCoercion);
-        COERCIONS.put(Byte.TYPE, byteCoercion);
-        COERCIONS.put(Byte.class, byteCoercion);
-        COERCIONS.put(Character.TYPE, charCoercion);
-        COERCIONS.put(Character.class, charCoercion);
-        COERCIONS.put(Short.TYPE, shortCoercion);
-        COERCIONS.put(Short.class, shortCoercion);
-        COERCIONS.put(Integer.TYPE, intCoercion);
-        COERCIONS.put(Integer.class, intCoercion);
-        COERCIONS.put(Long.TYPE, longCoercion);
-        COERCIONS.put(Long.class, longCoercion);
-        COERCIONS.put(Float.TYPE, floatCoercion);
-        COERCIONS.put(Float.class, floatCoercion);
-        COERCIONS.put(Double.TYPE, doubleCoercion);
-        COERCIONS.put(Double.class, doubleCoercion);
-        COERCIONS.put(String.class, stringCoercion);
-        COERCIONS.put(byte[].class, bytesCoercion);
+        PREDEFINED.put(Boolean.TYPE, boolCoercion);
+        PREDEFINED.put(Boolean.class, boolCoercion);
+        PREDEFINED.put(Byte.TYPE, byteCoercion);
+        PREDEFINED.put(Byte.class, byteCoercion);
+        PREDEFINED.put(Character.TYPE, charCoercion);
+        PREDEFINED.put(Character.class, charCoercion);
+        PREDEFINED.put(Short.TYPE, shortCoercion);
+        PREDEFINED.put(Short.class, shortCoercion);
+        PREDEFINED.put(Integer.TYPE, intCoercion);
+        PREDEFINED.put(Integer.class, intCoercion);
+        PREDEFINED.put(Long.TYPE, longCoercion);
+        PREDEFINED.put(Long.class, longCoercion);
+        PREDEFINED.put(Float.TYPE, floatCoercion);
+        PREDEFINED.put(Float.class, floatCoercion);
+        PREDEFINED.put(Double.TYPE, doubleCoercion);
+        PREDEFINED.put(Double.class, doubleCoercion);
+        PREDEFINED.put(String.class, stringCoercion);
+        PREDEFINED.put(byte[].class, bytesCoercion);
     }
 
     /**
@@ -107,6 +130,70 @@ public class CoerceLuaToJava {
         return getCoercion(clazz).coerce(value);
     }
 
+    /**
+     * Copy a lua table into a new Java map, unlike {@link #coerce(LuaValue, Class)}
+     * which gives the table itself for {@link Map}.
+     * <p>
+     * Keys become strings as by {@link LuaValue#tojstring()}.
+     * Nested tables that are non-empty sequences become {@link List}s,
+     * and other nested tables become maps, with one Java object per table
+     * so that shared and cyclic references are preserved;
+     * other values are coerced as for a target of type {@link Object}.
+     *
+     * @param table lua table to copy
+     * @return new {@link Map} with the entries of the table
+     * @see CoerceJavaToLua#tableOf(Map)
+     */
+    public static Map<String, Object> toMap(LuaTable table) {
+        return toMap(table, new IdentityHashMap<>());
+    }
+
+    /**
+     * Copy the list elements {@code 1..#table} of a lua table into a new Java list.
+     * <p>
+     * Elements are converted as the values in {@link #toMap(LuaTable)}, and nil elements become null.
+     *
+     * @param table lua table to copy
+     * @return new {@link List} with the list elements of the table
+     * @see CoerceJavaToLua#listOf(java.util.Collection)
+     */
+    public static List<Object> toList(LuaTable table) {
+        return toList(table, new IdentityHashMap<>());
+    }
+
+    private static Map<String, Object> toMap(LuaTable table, IdentityHashMap<LuaValue, Object> seen) {
+        Map<String, Object> map = new LinkedHashMap<>(Math.max(16, table.keyCount() * 4 / 3 + 1));
+        seen.put(table, map);
+        LuaValue k = LuaValue.NIL;
+        while (true) {
+            Varargs n = table.next(k);
+            if ((k = n.arg1()).isnil())
+                break;
+            map.put(k.tojstring(), copy(n.arg(2), seen));
+        }
+        return map;
+    }
+
+    private static List<Object> toList(LuaTable table, IdentityHashMap<LuaValue, Object> seen) {
+        int n = table.rawlen();
+        List<Object> list = new ArrayList<>(n);
+        seen.put(table, list);
+        for (int i = 1; i <= n; i++)
+            list.add(copy(table.rawget(i), seen));
+        return list;
+    }
+
+    private static Object copy(LuaValue v, IdentityHashMap<LuaValue, Object> seen) {
+        if (!v.istable())
+            return getCoercion(Object.class).coerce(v);
+        Object o = seen.get(v);
+        if (o != null)
+            return o;
+        LuaTable t = v.checktable();
+        int n = t.rawlen();
+        return n > 0 && n == t.keyCount() ? toList(t, seen) : toMap(t, seen);
+    }
+
     /**
      * Determine levels of inheritance between a base class and a subclass
      *
@@ -128,18 +215,7 @@ public class CoerceLuaToJava {
     }
 
     static Coercion getCoercion(Class<?> c) {
-        Coercion co = COERCIONS.get(c);
-        if (co != null) {
-            return co;
-        }
-        if (c.isArray()) {
-            Class<?> typ = c.getComponentType();
-            co = new ArrayCoercion(typ);
-        } else {
-            co = new ObjectCoercion(c);
-        }
-        COERCIONS.put(c, co);
-        return co;
+        return COERCIONS.get(c);
     }
 
     interface Coercion {
@@ -252,7 +328,7 @@ public class CoerceLuaToJava {
                 case TARGET_TYPE_CHAR -> (char) value.toint();
                 case TARGET_TYPE_SHORT -> (short) value.toint();
                 case TARGET_TYPE_INT -> value.toint();
-                case TARGET_TYPE_LONG -> (long) value.todouble();
+                case TARGET_TYPE_LONG -> value.tolong();
                 case TARGET_TYPE_FLOAT -> (float) value.todouble();
                 case TARGET_TYPE_DOUBLE -> value.todouble();
                 default -> null;
@@ -321,10 +397,26 @@ public class CoerceLuaToJava {
         public Object coerce(LuaValue value) {
             return switch (value.type()) {
                 case LuaValue.TTABLE -> {
+                    if (value.getmetatable() == null) {
+                        LuaTable t = (LuaTable) value;
+                        if (componentType == int.class)
+                            yield t.toIntArray();
+                        if (componentType == long.class)
+                            yield t.toLongArray();
+                        if (componentType == double.class)
+                            yield t.toDoubleArray();
+                        if (componentType == String.class)
+                            yield t.toStringArray();
+                    }
                     int n = value.length();
                     Object a = Array.newInstance(componentType, n);
-                    for (int i = 0; i < n; i++)
-                        Array.set(a, i, componentCoercion.coerce(value.get(i + 1)));
+                    if (a instanceof Object[] objects) {
+                        for (int i = 0; i < n; i++)
+                            objects[i] = componentCoercion.coerce(value.get(i + 1));
+                    } else {
+                        for (int i = 0; i < n; i++)
+                            Array.set(a, i, componentCoercion.coerce(value.get(i + 1)));
+                    }
                     yield a;
                 }
                 case LuaValue.TUSERDATA -> value.touserdata();
@@ -346,7 +438,8 @@ public class CoerceLuaToJava {
 
         public int score(LuaValue value) {
             return switch (value.type()) {
-                case LuaValue.TNUMBER -> inheritanceLevels(targetType, value.isint() ? Integer.class : Double.class);
+                case LuaValue.TNUMBER -> inheritanceLevels(targetType,
+                        value.isint() ? Integer.class : value instanceof LuaLong ? Long.class : Double.class);
                 case LuaValue.TBOOLEAN -> inheritanceLevels(targetType, Boolean.class);
                 case LuaValue.TSTRING -> inheritanceLevels(targetType, String.class);
                 case LuaValue.TUSERDATA -> inheritanceLevels(targetType, value.touserdata().getClass());
@@ -357,7 +450,8 @@ public class CoerceLuaToJava {
 
         public Object coerce(LuaValue value) {
             return switch (value.type()) {
-                case LuaValue.TNUMBER -> value.isint() ? (Object) value.toint() : (Object) value.todouble();
+                case LuaValue.TNUMBER -> value.isint() ? (Object) value.toint() :
+                        value instanceof LuaLong ? (Object) value.tolong() : (Object) value.todouble();
                 case LuaValue.TBOOLEAN -> value.toboolean() ? Boolean.TRUE : Boolean.FALSE;
                 case LuaValue.TSTRING -> value.tojstring();
                 case LuaValue.TUSERDATA -> value.optuserdata(targetType, null);
@@ -21,10 +21,14 @@
  ******************************************************************************/
 package org.luaj.vm2.lib.jse;
 
+import org.luaj.vm2.LuaInteger;
 import org.luaj.vm2.LuaTable;
 import org.luaj.vm2.LuaUserdata;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
 import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.VarArgFunction;
 
 import java.lang.reflect.Array;
 
@@ -32,6 +36,11 @@ import java.lang.reflect.Array;
  * LuaValue that represents a Java instance of array type.
  * <p>
  * Can get elements by their integer key index, as well as the length.
+ * Elements are read and written in the array itself, without copying,
+ * and primitive elements are converted without reflection.
+ * {@code #}, {@code pairs}, {@code ipairs} and the {@code table} library
+ * work on it as on a list-table of fixed length,
+ * so {@code table.insert} and {@code table.remove} raise an error.
  * <p>
  * This class is not used directly.
  * It is returned by calls to {@link CoerceJavaToLua#coerce(Object)}
@@ -40,47 +49,171 @@ import java.lang.reflect.Array;
  * @see CoerceJavaToLua
  * @see CoerceLuaToJava
  */
-public class JavaArray extends LuaUserdata {
+public class JavaArray extends LuaUserdata implements TableLib.View {
 
     static final LuaValue LENGTH = valueOf("length");
+
+    /**
+     * Metatable of arrays and list views, with {@code __len}, {@code __pairs}
+     * and {@code __ipairs} working through {@link #length()} and {@link #get(LuaValue)}.
+     */
     static final LuaTable array_metatable;
 
     static {
         array_metatable = new LuaTable();
         array_metatable.rawset(LuaValue.LEN, new LenFunction());
+        array_metatable.rawset(LuaValue.PAIRS, new PairsFunction(new NextFunction()));
+        array_metatable.rawset(LuaValue.IPAIRS, new PairsFunction(new INextFunction()));
     }
 
+    private static final int OBJECT = 0;
+    private static final int BOOLEAN = 1;
+    private static final int CHAR = 2;
+    private static final int BYTE = 3;
+    private static final int SHORT = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+
+    private final int kind;
+    private final int length;
+    private final CoerceLuaToJava.Coercion coercion;
+
     public JavaArray(Object instance) {
         super(instance);
+        Class<?> c = instance.getClass().getComponentType();
+        this.kind = c == boolean.class ? BOOLEAN :
+                c == char.class ? CHAR :
+                c == byte.class ? BYTE :
+                c == short.class ? SHORT :
+                c == int.class ? INT :
+                c == long.class ? LONG :
+                c == float.class ? FLOAT :
+                c == double.class ? DOUBLE :
+                OBJECT;
+        this.length = Array.getLength(instance);
+        this.coercion = kind == OBJECT ? CoerceLuaToJava.getCoercion(c) : null;
         setmetatable(array_metatable);
     }
 
     public LuaValue get(LuaValue key) {
-        if (key.equals(LENGTH))
-            return valueOf(Array.getLength(m_instance));
         if (key.isint()) {
             int i = key.toint() - 1;
-            return i >= 0 && i < Array.getLength(m_instance) ?
-                    CoerceJavaToLua.coerce(Array.get(m_instance, key.toint() - 1)) :
-                    NIL;
+            return i >= 0 && i < length ? element(i) : NIL;
         }
+        if (key.equals(LENGTH))
+            return valueOf(length);
         return super.get(key);
     }
 
+    public LuaValue get(int key) {
+        int i = key - 1;
+        return i >= 0 && i < length ? element(i) : NIL;
+    }
+
     public void set(LuaValue key, LuaValue value) {
         if (key.isint()) {
             int i = key.toint() - 1;
-            if (i >= 0 && i < Array.getLength(m_instance))
-                Array.set(m_instance, i, CoerceLuaToJava.coerce(value, m_instance.getClass().getComponentType()));
+            if (i >= 0 && i < length)
+                setElement(i, value);
             else if (m_metatable == null || !settable(this, key, value))
                 error("array index out of bounds");
         } else
             super.set(key, value);
     }
 
+    public void set(int key, LuaValue value) {
+        int i = key - 1;
+        if (i >= 0 && i < length)
+            setElement(i, value);
+        else
+            set(LuaInteger.valueOf(key), value);
+    }
+
+    public void insert(int pos, LuaValue value) {
+        error("cannot insert into a java array");
+    }
+
+    public LuaValue remove(int pos) {
+        return error("cannot remove from a java array");
+    }
+
+    public LuaValue len() {
+        return valueOf(length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private LuaValue element(int i) {
+        return switch (kind) {
+            case BOOLEAN -> valueOf(((boolean[]) m_instance)[i]);
+            case CHAR -> LuaInteger.valueOf(((char[]) m_instance)[i]);
+            case BYTE -> LuaInteger.valueOf(((byte[]) m_instance)[i]);
+            case SHORT -> LuaInteger.valueOf(((short[]) m_instance)[i]);
+            case INT -> LuaInteger.valueOf(((int[]) m_instance)[i]);
+            case LONG -> valueOf(((long[]) m_instance)[i]);
+            case FLOAT -> valueOf(((float[]) m_instance)[i]);
+            case DOUBLE -> valueOf(((double[]) m_instance)[i]);
+            default -> CoerceJavaToLua.coerce(((Object[]) m_instance)[i]);
+        };
+    }
+
+    /* the same conversions as CoerceLuaToJava, without boxing */
+    private void setElement(int i, LuaValue value) {
+        switch (kind) {
+            case BOOLEAN -> ((boolean[]) m_instance)[i] = value.toboolean();
+            case CHAR -> ((char[]) m_instance)[i] = (char) value.toint();
+            case BYTE -> ((byte[]) m_instance)[i] = (byte) value.toint();
+            case SHORT -> ((short[]) m_instance)[i] = (short) value.toint();
+            case INT -> ((int[]) m_instance)[i] = value.toint();
+            case LONG -> ((long[]) m_instance)[i] = value.tolong();
+            case FLOAT -> ((float[]) m_instance)[i] = (float) value.todouble();
+            case DOUBLE -> ((double[]) m_instance)[i] = value.todouble();
+            default -> ((Object[]) m_instance)[i] = coercion.coerce(value);
+        }
+    }
+
     private static final class LenFunction extends OneArgFunction {
         public LuaValue call(LuaValue u) {
-            return LuaValue.valueOf(Array.getLength(((LuaUserdata) u).m_instance));
+            return LuaValue.valueOf(u.length());
+        }
+    }
+
+    /* (view) -> iter-func, view, 0 */
+    static final class PairsFunction extends OneArgFunction {
+        final LuaValue iter;
+
+        PairsFunction(LuaValue iter) {
+            this.iter = iter;
+        }
+
+        public LuaValue call(LuaValue u) {
+            return error("pairs expects three results");
+        }
+
+        public Varargs invoke(Varargs args) {
+            return varargsOf(iter, args.arg1(), ZERO);
+        }
+    }
+
+    /* (view, i) -> i+1, view[i+1] for every index up to the length */
+    private static final class NextFunction extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            LuaValue u = args.arg1();
+            int i = args.checkint(2) + 1;
+            return i <= u.length() ? varargsOf(LuaInteger.valueOf(i), u.get(i)) : NIL;
+        }
+    }
+
+    /* (view, i) -> i+1, view[i+1] until the first nil */
+    private static final class INextFunction extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            int i = args.checkint(2) + 1;
+            LuaValue v = args.arg1().get(i);
+            return v.isnil() ? NIL : varargsOf(LuaInteger.valueOf(i), v);
         }
     }
 }
@@ -29,6 +29,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LuaValue that represents a Java class.
@@ -44,13 +45,24 @@ import java.util.Map.Entry;
  */
 public class JavaClass extends JavaInstance implements CoerceJavaToLua.Coercion {
 
-    protected static final Map<Class<?>, JavaClass> classes = Collections.synchronizedMap(new HashMap<>());
+    /**
+     * The JavaClass for each class that has been coerced.
+     * Entries are held by the class itself, so classes from discarded
+     * class loaders can still be unloaded.
+     */
+    protected static final ClassValue<JavaClass> classes = new ClassValue<>() {
+        protected JavaClass computeValue(Class<?> c) {
+            return new JavaClass(c);
+        }
+    };
 
     static final LuaValue NEW = valueOf("new");
 
-    Map<LuaValue, Field> fields;
-    Map<LuaValue, LuaValue> methods;
-    Map<LuaValue, Class<?>> innerclasses;
+    /* built on first use, then shared by all threads */
+    volatile Map<LuaValue, Field> fields;
+    final Map<LuaValue, JavaField> javafields = new ConcurrentHashMap<>();
+    volatile Map<LuaValue, LuaValue> methods;
+    volatile Map<LuaValue, Class<?>> innerclasses;
 
     protected JavaClass(Class c) {
         super(c);
@@ -58,10 +70,7 @@ public class JavaClass extends JavaInstance implements CoerceJavaToLua.Coercion
     }
 
     public static JavaClass forClass(Class<?> c) {
-        JavaClass j = classes.get(c);
-        if (j == null)
-            classes.put(c, j = new JavaClass(c));
-        return j;
+        return classes.get(c);
     }
 
     public LuaValue coerce(Object javaValue) {
@@ -80,17 +89,29 @@ public class JavaClass extends JavaInstance implements CoerceJavaToLua.Coercion
     }
 
     public Field getField(LuaValue key) {
+        Map<LuaValue, Field> fields = this.fields;
         if (fields == null) {
             Map<LuaValue, Field> m = new HashMap<>();
             Field[] f = ((Class<?>) m_instance).getFields();
             for (Field fi : f) {
                 addField(fi, m);
             }
-            fields = m;
+            this.fields = fields = m;
         }
         return fields.get(key);
     }
 
+    JavaField getJavaField(LuaValue key) {
+        JavaField j = javafields.get(key);
+        if (j == null) {
+            Field f = getField(key);
+            if (f == null)
+                return null;
+            javafields.put(key, j = new JavaField(f));
+        }
+        return j;
+    }
+
     private Map<LuaValue, LuaValue> createMethodsMap() {
         Map<String, List<JavaMethod>> namedlists = new HashMap<>();
         Method[] m = ((Class<?>) m_instance).getMethods();
@@ -127,13 +148,14 @@ public class JavaClass extends JavaInstance implements CoerceJavaToLua.Coercion
     }
 
     public LuaValue getMethod(LuaValue key) {
-        if (methods == null) {
-            methods = createMethodsMap();
-        }
+        Map<LuaValue, LuaValue> methods = this.methods;
+        if (methods == null)
+            this.methods = methods = createMethodsMap();
         return methods.get(key);
     }
 
     public Class<?> getInnerClass(LuaValue key) {
+        Map<LuaValue, Class<?>> innerclasses = this.innerclasses;
         if (innerclasses == null) {
             Map<LuaValue, Class<?>> m = new HashMap<>();
             Class<?>[] c = ((Class<?>) m_instance).getClasses();
@@ -142,7 +164,7 @@ public class JavaClass extends JavaInstance implements CoerceJavaToLua.Coercion
                 String stub = name.substring(Math.max(name.lastIndexOf('$'), name.lastIndexOf('.')) + 1);
                 m.put(LuaValue.valueOf(stub), ci);
             }
-            innerclasses = m;
+            this.innerclasses = innerclasses = m;
         }
         return innerclasses.get(key);
     }
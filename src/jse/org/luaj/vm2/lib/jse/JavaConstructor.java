@@ -28,9 +28,8 @@ import org.luaj.vm2.lib.VarArgFunction;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LuaValue that represents a particular public Java constructor.
@@ -47,7 +46,15 @@ import java.util.Map;
  */
 class JavaConstructor extends JavaMember {
 
-    static final Map<Constructor<?>, JavaConstructor> constructors = Collections.synchronizedMap(new HashMap<>());
+    /**
+     * JavaConstructors by declaring class, so that classes from discarded
+     * class loaders can still be unloaded.
+     */
+    static final ClassValue<Map<Constructor<?>, JavaConstructor>> constructors = new ClassValue<>() {
+        protected Map<Constructor<?>, JavaConstructor> computeValue(Class<?> c) {
+            return new ConcurrentHashMap<>();
+        }
+    };
     final Constructor<?> constructor;
 
     private JavaConstructor(Constructor<?> c) {
@@ -55,11 +62,16 @@ class JavaConstructor extends JavaMember {
         this.constructor = c;
     }
 
+    JavaInvoker newInvoker() {
+        try {
+            return spin(constructor.getDeclaringClass(), LOOKUP.unreflectConstructor(constructor), false);
+        } catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
     static JavaConstructor forConstructor(Constructor<?> c) {
-        JavaConstructor j = constructors.get(c);
-        if (j == null)
-            constructors.put(c, j = new JavaConstructor(c));
-        return j;
+        return constructors.get(c.getDeclaringClass()).computeIfAbsent(c, JavaConstructor::new);
     }
 
     public static LuaValue forConstructors(JavaConstructor[] array) {
@@ -67,6 +79,11 @@ class JavaConstructor extends JavaMember {
     }
 
     public Varargs invoke(Varargs args) {
+        if (invoker() != null) {
+            Object r = invokeDirect(null, args);
+            if (r != UNFIT)
+                return CoerceJavaToLua.coerce(r);
+        }
         Object[] a = convertArgs(args);
         try {
             return CoerceJavaToLua.coerce(constructor.newInstance(a));
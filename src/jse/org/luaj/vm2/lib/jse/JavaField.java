@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.CoerceLuaToJava.Coercion;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Accessor for a public Java field.
+ * <p>
+ * Reads and writes go through {@link MethodHandle}s when they can be created,
+ * and through {@link Field#get(Object)} and {@link Field#set(Object, Object)} otherwise,
+ * for example when writing a static final field.
+ * <p>
+ * This class is not used directly.
+ * It is used by {@link JavaInstance} to get and set fields named by a key.
+ *
+ * @see JavaClass#getField(LuaValue)
+ */
+final class JavaField {
+
+    final Field field;
+    final Coercion coercion;
+    final Class<?> type;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    JavaField(Field field) {
+        this.field = field;
+        this.coercion = CoerceLuaToJava.getCoercion(field.getType());
+        this.type = field.getType().isPrimitive() ?
+                MethodType.methodType(field.getType()).wrap().returnType() : field.getType();
+        final boolean isstatic = Modifier.isStatic(field.getModifiers());
+        this.getter = accessor(field, false, isstatic);
+        this.setter = accessor(field, true, isstatic);
+    }
+
+    private static MethodHandle accessor(Field f, boolean set, boolean isstatic) {
+        try {
+            MethodHandle h = set ? JavaMember.LOOKUP.unreflectSetter(f) : JavaMember.LOOKUP.unreflectGetter(f);
+            if (isstatic)
+                h = MethodHandles.dropArguments(h, 0, Object.class);
+            return h.asType(set ?
+                    MethodType.methodType(void.class, Object.class, Object.class) :
+                    MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the value of the field coerced to lua.
+     *
+     * @param instance the instance, ignored for static fields
+     * @return the value of the field
+     */
+    LuaValue get(Object instance) {
+        try {
+            return CoerceJavaToLua.coerce(getter != null ? (Object) getter.invokeExact(instance) : field.get(instance));
+        } catch (Throwable t) {
+            throw new LuaError(t);
+        }
+    }
+
+    /**
+     * Coerce a lua value to the type of the field and set it.
+     *
+     * @param instance the instance, ignored for static fields
+     * @param value    the value to set
+     */
+    void set(Object instance, LuaValue value) {
+        try {
+            final Object v = coercion.coerce(value);
+            if (setter != null && (v == null || type.isInstance(v)))
+                setter.invokeExact(instance, v);
+            else
+                field.set(instance, v);
+        } catch (Throwable t) {
+            throw new LuaError(t);
+        }
+    }
+}
@@ -21,12 +21,9 @@
  ******************************************************************************/
 package org.luaj.vm2.lib.jse;
 
-import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaUserdata;
 import org.luaj.vm2.LuaValue;
 
-import java.lang.reflect.Field;
-
 /**
  * LuaValue that represents a Java instance.
  * <p>
@@ -48,35 +45,36 @@ public class JavaInstance extends LuaUserdata {
     }
 
     public LuaValue get(LuaValue key) {
+        LuaValue m = member(key);
+        return m != null ? m : super.get(key);
+    }
+
+    /**
+     * The field value, method or inner class named by key, or null if there is none.
+     */
+    LuaValue member(LuaValue key) {
         if (jclass == null)
             jclass = JavaClass.forClass(m_instance.getClass());
-        Field f = jclass.getField(key);
+        JavaField f = jclass.getJavaField(key);
         if (f != null)
-            try {
-                return CoerceJavaToLua.coerce(f.get(m_instance));
-            } catch (Exception e) {
-                throw new LuaError(e);
-            }
+            return f.get(m_instance);
         LuaValue m = jclass.getMethod(key);
         if (m != null)
             return m;
         Class<?> c = jclass.getInnerClass(key);
         if (c != null)
             return JavaClass.forClass(c);
-        return super.get(key);
+        return null;
     }
 
     public void set(LuaValue key, LuaValue value) {
         if (jclass == null)
             jclass = JavaClass.forClass(m_instance.getClass());
-        Field f = jclass.getField(key);
-        if (f != null)
-            try {
-                f.set(m_instance, CoerceLuaToJava.coerce(value, f.getType()));
-                return;
-            } catch (Exception e) {
-                throw new LuaError(e);
-            }
+        JavaField f = jclass.getJavaField(key);
+        if (f != null) {
+            f.set(m_instance, value);
+            return;
+        }
         super.set(key, value);
     }
 
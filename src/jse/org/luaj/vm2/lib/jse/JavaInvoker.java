@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Spun accessor for a Java method or constructor.
+ * <p>
+ * The accessor is a class generated by {@link LambdaMetafactory} that calls the member
+ * with ordinary bytecode, unboxing arguments and boxing the result as needed,
+ * so a call does not go through {@link java.lang.reflect.Method#invoke(Object, Object...)}
+ * and needs no argument array.
+ * <p>
+ * This class is not used directly.
+ * It is created by {@link JavaMember} for members with up to {@link JavaMember#MAX_DIRECT_ARGS}
+ * fixed parameters.
+ *
+ * @see JavaMember#invokeDirect(Object, org.luaj.vm2.Varargs)
+ */
+final class JavaInvoker {
+
+    interface F0 { Object apply(); }
+    interface F1 { Object apply(Object a); }
+    interface F2 { Object apply(Object a, Object b); }
+    interface F3 { Object apply(Object a, Object b, Object c); }
+    interface F4 { Object apply(Object a, Object b, Object c, Object d); }
+    interface V0 { void apply(); }
+    interface V1 { void apply(Object a); }
+    interface V2 { void apply(Object a, Object b); }
+    interface V3 { void apply(Object a, Object b, Object c); }
+    interface V4 { void apply(Object a, Object b, Object c, Object d); }
+
+    private static final Class<?>[] FUNCTIONS = {F0.class, F1.class, F2.class, F3.class, F4.class};
+    private static final Class<?>[] PROCEDURES = {V0.class, V1.class, V2.class, V3.class, V4.class};
+
+    private final Object fn;
+    private final int arity;
+    private final boolean receiver;
+    private final boolean isvoid;
+
+    private JavaInvoker(Object fn, int arity, boolean receiver, boolean isvoid) {
+        this.fn = fn;
+        this.arity = arity;
+        this.receiver = receiver;
+        this.isvoid = isvoid;
+    }
+
+    /**
+     * Spin an accessor for a direct method handle.
+     *
+     * @param lookup   lookup with access to the member
+     * @param direct   handle from {@link MethodHandles.Lookup#unreflect} or
+     *                 {@link MethodHandles.Lookup#unreflectConstructor}
+     * @param receiver true if the first parameter of the handle is the receiver
+     * @return the accessor, or null if it cannot be created for this member
+     */
+    static JavaInvoker create(MethodHandles.Lookup lookup, MethodHandle direct, boolean receiver) {
+        final MethodType type = direct.type();
+        final int arity = type.parameterCount();
+        if (arity >= FUNCTIONS.length)
+            return null;
+        final boolean isvoid = type.returnType() == void.class;
+        final MethodType erased = isvoid ?
+                MethodType.genericMethodType(arity).changeReturnType(void.class) :
+                MethodType.genericMethodType(arity);
+        final MethodType instantiated = isvoid ?
+                type.wrap().changeReturnType(void.class) :
+                type.wrap();
+        try {
+            Object fn = LambdaMetafactory.metafactory(lookup, "apply",
+                    MethodType.methodType(isvoid ? PROCEDURES[arity] : FUNCTIONS[arity]),
+                    erased, direct, instantiated).getTarget().invoke();
+            return new JavaInvoker(fn, arity, receiver, isvoid);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * Call the member.
+     *
+     * @param r  the receiver, ignored for static methods and constructors
+     * @param a1 first argument, ignored if the member has fewer parameters
+     * @param a2 second argument, ignored if the member has fewer parameters
+     * @param a3 third argument, ignored if the member has fewer parameters
+     * @return the boxed result, or null for void methods
+     */
+    Object invoke(Object r, Object a1, Object a2, Object a3) {
+        if (!receiver) {
+            r = a1;
+            a1 = a2;
+            a2 = a3;
+        }
+        if (isvoid) {
+            switch (arity) {
+                case 0 -> ((V0) fn).apply();
+                case 1 -> ((V1) fn).apply(r);
+                case 2 -> ((V2) fn).apply(r, a1);
+                case 3 -> ((V3) fn).apply(r, a1, a2);
+                default -> ((V4) fn).apply(r, a1, a2, a3);
+            }
+            return null;
+        }
+        return switch (arity) {
+            case 0 -> ((F0) fn).apply();
+            case 1 -> ((F1) fn).apply(r);
+            case 2 -> ((F2) fn).apply(r, a1);
+            case 3 -> ((F3) fn).apply(r, a1, a2);
+            default -> ((F4) fn).apply(r, a1, a2, a3);
+        };
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.TableLib;
+
+import java.util.List;
+
+/**
+ * LuaValue that represents a Java instance of {@link List}.
+ * <p>
+ * Integer keys index the elements of the list itself, without copying,
+ * and {@code #}, {@code pairs}, {@code ipairs} and the {@code table} library
+ * work on it as on a list-table.
+ * Assigning to the index one past the end appends to the list,
+ * and assigning nil to the last element removes it.
+ * {@code table.insert} and {@code table.remove} add and remove elements of the list.
+ * Other keys give the fields and methods of the instance, as for {@link JavaInstance}.
+ * <p>
+ * This class is not used directly.
+ * It is returned by calls to {@link CoerceJavaToLua#coerce(Object)}
+ * when a {@link List} is supplied.
+ *
+ * @see CoerceJavaToLua
+ * @see CoerceLuaToJava
+ */
+public class JavaList extends JavaInstance implements TableLib.View {
+
+    private final List<Object> list;
+
+    @SuppressWarnings("unchecked")
+    public JavaList(List<?> instance) {
+        super(instance);
+        this.list = (List<Object>) instance;
+        setmetatable(JavaArray.array_metatable);
+    }
+
+    public LuaValue get(LuaValue key) {
+        if (key.isint())
+            return get(key.toint());
+        return super.get(key);
+    }
+
+    public LuaValue get(int key) {
+        int i = key - 1;
+        return i >= 0 && i < list.size() ? CoerceJavaToLua.coerce(list.get(i)) : NIL;
+    }
+
+    public void set(LuaValue key, LuaValue value) {
+        if (key.isint())
+            set(key.toint(), value);
+        else
+            super.set(key, value);
+    }
+
+    public void set(int key, LuaValue value) {
+        int i = key - 1, n = list.size();
+        if (value.isnil() && i == n - 1)
+            list.remove(i);
+        else if (i >= 0 && i < n)
+            list.set(i, CoerceLuaToJava.coerce(value, Object.class));
+        else if (i == n && !value.isnil())
+            list.add(CoerceLuaToJava.coerce(value, Object.class));
+        else if (i != n)
+            error("list index out of bounds");
+    }
+
+    public void insert(int pos, LuaValue value) {
+        list.add(pos - 1, CoerceLuaToJava.coerce(value, Object.class));
+    }
+
+    public LuaValue remove(int pos) {
+        return CoerceJavaToLua.coerce(list.remove(pos - 1));
+    }
+
+    public LuaValue len() {
+        return valueOf(list.size());
+    }
+
+    public int length() {
+        return list.size();
+    }
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2011 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.TableLib;
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * LuaValue that represents a Java instance of {@link Map}.
+ * <p>
+ * Keys are looked up among the fields and methods of the instance first,
+ * so that {@code m:size()} calls the method even when there is an entry "size",
+ * and then in the map itself, without copying, so that {@code m.key}, {@code m[k] = v}
+ * and {@code m[k] = nil} read, put and remove entries.
+ * Entries named like a member can be read with {@code m:get(k)}.
+ * Keys that are neither members nor entries give nil.
+ * {@code #} is the number of entries, and {@code pairs} iterates over the entries.
+ * <p>
+ * Lua keys are coerced as for an argument of type {@link Object},
+ * so integral numbers look up {@link Integer} keys and strings {@link String} keys.
+ * <p>
+ * This class is not used directly.
+ * It is returned by calls to {@link CoerceJavaToLua#coerce(Object)}
+ * when a {@link Map} is supplied.
+ *
+ * @see CoerceJavaToLua
+ * @see CoerceLuaToJava
+ */
+public class JavaMap extends JavaInstance implements TableLib.View {
+
+    static final LuaTable map_metatable;
+
+    static {
+        map_metatable = new LuaTable();
+        map_metatable.rawset(LuaValue.LEN, new LenFunction());
+        map_metatable.rawset(LuaValue.PAIRS, new PairsFunction());
+        map_metatable.rawset(LuaValue.IPAIRS, JavaArray.array_metatable.rawget(LuaValue.IPAIRS));
+    }
+
+    private final Map<Object, Object> map;
+
+    @SuppressWarnings("unchecked")
+    public JavaMap(Map<?, ?> instance) {
+        super(instance);
+        this.map = (Map<Object, Object>) instance;
+        setmetatable(map_metatable);
+    }
+
+    public LuaValue get(LuaValue key) {
+        LuaValue m = member(key);
+        if (m != null)
+            return m;
+        Object k = CoerceLuaToJava.coerce(key, Object.class);
+        try {
+            return CoerceJavaToLua.coerce(map.get(k));
+        } catch (ClassCastException e) {
+            // a sorted map of other keys, such as "missing" in a TreeMap<Integer, ?>
+            return NIL;
+        }
+    }
+
+    public LuaValue get(int key) {
+        return get(valueOf(key));
+    }
+
+    public void set(LuaValue key, LuaValue value) {
+        Object k = CoerceLuaToJava.coerce(key, Object.class);
+        if (value.isnil())
+            map.remove(k);
+        else
+            map.put(k, CoerceLuaToJava.coerce(value, Object.class));
+    }
+
+    public void set(int key, LuaValue value) {
+        if (value.isnil())
+            map.remove(key);
+        else
+            map.put(key, CoerceLuaToJava.coerce(value, Object.class));
+    }
+
+    public LuaValue len() {
+        return valueOf(map.size());
+    }
+
+    public int length() {
+        return map.size();
+    }
+
+    private static final class LenFunction extends OneArgFunction {
+        public LuaValue call(LuaValue u) {
+            return LuaValue.valueOf(u.length());
+        }
+    }
+
+    /* (map) -> iter-func, map, nil; iterating over the entries in the order of the map */
+    private static final class PairsFunction extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            Map<?, ?> map = (Map<?, ?>) args.checkuserdata(1, Map.class);
+            return varargsOf(new NextFunction(map.entrySet().iterator()), args.arg1(), NIL);
+        }
+    }
+
+    private static final class NextFunction extends VarArgFunction {
+        private final Iterator<? extends Map.Entry<?, ?>> entries;
+
+        NextFunction(Iterator<? extends Map.Entry<?, ?>> entries) {
+            this.entries = entries;
+        }
+
+        public Varargs invoke(Varargs args) {
+            if (!entries.hasNext())
+                return NIL;
+            Map.Entry<?, ?> e = entries.next();
+            return varargsOf(CoerceJavaToLua.coerce(e.getKey()), CoerceJavaToLua.coerce(e.getValue()));
+        }
+    }
+}
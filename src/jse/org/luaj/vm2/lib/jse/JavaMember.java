@@ -21,16 +21,28 @@
  ******************************************************************************/
 package org.luaj.vm2.lib.jse;
 
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 import org.luaj.vm2.lib.VarArgFunction;
 import org.luaj.vm2.lib.jse.CoerceLuaToJava.Coercion;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 /**
  * Java method or constructor.
  * <p>
  * Primarily handles argument coercion for parameter lists including scoring of compatibility and
  * java varargs handling.
  * <p>
+ * Members with up to {@link #MAX_DIRECT_ARGS} fixed parameters and no java varargs are
+ * invoked through a spun {@link JavaInvoker} by {@link #invokeDirect(Object, Varargs)},
+ * which coerces each argument straight into the call instead of building an argument array.
+ * Other members, and calls whose coerced arguments do not fit the parameter types,
+ * go through {@link java.lang.reflect} using {@link #convertArgs(Varargs)}.
+ * <p>
  * This class is not used directly.
  * It is an abstract base class for {@link JavaConstructor} and {@link JavaMethod}.
  *
@@ -44,17 +56,134 @@ class JavaMember extends VarArgFunction {
 
     static final int METHOD_MODIFIERS_VARARGS = 0x80;
 
+    /**
+     * Largest number of fixed parameters of a member invoked through a {@link JavaInvoker}.
+     */
+    static final int MAX_DIRECT_ARGS = 3;
+
+    /**
+     * Returned by {@link #invokeDirect(Object, Varargs)} when an argument cannot be passed directly.
+     */
+    static final Object UNFIT = new Object();
+
+    static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
     final Coercion[] fixedargs;
     final Coercion varargs;
+    final Class<?>[] fixedtypes;
+
+    /**
+     * Spun accessor for this member, or null to use reflection.
+     * It is spun by {@link #invoker()} on the first call, so that members
+     * which are never called do not define classes.
+     */
+    JavaInvoker invoker;
+
+    /**
+     * True once {@link #invoker} has been spun or found not to apply.
+     */
+    private volatile boolean spun;
 
     protected JavaMember(Class<?>[] params, int modifiers) {
         boolean isvarargs = ((modifiers & METHOD_MODIFIERS_VARARGS) != 0);
         fixedargs = new CoerceLuaToJava.Coercion[isvarargs ? params.length - 1 : params.length];
-        for (int i = 0; i < fixedargs.length; i++)
+        fixedtypes = new Class<?>[fixedargs.length];
+        for (int i = 0; i < fixedargs.length; i++) {
             fixedargs[i] = CoerceLuaToJava.getCoercion(params[i]);
+            fixedtypes[i] = params[i].isPrimitive() ? MethodType.methodType(params[i]).wrap().returnType() : params[i];
+        }
         varargs = isvarargs ? CoerceLuaToJava.getCoercion(params[params.length - 1]) : null;
     }
 
+    /**
+     * Get the accessor used by {@link #invokeDirect(Object, Varargs)}, spinning it on the first call.
+     *
+     * @return the accessor, or null to invoke through reflection
+     */
+    final JavaInvoker invoker() {
+        if (!spun) {
+            synchronized (this) {
+                if (!spun) {
+                    invoker = newInvoker();
+                    spun = true;
+                }
+            }
+        }
+        return invoker;
+    }
+
+    /**
+     * Create the accessor for this member, usually by {@link #spin(Class, MethodHandle, boolean)}.
+     *
+     * @return the accessor, or null to invoke through reflection
+     */
+    abstract JavaInvoker newInvoker();
+
+    /**
+     * Create the accessor used by {@link #invokeDirect(Object, Varargs)}.
+     *
+     * @param owner    the declaring class of the member
+     * @param direct   direct handle for the method or constructor
+     * @param receiver true if the first parameter of the handle is the receiver
+     * @return the accessor, or null if the member takes java varargs or too many arguments,
+     * or no accessor can be spun for it.
+     */
+    JavaInvoker spin(Class<?> owner, MethodHandle direct, boolean receiver) {
+        if (varargs != null || fixedargs.length > MAX_DIRECT_ARGS)
+            return null;
+        return isVisible(owner) ? JavaInvoker.create(LOOKUP, direct, receiver) : null;
+    }
+
+    /**
+     * Test if a class resolves from the class loader of luaj.
+     * <p>
+     * Accessors are defined beside luaj and link to the member by name,
+     * so members of classes from other loaders, such as plugin loaders,
+     * are invoked through reflection instead.
+     * Such accessors would also keep their classes from being unloaded.
+     *
+     * @param owner the declaring class of the member
+     * @return true if an accessor can be spun for members of owner
+     */
+    static boolean isVisible(Class<?> owner) {
+        ClassLoader loader = owner.getClassLoader();
+        if (loader == null)
+            return true;
+        for (ClassLoader l = JavaMember.class.getClassLoader(); l != null; l = l.getParent())
+            if (l == loader)
+                return true;
+        return false;
+    }
+
+    /**
+     * Invoke {@link #invoker} without building an argument array.
+     * Arguments beyond the fixed parameters are ignored, as in {@link #convertArgs(Varargs)}.
+     *
+     * @param receiver the instance, or null
+     * @param args     the lua arguments
+     * @return the result of the invocation, or {@link #UNFIT} if a coerced argument
+     * is not an instance of its parameter type and the caller should fall back to reflection.
+     * @throws LuaError wrapping any exception thrown by the member
+     */
+    Object invokeDirect(Object receiver, Varargs args) {
+        final int n = fixedargs.length;
+        final Object a1 = n > 0 ? fixedarg(0, args.arg1()) : null;
+        final Object a2 = n > 1 ? fixedarg(1, args.arg(2)) : null;
+        final Object a3 = n > 2 ? fixedarg(2, args.arg(3)) : null;
+        if (a1 == UNFIT || a2 == UNFIT || a3 == UNFIT)
+            return UNFIT;
+        try {
+            return invoker.invoke(receiver, a1, a2, a3);
+        } catch (Throwable t) {
+            throw new LuaError(t);
+        }
+    }
+
+    private Object fixedarg(int i, LuaValue value) {
+        Object o = fixedargs[i].coerce(value);
+        return o == null || fixedtypes[i].isInstance(o) ? o : UNFIT;
+    }
+
     int score(Varargs args) {
         int n = args.narg();
         int s = n > fixedargs.length ? CoerceLuaToJava.SCORE_WRONG_TYPE * (n - fixedargs.length) : 0;
@@ -30,9 +30,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LuaValue that represents a Java method.
@@ -48,7 +47,15 @@ import java.util.Map;
  */
 class JavaMethod extends JavaMember {
 
-    static final Map<Method, JavaMethod> methods = Collections.synchronizedMap(new HashMap<>());
+    /**
+     * JavaMethods by declaring class, so that classes from discarded
+     * class loaders can still be unloaded.
+     */
+    static final ClassValue<Map<Method, JavaMethod>> methods = new ClassValue<>() {
+        protected Map<Method, JavaMethod> computeValue(Class<?> c) {
+            return new ConcurrentHashMap<>();
+        }
+    };
     final Method method;
     boolean isstatic;
 
@@ -63,11 +70,16 @@ class JavaMethod extends JavaMember {
         }
     }
 
+    JavaInvoker newInvoker() {
+        try {
+            return spin(method.getDeclaringClass(), LOOKUP.unreflect(method), !isstatic);
+        } catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
+    }
+
     static JavaMethod forMethod(Method m) {
-        JavaMethod j = methods.get(m);
-        if (j == null)
-            methods.put(m, j = new JavaMethod(m));
-        return j;
+        return methods.get(m.getDeclaringClass()).computeIfAbsent(m, JavaMethod::new);
     }
 
     static LuaFunction forMethods(JavaMethod[] m) {
@@ -98,6 +110,11 @@ class JavaMethod extends JavaMember {
     }
 
     LuaValue invokeMethod(Object instance, Varargs args) {
+        if ((isstatic || method.getDeclaringClass().isInstance(instance)) && invoker() != null) {
+            Object r = invokeDirect(instance, args);
+            if (r != UNFIT)
+                return CoerceJavaToLua.coerce(r);
+        }
         Object[] a = convertArgs(args);
         try {
             return CoerceJavaToLua.coerce(method.invoke(instance, a));
@@ -113,14 +130,44 @@ class JavaMethod extends JavaMember {
      * <p>
      * On invocation, will pick the best method from the list, and invoke it.
      * <p>
+     * The choice depends only on the shape of the arguments, see {@link #shape(Varargs)},
+     * so the last few choices are kept in a small inline cache keyed by shape
+     * and repeated calls with the same shapes skip scoring.
+     * <p>
      * This class is not used directly.
      * It is returned by calls to calls to {@link JavaInstance#get(LuaValue key)}
      * when an overloaded method is named.
      */
     static class Overload extends LuaFunction {
 
+        /** Number of argument shapes remembered by each overload. */
+        static final int CACHE_SIZE = 4;
+
+        /** Largest number of arguments of a call whose choice is cached. */
+        static final int MAX_CACHED_ARGS = 5;
+
+        /** Shape returned for arguments whose score depends on more than their shape. */
+        static final long UNCACHEABLE = -1;
+
         final JavaMethod[] instanceMethods;
         final JavaMethod[] staticMethods;
+        final Choice[] cache = new Choice[CACHE_SIZE];
+        int next;
+
+        /**
+         * Method chosen for one argument shape.
+         */
+        static final class Choice {
+            final long shape;
+            final Class<?>[] classes;
+            final JavaMethod method;
+
+            Choice(long shape, Class<?>[] classes, JavaMethod method) {
+                this.shape = shape;
+                this.classes = classes;
+                this.method = method;
+            }
+        }
 
         Overload(JavaMethod[] methods) {
             this.staticMethods = Arrays.stream(methods).filter(m -> m.isstatic).toArray(JavaMethod[]::new);
@@ -148,6 +195,36 @@ class JavaMethod extends JavaMember {
         }
 
         private LuaValue invokeBestMethod(Varargs args) {
+            final long shape = shape(args);
+            JavaMethod best = shape != UNCACHEABLE ? lookup(shape, args) : null;
+            if (best == null) {
+                best = resolve(args);
+                if (shape != UNCACHEABLE) {
+                    final Class<?>[] classes = new Class<?>[args.narg()];
+                    for (int i = 0; i < classes.length; i++)
+                        classes[i] = classOf(args.arg(i + 1));
+                    cache[next++ & (CACHE_SIZE - 1)] = new Choice(shape, classes, best);
+                }
+            }
+            return best.isstatic ?
+                    best.invokeMethod(null, args) :
+                    best.invokeMethod(args.checkuserdata(1), args.subargs(2));
+        }
+
+        private JavaMethod lookup(long shape, Varargs args) {
+            next:
+            for (Choice c : cache) {
+                if (c == null || c.shape != shape)
+                    continue;
+                for (int i = 0; i < c.classes.length; i++)
+                    if (c.classes[i] != null && c.classes[i] != classOf(args.arg(i + 1)))
+                        continue next;
+                return c.method;
+            }
+            return null;
+        }
+
+        private JavaMethod resolve(Varargs args) {
 
             JavaMethod bestStatic = null;
             if (staticMethods.length > 0){
@@ -163,18 +240,76 @@ class JavaMethod extends JavaMember {
             }
 
             if(bestStatic != null && bestInstanced == null){
-                return bestStatic.invokeMethod(null, args);
+                return bestStatic;
             } else if (bestInstanced != null && bestStatic == null){
-                return bestInstanced.invokeMethod(args.checkuserdata(1), args.subargs(2));
+                return bestInstanced;
             }
 
             int scoreStatic = bestStatic.score(args);
             int scoreInstanced = bestInstanced.score(args.subargs(2));
             if(scoreStatic < scoreInstanced){
-                return bestInstanced.invokeMethod(args.checkuserdata(1), args.subargs(2));
+                return bestInstanced;
             } else {
-                return bestStatic.invokeMethod(null, args);
+                return bestStatic;
+            }
+        }
+
+        /**
+         * Summarize the properties of the arguments that
+         * {@link CoerceLuaToJava} scoring depends on, other than classes.
+         * <p>
+         * Each argument contributes 12 bits: its kind, and for numbers or
+         * strings that convert to numbers, which java primitive types can hold the value.
+         * Classes of userdata and other values are compared separately.
+         *
+         * @param args the arguments of the call
+         * @return the shape, or {@link #UNCACHEABLE} if there are tables
+         * or too many arguments.
+         */
+        static long shape(Varargs args) {
+            final int n = args.narg();
+            if (n > MAX_CACHED_ARGS)
+                return UNCACHEABLE;
+            long shape = n;
+            for (int i = 1; i <= n; i++) {
+                final int c = shape(args.arg(i));
+                if (c < 0)
+                    return UNCACHEABLE;
+                shape |= (long) c << (12 * i - 8);
             }
+            return shape;
+        }
+
+        private static int shape(LuaValue v) {
+            return switch (v.type()) {
+                case LuaValue.TNIL -> 0;
+                case LuaValue.TBOOLEAN -> 1;
+                case LuaValue.TNUMBER -> 2 | numeric(v);
+                case LuaValue.TSTRING -> {
+                    final LuaValue n = v.tonumber();
+                    yield 3 | (v.checkstring().isValidUtf8() ? 0x200 : 0) | (n.isnil() ? 0 : 0x400 | numeric(n));
+                }
+                case LuaValue.TUSERDATA -> 4;
+                case LuaValue.TTABLE -> -1;
+                default -> 5;
+            };
+        }
+
+        private static int numeric(LuaValue v) {
+            if (v.isint()) {
+                final int i = v.toint();
+                return 0x08 | (i == (byte) i ? 0x10 : 0) | (i == (char) i ? 0x20 : 0) | (i == (short) i ? 0x40 : 0);
+            }
+            final double d = v.todouble();
+            return (d == (long) d ? 0x80 : 0) | (d == (float) d ? 0x100 : 0);
+        }
+
+        private static Class<?> classOf(LuaValue v) {
+            return switch (v.type()) {
+                case LuaValue.TNIL, LuaValue.TBOOLEAN, LuaValue.TNUMBER, LuaValue.TSTRING -> null;
+                case LuaValue.TUSERDATA -> v.touserdata().getClass();
+                default -> v.getClass();
+            };
         }
 
         private JavaMethod getBestMethod(JavaMethod[] methods, Varargs args){
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implements java interfaces with lua tables or functions for {@code luajava.createProxy}.
+ * <p>
+ * For each set of interfaces a concrete class is generated by {@link JavaProxyBuilder}.
+ * Each instance holds the lua function for each of its methods, looked up once
+ * when it is created, and the generated methods coerce primitive arguments and
+ * results without boxing.
+ * Generated classes are cached per interface tuple and per set of optional
+ * methods that the implementation provides, so that default methods and the
+ * methods of {@link Object} are only overridden when lua implements them.
+ * <p>
+ * A plain lua function implements the single abstract method of a functional interface.
+ * <p>
+ * When no class can be generated, for example for non-public interfaces,
+ * interfaces with java varargs methods, or when bcel is not available,
+ * a {@link Proxy} is used instead, which looks up the lua function on each call.
+ * <p>
+ * This class is not used directly.
+ *
+ * @see LuajavaLib
+ */
+final class JavaProxy {
+
+    /**
+     * Templates by first interface, so that classes from discarded
+     * class loaders can still be unloaded.
+     */
+    static final ClassValue<Map<List<Class<?>>, Template>> TEMPLATES = new ClassValue<>() {
+        protected Map<List<Class<?>>, Template> computeValue(Class<?> c) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Used for abstract methods that the implementation does not provide.
+     */
+    static final LuaValue ABSENT = new VarArgFunction() {
+        public Varargs invoke(Varargs args) {
+            return NONE;
+        }
+    };
+
+    private JavaProxy() {
+    }
+
+    /**
+     * Implement a set of interfaces with a lua value.
+     *
+     * @param ifaces the interfaces to implement
+     * @param impl   a table of functions by method name, or a function
+     *               implementing the single abstract method of the interfaces
+     * @return the instance, which implements all of ifaces
+     * @throws LuaError if impl is a function and the interfaces do not have exactly
+     *                  one abstract method name
+     */
+    static Object create(Class<?>[] ifaces, LuaValue impl) {
+        Template t = TEMPLATES.get(ifaces[0]).computeIfAbsent(List.of(ifaces), k -> new Template(ifaces));
+        boolean isfunction = impl.isfunction();
+        if (isfunction && t.functional == null)
+            throw new LuaError("not a functional interface: " + Arrays.toString(ifaces));
+        if (t.loader == null)
+            return Proxy.newProxyInstance(JavaProxy.class.getClassLoader(), ifaces, new ProxyInvocationHandler(impl));
+
+        BitSet overrides = new BitSet(t.methods.length);
+        List<LuaValue> fns = new ArrayList<>(t.methods.length);
+        for (int i = 0; i < t.methods.length; i++) {
+            Method m = t.methods[i];
+            LuaValue f = isfunction ?
+                    (t.optional[i] ? LuaValue.NIL : impl) :
+                    impl.get(m.getName());
+            if (!f.isnil()) {
+                fns.add(f);
+                if (t.optional[i])
+                    overrides.set(i);
+            } else if (!t.optional[i]) {
+                fns.add(ABSENT);
+            }
+        }
+        Constructor<?> c = t.classes.get(overrides);
+        if (c == null) {
+            try {
+                c = t.classes.computeIfAbsent(overrides, t::generate);
+            } catch (LinkageError | RuntimeException e) {
+                t.loader = null;
+                return Proxy.newProxyInstance(JavaProxy.class.getClassLoader(), ifaces, new ProxyInvocationHandler(impl));
+            }
+        }
+        try {
+            return c.newInstance((Object) fns.toArray(new LuaValue[0]));
+        } catch (InvocationTargetException e) {
+            throw new LuaError(e.getTargetException());
+        } catch (ReflectiveOperationException e) {
+            throw new LuaError(e);
+        }
+    }
+
+    /**
+     * The methods of an interface tuple, and the classes generated for it.
+     */
+    static final class Template {
+        final Class<?>[] ifaces;
+        final Method[] methods;
+
+        /**
+         * True for default methods and methods of {@link Object},
+         * which are only overridden when the implementation provides them.
+         */
+        final boolean[] optional;
+
+        /**
+         * The single abstract method name, or null if there is none or more than one.
+         */
+        final String functional;
+
+        /**
+         * Loader to define generated classes under, or null to use {@link Proxy}.
+         */
+        volatile ClassLoader loader;
+
+        final Map<BitSet, Constructor<?>> classes = new ConcurrentHashMap<>();
+
+        Template(Class<?>[] ifaces) {
+            this.ifaces = ifaces.clone();
+            Map<String, Method> found = new LinkedHashMap<>();
+            boolean supported = true;
+            for (Method m : Object.class.getMethods())
+                if (!Modifier.isFinal(m.getModifiers()) && !Modifier.isStatic(m.getModifiers()))
+                    found.put(signature(m), m);
+            for (Class<?> c : ifaces) {
+                supported &= Modifier.isPublic(c.getModifiers());
+                for (Method m : c.getMethods()) {
+                    if (Modifier.isStatic(m.getModifiers()))
+                        continue;
+                    supported &= !m.isVarArgs();
+                    Method prior = found.putIfAbsent(signature(m), m);
+                    if (prior != null) {
+                        supported &= prior.getReturnType() == m.getReturnType();
+                        if (isOptional(prior) && !isOptional(m))
+                            found.put(signature(m), m);
+                    }
+                }
+            }
+            this.methods = found.values().toArray(new Method[0]);
+            this.optional = new boolean[methods.length];
+            String functional = null;
+            int nfunctional = 0;
+            for (int i = 0; i < methods.length; i++) {
+                optional[i] = isOptional(methods[i]);
+                if (!optional[i] && !methods[i].getName().equals(functional)) {
+                    functional = methods[i].getName();
+                    ++nfunctional;
+                }
+            }
+            this.functional = nfunctional == 1 ? functional : null;
+            this.loader = supported ? loaderFor(ifaces) : null;
+        }
+
+        private static String signature(Method m) {
+            return m.getName() + Arrays.toString(m.getParameterTypes());
+        }
+
+        /* default methods and abstract redeclarations of Object methods */
+        private static boolean isOptional(Method m) {
+            if (m.getDeclaringClass() == Object.class || m.isDefault())
+                return true;
+            try {
+                Object.class.getMethod(m.getName(), m.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        /* the first of the luaj loader and the interface loaders that sees luaj and all interfaces */
+        private static ClassLoader loaderFor(Class<?>[] ifaces) {
+            List<ClassLoader> candidates = new ArrayList<>();
+            candidates.add(JavaProxy.class.getClassLoader());
+            for (Class<?> c : ifaces)
+                candidates.add(c.getClassLoader());
+            for (ClassLoader l : candidates) {
+                if (l != null && sees(l, LuaValue.class) && Arrays.stream(ifaces).allMatch(c -> sees(l, c)))
+                    return l;
+            }
+            return null;
+        }
+
+        private static boolean sees(ClassLoader l, Class<?> c) {
+            try {
+                return Class.forName(c.getName(), false, l) == c;
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+
+        Constructor<?> generate(BitSet overrides) {
+            List<Method> implemented = new ArrayList<>();
+            for (int i = 0; i < methods.length; i++)
+                if (!optional[i] || overrides.get(i))
+                    implemented.add(methods[i]);
+            return JavaProxyBuilder.build(loader, ifaces, implemented.toArray(new Method[0]));
+        }
+    }
+
+    /**
+     * Dispatches through {@link Proxy} when no class can be generated.
+     */
+    static final class ProxyInvocationHandler implements InvocationHandler {
+        private final LuaValue lobj;
+
+        ProxyInvocationHandler(LuaValue lobj) {
+            this.lobj = lobj;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            boolean optional = method.isDefault() || method.getDeclaringClass() == Object.class;
+            LuaValue func = lobj.isfunction() ?
+                    (optional ? LuaValue.NIL : lobj) :
+                    lobj.get(method.getName());
+            if (func.isnil()) {
+                if (method.isDefault())
+                    return InvocationHandler.invokeDefault(proxy, method, args);
+                if (method.getDeclaringClass() == Object.class)
+                    return switch (method.getName()) {
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> proxy.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                    };
+                return null;
+            }
+            int n = args != null ? args.length : 0;
+            LuaValue[] v;
+            if (method.isVarArgs()) {
+                Object o = args[--n];
+                int m = Array.getLength(o);
+                v = new LuaValue[n + m];
+                for (int i = 0; i < n; i++)
+                    v[i] = CoerceJavaToLua.coerce(args[i]);
+                for (int i = 0; i < m; i++)
+                    v[i + n] = CoerceJavaToLua.coerce(Array.get(o, i));
+            } else {
+                v = new LuaValue[n];
+                for (int i = 0; i < n; i++)
+                    v[i] = CoerceJavaToLua.coerce(args[i]);
+            }
+            LuaValue result = func.invoke(v).arg1();
+            return CoerceLuaToJava.coerce(result, method.getReturnType());
+        }
+    }
+}
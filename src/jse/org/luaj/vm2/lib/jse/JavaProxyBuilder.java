@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.FieldGen;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LDC;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.ReferenceType;
+import org.apache.bcel.generic.Type;
+import org.luaj.vm2.LuaBoolean;
+import org.luaj.vm2.LuaInteger;
+import org.luaj.vm2.LuaNumber;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates the classes used by {@link JavaProxy}.
+ * <p>
+ * A generated class has one final {@link LuaValue} field per implemented method,
+ * filled from the {@code LuaValue[]} passed to its constructor.
+ * Each method coerces its arguments to lua, calls its function, and
+ * coerces the first result to the return type of the method.
+ * Primitive arguments and results are converted in place, as
+ * {@link CoerceJavaToLua} and {@link CoerceLuaToJava} would convert their boxes.
+ * <p>
+ * The generated code has no branches, so the class is written
+ * in a version that does not need stack map frames.
+ * Each class is defined in its own class loader under the loader chosen by
+ * {@link JavaProxy}, so it can be unloaded with its interfaces.
+ * <p>
+ * This class is not used directly.
+ *
+ * @see JavaProxy
+ */
+final class JavaProxyBuilder {
+
+    private static final String STR_LUAVALUE = LuaValue.class.getName();
+    private static final String STR_VARARGS = Varargs.class.getName();
+    private static final String STR_COERCE_TO_LUA = CoerceJavaToLua.class.getName();
+    private static final String STR_COERCE_TO_JAVA = CoerceLuaToJava.class.getName();
+
+    private static final ObjectType TYPE_LUAVALUE = new ObjectType(STR_LUAVALUE);
+    private static final ObjectType TYPE_VARARGS = new ObjectType(STR_VARARGS);
+    private static final ObjectType TYPE_LUABOOLEAN = new ObjectType(LuaBoolean.class.getName());
+    private static final ObjectType TYPE_LUAINTEGER = new ObjectType(LuaInteger.class.getName());
+    private static final ObjectType TYPE_LUANUMBER = new ObjectType(LuaNumber.class.getName());
+    private static final ArrayType TYPE_LUAVALUEARRAY = new ArrayType(TYPE_LUAVALUE, 1);
+    private static final ObjectType TYPE_CLASS = new ObjectType(Class.class.getName());
+
+    /* largest number of arguments passed through LuaValue.call() */
+    private static final int MAX_CALL_ARGS = 3;
+
+    private static final AtomicInteger count = new AtomicInteger();
+
+    private JavaProxyBuilder() {
+    }
+
+    /**
+     * Define a class implementing a set of interfaces.
+     *
+     * @param parent  loader that resolves luaj and all of the interfaces
+     * @param ifaces  the interfaces
+     * @param methods the methods to implement, in the order of the functions
+     *                passed to the constructor
+     * @return the constructor of the class, taking a {@code LuaValue[]}
+     */
+    static Constructor<?> build(ClassLoader parent, Class<?>[] ifaces, Method[] methods) {
+        String classname = JavaProxy.class.getName() + "$Impl" + count.incrementAndGet();
+        String[] inames = new String[ifaces.length];
+        for (int i = 0; i < ifaces.length; i++)
+            inames[i] = ifaces[i].getName();
+        ClassGen cg = new ClassGen(classname, Object.class.getName(), "<luajava>",
+                Const.ACC_PUBLIC | Const.ACC_FINAL | Const.ACC_SUPER, inames);
+        cg.setMajor(Const.MAJOR_1_5);
+        cg.setMinor(Const.MINOR_1_5);
+        ConstantPoolGen cp = cg.getConstantPool();
+        InstructionFactory factory = new InstructionFactory(cg);
+
+        InstructionList il = new InstructionList();
+        MethodGen init = new MethodGen(Const.ACC_PUBLIC, Type.VOID, new Type[]{TYPE_LUAVALUEARRAY},
+                new String[]{"fns"}, "<init>", classname, il, cp);
+        il.append(InstructionConst.ALOAD_0);
+        il.append(factory.createInvoke(Object.class.getName(), "<init>", Type.VOID, Type.NO_ARGS, Const.INVOKESPECIAL));
+        for (int i = 0; i < methods.length; i++) {
+            cg.addField(new FieldGen(Const.ACC_PRIVATE | Const.ACC_FINAL, TYPE_LUAVALUE, "f" + i, cp).getField());
+            il.append(InstructionConst.ALOAD_0);
+            il.append(InstructionConst.ALOAD_1);
+            il.append(new PUSH(cp, i));
+            il.append(InstructionConst.AALOAD);
+            il.append(factory.createFieldAccess(classname, "f" + i, TYPE_LUAVALUE, Const.PUTFIELD));
+        }
+        il.append(InstructionConst.RETURN);
+        addMethod(cg, init, il);
+
+        for (int i = 0; i < methods.length; i++)
+            addMethod(cg, factory, cp, classname, "f" + i, methods[i]);
+
+        byte[] bytes = cg.getJavaClass().getBytes();
+        try {
+            return new Loader(parent).define(classname, bytes).getConstructor(LuaValue[].class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void addMethod(ClassGen cg, InstructionFactory factory, ConstantPoolGen cp,
+                                  String classname, String field, Method m) {
+        Class<?>[] params = m.getParameterTypes();
+        Type[] types = new Type[params.length];
+        for (int i = 0; i < params.length; i++)
+            types[i] = Type.getType(params[i]);
+        Type ret = Type.getType(m.getReturnType());
+
+        InstructionList il = new InstructionList();
+        MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_FINAL, ret, types, null,
+                m.getName(), classname, il, cp);
+        il.append(InstructionConst.ALOAD_0);
+        il.append(factory.createFieldAccess(classname, field, TYPE_LUAVALUE, Const.GETFIELD));
+        if (params.length <= MAX_CALL_ARGS) {
+            for (int i = 0, slot = 1; i < params.length; slot += types[i++].getSize())
+                toLua(il, factory, params[i], types[i], slot);
+            Type[] args = new Type[params.length];
+            Arrays.fill(args, TYPE_LUAVALUE);
+            il.append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, args, Const.INVOKEVIRTUAL));
+        } else {
+            il.append(new PUSH(cp, params.length));
+            il.append(factory.createNewArray(TYPE_LUAVALUE, (short) 1));
+            for (int i = 0, slot = 1; i < params.length; slot += types[i++].getSize()) {
+                il.append(InstructionConst.DUP);
+                il.append(new PUSH(cp, i));
+                toLua(il, factory, params[i], types[i], slot);
+                il.append(InstructionConst.AASTORE);
+            }
+            il.append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, new Type[]{TYPE_LUAVALUEARRAY}, Const.INVOKEVIRTUAL));
+            il.append(factory.createInvoke(STR_VARARGS, "arg1", TYPE_LUAVALUE, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+        }
+        toJava(il, factory, cp, m.getReturnType(), ret);
+        addMethod(cg, mg, il);
+    }
+
+    /* load a parameter and coerce it to a lua value */
+    private static void toLua(InstructionList il, InstructionFactory factory, Class<?> c, Type t, int slot) {
+        il.append(InstructionFactory.createLoad(t, slot));
+        if (!c.isPrimitive()) {
+            il.append(factory.createInvoke(STR_COERCE_TO_LUA, "coerce", TYPE_LUAVALUE, new Type[]{Type.OBJECT}, Const.INVOKESTATIC));
+        } else if (c == boolean.class) {
+            il.append(factory.createInvoke(STR_LUAVALUE, "valueOf", TYPE_LUABOOLEAN, new Type[]{Type.BOOLEAN}, Const.INVOKESTATIC));
+        } else if (c == long.class) {
+            il.append(factory.createInvoke(STR_LUAVALUE, "valueOf", TYPE_LUANUMBER, new Type[]{Type.LONG}, Const.INVOKESTATIC));
+        } else if (c == float.class || c == double.class) {
+            if (c != double.class)
+                il.append(factory.createCast(t, Type.DOUBLE));
+            il.append(factory.createInvoke(STR_LUAVALUE, "valueOf", TYPE_LUANUMBER, new Type[]{Type.DOUBLE}, Const.INVOKESTATIC));
+        } else {
+            il.append(factory.createInvoke(STR_LUAVALUE, "valueOf", TYPE_LUAINTEGER, new Type[]{Type.INT}, Const.INVOKESTATIC));
+        }
+    }
+
+    /* coerce the lua value on the stack to the return type and return it */
+    private static void toJava(InstructionList il, InstructionFactory factory, ConstantPoolGen cp, Class<?> c, Type t) {
+        if (c == void.class) {
+            il.append(InstructionConst.POP);
+        } else if (!c.isPrimitive()) {
+            il.append(new LDC(t instanceof ArrayType ? cp.addArrayClass((ArrayType) t) : cp.addClass((ObjectType) t)));
+            il.append(factory.createInvoke(STR_COERCE_TO_JAVA, "coerce", Type.OBJECT, new Type[]{TYPE_LUAVALUE, TYPE_CLASS}, Const.INVOKESTATIC));
+            il.append(factory.createCheckCast((ReferenceType) t));
+        } else if (c == boolean.class) {
+            il.append(factory.createInvoke(STR_LUAVALUE, "toboolean", Type.BOOLEAN, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+        } else if (c == long.class) {
+            il.append(factory.createInvoke(STR_LUAVALUE, "tolong", Type.LONG, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+        } else if (c == float.class || c == double.class) {
+            il.append(factory.createInvoke(STR_LUAVALUE, "todouble", Type.DOUBLE, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+            if (c != double.class)
+                il.append(factory.createCast(Type.DOUBLE, t));
+        } else {
+            il.append(factory.createInvoke(STR_LUAVALUE, "toint", Type.INT, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+            if (c != int.class)
+                il.append(factory.createCast(Type.INT, t));
+        }
+        il.append(InstructionFactory.createReturn(t));
+    }
+
+    private static void addMethod(ClassGen cg, MethodGen mg, InstructionList il) {
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        cg.addMethod(mg.getMethod());
+        il.dispose();
+    }
+
+    /**
+     * Defines one generated class, so that it can be unloaded on its own.
+     */
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
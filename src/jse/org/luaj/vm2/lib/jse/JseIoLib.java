@@ -21,13 +21,20 @@
 ******************************************************************************/
 package org.luaj.vm2.lib.jse;
 
-import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 import org.luaj.vm2.Globals;
 import org.luaj.vm2.LuaError;
@@ -40,7 +47,13 @@ import org.luaj.vm2.lib.LibFunction;
  * Subclass of {@link IoLib} and therefore {@link LibFunction} which implements the lua standard {@code io}
  * library for the JSE platform.
  * <p>
- * It uses RandomAccessFile to implement seek on files.
+ * Files are read and written through a {@link FileChannel} with a buffer in user space,
+ * whose size and flushing behavior are set by {@code file:setvbuf},
+ * and seek supports offsets beyond 2GB.
+ * Writes go straight to the channel unless {@code file:setvbuf("full")} or {@code file:setvbuf("line")}
+ * is called, so a file that is never closed does not lose data.
+ * Buffering writes is opt-in: a buffered file must be flushed or closed, as nothing flushes it at exit.
+ * Files opened with the mode {@code "rm"} are read-only and mapped into memory.
  * <p>
  * Typically, this library is included as part of a call to
  * {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()}
@@ -82,53 +95,85 @@ public class JseIoLib extends IoLib {
 	}
 	
 	protected File openFile( String filename, boolean readMode, boolean appendMode, boolean updateMode, boolean binaryMode ) throws IOException {
-		RandomAccessFile f = new RandomAccessFile(filename,readMode? "r": "rw");
+		RandomAccessFile f = new RandomAccessFile(filename,readMode && !updateMode? "r": "rw");
 		if ( appendMode ) {
 			f.seek(f.length());
 		} else {
 			if ( ! readMode )
 				f.setLength(0);
 		}
-		return new FileImpl( f );
+		return new FileImpl( f.getChannel() );
 	}
 	
+	protected File openMappedFile( String filename ) throws IOException {
+		return new MappedFile( new RandomAccessFile(filename,"r").getChannel() );
+	}
+
 	protected File openProgram(String prog, String mode) throws IOException {
 		final Process p = Runtime.getRuntime().exec(prog);
 		return "w".equals(mode)?
-				new FileImpl( p.getOutputStream() ):
-				new FileImpl( p.getInputStream() );
+				new FileImpl( null, Channels.newChannel(p.getOutputStream()) ):
+				new FileImpl( Channels.newChannel(p.getInputStream()), null );
 	}
 
 	protected File tmpFile() throws IOException {
 		java.io.File f = java.io.File.createTempFile(".luaj","bin");
 		f.deleteOnExit();
-		return new FileImpl( new RandomAccessFile(f,"rw") );
+		return new FileImpl( new RandomAccessFile(f,"rw").getChannel() );
 	}
 	
+	/**
+	 * Wrap a seekable channel in a buffered file, for subclasses that open files in other ways.
+	 * @param channel the channel to read and write, which is closed with the file
+	 * @return File object
+	 */
+	protected File openChannel( SeekableByteChannel channel ) {
+		return new FileImpl( channel );
+	}
+
+	/**
+	 * Wrap the channels of a program in a file, for subclasses that open programs in other ways.
+	 * @param in channel to read from, or null
+	 * @param out channel to write to, or null
+	 * @return File object
+	 */
+	protected File openChannel( ReadableByteChannel in, WritableByteChannel out ) {
+		return new FileImpl( in, out );
+	}
+
 	private static void notimplemented() {
 		throw new LuaError("not implemented");
 	}
 	
-
+	/** Default size of the buffer of a file, which can be changed with {@code file:setvbuf} */
+	static final int BUFSIZE = 8192;
+
+	/**
+	 * File on a channel, with a buffer for reading or writing.
+	 * <p>
+	 * The buffer holds either bytes read ahead, in {@code buf[rpos..rlim)}, or bytes
+	 * waiting to be written, in {@code buf[0..wlen)}, but never both, so that the logical
+	 * position of a seekable file is the channel position minus the bytes read ahead
+	 * plus the bytes waiting.
+	 * Writes are only buffered after {@code setvbuf("full")} or {@code setvbuf("line")}.
+	 * Lines are scanned directly in the buffer.
+	 */
 	private final class FileImpl extends File {
-		private final RandomAccessFile file;
-		private final InputStream is;
-		private final OutputStream os;
+		private final SeekableByteChannel file;
+		private final ReadableByteChannel in;
+		private final WritableByteChannel out;
+		private byte[] buf = new byte[BUFSIZE];
+		private int rpos, rlim, wlen;
 		private boolean closed = false;
-		private boolean nobuffer = false;
-		private FileImpl( RandomAccessFile file, InputStream is, OutputStream os ) {
-			this.file = file;
-			this.is = is!=null? is.markSupported()? is: new BufferedInputStream(is): null;
-			this.os = os;
-		}
-		private FileImpl( RandomAccessFile f ) {
-			this( f, null, null );
-		}
-		private FileImpl( InputStream i ) {
-			this( null, i, null );
+		private boolean nobuffer = true;
+		private boolean linebuffer = false;
+		private FileImpl( ReadableByteChannel in, WritableByteChannel out ) {
+			this.file = in instanceof SeekableByteChannel? (SeekableByteChannel) in: null;
+			this.in = in;
+			this.out = out;
 		}
-		private FileImpl( OutputStream o ) {
-			this( null, null, o );
+		private FileImpl( SeekableByteChannel f ) {
+			this( f, f );
 		}
 		public String tojstring() {
 			return "file (" + (this.closed ? "closed" : String.valueOf(this.hashCode())) + ")";
@@ -137,89 +182,316 @@ public class JseIoLib extends IoLib {
 			return file == null;
 		}
 		public void close() throws IOException  {
+			if ( closed )
+				return;
 			closed = true;
 			if ( file != null ) {
-				file.close();
+				try {
+					flushbuf();
+				} finally {
+					file.close();
+				}
 			}
 		}
 		public void flush() throws IOException {
-			if ( os != null )
-				os.flush();
+			flushbuf();
+		}
+		private void flushbuf() throws IOException {
+			if ( wlen > 0 ) {
+				writefully( buf, 0, wlen );
+				wlen = 0;
+			}
+		}
+		private void writefully(byte[] b, int off, int len) throws IOException {
+			ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+			try {
+				while ( bb.hasRemaining() )
+					out.write(bb);
+			} catch ( NonWritableChannelException e ) {
+				throw new IOException("Bad file descriptor");
+			}
+		}
+		// drop the bytes read ahead, moving the channel back to the logical position
+		private void unread() throws IOException {
+			if ( rlim > rpos && file != null )
+				file.position( file.position() - (rlim - rpos) );
+			rpos = rlim = 0;
 		}
 		public void write(LuaString s) throws IOException {
-			if ( os != null )
-				os.write( s.m_bytes, s.m_offset, s.m_length );
-			else if ( file != null )
-				file.write( s.m_bytes, s.m_offset, s.m_length );
-			else
+			write( s.m_bytes, s.m_offset, s.m_length );
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			if ( out == null )
 				notimplemented();
-			if ( nobuffer )
-				flush();
+			unread();
+			if ( nobuffer || len >= buf.length ) {
+				flushbuf();
+				writefully( b, off, len );
+				return;
+			}
+			if ( len > buf.length - wlen )
+				flushbuf();
+			System.arraycopy( b, off, buf, wlen, len );
+			wlen += len;
+			if ( linebuffer ) {
+				for ( int i = off, end = off + len; i < end; i++ ) {
+					if ( b[i] == '\n' ) {
+						flushbuf();
+						break;
+					}
+				}
+			}
 		}
 		public boolean isclosed() {
 			return closed;
 		}
-		public int seek(String option, int pos) throws IOException {
+		public long seek(String option, long pos) throws IOException {
 			if ( file != null ) {
-				if ( "set".equals(option) ) {
-					file.seek(pos);
-				} else if ( "end".equals(option) ) {
-					file.seek(file.length()+pos);
-				} else {
-					file.seek(file.getFilePointer()+pos);
+				flushbuf();
+				long current = file.position() - (rlim - rpos);
+				long target = "set".equals(option)? pos:
+						"end".equals(option)? file.size() + pos:
+						current + pos;
+				if ( target < 0 )
+					throw new IOException("Invalid argument");
+				if ( target >= current - rpos && target <= current + (rlim - rpos) ) {
+					rpos += (int) (target - current);
+					return target;
 				}
-				return (int) file.getFilePointer();
+				rpos = rlim = 0;
+				file.position(target);
+				return target;
 			}
 			notimplemented();
 			return 0;
 		}
 		public void setvbuf(String mode, int size) {
 			nobuffer = "no".equals(mode);
+			linebuffer = "line".equals(mode);
+			int n = Math.max(size, 1);
+			if ( n != buf.length && n >= Math.max(wlen, rlim) ) {
+				byte[] b = new byte[n];
+				System.arraycopy( buf, 0, b, 0, Math.max(wlen, rlim) );
+				buf = b;
+			}
 		}
 
 		// get length remaining to read
-		public int remaining() throws IOException {
-			return file!=null? (int) (file.length()-file.getFilePointer()): -1;
+		public long remaining() throws IOException {
+			if ( file == null )
+				return -1;
+			flushbuf();
+			return file.size() - (file.position() - (rlim - rpos));
 		}
 		
+		// fill the empty buffer, returning false at end of input
+		private boolean fill() throws IOException {
+			if ( in == null )
+				notimplemented();
+			flushbuf();
+			rpos = rlim = 0;
+			int n;
+			try {
+				do {
+					n = in.read( ByteBuffer.wrap(buf) );
+				} while ( n == 0 );
+			} catch ( NonReadableChannelException e ) {
+				throw new IOException("Bad file descriptor");
+			}
+			if ( n < 0 )
+				return false;
+			rlim = n;
+			return true;
+		}
+
 		// peek ahead one character
 		public int peek() throws IOException {
-			if ( is != null ) {
-				is.mark(1);
-				int c = is.read();
-				is.reset();
-				return c;
-			} else if ( file != null ) {
-				long fp = file.getFilePointer();
-				int c = file.read();
-				file.seek(fp);
-				return c;
-			}
-			notimplemented();
-			return 0;
+			if ( rpos >= rlim && !fill() )
+				return -1;
+			return buf[rpos] & 0xff;
 		}
 		
 		// return char if read, -1 if eof, throw IOException on other exception
 		public int read() throws IOException {
-			if ( is != null )
-				return is.read();
-			else if ( file != null ) {
-				return file.read();
-			}
-			notimplemented();
-			return 0;
+			if ( rpos >= rlim && !fill() )
+				return -1;
+			return buf[rpos++] & 0xff;
 		}
 
 		// return number of bytes read if positive, -1 if eof, throws IOException
 		public int read(byte[] bytes, int offset, int length) throws IOException {
-			if (file!=null) {
-				return file.read(bytes, offset, length);
-			} else if (is!=null) {
-				return is.read(bytes, offset, length);
-			} else {
-				notimplemented();
+			int n = 0;
+			while ( n < length ) {
+				if ( rpos >= rlim ) {
+					if ( length - n >= buf.length && in != null ) {
+						flushbuf();
+						rpos = rlim = 0;
+						int r = in.read( ByteBuffer.wrap(bytes, offset + n, length - n) );
+						if ( r < 0 )
+							break;
+						n += r;
+						continue;
+					}
+					if ( !fill() )
+						break;
+				}
+				int k = Math.min( length - n, rlim - rpos );
+				System.arraycopy( buf, rpos, bytes, offset + n, k );
+				rpos += k;
+				n += k;
+			}
+			return n == 0 && length > 0? -1: n;
+		}
+
+		public LuaValue readline(boolean withend) throws IOException {
+			if ( rpos >= rlim && !fill() )
+				return NIL;
+			byte[] line = null;
+			int len = 0;
+			while ( true ) {
+				int i = rpos;
+				while ( i < rlim && buf[i] != '\n' )
+					i++;
+				boolean found = i < rlim;
+				int end = found && withend? i + 1: i;
+				if ( line == null && found && (withend || !contains(buf, rpos, end, (byte) '\r')) ) {
+					LuaString s = LuaString.valueOf( buf, rpos, end - rpos );
+					rpos = i + 1;
+					return s;
+				}
+				if ( line == null || len + (end - rpos) > line.length )
+					line = Arrays.copyOf( line != null? line: new byte[0], Math.max(len + (end - rpos), 2 * len + 64) );
+				for ( int j = rpos; j < end; j++ )
+					if ( withend || buf[j] != '\r' )
+						line[len++] = buf[j];
+				rpos = found? i + 1: rlim;
+				if ( found || !fill() )
+					return LuaString.valueUsing( line, 0, len );
+			}
+		}
+
+		private boolean contains(byte[] b, int from, int to, byte c) {
+			for ( int i = from; i < to; i++ )
+				if ( b[i] == c )
+					return true;
+			return false;
+		}
+	}
+
+	/** Largest part of a file mapped at once by {@link #openMappedFile(String)} */
+	int mmapwindow = 1 << 30;
+
+	/**
+	 * Read-only file mapped into memory with {@link FileChannel#map}, for the mode "rm".
+	 * <p>
+	 * Reads copy bytes straight from the mapping, without a buffer or a system call.
+	 * Files larger than the window are mapped one window at a time,
+	 * and lines that span two windows are joined.
+	 * The size of the file is fixed when it is opened.
+	 */
+	private final class MappedFile extends File {
+		private final FileChannel file;
+		private final long size;
+		private MappedByteBuffer window;
+		private long start, pos;
+		private int limit;
+		private boolean closed = false;
+		private MappedFile( FileChannel file ) throws IOException {
+			this.file = file;
+			this.size = file.size();
+		}
+		public String tojstring() {
+			return "file (" + (this.closed ? "closed" : String.valueOf(this.hashCode())) + ")";
+		}
+		public boolean isstdfile() {
+			return false;
+		}
+		public void close() throws IOException {
+			closed = true;
+			window = null;
+			file.close();
+		}
+		public boolean isclosed() {
+			return closed;
+		}
+		public void flush() {
+		}
+		public void write(LuaString string) throws IOException {
+			throw new IOException("Bad file descriptor");
+		}
+		public void setvbuf(String mode, int size) {
+		}
+		public long seek(String option, long offset) throws IOException {
+			long target = "set".equals(option)? offset:
+					"end".equals(option)? size + offset:
+					pos + offset;
+			if ( target < 0 )
+				throw new IOException("Invalid argument");
+			pos = target;
+			return pos;
+		}
+		public long remaining() {
+			return Math.max(0, size - pos);
+		}
+		// map the window containing pos, returning false at end of file
+		private boolean map() throws IOException {
+			if ( pos >= size )
+				return false;
+			if ( window == null || pos < start || pos >= start + limit ) {
+				start = pos;
+				limit = (int) Math.min( mmapwindow, size - pos );
+				window = file.map( FileChannel.MapMode.READ_ONLY, start, limit );
+			}
+			return true;
+		}
+		public int peek() throws IOException {
+			return map()? window.get( (int) (pos - start) ) & 0xff: -1;
+		}
+		public int read() throws IOException {
+			if ( !map() )
+				return -1;
+			return window.get( (int) (pos++ - start) ) & 0xff;
+		}
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			int n = 0;
+			while ( n < length && map() ) {
+				int k = (int) Math.min( length - n, start + limit - pos );
+				window.get( (int) (pos - start), bytes, offset + n, k );
+				pos += k;
+				n += k;
+			}
+			return n == 0 && length > 0? -1: n;
+		}
+		public LuaValue readline(boolean withend) throws IOException {
+			if ( !map() )
+				return NIL;
+			byte[] line = null;
+			int len = 0;
+			while ( true ) {
+				int from = (int) (pos - start), i = from;
+				while ( i < limit && window.get(i) != '\n' )
+					i++;
+				boolean found = i < limit;
+				int end = found && withend? i + 1: i;
+				byte[] b = new byte[end - from];
+				window.get( from, b, 0, b.length );
+				pos = start + (found? i + 1: i);
+				int k = b.length;
+				if ( !withend ) {
+					k = 0;
+					for ( int j = 0; j < b.length; j++ )
+						if ( b[j] != '\r' )
+							b[k++] = b[j];
+				}
+				if ( line == null && (found || !map()) )
+					return LuaString.valueUsing( b, 0, k );
+				if ( line == null || len + k > line.length )
+					line = Arrays.copyOf( line != null? line: new byte[0], Math.max(len + k, 2 * len) );
+				System.arraycopy( b, 0, line, len, k );
+				len += k;
+				if ( found || !map() )
+					return LuaString.valueUsing( line, 0, len );
 			}
-			return length;
 		}
 	}
 
@@ -244,6 +516,10 @@ public class JseIoLib extends IoLib {
 			getPrintStream().write(string.m_bytes, string.m_offset, string.m_length);
 		}
 
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			getPrintStream().write(bytes, offset, length);
+		}
+
 		public void flush() throws IOException {
 			getPrintStream().flush();
 		}
@@ -260,14 +536,14 @@ public class JseIoLib extends IoLib {
 			return false;
 		}
 
-		public int seek(String option, int bytecount) throws IOException {
+		public long seek(String option, long bytecount) throws IOException {
 			return 0;
 		}
 
 		public void setvbuf(String mode, int size) {
 		}
 
-		public int remaining() throws IOException {
+		public long remaining() throws IOException {
 			return 0;
 		}
 
@@ -311,14 +587,14 @@ public class JseIoLib extends IoLib {
 			return false;
 		}
 
-		public int seek(String option, int bytecount) throws IOException {
+		public long seek(String option, long bytecount) throws IOException {
 			return 0;
 		}
 
 		public void setvbuf(String mode, int size) {
 		}
 
-		public int remaining() throws IOException {
+		public long remaining() throws IOException {
 			return -1;
 		}
 
@@ -53,7 +53,7 @@ import org.luaj.vm2.lib.*;
  * For this to succeed, the file "main.lua" must be in the current directory or a resource.
  * See {@link org.luaj.vm2.lib.jse.JseBaseLib} for details on finding scripts using {@link ResourceFinder}.
  * <p>
- * The standard globals will contain all standard libraries plus {@code luajava}:
+ * The standard globals will contain all standard libraries plus {@code luajava}, {@code shared}, {@code marshal}, {@code json} and {@code bytebuf}:
  * <ul>
  * <li>{@link Globals}</li>
  * <li>{@link org.luaj.vm2.lib.jse.JseBaseLib}</li>
@@ -66,6 +66,10 @@ import org.luaj.vm2.lib.*;
  * <li>{@link org.luaj.vm2.lib.jse.JseIoLib}</li>
  * <li>{@link org.luaj.vm2.lib.jse.JseOsLib}</li>
  * <li>{@link org.luaj.vm2.lib.jse.LuajavaLib}</li>
+ * <li>{@link SharedLib}</li>
+ * <li>{@link MarshalLib}</li>
+ * <li>{@link JsonLib}</li>
+ * <li>{@link ByteBufLib}</li>
  * </ul>
  * In addition, the {@link LuaC} compiler is installed so lua files may be loaded in their source form.
  * <p>
@@ -96,6 +100,10 @@ public class JsePlatform {
         globals.load(new JseIoLib());
         globals.load(new JseOsLib());
         globals.load(new LuajavaLib());
+        globals.load(new SharedLib());
+        globals.load(new MarshalLib());
+        globals.load(new JsonLib());
+        globals.load(new ByteBufLib());
         LoadState.install(globals);
         LuaC.install(globals);
         return globals;
@@ -89,8 +89,6 @@ public class LuajavaLib extends VarArgFunction {
             "loadLib",
     };
 
-    static final int METHOD_MODIFIERS_VARARGS = 0x80;
-
     public LuajavaLib() {
     }
 
@@ -121,21 +119,17 @@ public class LuajavaLib extends VarArgFunction {
                     final int niface = args.narg() - 1;
                     if (niface <= 0)
                         throw new LuaError("no interfaces");
-                    final LuaValue lobj = args.checktable(niface + 1);
+                    final LuaValue lobj = args.arg(niface + 1);
+                    if (!lobj.istable() && !lobj.isfunction())
+                        argerror(niface + 1, "table or function expected");
 
                     // get the interfaces
                     final Class<?>[] ifaces = new Class[niface];
                     for (int i = 0; i < niface; i++)
                         ifaces[i] = classForName(args.checkjstring(i + 1));
 
-                    // create the invocation handler
-                    InvocationHandler handler = new ProxyInvocationHandler(lobj);
-
                     // create the proxy object
-                    Object proxy = Proxy.newProxyInstance(getClass().getClassLoader(), ifaces, handler);
-
-                    // return the proxy
-                    yield LuaValue.userdataOf(proxy);
+                    yield LuaValue.userdataOf(JavaProxy.create(ifaces, lobj));
                 }
                 case LOADLIB -> {
                     // get constructor
@@ -162,37 +156,4 @@ public class LuajavaLib extends VarArgFunction {
         return Class.forName(name, true, ClassLoader.getSystemClassLoader());
     }
 
-    private static final class ProxyInvocationHandler implements InvocationHandler {
-        private final LuaValue lobj;
-
-        private ProxyInvocationHandler(LuaValue lobj) {
-            this.lobj = lobj;
-        }
-
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            String name = method.getName();
-            LuaValue func = lobj.get(name);
-            if (func.isnil())
-                return null;
-            boolean isvarargs = ((method.getModifiers() & METHOD_MODIFIERS_VARARGS) != 0);
-            int n = args != null ? args.length : 0;
-            LuaValue[] v;
-            if (isvarargs) {
-                Object o = args[--n];
-                int m = Array.getLength(o);
-                v = new LuaValue[n + m];
-                for (int i = 0; i < n; i++)
-                    v[i] = CoerceJavaToLua.coerce(args[i]);
-                for (int i = 0; i < m; i++)
-                    v[i + n] = CoerceJavaToLua.coerce(Array.get(o, i));
-            } else {
-                v = new LuaValue[n];
-                for (int i = 0; i < n; i++)
-                    v[i] = CoerceJavaToLua.coerce(args[i]);
-            }
-            LuaValue result = func.invoke(v).arg1();
-            return CoerceLuaToJava.coerce(result, method.getReturnType());
-        }
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.SharedTable;
+import org.luaj.vm2.UpValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.LibFunction;
+import org.luaj.vm2.lib.TwoArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Subclass of {@link LibFunction} which implements the {@code parallel} library,
+ * which runs lua functions over the elements of a list on a {@link ForkJoinPool}.
+ * <p>
+ * The library contains:
+ * <ul>
+ * <li>{@code parallel.map(list, fn [, chunksize])} returns a new list with {@code fn(list[i], i)} at each index</li>
+ * <li>{@code parallel.reduce(list, fn [, init])} combines the elements with {@code fn(a, b)},
+ * which must be associative since chunks are reduced independently</li>
+ * <li>{@code parallel.workers}, the parallelism of the pool</li>
+ * </ul>
+ * <p>
+ * A {@link Globals} is not thread safe, so each task runs in a worker {@link Globals}
+ * of its own, created by the factory given to the constructor and reused for later tasks.
+ * The factory must mirror the environment of the caller, since the caller's globals
+ * are replaced by the worker globals when a function crosses over.
+ * After each task the tables reachable from the worker globals are restored
+ * to their contents and metatables when the worker was created,
+ * so tasks do not see global state left by earlier tasks.
+ * <p>
+ * Values are copied into the worker before the call and copied back afterwards.
+ * Only the following values can cross:
+ * <ul>
+ * <li>nil, booleans, numbers and strings</li>
+ * <li>tables without a metatable, which are copied deeply,
+ * preserving shared references and cycles within one chunk</li>
+ * <li>lua functions, which are instantiated again from the same {@link org.luaj.vm2.Prototype},
+ * with copies of their upvalues</li>
+ * <li>{@link SharedTable}s, which are passed by reference</li>
+ * <li>the globals table and the functions of loaded libraries, which are replaced
+ * by their counterparts in the other {@link Globals}</li>
+ * </ul>
+ * Any other value, such as other userdata, coroutines, tables with a metatable,
+ * or functions compiled to java bytecode, raises an error.
+ * <p>
+ * This library is not part of {@link org.luaj.vm2.lib.jse.JsePlatform#standardGlobals()},
+ * and is loaded with a factory for the worker globals:
+ * <pre> {@code
+ * Globals globals = JsePlatform.standardGlobals();
+ * globals.load(new ParallelLib(JsePlatform::standardGlobals));
+ * globals.load("return parallel.map({1, 2, 3}, function(x) return x * x end)").call();
+ * } </pre>
+ *
+ * @see LibFunction
+ * @see org.luaj.vm2.lib.jse.JsePlatform
+ */
+public class ParallelLib extends TwoArgFunction {
+
+    private final ForkJoinPool pool;
+    private final Supplier<Globals> factory;
+    private final ConcurrentLinkedQueue<Worker> idle = new ConcurrentLinkedQueue<>();
+    private Globals globals;
+
+    /**
+     * Construct a parallel library running on the common pool.
+     *
+     * @param factory creates the worker {@link Globals}, with the same libraries as the caller
+     */
+    public ParallelLib(Supplier<Globals> factory) {
+        this(ForkJoinPool.commonPool(), factory);
+    }
+
+    /**
+     * Construct a parallel library.
+     *
+     * @param pool    the pool to run tasks on
+     * @param factory creates the worker {@link Globals}, with the same libraries as the caller
+     */
+    public ParallelLib(ForkJoinPool pool, Supplier<Globals> factory) {
+        this.pool = pool;
+        this.factory = factory;
+    }
+
+    /**
+     * Perform one-time initialization on the library by creating a table
+     * containing the library functions, adding that table to the supplied environment,
+     * adding the table to package.loaded, and returning table as the return value.
+     *
+     * @param modname the module name supplied if this is loaded via 'require'.
+     * @param env     the environment to load into, which must be a Globals instance.
+     */
+    public LuaValue call(LuaValue modname, LuaValue env) {
+        globals = env.checkglobals();
+        LuaTable parallel = new LuaTable();
+        parallel.set("map", new map());
+        parallel.set("reduce", new reduce());
+        parallel.set("workers", valueOf(pool.getParallelism()));
+        env.set("parallel", parallel);
+        if (!env.get("package").isnil()) env.get("package").get("loaded").set("parallel", parallel);
+        return parallel;
+    }
+
+    /**
+     * The number of worker {@link Globals} created so far and not in use.
+     */
+    public int idleWorkers() {
+        return idle.size();
+    }
+
+    final class map extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            LuaTable list = args.checktable(1);
+            LuaValue fn = args.checkfunction(2);
+            int n = list.rawlen();
+            int size = args.optint(3, chunksize(n));
+            argcheck(size > 0, 3, "chunk size must be positive");
+            List<LuaValue> chunks = run(list, n, fn, size, (f, in, from, to) -> {
+                LuaTable out = new LuaTable(to - from + 1, 0);
+                for (int i = from; i <= to; i++)
+                    out.rawset(i - from + 1, f.call(in.copy(list.rawget(i)), valueOf(i)));
+                return out;
+            });
+            LuaTable result = new LuaTable(n, 0);
+            for (int c = 0, i = 1; c < chunks.size(); c++) {
+                LuaValue chunk = chunks.get(c);
+                for (int j = 1; j <= size && i <= n; j++, i++)
+                    result.rawset(i, chunk.rawget(j));
+            }
+            return result;
+        }
+    }
+
+    final class reduce extends VarArgFunction {
+        public Varargs invoke(Varargs args) {
+            LuaTable list = args.checktable(1);
+            LuaValue fn = args.checkfunction(2);
+            LuaValue acc = args.arg(3);
+            int n = list.rawlen();
+            List<LuaValue> chunks = run(list, n, fn, chunksize(n), (f, in, from, to) -> {
+                LuaValue a = in.copy(list.rawget(from));
+                for (int i = from + 1; i <= to; i++)
+                    a = f.call(a, in.copy(list.rawget(i)));
+                return a;
+            });
+            for (LuaValue r : chunks)
+                acc = acc.isnil() ? r : fn.call(acc, r);
+            return acc;
+        }
+    }
+
+    /**
+     * Work done by one task for the elements {@code from..to} of a list, in a worker.
+     */
+    interface Chunk {
+        LuaValue run(LuaValue fn, Copier in, int from, int to);
+    }
+
+    private int chunksize(int n) {
+        int chunks = pool.getParallelism() * 4;
+        return Math.max(1, (n + chunks - 1) / chunks);
+    }
+
+    /* run one task per chunk and return the results in order, copied back to the caller */
+    private List<LuaValue> run(LuaTable list, int n, LuaValue fn, int size, Chunk chunk) {
+        List<Callable<LuaValue>> tasks = new ArrayList<>();
+        for (int i = 1; i <= n; i += size) {
+            final int from = i, to = (int) Math.min(n, (long) i + size - 1);
+            tasks.add(() -> {
+                Worker worker = acquire();
+                try {
+                    Copier in = new Copier(globals, worker.globals);
+                    LuaValue r = chunk.run(in.copy(fn), in, from, to);
+                    return new Copier(worker.globals, globals).copy(r);
+                } finally {
+                    worker.reset();
+                    idle.offer(worker);
+                }
+            });
+        }
+        List<LuaValue> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<LuaValue> f : pool.invokeAll(tasks))
+                results.add(f.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LuaError)
+                throw (LuaError) cause;
+            throw new LuaError(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LuaError(e);
+        }
+        return results;
+    }
+
+    private Worker acquire() {
+        Worker w = idle.poll();
+        return w != null ? w : new Worker(factory.get());
+    }
+
+    /**
+     * A worker {@link Globals}, with the contents and metatables of the tables
+     * reachable from it when it was created, which {@link #reset()} restores.
+     */
+    static final class Worker {
+        final Globals globals;
+        private final Map<LuaTable, Saved> saved = new IdentityHashMap<>();
+
+        private record Saved(LuaTable entries, LuaValue metatable) {
+        }
+
+        Worker(Globals globals) {
+            this.globals = globals;
+            save(globals);
+        }
+
+        private void save(LuaTable t) {
+            if (saved.containsKey(t))
+                return;
+            LuaTable entries = new LuaTable();
+            saved.put(t, new Saved(entries, t.getmetatable()));
+            for (Varargs e = t.next(NIL); !e.arg1().isnil(); e = t.next(e.arg1())) {
+                entries.rawset(e.arg1(), e.arg(2));
+                if (e.arg(2) instanceof LuaTable u)
+                    save(u);
+            }
+        }
+
+        void reset() {
+            for (Map.Entry<LuaTable, Saved> s : saved.entrySet()) {
+                LuaTable t = s.getKey(), entries = s.getValue().entries();
+                List<LuaValue> added = new ArrayList<>();
+                for (Varargs e = t.next(NIL); !e.arg1().isnil(); e = t.next(e.arg1()))
+                    if (entries.rawget(e.arg1()).isnil())
+                        added.add(e.arg1());
+                for (LuaValue k : added)
+                    t.rawset(k, NIL);
+                for (Varargs e = entries.next(NIL); !e.arg1().isnil(); e = entries.next(e.arg1()))
+                    t.rawset(e.arg1(), e.arg(2));
+                t.setmetatable(s.getValue().metatable());
+            }
+        }
+    }
+
+    /**
+     * Copies values from one {@link Globals} to another, following the rules in {@link ParallelLib}.
+     * <p>
+     * The source graph must not be modified while it is copied,
+     * which holds since the caller waits for all tasks to complete.
+     */
+    static final class Copier {
+        private final Globals from, to;
+        private final Map<LuaValue, LuaValue> seen = new IdentityHashMap<>();
+        private Map<LuaValue, LuaValue> libraries;
+
+        Copier(Globals from, Globals to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        LuaValue copy(LuaValue v) {
+            switch (v.type()) {
+                case TNIL:
+                case TBOOLEAN:
+                case TNUMBER:
+                case TSTRING:
+                    return v;
+                case TTABLE:
+                    return v == from ? to : table((LuaTable) v);
+                case TFUNCTION:
+                    return v instanceof LuaClosure ? closure((LuaClosure) v) : library(v);
+                default:
+                    if (v instanceof SharedTable)
+                        return v;
+                    throw new LuaError("parallel: cannot pass a " + v.typename() + " to another worker");
+            }
+        }
+
+        private LuaValue table(LuaTable t) {
+            LuaValue c = seen.get(t);
+            if (c != null)
+                return c;
+            if (t.getmetatable() != null)
+                throw new LuaError("parallel: cannot pass a table with a metatable to another worker");
+            LuaTable u = new LuaTable(t.rawlen(), 0);
+            seen.put(t, u);
+            for (Varargs e = t.next(NIL); !e.arg1().isnil(); e = t.next(e.arg1()))
+                u.rawset(copy(e.arg1()), copy(e.arg(2)));
+            return u;
+        }
+
+        private LuaValue closure(LuaClosure f) {
+            LuaValue c = seen.get(f);
+            if (c != null)
+                return c;
+            LuaClosure g = new LuaClosure(f.p, to);
+            seen.put(f, g);
+            for (int i = 0; i < f.upValues.length; i++) {
+                UpValue u = f.upValues[i];
+                LuaValue v = u != null ? u.getValue() : NIL;
+                g.upValues[i] = new UpValue(new LuaValue[] {copy(v)}, 0);
+            }
+            return g;
+        }
+
+        private LuaValue library(LuaValue f) {
+            if (libraries == null)
+                libraries = libraries();
+            LuaValue g = libraries.get(f);
+            if (g == null)
+                throw new LuaError("parallel: cannot pass " + f.tojstring() + " to another worker");
+            return g;
+        }
+
+        /* functions in the source globals and loaded library tables, by the function of the same name in the target */
+        private Map<LuaValue, LuaValue> libraries() {
+            Map<LuaValue, LuaValue> m = new IdentityHashMap<>();
+            for (Varargs e = from.next(NIL); !e.arg1().isnil(); e = from.next(e.arg1())) {
+                LuaValue k = e.arg1(), v = e.arg(2), w = to.rawget(k);
+                if (v.isfunction() && w.isfunction()) {
+                    m.put(v, w);
+                } else if (v.istable() && w.istable() && v != from) {
+                    for (Varargs f = v.next(NIL); !f.arg1().isnil(); f = v.next(f.arg1())) {
+                        LuaValue x = w.rawget(f.arg1());
+                        if (f.arg(2).isfunction() && x.isfunction())
+                            m.put(f.arg(2), x);
+                    }
+                }
+            }
+            return m;
+        }
+    }
+}
@@ -26,7 +26,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.bcel.Constants;
+import org.apache.bcel.Const;
 import org.apache.bcel.generic.AASTORE;
 import org.apache.bcel.generic.ALOAD;
 import org.apache.bcel.generic.ANEWARRAY;
@@ -41,7 +41,7 @@ import org.apache.bcel.generic.GOTO;
 import org.apache.bcel.generic.IFEQ;
 import org.apache.bcel.generic.IFNE;
 import org.apache.bcel.generic.Instruction;
-import org.apache.bcel.generic.InstructionConstants;
+import org.apache.bcel.generic.InstructionConst;
 import org.apache.bcel.generic.InstructionFactory;
 import org.apache.bcel.generic.InstructionHandle;
 import org.apache.bcel.generic.InstructionList;
@@ -51,6 +51,7 @@ import org.apache.bcel.generic.ObjectType;
 import org.apache.bcel.generic.PUSH;
 import org.apache.bcel.generic.Type;
 import org.luaj.vm2.Buffer;
+import org.luaj.vm2.ConstantTable;
 import org.luaj.vm2.Lua;
 import org.luaj.vm2.LuaBoolean;
 import org.luaj.vm2.LuaInteger;
@@ -76,6 +77,7 @@ public class JavaBuilder {
 	private static final String STR_LUABOOLEAN = LuaBoolean.class.getName();
 	private static final String STR_LUATABLE = LuaTable.class.getName();
 	private static final String STR_BUFFER = Buffer.class.getName();
+	private static final String STR_CONSTANTTABLE = ConstantTable.class.getName();
 	private static final String STR_STRING = String.class.getName();
 	private static final String STR_JSEPLATFORM = "org.luaj.vm2.lib.jse.JsePlatform";
 
@@ -111,6 +113,7 @@ public class JavaBuilder {
 	private static final Type[] ARG_TYPES_LUAVALUE_VARARGS = { TYPE_LUAVALUE, TYPE_VARARGS };
 	private static final Type[] ARG_TYPES_LUAVALUE_LUAVALUE_VARARGS = { TYPE_LUAVALUE, TYPE_LUAVALUE, TYPE_VARARGS };
 	private static final Type[] ARG_TYPES_LUAVALUEARRAY = { new ArrayType( TYPE_LUAVALUE, 1 ) };
+	private static final Type[] ARG_TYPES_LUAVALUEARRAY_3 = { new ArrayType( TYPE_LUAVALUE, 1 ), new ArrayType( TYPE_LUAVALUE, 1 ), new ArrayType( TYPE_LUAVALUE, 1 ) };
 	private static final Type[] ARG_TYPES_LUAVALUEARRAY_VARARGS = { new ArrayType( TYPE_LUAVALUE, 1 ), TYPE_VARARGS };
 	private static final Type[] ARG_TYPES_LUAVALUE_LUAVALUE_LUAVALUE = { TYPE_LUAVALUE, TYPE_LUAVALUE, TYPE_LUAVALUE };
 	private static final Type[] ARG_TYPES_VARARGS = { TYPE_VARARGS };
@@ -188,7 +191,7 @@ public class JavaBuilder {
 		
 		// create class generator
 		cg = new ClassGen(classname, SUPER_NAME_N[superclassType], filename,
-				Constants.ACC_PUBLIC | Constants.ACC_SUPER, null);
+				Const.ACC_PUBLIC | Const.ACC_SUPER, null);
 		cp = cg.getConstantPool(); // cg creates constant pool
 
 		// main instruction lists
@@ -205,7 +208,7 @@ public class JavaBuilder {
 		}
 		
 		// create the method
-		mg = new MethodGen( Constants.ACC_PUBLIC | Constants.ACC_FINAL, // access flags
+		mg = new MethodGen( Const.ACC_PUBLIC | Const.ACC_FINAL, // access flags
 				RETURN_TYPE_N[superclassType], // return type
 				ARG_TYPES_N[superclassType], // argument types
 				ARG_NAMES_N[superclassType], // arg names
@@ -232,13 +235,13 @@ public class JavaBuilder {
 				if ( pi.isInitialValueUsed(slot) ) {
 					append(new ALOAD(1));
 					append(new PUSH(cp, slot+1));
-					append(factory.createInvoke(STR_VARARGS, "arg", TYPE_LUAVALUE, ARG_TYPES_INT, Constants.INVOKEVIRTUAL));
+					append(factory.createInvoke(STR_VARARGS, "arg", TYPE_LUAVALUE, ARG_TYPES_INT, Const.INVOKEVIRTUAL));
 					storeLocal(-1, slot);
 				}
 			}
 			append(new ALOAD(1));
 			append(new PUSH(cp, 1 + p.numparams));
-			append(factory.createInvoke(STR_VARARGS, "subargs", TYPE_VARARGS, ARG_TYPES_INT, Constants.INVOKEVIRTUAL));
+			append(factory.createInvoke(STR_VARARGS, "subargs", TYPE_VARARGS, ARG_TYPES_INT, Const.INVOKEVIRTUAL));
 			append(new ASTORE(1));
 		} else {
 			// fixed arg function between 0 and 3 arguments
@@ -265,17 +268,17 @@ public class JavaBuilder {
 
 		// add class initializer 
 		if ( ! init.isEmpty() ) {
-			MethodGen mg = new MethodGen(Constants.ACC_STATIC, Type.VOID,
+			MethodGen mg = new MethodGen(Const.ACC_STATIC, Type.VOID,
 					ARG_TYPES_NONE, new String[] {}, "<clinit>", 
 					cg.getClassName(), init, cg.getConstantPool());
-			init.append(InstructionConstants.RETURN);
+			init.append(InstructionConst.RETURN);
 			mg.setMaxStack();
 			cg.addMethod(mg.getMethod());
 			init.dispose();
 		}
 
 		// add default constructor
-		cg.addEmptyConstructor(Constants.ACC_PUBLIC);
+		cg.addEmptyConstructor(Const.ACC_PUBLIC);
 		
 		// gen method
 		resolveBranches();
@@ -285,7 +288,7 @@ public class JavaBuilder {
 
 		// add initupvalue1(LuaValue env) to initialize environment for main chunk 
 		if (p.upvalues.length == 1 && superclassType == SUPERTYPE_VARARGS) {
-			MethodGen mg = new MethodGen( Constants.ACC_PUBLIC | Constants.ACC_FINAL, // access flags
+			MethodGen mg = new MethodGen( Const.ACC_PUBLIC | Const.ACC_FINAL, // access flags
 					Type.VOID, // return type
 					ARG_TYPES_LUAVALUE, // argument types
 					new String[] { "env" }, // arg names
@@ -293,15 +296,15 @@ public class JavaBuilder {
 					STR_LUAVALUE, // method, defining class
 					main, cp);
 			boolean isrw = pi.isReadWriteUpvalue( pi.upvals[0] ); 
-			append(InstructionConstants.THIS);
+			append(InstructionConst.THIS);
 			append(new ALOAD(1));
 			if ( isrw ) {
-				append(factory.createInvoke(classname, "newupl", TYPE_LOCALUPVALUE,  ARG_TYPES_LUAVALUE, Constants.INVOKESTATIC));
-				append(factory.createFieldAccess(classname, upvalueName(0), TYPE_LOCALUPVALUE, Constants.PUTFIELD));
+				append(factory.createInvoke(classname, "newupl", TYPE_LOCALUPVALUE,  ARG_TYPES_LUAVALUE, Const.INVOKESTATIC));
+				append(factory.createFieldAccess(classname, upvalueName(0), TYPE_LOCALUPVALUE, Const.PUTFIELD));
 			} else {
-				append(factory.createFieldAccess(classname, upvalueName(0), TYPE_LUAVALUE, Constants.PUTFIELD));
+				append(factory.createFieldAccess(classname, upvalueName(0), TYPE_LUAVALUE, Const.PUTFIELD));
 			}
-			append(InstructionConstants.RETURN);
+			append(InstructionConst.RETURN);
 			mg.setMaxStack();
 			cg.addMethod(mg.getMethod());
 			main.dispose();
@@ -309,7 +312,7 @@ public class JavaBuilder {
 		
 		// add main function so class is invokable from the java command line 
 		if (genmain) {
-			MethodGen mg = new MethodGen( Constants.ACC_PUBLIC | Constants.ACC_STATIC, // access flags
+			MethodGen mg = new MethodGen( Const.ACC_PUBLIC | Const.ACC_STATIC, // access flags
 					Type.VOID, // return type
 					ARG_TYPES_STRINGARRAY, // argument types
 					new String[] { "arg" }, // arg names
@@ -317,11 +320,11 @@ public class JavaBuilder {
 					classname, // method, defining class
 					main, cp);
 			append(factory.createNew(classname));
-			append(InstructionConstants.DUP);
-            append(factory.createInvoke(classname, Constants.CONSTRUCTOR_NAME, Type.VOID, ARG_TYPES_NONE, Constants.INVOKESPECIAL));
+			append(InstructionConst.DUP);
+            append(factory.createInvoke(classname, Const.CONSTRUCTOR_NAME, Type.VOID, ARG_TYPES_NONE, Const.INVOKESPECIAL));
 			append(new ALOAD(0));
-			append(factory.createInvoke(STR_JSEPLATFORM, "luaMain", Type.VOID,  ARG_TYPES_LUAVALUE_STRINGARRAY, Constants.INVOKESTATIC));
-			append(InstructionConstants.RETURN);
+			append(factory.createInvoke(STR_JSEPLATFORM, "luaMain", Type.VOID,  ARG_TYPES_LUAVALUE_STRINGARRAY, Const.INVOKESTATIC));
+			append(InstructionConst.RETURN);
 			mg.setMaxStack();
 			cg.addMethod(mg.getMethod());
 			main.dispose();
@@ -339,24 +342,24 @@ public class JavaBuilder {
 	}
 
 	public void dup() {
-		append(InstructionConstants.DUP);
+		append(InstructionConst.DUP);
 	}
 
 	public void pop() {
-		append(InstructionConstants.POP);
+		append(InstructionConst.POP);
 	}
 
 	public void loadNil() {
-		append(factory.createFieldAccess(STR_LUAVALUE, "NIL", TYPE_LUAVALUE, Constants.GETSTATIC));
+		append(factory.createFieldAccess(STR_LUAVALUE, "NIL", TYPE_LUAVALUE, Const.GETSTATIC));
 	}
 	
 	public void loadNone() {
-		append(factory.createFieldAccess(STR_LUAVALUE, "NONE", TYPE_LUAVALUE, Constants.GETSTATIC));
+		append(factory.createFieldAccess(STR_LUAVALUE, "NONE", TYPE_LUAVALUE, Const.GETSTATIC));
 	}
 
 	public void loadBoolean(boolean b) {
 		String field = (b? "TRUE": "FALSE");
-		append(factory.createFieldAccess(STR_LUAVALUE, field, TYPE_LUABOOLEAN, Constants.GETSTATIC));
+		append(factory.createFieldAccess(STR_LUAVALUE, field, TYPE_LUABOOLEAN, Const.GETSTATIC));
 	}
 	
 	private Map<Integer,Integer> plainSlotVars = new HashMap<Integer,Integer>();
@@ -385,7 +388,7 @@ public class JavaBuilder {
 		append(new ALOAD(index));
 		if (isupval) {
 			append(new PUSH(cp, 0));
-			append(InstructionConstants.AALOAD);
+			append(InstructionConst.AALOAD);
 		}
 	}
 
@@ -395,16 +398,16 @@ public class JavaBuilder {
 		if (isupval) {
 			boolean isupcreate = pi.isUpvalueCreate(pc, slot);
 			if ( isupcreate ) {
-				append(factory.createInvoke(classname, "newupe", TYPE_LOCALUPVALUE, ARG_TYPES_NONE, Constants.INVOKESTATIC));
-				append(InstructionConstants.DUP);
+				append(factory.createInvoke(classname, "newupe", TYPE_LOCALUPVALUE, ARG_TYPES_NONE, Const.INVOKESTATIC));
+				append(InstructionConst.DUP);
 				append(new ASTORE(index));
 			} else {
 				append(new ALOAD(index));
 			}
-			append(InstructionConstants.SWAP);
+			append(InstructionConst.SWAP);
 			append(new PUSH(cp, 0));
-			append(InstructionConstants.SWAP);
-			append(InstructionConstants.AASTORE);
+			append(InstructionConst.SWAP);
+			append(InstructionConst.AASTORE);
 		} else {
 			append(new ASTORE(index));
 		}
@@ -416,7 +419,7 @@ public class JavaBuilder {
 			boolean isupcreate = pi.isUpvalueCreate(pc, slot);
 			if ( isupcreate ) {
 				int index = findSlotIndex( slot, true );
-				append(factory.createInvoke(classname, "newupn", TYPE_LOCALUPVALUE, ARG_TYPES_NONE, Constants.INVOKESTATIC));
+				append(factory.createInvoke(classname, "newupn", TYPE_LOCALUPVALUE, ARG_TYPES_NONE, Const.INVOKESTATIC));
 				append(new ASTORE(index));
 			}
 		}
@@ -427,7 +430,7 @@ public class JavaBuilder {
 		if ( isupassign ) {
 			int index = findSlotIndex( slot, false );
 			append(new ALOAD(index));
-			append(factory.createInvoke(classname, "newupl", TYPE_LOCALUPVALUE,  ARG_TYPES_LUAVALUE, Constants.INVOKESTATIC));
+			append(factory.createInvoke(classname, "newupl", TYPE_LOCALUPVALUE,  ARG_TYPES_LUAVALUE, Const.INVOKESTATIC));
 			int upindex = findSlotIndex( slot, true );
 			append(new ASTORE(upindex));
 		}
@@ -439,27 +442,27 @@ public class JavaBuilder {
 	
 	public void loadUpvalue(int upindex) {
 		boolean isrw = pi.isReadWriteUpvalue( pi.upvals[upindex] ); 
-		append(InstructionConstants.THIS);
+		append(InstructionConst.THIS);
 		if ( isrw ) {
-			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LOCALUPVALUE, Constants.GETFIELD));
+			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LOCALUPVALUE, Const.GETFIELD));
 			append(new PUSH(cp,0));
-			append(InstructionConstants.AALOAD);
+			append(InstructionConst.AALOAD);
 		} else {
-			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUE, Constants.GETFIELD));
+			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUE, Const.GETFIELD));
 		}
 	}
 
 	public void storeUpvalue(int pc, int upindex, int slot) {
 		boolean isrw = pi.isReadWriteUpvalue( pi.upvals[upindex] ); 
-		append(InstructionConstants.THIS);
+		append(InstructionConst.THIS);
 		if ( isrw ) {
-			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LOCALUPVALUE, Constants.GETFIELD));
+			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LOCALUPVALUE, Const.GETFIELD));
 			append(new PUSH(cp,0));
 			loadLocal(pc, slot);
-			append(InstructionConstants.AASTORE);
+			append(InstructionConst.AASTORE);
 		} else {
 			loadLocal(pc, slot);
-			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUE, Constants.PUTFIELD));
+			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUE, Const.PUTFIELD));
 		}
 	}
 
@@ -467,7 +470,7 @@ public class JavaBuilder {
 	public void newTable( int b, int c ) {
 		append(new PUSH(cp, b));
 		append(new PUSH(cp, c));
-		append(factory.createInvoke(STR_LUAVALUE, "tableOf", TYPE_LUATABLE, ARG_TYPES_INT_INT, Constants.INVOKESTATIC));
+		append(factory.createInvoke(STR_LUAVALUE, "tableOf", TYPE_LUATABLE, ARG_TYPES_INT_INT, Const.INVOKESTATIC));
 	}
 
 	public void loadVarargs() {
@@ -481,10 +484,10 @@ public class JavaBuilder {
 
 	public void arg(int argindex) {
 		if ( argindex == 1 ) {
-			append(factory.createInvoke(STR_VARARGS, "arg1", TYPE_LUAVALUE, ARG_TYPES_NONE, Constants.INVOKEVIRTUAL));
+			append(factory.createInvoke(STR_VARARGS, "arg1", TYPE_LUAVALUE, ARG_TYPES_NONE, Const.INVOKEVIRTUAL));
 		} else {
 			append(new PUSH(cp, argindex));
-			append(factory.createInvoke(STR_VARARGS, "arg", TYPE_LUAVALUE, ARG_TYPES_INT, Constants.INVOKEVIRTUAL));
+			append(factory.createInvoke(STR_VARARGS, "arg", TYPE_LUAVALUE, ARG_TYPES_INT, Const.INVOKEVIRTUAL));
 		}
 	}
 
@@ -504,15 +507,15 @@ public class JavaBuilder {
 
 	public void subargs(int firstarg) {
 		append(new PUSH(cp, firstarg));
-		append(factory.createInvoke(STR_VARARGS, "subargs", TYPE_VARARGS, ARG_TYPES_INT, Constants.INVOKEVIRTUAL));
+		append(factory.createInvoke(STR_VARARGS, "subargs", TYPE_VARARGS, ARG_TYPES_INT, Const.INVOKEVIRTUAL));
 	}
 	
 	public void getTable() {
-        append(factory.createInvoke(STR_LUAVALUE, "get", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "get", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Const.INVOKEVIRTUAL));
 	}
 	
 	public void setTable() {
-        append(factory.createInvoke(STR_LUAVALUE, "set", Type.VOID, ARG_TYPES_LUAVALUE_LUAVALUE, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "set", Type.VOID, ARG_TYPES_LUAVALUE_LUAVALUE, Const.INVOKEVIRTUAL));
 	}
 
 	public void unaryop(int o) {
@@ -523,7 +526,7 @@ public class JavaBuilder {
 			case Lua.OP_NOT: op = "not"; break;
 			case Lua.OP_LEN: op = "len"; break;
 		}
-        append(factory.createInvoke(STR_LUAVALUE, op, TYPE_LUAVALUE, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, op, TYPE_LUAVALUE, Type.NO_ARGS, Const.INVOKEVIRTUAL));
 	}
 	
 	public void binaryop(int o) {
@@ -537,7 +540,7 @@ public class JavaBuilder {
 			case Lua.OP_MOD: op = "mod"; break;
 			case Lua.OP_POW: op = "pow"; break;
 		}
-        append(factory.createInvoke(STR_LUAVALUE, op, TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, op, TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Const.INVOKEVIRTUAL));
 	}
 
 	public void compareop(int o) {
@@ -548,34 +551,34 @@ public class JavaBuilder {
 			case Lua.OP_LT: op = "lt_b"; break;
 			case Lua.OP_LE: op = "lteq_b"; break;
 		}
-        append(factory.createInvoke(STR_LUAVALUE, op, Type.BOOLEAN, ARG_TYPES_LUAVALUE, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, op, Type.BOOLEAN, ARG_TYPES_LUAVALUE, Const.INVOKEVIRTUAL));
 	}
 
 	public void areturn() {
-		append(InstructionConstants.ARETURN);
+		append(InstructionConst.ARETURN);
 	}
 	
 	public void toBoolean() {
-        append(factory.createInvoke(STR_LUAVALUE, "toboolean", Type.BOOLEAN, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "toboolean", Type.BOOLEAN, Type.NO_ARGS, Const.INVOKEVIRTUAL));
 	}
 
 	public void tostring() {
-        append(factory.createInvoke(STR_BUFFER, "tostring", TYPE_LUASTRING, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_BUFFER, "tostring", TYPE_LUASTRING, Type.NO_ARGS, Const.INVOKEVIRTUAL));
 	}
 
 	public void isNil() {
-        append(factory.createInvoke(STR_LUAVALUE, "isnil", Type.BOOLEAN, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "isnil", Type.BOOLEAN, Type.NO_ARGS, Const.INVOKEVIRTUAL));
 	}
 
 	public void testForLoop() {
-		append(factory.createInvoke(STR_LUAVALUE, "testfor_b", Type.BOOLEAN, ARG_TYPES_LUAVALUE_LUAVALUE, Constants.INVOKEVIRTUAL));
+		append(factory.createInvoke(STR_LUAVALUE, "testfor_b", Type.BOOLEAN, ARG_TYPES_LUAVALUE_LUAVALUE, Const.INVOKEVIRTUAL));
 	}
 
 	public void loadArrayArgs(int pc, int firstslot, int nargs) {
 		append(new PUSH(cp, nargs));
 		append(new ANEWARRAY(cp.addClass(STR_LUAVALUE)));
 		for ( int i=0; i<nargs; i++ ) {
-			append(InstructionConstants.DUP);
+			append(InstructionConst.DUP);
 			append(new PUSH(cp, i));
 			loadLocal(pc, firstslot++);
 			append(new AASTORE());
@@ -589,14 +592,14 @@ public class JavaBuilder {
 		case 1: loadLocal(pc, firstslot); 
 			break;
 		case 2: loadLocal(pc, firstslot); loadLocal(pc, firstslot+1); 
-			append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUE_VARARGS, Constants.INVOKESTATIC));
+			append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUE_VARARGS, Const.INVOKESTATIC));
 			break;
 		case 3: loadLocal(pc, firstslot); loadLocal(pc, firstslot+1); loadLocal(pc, firstslot+2); 
-			append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUE_LUAVALUE_VARARGS, Constants.INVOKESTATIC));
+			append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUE_LUAVALUE_VARARGS, Const.INVOKESTATIC));
 			break;
 		default:
 			loadArrayArgs(pc, firstslot, nargs);
-			append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUEARRAY, Constants.INVOKESTATIC));
+			append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUEARRAY, Const.INVOKESTATIC));
 			break;
 		}
 	}
@@ -604,30 +607,30 @@ public class JavaBuilder {
 	public void newVarargsVarresult(int pc, int firstslot, int nslots) {
 		loadArrayArgs(pc, firstslot, nslots );
 		loadVarresult();
-		append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUEARRAY_VARARGS, Constants.INVOKESTATIC));
+		append(factory.createInvoke(STR_LUAVALUE, "varargsOf", TYPE_VARARGS, ARG_TYPES_LUAVALUEARRAY_VARARGS, Const.INVOKESTATIC));
 	}
 	
 	public void call(int nargs) {
 		switch ( nargs ) {
-		case 0: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_NONE, Constants.INVOKEVIRTUAL)); break;
-		case 1: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Constants.INVOKEVIRTUAL)); break;
-		case 2: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE_LUAVALUE, Constants.INVOKEVIRTUAL)); break;
-		case 3: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE_LUAVALUE_LUAVALUE, Constants.INVOKEVIRTUAL)); break;
+		case 0: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_NONE, Const.INVOKEVIRTUAL)); break;
+		case 1: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Const.INVOKEVIRTUAL)); break;
+		case 2: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE_LUAVALUE, Const.INVOKEVIRTUAL)); break;
+		case 3: append(factory.createInvoke(STR_LUAVALUE, "call", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE_LUAVALUE_LUAVALUE, Const.INVOKEVIRTUAL)); break;
 		default: throw new IllegalArgumentException("can't call with "+nargs+" args");
 		}
 	}
 
 	public void newTailcallVarargs() {
-		append(factory.createInvoke(STR_LUAVALUE, "tailcallOf", TYPE_VARARGS, ARG_TYPES_LUAVALUE_VARARGS, Constants.INVOKESTATIC));
+		append(factory.createInvoke(STR_LUAVALUE, "tailcallOf", TYPE_VARARGS, ARG_TYPES_LUAVALUE_VARARGS, Const.INVOKESTATIC));
 	}
 	
 	public void invoke(int nargs) {
 		switch ( nargs ) {
-		case -1: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_VARARGS, Constants.INVOKEVIRTUAL)); break;
-		case 0: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_NONE, Constants.INVOKEVIRTUAL)); break;
-		case 1: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_VARARGS, Constants.INVOKEVIRTUAL)); break;
-		case 2: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_LUAVALUE_VARARGS, Constants.INVOKEVIRTUAL)); break;
-		case 3: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_LUAVALUE_LUAVALUE_VARARGS, Constants.INVOKEVIRTUAL)); break;
+		case -1: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_VARARGS, Const.INVOKEVIRTUAL)); break;
+		case 0: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_NONE, Const.INVOKEVIRTUAL)); break;
+		case 1: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_VARARGS, Const.INVOKEVIRTUAL)); break;
+		case 2: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_LUAVALUE_VARARGS, Const.INVOKEVIRTUAL)); break;
+		case 3: append(factory.createInvoke(STR_LUAVALUE, "invoke", TYPE_VARARGS, ARG_TYPES_LUAVALUE_LUAVALUE_VARARGS, Const.INVOKEVIRTUAL)); break;
 		default: throw new IllegalArgumentException("can't invoke with "+nargs+" args");
 		}
 	}
@@ -637,8 +640,8 @@ public class JavaBuilder {
 	
 	public void closureCreate(String protoname) {
 		append(factory.createNew(new ObjectType(protoname)));
-		append(InstructionConstants.DUP);
-		append(factory.createInvoke(protoname, "<init>", Type.VOID, Type.NO_ARGS, Constants.INVOKESPECIAL));
+		append(InstructionConst.DUP);
+		append(factory.createInvoke(protoname, "<init>", Type.VOID, Type.NO_ARGS, Const.INVOKESPECIAL));
 	}
 
 	public void closureInitUpvalueFromUpvalue(String protoname, int newup, int upindex) {
@@ -646,9 +649,9 @@ public class JavaBuilder {
 		Type uptype = isrw? (Type) TYPE_LOCALUPVALUE: (Type) TYPE_LUAVALUE;
 		String srcname = upvalueName(upindex);
 		String destname = upvalueName(newup);
-		append(InstructionConstants.THIS);
-		append(factory.createFieldAccess(classname, srcname, uptype, Constants.GETFIELD));
-		append(factory.createFieldAccess(protoname, destname, uptype, Constants.PUTFIELD));
+		append(InstructionConst.THIS);
+		append(factory.createFieldAccess(classname, srcname, uptype, Const.GETFIELD));
+		append(factory.createFieldAccess(protoname, destname, uptype, Const.PUTFIELD));
 	}
 
 	public void closureInitUpvalueFromLocal(String protoname, int newup, int pc, int srcslot) {
@@ -657,7 +660,7 @@ public class JavaBuilder {
 		String destname = upvalueName(newup);
 		int index = findSlotIndex( srcslot, isrw );
 		append(new ALOAD(index));
-		append(factory.createFieldAccess(protoname, destname, uptype, Constants.PUTFIELD));
+		append(factory.createFieldAccess(protoname, destname, uptype, Const.PUTFIELD));
 	}
 	
 	private Map<LuaValue,String> constants = new HashMap<LuaValue,String>();
@@ -670,58 +673,108 @@ public class JavaBuilder {
 		case LuaValue.TBOOLEAN:
 			loadBoolean( value.toboolean() );
 			break;
-		case LuaValue.TNUMBER:
-		case LuaValue.TSTRING:
-			String name = (String) constants.get(value);
-			if ( name == null ) {
-				name = value.type() == LuaValue.TNUMBER? 
-						value.isinttype()? 
-							createLuaIntegerField(value.checkint()):
-							createLuaDoubleField(value.checkdouble()):
-						createLuaStringField(value.checkstring());
-				constants.put(value, name);
-			}
-			append(factory.createGetStatic(classname, name, TYPE_LUAVALUE));
-			break;
 		default:
-			throw new IllegalArgumentException("bad constant type: "+value.type());
+			append(factory.createGetStatic(classname, constantField(value), TYPE_LUAVALUE));
+			break;
+		}
+	}
+
+	private String constantField(LuaValue value) {
+		String name = (String) constants.get(value);
+		if ( name == null ) {
+			if ( value instanceof ConstantTable )
+				return createConstantTableField((ConstantTable) value);
+			switch ( value.type() ) {
+			case LuaValue.TNUMBER:
+				name = value.isinttype()? 
+						createLuaIntegerField(value.checkint()):
+						createLuaDoubleField(value.checkdouble());
+				break;
+			case LuaValue.TSTRING:
+				name = createLuaStringField(value.checkstring());
+				break;
+			default:
+				throw new IllegalArgumentException("bad constant type: "+value.type());
+			}
+			constants.put(value, name);
+		}
+		return name;
+	}
+
+	private String createConstantTableField(ConstantTable value) {
+		String name = PREFIX_CONSTANT+constants.size();
+		FieldGen fg = new FieldGen(Const.ACC_STATIC | Const.ACC_FINAL, 
+				TYPE_LUAVALUE, name, cp);
+		cg.addField(fg.getField());
+		constants.put(value, name);
+		init.append(factory.createNew(STR_CONSTANTTABLE));
+		init.append(InstructionConst.DUP);
+		initConstantArray(value.array);
+		initConstantArray(value.keys);
+		initConstantArray(value.values);
+		init.append(factory.createInvoke(STR_CONSTANTTABLE, "<init>",
+				Type.VOID, ARG_TYPES_LUAVALUEARRAY_3, Const.INVOKESPECIAL));
+		init.append(factory.createPutStatic(classname, name, TYPE_LUAVALUE));
+		return name;
+	}
+
+	/* push a new array of the items of a constant table in the static initializer */
+	private void initConstantArray(LuaValue[] values) {
+		init.append(new PUSH(cp, values.length));
+		init.append(new ANEWARRAY(cp.addClass(STR_LUAVALUE)));
+		for ( int i=0; i<values.length; i++ ) {
+			LuaValue value = values[i];
+			init.append(InstructionConst.DUP);
+			init.append(new PUSH(cp, i));
+			switch ( value.type() ) {
+			case LuaValue.TNIL:
+				init.append(factory.createFieldAccess(STR_LUAVALUE, "NIL", TYPE_LUAVALUE, Const.GETSTATIC));
+				break;
+			case LuaValue.TBOOLEAN:
+				init.append(factory.createFieldAccess(STR_LUAVALUE, value.toboolean()? "TRUE": "FALSE", TYPE_LUABOOLEAN, Const.GETSTATIC));
+				break;
+			default:
+				init.append(factory.createGetStatic(classname, constantField(value), TYPE_LUAVALUE));
+				break;
+			}
+			init.append(InstructionConst.AASTORE);
 		}
 	}
 
 	private String createLuaIntegerField(int value) {
 		String name = PREFIX_CONSTANT+constants.size();
-		FieldGen fg = new FieldGen(Constants.ACC_STATIC | Constants.ACC_FINAL, 
+		FieldGen fg = new FieldGen(Const.ACC_STATIC | Const.ACC_FINAL, 
 				TYPE_LUAVALUE, name, cp);
 		cg.addField(fg.getField());
 		init.append(new PUSH(cp, value));
 		init.append(factory.createInvoke(STR_LUAVALUE, "valueOf",
-				TYPE_LUAINTEGER, ARG_TYPES_INT, Constants.INVOKESTATIC));
+				TYPE_LUAINTEGER, ARG_TYPES_INT, Const.INVOKESTATIC));
 		init.append(factory.createPutStatic(classname, name, TYPE_LUAVALUE));
 		return name;
 	}
 	
 	private String createLuaDoubleField(double value) {
 		String name = PREFIX_CONSTANT+constants.size();
-		FieldGen fg = new FieldGen(Constants.ACC_STATIC | Constants.ACC_FINAL, 
+		FieldGen fg = new FieldGen(Const.ACC_STATIC | Const.ACC_FINAL, 
 				TYPE_LUAVALUE, name, cp);
 		cg.addField(fg.getField());
 		init.append(new PUSH(cp, value));
 		init.append(factory.createInvoke(STR_LUAVALUE, "valueOf",
-				TYPE_LUANUMBER, ARG_TYPES_DOUBLE, Constants.INVOKESTATIC));
+				TYPE_LUANUMBER, ARG_TYPES_DOUBLE, Const.INVOKESTATIC));
 		init.append(factory.createPutStatic(classname, name, TYPE_LUAVALUE));			
 		return name;
 	}
 
 	private String createLuaStringField(LuaString value) {
 		String name = PREFIX_CONSTANT+constants.size();
-		FieldGen fg = new FieldGen(Constants.ACC_STATIC | Constants.ACC_FINAL, 
+		FieldGen fg = new FieldGen(Const.ACC_STATIC | Const.ACC_FINAL, 
 				TYPE_LUAVALUE, name, cp);
 		cg.addField(fg.getField());
 		LuaString ls = value.checkstring();
 		if ( ls.isValidUtf8() ) {
 			init.append(new PUSH(cp, value.tojstring()));
 			init.append(factory.createInvoke(STR_LUASTRING, "valueOf",
-					TYPE_LUASTRING, ARG_TYPES_STRING, Constants.INVOKESTATIC));
+					TYPE_LUASTRING, ARG_TYPES_STRING, Const.INVOKESTATIC));
 		} else {
 			char[] c = new char[ls.m_length];
 			for ( int j=0; j<ls.m_length; j++ ) 
@@ -729,10 +782,10 @@ public class JavaBuilder {
 			init.append(new PUSH(cp, new String(c)));
 			init.append(factory.createInvoke(STR_STRING, "toCharArray",
 					TYPE_CHARARRAY, Type.NO_ARGS,
-					Constants.INVOKEVIRTUAL));
+					Const.INVOKEVIRTUAL));
 			init.append(factory.createInvoke(STR_LUASTRING, "valueOf",
 					TYPE_LUASTRING, ARG_TYPES_CHARARRAY,
-					Constants.INVOKESTATIC));
+					Const.INVOKESTATIC));
 		}
 		init.append(factory.createPutStatic(classname, name, TYPE_LUAVALUE));			
 		return name;
@@ -811,42 +864,42 @@ public class JavaBuilder {
 			dup();
 			append(new PUSH(cp, index0+i));
 			loadLocal( pc, a0+i );
-	        append(factory.createInvoke(STR_LUAVALUE, "rawset", Type.VOID, ARG_TYPES_INT_LUAVALUE, Constants.INVOKEVIRTUAL));
+	        append(factory.createInvoke(STR_LUAVALUE, "rawset", Type.VOID, ARG_TYPES_INT_LUAVALUE, Const.INVOKEVIRTUAL));
     	}
 	}
 
 	public void setlistVarargs(int index0, int vresultbase) {
 		append(new PUSH(cp, index0));
 		loadVarresult();
-		append(factory.createInvoke(STR_LUAVALUE, "rawsetlist", Type.VOID, ARG_TYPES_INT_VARARGS, Constants.INVOKEVIRTUAL));
+		append(factory.createInvoke(STR_LUAVALUE, "rawsetlist", Type.VOID, ARG_TYPES_INT_VARARGS, Const.INVOKEVIRTUAL));
 	}
 
 	public void concatvalue() {
-        append(factory.createInvoke(STR_LUAVALUE, "concat", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "concat", TYPE_LUAVALUE, ARG_TYPES_LUAVALUE, Const.INVOKEVIRTUAL));
 	}
 	
 	public void concatbuffer() {
-        append(factory.createInvoke(STR_LUAVALUE, "concat", TYPE_BUFFER, ARG_TYPES_BUFFER, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "concat", TYPE_BUFFER, ARG_TYPES_BUFFER, Const.INVOKEVIRTUAL));
 	}
 
 	public void tobuffer() {
-        append(factory.createInvoke(STR_LUAVALUE, "buffer", TYPE_BUFFER, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_LUAVALUE, "buffer", TYPE_BUFFER, Type.NO_ARGS, Const.INVOKEVIRTUAL));
 	}
 
 	public void tovalue() {
-        append(factory.createInvoke(STR_BUFFER, "value", TYPE_LUAVALUE, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+        append(factory.createInvoke(STR_BUFFER, "value", TYPE_LUAVALUE, Type.NO_ARGS, Const.INVOKEVIRTUAL));
 	}
 
 	public void closeUpvalue(int pc, int upindex) {
 		// TODO: assign the upvalue location the value null;
 		/*
 		boolean isrw = pi.isReadWriteUpvalue( pi.upvals[upindex] ); 
-		append(InstructionConstants.THIS);
-		append(InstructionConstants.ACONST_NULL);
+		append(InstructionConst.THIS);
+		append(InstructionConst.ACONST_NULL);
 		if ( isrw ) {
-			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUEARRAY, Constants.PUTFIELD));
+			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUEARRAY, Const.PUTFIELD));
 		} else {
-			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUE, Constants.PUTFIELD));
+			append(factory.createFieldAccess(classname, upvalueName(upindex), TYPE_LUAVALUE, Const.PUTFIELD));
 		}
 		*/
 	}
@@ -34,6 +34,7 @@ public class ProtoInfo {
 	private ProtoInfo(Prototype p, String name, UpvalInfo[] u) {
 		this.name = name;
 		this.prototype = p;
+		p.loaddebug();
 		this.upvals = u != null? u: new UpvalInfo[] { new UpvalInfo(this) };
 		this.subprotos = p.p!=null&&p.p.length>0? new ProtoInfo[p.p.length]: null;
 		
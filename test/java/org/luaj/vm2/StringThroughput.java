@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Measure hashing, equality, comparison and substring search of {@link LuaString}
+ * for strings of 16 bytes to 1 MB, next to the byte at a time loops they replace.
+ * <p>
+ * Equal strings are held in distinct arrays so that equality compares every byte,
+ * and searches look for a needle placed at the end of the string.
+ * <p>
+ * Usage: java org.luaj.vm2.StringThroughput [maxsize]
+ */
+public class StringThroughput {
+
+	public static void main(String[] args) {
+		final int max = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+		for (int round = 0; round < 2; round++) {
+			System.out.println(round == 0 ? "warmup" : "measure");
+			for (int size = 16; size <= max; size <<= 2)
+				run(size, round > 0);
+		}
+	}
+
+	private static void run(int size, boolean print) {
+		byte[] bytes = new byte[size];
+		for (int i = 0; i < size; i++)
+			bytes[i] = (byte) ('a' + i % 23);
+		final LuaString a = LuaString.valueOf(bytes);
+		final LuaString b = LuaString.valueOf(bytes.clone());
+		bytes[size - 1] = '!';
+		final LuaString c = LuaString.valueOf(bytes);
+		final LuaString needle = c.substring(size - 8, size);
+		final int reps = Math.max(1, (64 << 20) / size);
+		if (!print)
+			System.out.print(".");
+		else
+			System.out.println(String.format("%8d bytes: hash %s, equal %s / %s, compare %s / %s, find %s / %s", size,
+				time(reps, () -> LuaString.hashCode(a.m_bytes, a.m_offset, a.m_length)),
+				time(reps, () -> a.raweq(b) ? 1 : 0),
+				time(reps, () -> scalarEquals(a, b) ? 1 : 0),
+				time(reps, () -> a.strcmp(c)),
+				time(reps, () -> scalarCompare(a, c)),
+				time(reps, () -> c.indexOf(needle, 0)),
+				time(reps, () -> scalarIndexOf(c, needle))));
+	}
+
+	private static String time(int reps, IntSupplier op) {
+		int sink = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < reps; i++)
+			sink += op.getAsInt();
+		double ns = (double) (System.nanoTime() - t0) / reps;
+		if (sink == 42)
+			System.out.print("");
+		return ns < 1000 ? String.format("%.0f ns", ns) : String.format("%.1f us", ns / 1000);
+	}
+
+	private static boolean scalarEquals(LuaString a, LuaString b) {
+		if (a.m_length != b.m_length)
+			return false;
+		for (int i = 0; i < a.m_length; i++)
+			if (a.m_bytes[a.m_offset + i] != b.m_bytes[b.m_offset + i])
+				return false;
+		return true;
+	}
+
+	private static int scalarCompare(LuaString a, LuaString b) {
+		for (int i = 0; i < a.m_length && i < b.m_length; i++)
+			if (a.m_bytes[a.m_offset + i] != b.m_bytes[b.m_offset + i])
+				return a.m_bytes[a.m_offset + i] - b.m_bytes[b.m_offset + i];
+		return a.m_length - b.m_length;
+	}
+
+	private static int scalarIndexOf(LuaString s, LuaString p) {
+		search:
+		for (int i = 0, limit = s.m_length - p.m_length; i <= limit; i++) {
+			for (int j = 0; j < p.m_length; j++)
+				if (s.m_bytes[s.m_offset + i + j] != p.m_bytes[p.m_offset + j])
+					continue search;
+			return i;
+		}
+		return -1;
+	}
+}
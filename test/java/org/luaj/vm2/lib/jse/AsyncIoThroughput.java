@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Measure {@link AsyncIoLib} with hundreds of coroutines each reading a file line by line,
+ * against reading the same files one after the other.
+ * Each file is read after a wait of a few milliseconds, standing in for the latency
+ * of a remote file system or service, which tasks overlap while the sequential reads add up.
+ * <p>
+ * Usage: java org.luaj.vm2.lib.jse.AsyncIoThroughput [files [lines [latencyms]]]
+ */
+public class AsyncIoThroughput {
+	public static String reader =
+		"local function count(name, latency)\n" +
+		"	io.sleep(latency)\n" +
+		"	local n, bytes = 0, 0\n" +
+		"	for l in io.open(name):lines() do n = n + 1 bytes = bytes + #l end\n" +
+		"	return n, bytes\n" +
+		"end\n";
+
+	public static String sequential = reader +
+		"local names, latency = ...\n" +
+		"local lines = 0\n" +
+		"for i = 1, #names do lines = lines + count(names[i], latency) end\n" +
+		"return lines";
+
+	public static String concurrent = reader +
+		"local names, latency = ...\n" +
+		"local lines = 0\n" +
+		"for i = 1, #names do io.spawn(function() local n = count(names[i], latency) lines = lines + n end) end\n" +
+		"io.run()\n" +
+		"return lines";
+
+	public static void main(String[] args) throws Exception {
+		final int files = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		final int lines = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		final double latency = (args.length > 2 ? Integer.parseInt(args[2]) : 5) / 1000.0;
+		File dir = Files.createTempDirectory("aio").toFile();
+		LuaValue names = LuaValue.tableOf();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++)
+			sb.append("line ").append(i).append(" of a file read by a coroutine\n");
+		byte[] content = sb.toString().getBytes();
+		for (int i = 1; i <= files; i++) {
+			File f = new File(dir, "f" + i + ".txt");
+			Files.write(f.toPath(), content);
+			f.deleteOnExit();
+			names.set(i, f.getPath());
+		}
+		dir.deleteOnExit();
+		run("sequential", sequential, names, latency, files);
+		run("concurrent", concurrent, names, latency, files);
+	}
+
+	private static void run(String name, String script, LuaValue names, double latency, int files) {
+		Globals globals = JsePlatform.standardGlobals();
+		globals.load(new AsyncIoLib());
+		LuaValue chunk = globals.load(script, name);
+		chunk.call(names, LuaValue.valueOf(0));
+		double best = Double.MAX_VALUE;
+		int lines = 0;
+		for (int round = 0; round < 3; round++) {
+			long t0 = System.nanoTime();
+			lines = chunk.call(names, LuaValue.valueOf(latency)).toint();
+			best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+		}
+		System.out.println(String.format("%s: %d files, %d lines in %.3f s, %.0f lines/s",
+			name, files, lines, best, lines / best));
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Measure java interop throughput with many threads, each running
+ * its own {@link Globals}, sharing only the coercion and member caches.
+ * <p>
+ * Usage: java org.luaj.vm2.lib.jse.InteropThroughput [threads [iterations]]
+ */
+public class InteropThroughput {
+	public static String script =
+		"local n = ...\n" +
+		"local StringBuilder = luajava.bindClass('java.lang.StringBuilder')\n" +
+		"local Integer = luajava.bindClass('java.lang.Integer')\n" +
+		"local sb = StringBuilder.new()\n" +
+		"local list = luajava.newInstance('java.util.ArrayList')\n" +
+		"for i = 1, n do\n" +
+		"	sb:append(i)\n" +
+		"	sb:append('x')\n" +
+		"	if sb:length() > 1024 then sb:setLength(0) end\n" +
+		"	list:add(Integer.valueOf(i))\n" +
+		"	if list:size() > 64 then list:clear() end\n" +
+		"	local c = list:getClass()\n" +
+		"end\n" +
+		"return sb:length()";
+
+	public static void main(String[] args) throws Exception {
+		final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		final int n = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		for (int round = 0; round < 3; round++) {
+			final CountDownLatch start = new CountDownLatch(1);
+			Thread[] t = new Thread[threads];
+			for (int i = 0; i < threads; i++) {
+				final LuaValue chunk = JsePlatform.standardGlobals().load(script, "interop");
+				t[i] = new Thread(() -> {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					chunk.call(LuaValue.valueOf(n));
+				});
+				t[i].start();
+			}
+			long t0 = System.nanoTime();
+			start.countDown();
+			for (Thread thread : t)
+				thread.join();
+			double s = (System.nanoTime() - t0) / 1e9;
+			System.out.println(String.format("%d threads x %d iterations in %.3f s, %.0f iterations/s",
+				threads, n, s, threads * (double) n / s));
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2009 Luaj.org. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package org.luaj.vm2.lib.jse;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+
+/**
+ * Measure how {@link ParallelLib} scales with the number of cores,
+ * mapping a cpu bound function over a list of records with pools of 1 to N threads.
+ * <p>
+ * Usage: java org.luaj.vm2.lib.jse.ParallelThroughput [maxthreads [records [work]]]
+ */
+public class ParallelThroughput {
+	public static String script =
+		"local n, work = ...\n" +
+		"local records = {}\n" +
+		"for i = 1, n do records[i] = { id = i, name = 'r' .. i } end\n" +
+		"local sqrt = math.sqrt\n" +
+		"local function score(r)\n" +
+		"	local s = 0\n" +
+		"	for k = 1, work do s = s + sqrt(r.id * k) % 7 end\n" +
+		"	return { id = r.id, score = s }\n" +
+		"end\n" +
+		"local scored = parallel.map(records, score)\n" +
+		"local total = parallel.reduce(scored, function(a, b) return { score = a.score + b.score } end)\n" +
+		"return total.score";
+
+	public static void main(String[] args) throws Exception {
+		final int max = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		final int n = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		final int work = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		Globals warmup = JsePlatform.standardGlobals();
+		for (int round = 0; round < 3; round++)
+			warmup.load(script, "warmup").call(LuaValue.valueOf(n), LuaValue.valueOf(work));
+		double base = 0;
+		for (int threads = 1; threads <= max; threads++) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			Globals globals = JsePlatform.standardGlobals();
+			globals.load(new ParallelLib(pool, JsePlatform::standardGlobals));
+			LuaValue chunk = globals.load(script, "parallel");
+			double best = Double.MAX_VALUE;
+			for (int round = 0; round < 3; round++) {
+				long t0 = System.nanoTime();
+				chunk.call(LuaValue.valueOf(n), LuaValue.valueOf(work));
+				best = Math.min(best, (System.nanoTime() - t0) / 1e9);
+			}
+			pool.shutdown();
+			if (threads == 1)
+				base = best;
+			System.out.println(String.format("%2d threads: %d records in %.3f s, %.0f records/s, speedup %.2f",
+				threads, n, best, n / best, base / best));
+		}
+	}
+}
@@ -30,14 +30,27 @@ import org.luaj.vm2.WeakTableTest.WeakKeyTableTest;
 //import org.luaj.vm2.WeakTableTest.WeakKeyValueTableTest; // TODO fix
 //import org.luaj.vm2.WeakTableTest.WeakValueTableTest; // TODO fix
 import org.luaj.vm2.compiler.CompilerUnitTests;
+import org.luaj.vm2.compiler.ConstantTableTest;
 import org.luaj.vm2.compiler.DumpLoadEndianIntTest;
 import org.luaj.vm2.compiler.LuaParserTests;
+import org.luaj.vm2.compiler.OptimizerTest;
 import org.luaj.vm2.compiler.RegressionTests;
 import org.luaj.vm2.compiler.SimpleTests;
+import org.luaj.vm2.lib.ByteBufTest;
+import org.luaj.vm2.lib.JsonLibTest;
+import org.luaj.vm2.lib.MarshalLibTest;
+import org.luaj.vm2.lib.PackageLibTest;
+import org.luaj.vm2.lib.StringPackTest;
+import org.luaj.vm2.lib.jse.AsyncIoLibTest;
+import org.luaj.vm2.lib.jse.JseIoLibTest;
 import org.luaj.vm2.lib.jse.JsePlatformTest;
 import org.luaj.vm2.lib.jse.LuaJavaCoercionTest;
 import org.luaj.vm2.lib.jse.LuajavaAccessibleMembersTest;
+import org.luaj.vm2.lib.jse.LuajavaCachesTest;
 import org.luaj.vm2.lib.jse.LuajavaClassMembersTest;
+import org.luaj.vm2.lib.jse.LuajavaProxyTest;
+import org.luaj.vm2.lib.jse.LuajavaViewsTest;
+import org.luaj.vm2.lib.jse.ParallelLibTest;
 import org.luaj.vm2.lib.jse.OsLibTest;
 import org.luaj.vm2.script.ScriptEngineTests;
 
@@ -56,6 +69,10 @@ public class AllTests {
 		vm.addTestSuite(OrphanedThreadTest.class);
 		vm.addTestSuite(VarargsTest.class);
 		vm.addTestSuite(LoadOrderTest.class);
+		vm.addTestSuite(SuperinstructionsTest.class);
+		vm.addTestSuite(LuaLongTest.class);
+		vm.addTestSuite(SharedTableTest.class);
+		vm.addTestSuite(GlobalsPoolTest.class);
 		suite.addTest(vm);
 
 		// table tests
@@ -84,15 +101,28 @@ public class AllTests {
 		compiler.addTestSuite(LuaParserTests.class);
 		compiler.addTestSuite(RegressionTests.class);
 		compiler.addTestSuite(SimpleTests.class);
+		compiler.addTestSuite(OptimizerTest.class);
+		compiler.addTestSuite(ConstantTableTest.class);
 		suite.addTest(compiler);
 		
 		// library tests
 		TestSuite lib = new TestSuite("Library Tests");
+		lib.addTestSuite(AsyncIoLibTest.class);
+		lib.addTestSuite(JseIoLibTest.class);
 		lib.addTestSuite(JsePlatformTest.class);
 		lib.addTestSuite(LuajavaAccessibleMembersTest.class);
 		lib.addTestSuite(LuajavaClassMembersTest.class);
+		lib.addTestSuite(LuajavaCachesTest.class);
+		lib.addTestSuite(LuajavaProxyTest.class);
+		lib.addTestSuite(LuajavaViewsTest.class);
+		lib.addTestSuite(ParallelLibTest.class);
 		lib.addTestSuite(LuaJavaCoercionTest.class);
 		lib.addTestSuite(RequireClassTest.class);
+		lib.addTestSuite(PackageLibTest.class);
+		lib.addTestSuite(MarshalLibTest.class);
+		lib.addTestSuite(JsonLibTest.class);
+		lib.addTestSuite(StringPackTest.class);
+		lib.addTestSuite(ByteBufTest.class);
 		lib.addTestSuite(OsLibTest.class);
 		suite.addTest(lib);
 
@@ -42,6 +42,10 @@ public class CompatibiltyTest extends TestSuite {
 		protected CompatibiltyTestSuite(PlatformType platform) {
 			super(platform,dir);
 		}
+
+		protected CompatibiltyTestSuite(PlatformType platform, GlobalsType type) {
+			super(platform,type,dir);
+		}
 		
 		protected void setUp() throws Exception {
 			savedStringMetatable = LuaString.s_metatable;
@@ -80,9 +84,41 @@ public class CompatibiltyTest extends TestSuite {
 		TestSuite suite = new TestSuite("Compatibility Tests");
 		//suite.addTest( new TestSuite( JseCompatibilityTest.class,   "JSE Compatibility Tests" ) );
 		//suite.addTest( new TestSuite( LuaJCCompatibilityTest.class,        "LuaJC Compatibility Tests" ) );
+		suite.addTest( new TestSuite( StandardDispatchTest.class,   "Standard Dispatch Tests" ) );
+		suite.addTest( new TestSuite( OptimizedDispatchTest.class,  "Optimized Dispatch Tests" ) );
 		return suite;
 	}
 
+	/**
+	 * Runs the scripts with superinstructions and quickening, and compares their
+	 * output with that of the plain interpreter used by the debug globals.
+	 */
+	abstract protected static class DispatchTestSuite extends CompatibiltyTestSuite {
+		protected DispatchTestSuite(GlobalsType type) {
+			super(ScriptDrivenTest.PlatformType.JSE, type);
+		}
+		protected void runTest(String testName) {
+			runAgainstInterpreter(testName);
+		}
+		// need the debug library, which turns off the dispatch under test
+		public void testDebugLib()      {}
+		public void testMetatags()      {}
+		// stops with an error on every platform
+		public void testTableLib()      {}
+	}
+
+	public static class StandardDispatchTest extends DispatchTestSuite {
+		public StandardDispatchTest() {
+			super(ScriptDrivenTest.GlobalsType.STANDARD);
+		}
+	}
+
+	public static class OptimizedDispatchTest extends DispatchTestSuite {
+		public OptimizedDispatchTest() {
+			super(ScriptDrivenTest.GlobalsType.OPTIMIZED);
+		}
+	}
+
 	/* TODO fix these tests
 	public static class JseCompatibilityTest extends CompatibiltyTestSuite {
 		public JseCompatibilityTest() {
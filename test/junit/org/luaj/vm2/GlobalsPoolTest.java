@@ -0,0 +1,115 @@
+package org.luaj.vm2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class GlobalsPoolTest extends TestCase {
+
+	static final String MODULE =
+		"local count = 0\n" +
+		"counter = {}\n" +
+		"function counter.inc() count = count + 1 return count end\n" +
+		"function counter.get() return count end\n" +
+		"config = { name = 'template', list = {1, 2, 3} }\n" +
+		"config.self = config\n" +
+		"function string.shout(s) return s:upper() .. '!' end\n" +
+		"os.execute = nil\n" +
+		"io = nil\n" +
+		"package.loaded.counter = counter\n";
+
+	private GlobalsPool pool;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = new GlobalsPool(JsePlatform::standardGlobals, g -> g.load(MODULE, "module").call());
+	}
+
+	private Varargs run(Globals g, String script) {
+		return g.load(script, "script").invoke();
+	}
+
+	public void testForkHasTemplateState() {
+		Globals g = pool.borrow();
+		Varargs v = run(g,
+			"return counter.inc(), counter.inc(), counter.get(), config.name, config.self == config,\n" +
+			"	string.shout('hi'), os.execute, io, require('counter') == counter, string.format('%d', 5), _G == _ENV");
+		assertEquals(1, v.arg(1).toint());
+		assertEquals(2, v.arg(2).toint());
+		assertEquals(2, v.arg(3).toint());
+		assertEquals("template", v.arg(4).tojstring());
+		assertTrue(v.arg(5).toboolean());
+		assertEquals("HI!", v.arg(6).tojstring());
+		assertTrue(v.arg(7).isnil());
+		assertTrue(v.arg(8).isnil());
+		assertTrue(v.arg(9).toboolean());
+		assertEquals("5", v.arg(10).tojstring());
+		assertTrue(v.arg(11).toboolean());
+		assertSame(g, g.get("_G"));
+	}
+
+	public void testForksAreIsolated() {
+		Globals a = pool.borrow();
+		Globals b = pool.borrow();
+		assertNotSame(a, b);
+		run(a, "counter.inc() config.name = 'a' config.list[1] = 10 x = 1 string.shout = nil");
+		Varargs v = run(b, "return counter.get(), config.name, config.list[1], x, string.shout('b')");
+		assertEquals(0, v.arg(1).toint());
+		assertEquals("template", v.arg(2).tojstring());
+		assertEquals(1, v.arg(3).toint());
+		assertTrue(v.arg(4).isnil());
+		assertEquals("B!", v.arg(5).tojstring());
+	}
+
+	public void testReleaseResets() {
+		Globals a = pool.borrow();
+		run(a, "counter.inc() config.name = 'a' x = 1 string.shout = nil print = nil " +
+			"table.insert = function() end setmetatable(_G, { __index = function() return 'strict' end })");
+		pool.release(a);
+		assertEquals(1, pool.idle());
+		Globals b = pool.borrow();
+		assertSame(a, b);
+		Varargs v = run(b, "local t = {} table.insert(t, 1) " +
+			"return counter.inc(), config.name, x, string.shout('b'), type(print), #t, getmetatable(_G)");
+		assertEquals(1, v.arg(1).toint());
+		assertEquals("template", v.arg(2).tojstring());
+		assertTrue(v.arg(3).isnil());
+		assertEquals("B!", v.arg(4).tojstring());
+		assertEquals("function", v.arg(5).tojstring());
+		assertEquals(1, v.arg(6).toint());
+		assertTrue(v.arg(7).isnil());
+		try {
+			pool.release(JsePlatform.standardGlobals());
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testLibrariesAreBoundToFork() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Globals template = JsePlatform.standardGlobals();
+		template.STDOUT = new PrintStream(out, true);
+		template.load("local p = print function hello() p('hello') end").call();
+		Globals g = template.fork(JsePlatform.standardGlobals());
+		assertNotSame(template.get("hello"), g.get("hello"));
+		ByteArrayOutputStream forked = new ByteArrayOutputStream();
+		g.STDOUT = new PrintStream(forked, true);
+		g.get("hello").call();
+		assertEquals("", out.toString());
+		assertEquals("hello", forked.toString().trim());
+	}
+
+	public void testCannotForkCoroutines() {
+		Globals template = JsePlatform.standardGlobals();
+		template.load("co = coroutine.create(print)").call();
+		try {
+			template.fork(JsePlatform.standardGlobals());
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("coroutine"));
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.luaj.vm2;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+/**
+ * Tests of {@link LuaLong}, the 64-bit integral number subtype.
+ */
+public class LuaLongTest extends TestCase {
+
+	private static final long BIG = (1L << 53) + 1;
+
+	public void testCanonicalValues() {
+		assertEquals(LuaInteger.class, LuaValue.valueOf(123L).getClass());
+		assertEquals(LuaLong.class, LuaValue.valueOf(BIG).getClass());
+		assertEquals(LuaDouble.class, LuaValue.valueOf(1e15).getClass());
+		assertEquals(LuaInteger.class, LuaValue.valueOf((double) Integer.MIN_VALUE).getClass());
+		assertEquals(LuaDouble.class, LuaValue.valueOf(0x1p63).getClass());
+		assertEquals(LuaDouble.class, LuaValue.valueOf(-0x1p63).getClass());
+		assertEquals(LuaDouble.class, LuaValue.valueOf(1.5).getClass());
+		assertEquals(Long.MIN_VALUE, LuaValue.valueOf(Long.MIN_VALUE).tolong());
+		assertEquals("9007199254740993", LuaValue.valueOf(BIG).tojstring());
+		assertEquals(LuaValue.valueOf(BIG), LuaValue.valueOf("9007199254740993").tonumber());
+		assertEquals(LuaDouble.class, LuaValue.valueOf("9007199254740993.0").tonumber().getClass());
+	}
+
+	public void testArithmetic() {
+		LuaValue big = LuaValue.valueOf(BIG);
+		assertEquals(BIG + 1, big.add(LuaValue.ONE).tolong());
+		assertEquals(BIG + 1, LuaValue.ONE.add(big).tolong());
+		assertEquals(BIG - 2, big.sub(LuaValue.valueOf(2)).tolong());
+		assertEquals(2 - BIG, LuaValue.valueOf(2).sub(big).tolong());
+		assertEquals(BIG * 3, big.mul(LuaValue.valueOf(3)).tolong());
+		assertEquals(2 * BIG, big.add(big).tolong());
+		assertEquals(0L, big.sub(big).tolong());
+		assertEquals(LuaInteger.class, big.sub(big).getClass());
+		assertEquals(BIG % 10, big.mod(LuaValue.valueOf(10)).tolong());
+		assertEquals(Math.floorMod(-BIG, 7L), big.neg().mod(LuaValue.valueOf(7)).tolong());
+		assertEquals(Math.floorMod(-3, BIG), LuaValue.valueOf(-3).mod(big).tolong());
+		assertEquals(-BIG, big.neg().tolong());
+		assertEquals(BIG / 2.0, big.div(LuaValue.valueOf(2)).todouble());
+		assertEquals(BIG + 0.5, big.add(LuaValue.valueOf(0.5)).todouble());
+	}
+
+	public void testIntOverflowIsExact() {
+		LuaValue max = LuaValue.valueOf(Integer.MAX_VALUE);
+		assertEquals(Integer.MAX_VALUE + 1L, max.add(LuaValue.ONE).tolong());
+		assertEquals(LuaLong.class, max.add(LuaValue.ONE).getClass());
+		assertEquals(Integer.MIN_VALUE - 1L, LuaValue.valueOf(Integer.MIN_VALUE).sub(1).tolong());
+		assertEquals((long) Integer.MAX_VALUE * Integer.MAX_VALUE, max.mul(max).tolong());
+	}
+
+	public void testLongOverflowGivesDouble() {
+		LuaValue max = LuaValue.valueOf(Long.MAX_VALUE);
+		assertEquals(LuaDouble.class, max.add(LuaValue.ONE).getClass());
+		assertEquals(0x1p63, max.add(LuaValue.ONE).todouble());
+		assertEquals(LuaDouble.class, max.mul(LuaValue.valueOf(2)).getClass());
+		assertEquals(LuaDouble.class, LuaValue.valueOf(Long.MIN_VALUE).neg().getClass());
+		assertEquals(-0x1p63, LuaValue.valueOf(Long.MIN_VALUE).sub(LuaValue.ONE).todouble());
+	}
+
+	public void testComparison() {
+		LuaValue big = LuaValue.valueOf(BIG);
+		LuaValue bigger = LuaValue.valueOf(BIG + 1);
+		assertTrue(big.lt_b(bigger));
+		assertFalse(bigger.lt_b(big));
+		assertTrue(big.lteq_b(big));
+		assertTrue(bigger.gt_b(big));
+		assertTrue(LuaValue.ONE.lt_b(big));
+		assertTrue(big.gt_b(LuaValue.ONE));
+		assertTrue(LuaValue.valueOf(1e300).gt_b(big));
+		assertFalse(big.eq_b(bigger));
+		assertTrue(big.eq_b(LuaValue.valueOf(BIG)));
+		assertTrue(LuaValue.valueOf(1e15).raweq(LuaValue.valueOf(1000000000000000L)));
+		assertTrue(LuaValue.valueOf(1000000000000000L).raweq(LuaValue.valueOf(1e15)));
+		assertFalse(big.raweq(LuaValue.valueOf((double) BIG)));
+		assertFalse(big.raweq(LuaValue.valueOf(1)));
+		try {
+			big.lt_b(LuaValue.valueOf("x"));
+			fail("expected error");
+		} catch (LuaError e) {
+		}
+	}
+
+	public void testComparisonWithDoublesIsExact() {
+		LuaValue big = LuaValue.valueOf(BIG);
+		LuaValue d = LuaValue.valueOf(0x1p53);
+		assertFalse(big.eq_b(d));
+		assertFalse(big.lteq_b(d));
+		assertTrue(big.gteq_b(d));
+		assertTrue(big.gt_b(d));
+		assertFalse(big.lt_b(d));
+		assertTrue(d.lt_b(big));
+		assertTrue(d.lteq_b(big));
+		assertFalse(d.gteq_b(big));
+		assertFalse(d.gt_b(big));
+		LuaValue max = LuaValue.valueOf(Long.MAX_VALUE), min = LuaValue.valueOf(Long.MIN_VALUE);
+		assertTrue(max.lt_b(LuaValue.valueOf(0x1p63)));
+		assertFalse(max.gteq_b(LuaValue.valueOf(0x1p63)));
+		assertTrue(LuaValue.valueOf(0x1p63).gt_b(max));
+		assertTrue(min.lteq_b(LuaValue.valueOf(-0x1p63)));
+		assertTrue(min.gteq_b(LuaValue.valueOf(-0x1p63)));
+		assertTrue(min.gt_b(LuaValue.valueOf(-0x1p64)));
+		assertTrue(big.lt_b(LuaValue.valueOf((double) BIG + 2)));
+		assertTrue(big.gt_b(LuaValue.valueOf(0x1p53 - 1)));
+		assertFalse(big.lt_b(LuaDouble.NAN));
+		assertFalse(big.lteq_b(LuaDouble.NAN));
+		assertFalse(big.gt_b(LuaDouble.NAN));
+		assertFalse(big.gteq_b(LuaDouble.NAN));
+		assertFalse(LuaDouble.NAN.lt_b(big));
+		assertTrue(LuaValue.valueOf(-3).lt_b(big));
+		assertTrue(big.gt_b(LuaValue.valueOf(-3)));
+		Varargs v = JsePlatform.standardGlobals().load(
+			"local big, d = 9007199254740993, 2^53\n" +
+			"return big == d, big <= d, big >= d, 9223372036854775807 < 2^63, -9223372036854775807 - 1 <= -2^63", "cmp").invoke();
+		assertFalse(v.arg(1).toboolean());
+		assertFalse(v.arg(2).toboolean());
+		assertTrue(v.arg(3).toboolean());
+		assertTrue(v.arg(4).toboolean());
+		assertTrue(v.arg(5).toboolean());
+	}
+
+	public void testTableKeysAndValues() {
+		LuaTable t = new LuaTable();
+		t.set(LuaValue.valueOf(BIG), LuaValue.valueOf("a"));
+		t.set(LuaValue.valueOf(BIG + 1), LuaValue.valueOf("b"));
+		t.set(LuaValue.valueOf(1e15), LuaValue.valueOf("c"));
+		t.set("id", LuaValue.valueOf(BIG));
+		assertEquals("a", t.get(LuaValue.valueOf(BIG)).tojstring());
+		assertEquals("b", t.get(LuaValue.valueOf(BIG + 1)).tojstring());
+		assertEquals("c", t.get(LuaValue.valueOf(1000000000000000L)).tojstring());
+		assertEquals(BIG, t.get("id").tolong());
+		t.set("id", LuaValue.valueOf(BIG + 1));
+		assertEquals(BIG + 1, t.get("id").tolong());
+		assertEquals(0, t.length());
+		t.set(LuaValue.valueOf(0x1p60), LuaValue.valueOf("d"));
+		assertEquals("d", t.get(LuaValue.valueOf(1L << 60)).tojstring());
+		t.set(LuaValue.valueOf(1L << 60), LuaValue.valueOf("e"));
+		assertEquals("e", t.get(LuaValue.valueOf(0x1p60)).tojstring());
+	}
+
+	public void testFloatsStayFloats() {
+		Globals globals = JsePlatform.standardGlobals();
+		Varargs v = globals.load(
+			"return 2^53 + 1 == 2^53, 9007199254740993 == 9007199254740992, " +
+			"9223372036854775807, 9223372036854775808, math.fmod(2^41, 3 * 2^38)", "floats").invoke();
+		assertTrue(v.arg1().toboolean());
+		assertFalse(v.arg(2).toboolean());
+		assertEquals(LuaLong.class, v.arg(3).getClass());
+		assertEquals(Long.MAX_VALUE, v.arg(3).tolong());
+		assertEquals(LuaDouble.class, v.arg(4).getClass());
+		assertEquals(LuaDouble.class, v.arg(5).getClass());
+		assertEquals(0x1p39, v.arg(5).todouble());
+	}
+
+	public void testScript() {
+		Globals globals = JsePlatform.standardGlobals();
+		globals.set("big", LuaValue.valueOf(BIG));
+		Varargs v = globals.load(
+			"local t = {}\n" +
+			"t[big] = 'id'\n" +
+			"local s = 0\n" +
+			"for i = 1, 3 do s = s + big end\n" +
+			"return tostring(big + 1), t[big], s, big % 2, big > big - 1, 2147483647 + 1", "script").invoke();
+		assertEquals("9007199254740994", v.arg1().tojstring());
+		assertEquals("id", v.arg(2).tojstring());
+		assertEquals(3 * BIG, v.arg(3).tolong());
+		assertEquals(1, v.arg(4).toint());
+		assertTrue(v.arg(5).toboolean());
+		assertEquals(2147483648L, v.arg(6).tolong());
+	}
+}
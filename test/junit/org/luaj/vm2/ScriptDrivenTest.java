@@ -34,7 +34,9 @@ import java.util.Objects;
 
 import junit.framework.TestCase;
 
+import org.luaj.vm2.compiler.LuaC;
 import org.luaj.vm2.lib.ResourceFinder;
+import org.luaj.vm2.lib.jse.JsePlatform;
 import org.luaj.vm2.lib.jse.JseProcess;
 import org.luaj.vm2.luajc.LuaJC;
 
@@ -45,8 +47,18 @@ public class ScriptDrivenTest extends TestCase implements ResourceFinder {
 	public enum PlatformType {
 		JSE, LUAJIT,
 	}
+
+	public enum GlobalsType {
+		/** {@link JsePlatform#debugGlobals()}, which runs closures on the plain interpreter path */
+		DEBUG,
+		/** {@link JsePlatform#standardGlobals()}, which runs closures with superinstructions and quickening */
+		STANDARD,
+		/** standard globals compiling with {@link LuaC#optimizing} */
+		OPTIMIZED,
+	}
 	
 	private final PlatformType platform;
+	private final GlobalsType type;
 	private final String subdir;
 	protected Globals globals;
 	
@@ -54,13 +66,32 @@ public class ScriptDrivenTest extends TestCase implements ResourceFinder {
 	static final String zipfile = "luaj3.0-tests.zip";
 
 	protected ScriptDrivenTest( PlatformType platform, String subdir ) {
+		this(platform, GlobalsType.DEBUG, subdir);
+	}
+
+	protected ScriptDrivenTest( PlatformType platform, GlobalsType type, String subdir ) {
 		this.platform = platform;
+		this.type = type;
 		this.subdir = subdir;
 		initGlobals();
 	}
 	
 	private void initGlobals() {
-		globals = org.luaj.vm2.lib.jse.JsePlatform.debugGlobals();
+		globals = newGlobals(type);
+	}
+
+	private static Globals newGlobals(GlobalsType type) {
+		switch (type) {
+			case STANDARD:
+				return JsePlatform.standardGlobals();
+			case OPTIMIZED: {
+				Globals g = JsePlatform.standardGlobals();
+				LuaC.install(g, true);
+				return g;
+			}
+			default:
+				return JsePlatform.debugGlobals();
+		}
 	}
 	
 	
@@ -137,32 +168,52 @@ public class ScriptDrivenTest extends TestCase implements ResourceFinder {
 	// */
 	protected void runTest(String testName) {
 		try {
-			// override print()
-			final ByteArrayOutputStream output = new ByteArrayOutputStream();
-			final PrintStream oldps = globals.STDOUT;
-			final PrintStream ps = new PrintStream( output );
-
-			// run the script
-			try (ps) {
-				globals.STDOUT = ps;
-				LuaValue chunk = loadScript(testName, globals);
-				chunk.call(LuaValue.valueOf(platform.toString()));
-
-				ps.flush();
-				String actualOutput = output.toString();
-				String expectedOutput = getExpectedOutput(testName);
-				actualOutput = actualOutput.replaceAll("\r\n", "\n");
-				expectedOutput = expectedOutput.replaceAll("\r\n", "\n");
-
-				assertEquals(expectedOutput, actualOutput);
-			} finally {
-				globals.STDOUT = oldps;
-			}
+			String actualOutput = runScript(testName, globals);
+			String expectedOutput = getExpectedOutput(testName);
+			actualOutput = actualOutput.replaceAll("\r\n", "\n");
+			expectedOutput = expectedOutput.replaceAll("\r\n", "\n");
+
+			assertEquals(expectedOutput, actualOutput);
 		} catch (IOException | InterruptedException ioe ) {
 			throw new RuntimeException(ioe.toString());
 		}
 	}
 
+	/**
+	 * Run a script on the globals of this test and compare its output with the output
+	 * of the same script on the plain interpreter path of {@link JsePlatform#debugGlobals()}.
+	 */
+	protected void runAgainstInterpreter(String testName) {
+		try {
+			Globals reference = newGlobals(GlobalsType.DEBUG);
+			reference.finder = this;
+			String expectedOutput = runScript(testName, reference);
+			initGlobals();
+			globals.finder = this;
+			assertEquals(expectedOutput, runScript(testName, globals));
+		} catch (IOException ioe ) {
+			throw new RuntimeException(ioe.toString());
+		}
+	}
+
+	private String runScript(String testName, Globals globals) throws IOException {
+		// override print()
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final PrintStream oldps = globals.STDOUT;
+		final PrintStream ps = new PrintStream( output );
+
+		// run the script
+		try (ps) {
+			globals.STDOUT = ps;
+			LuaValue chunk = loadScript(testName, globals);
+			chunk.call(LuaValue.valueOf(platform.toString()));
+			ps.flush();
+			return output.toString();
+		} finally {
+			globals.STDOUT = oldps;
+		}
+	}
+
 	protected LuaValue loadScript(String name, Globals globals) throws IOException {
 		InputStream script = this.findResource(name+".lua");
 		try (script) {
@@ -0,0 +1,169 @@
+package org.luaj.vm2;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.lib.SharedLib;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class SharedTableTest extends TestCase {
+
+	private SharedTable root;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		root = new SharedTable();
+	}
+
+	private Globals globals() {
+		Globals g = JsePlatform.standardGlobals();
+		g.load(new SharedLib(root));
+		return g;
+	}
+
+	public void testGetSet() {
+		SharedTable t = new SharedTable();
+		t.set("a", LuaValue.valueOf(1));
+		t.set(1, LuaValue.valueOf("x"));
+		t.set(LuaValue.valueOf(2.0), LuaValue.TRUE);
+		assertEquals(1, t.get("a").toint());
+		assertEquals("x", t.get(1).tojstring());
+		assertEquals(LuaValue.TRUE, t.get(2));
+		assertEquals(LuaValue.TRUE, t.get(LuaValue.valueOf(2.0)));
+		assertEquals(LuaValue.NIL, t.get("b"));
+		assertEquals(2, t.length());
+		t.set(2, LuaValue.NIL);
+		assertEquals(1, t.length());
+		assertEquals(2, t.size());
+	}
+
+	public void testIntegralDoublesBeyondIntAreIntegerKeys() {
+		Varargs v = globals().load(
+			"local s = shared.new()\n" +
+			"s[2^40] = 'd'\n" +
+			"s[-2^62] = 'e'\n" +
+			"s.n = 2^40\n" +
+			"local n = 0 for _ in pairs(s) do n = n + 1 end\n" +
+			"return s[1099511627776], s[-4611686018427387904], n, shared.cas(s, 'n', 1099511627776, 1), s[2^63]",
+			"script").invoke();
+		assertEquals("d", v.arg(1).tojstring());
+		assertEquals("e", v.arg(2).tojstring());
+		assertEquals(3, v.arg(3).toint());
+		assertTrue(v.arg(4).toboolean());
+		assertTrue(v.arg(5).isnil());
+	}
+
+	public void testOnlyShareableValues() {
+		SharedTable t = new SharedTable();
+		t.set("t", new SharedTable());
+		try {
+			t.set("t", new LuaTable());
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("cannot share a table"));
+		}
+		try {
+			t.set(LuaValue.NIL, LuaValue.ONE);
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("index is nil"));
+		}
+		LuaTable plain = new LuaTable();
+		plain.set("self", plain);
+		plain.set(1, LuaValue.valueOf("a"));
+		SharedTable copy = (SharedTable) SharedTable.copyOf(plain);
+		assertSame(copy, copy.get("self"));
+		assertEquals("a", copy.get(1).tojstring());
+	}
+
+	public void testCompareAndSetAndIncrement() {
+		SharedTable t = new SharedTable();
+		LuaValue k = LuaValue.valueOf("k");
+		assertTrue(t.compareAndSet(k, LuaValue.NIL, LuaValue.ONE));
+		assertFalse(t.compareAndSet(k, LuaValue.NIL, LuaValue.ZERO));
+		assertTrue(t.compareAndSet(k, LuaValue.valueOf(1.0), LuaValue.valueOf(2)));
+		assertTrue(t.compareAndSet(k, LuaValue.valueOf(2), LuaValue.NIL));
+		assertEquals(LuaValue.NIL, t.get(k));
+		assertEquals(5, t.increment(k, LuaValue.valueOf(5)).toint());
+		assertEquals(7, t.increment(k, LuaValue.valueOf(2)).toint());
+		t.set(k, LuaValue.valueOf("s"));
+		try {
+			t.increment(k, LuaValue.ONE);
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("increment a string"));
+		}
+	}
+
+	public void testNextIteratesOverSnapshot() {
+		SharedTable t = new SharedTable();
+		for (int i = 1; i <= 10; i++)
+			t.set("k" + i, LuaValue.valueOf(i));
+		int n = 0, sum = 0;
+		for (Varargs e = t.next(LuaValue.NIL); !e.arg1().isnil(); e = t.next(e.arg1())) {
+			n++;
+			sum += e.arg(2).toint();
+		}
+		assertEquals(10, n);
+		assertEquals(55, sum);
+		assertEquals(10, t.snapshot().keyCount());
+	}
+
+	public void testLibrary() {
+		Globals g = globals();
+		Varargs v = g.load(
+			"local s = shared.new({ 1, 2, 3, nested = { x = 1 } })\n" +
+			"local n = 0\n" +
+			"for k, v in pairs(s) do n = n + 1 s[k] = nil end\n" +
+			"local stats = shared.open('stats')\n" +
+			"shared.incr(stats, 'hits')\n" +
+			"shared.incr(stats, 'hits', 2)\n" +
+			"local seq = shared.new({ 'a', 'b' })\n" +
+			"local i = 0 for _, v in ipairs(seq) do i = i + 1 end\n" +
+			"return n, #s, stats.hits, shared.cas(stats, 'hits', 3, 4), stats.hits, i, #seq, type(shared.snapshot(stats)), getmetatable(s)",
+			"script").invoke();
+		assertEquals(4, v.arg(1).toint());
+		assertEquals(0, v.arg(2).toint());
+		assertEquals(3, v.arg(3).toint());
+		assertTrue(v.arg(4).toboolean());
+		assertEquals(4, v.arg(5).toint());
+		assertEquals(2, v.arg(6).toint());
+		assertEquals(2, v.arg(7).toint());
+		assertEquals("table", v.arg(8).tojstring());
+		assertEquals("shared", v.arg(9).tojstring());
+		assertEquals(4, root.get("stats").get("hits").toint());
+	}
+
+	public void testCountersAcrossGlobals() throws Exception {
+		final int threads = 8, n = 2000;
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] t = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final LuaValue chunk = globals().load(
+				"local s = shared.open('counters')\n" +
+				"for i = 1, " + n + " do\n" +
+				"	shared.incr(s, 'n')\n" +
+				"	repeat local v = s.cas until shared.cas(s, 'cas', v, (v or 0) + 1)\n" +
+				"	s[i % 16] = i\n" +
+				"	local c = 0 for _ in pairs(s) do c = c + 1 end\n" +
+				"end", "script");
+			t[i] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				chunk.call();
+			});
+			t[i].start();
+		}
+		start.countDown();
+		for (Thread thread : t)
+			thread.join();
+		SharedTable s = (SharedTable) root.get("counters");
+		assertEquals(threads * n, s.get("n").toint());
+		assertEquals(threads * n, s.get("cas").toint());
+		assertEquals(18, s.size());
+	}
+}
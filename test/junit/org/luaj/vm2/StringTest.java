@@ -3,6 +3,7 @@ package org.luaj.vm2;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
@@ -378,4 +379,48 @@ public class StringTest extends TestCase {
 		assertEquals(xby, axbya.substring(1,5).invokemethod("match", args));
 		assertEquals(nil, axbya.substring(2,5).invokemethod("match", args));
 	}
+
+	public void testIndexOfInLongStrings() {
+		byte[] bytes = new byte[200];
+		Arrays.fill(bytes, (byte) 'a');
+		LuaString str = LuaString.valueOf(bytes);
+		for (int pos = 0; pos < 60; pos++) {
+			for (byte b : new byte[] {0, 'b', (byte) 0x80, (byte) 0xff}) {
+				bytes[pos + 100] = b;
+				LuaString sub = LuaString.valueOf(bytes).substring(3, 197);
+				assertEquals(pos + 97, sub.indexOf(b, 0));
+				assertEquals(pos + 97, sub.indexOf(b, pos + 97));
+				assertEquals(-1, sub.indexOf(b, pos + 98));
+				assertEquals(pos + 96, sub.indexOf(LuaString.valueOf(new byte[] {'a', b}), 0));
+				assertEquals(pos + 96, sub.indexOf(sub.substring(pos + 96, pos + 116), 1));
+				bytes[pos + 100] = 'a';
+			}
+		}
+		assertEquals(-1, str.indexOf((byte) 'b', 0));
+		assertEquals(-1, str.indexOf(LuaString.valueOf("ab"), 0));
+		assertEquals(150, str.indexOf(LuaString.valueOf(""), 150));
+		assertEquals(200, str.indexOf(LuaString.valueOf(""), 200));
+		assertEquals(-1, str.indexOf(LuaString.valueOf(""), 201));
+		assertEquals(-1, str.indexOf(str.substring(0, 199), 2));
+	}
+
+	public void testCompareLongStrings() {
+		byte[] bytes = new byte[1000];
+		Arrays.fill(bytes, (byte) 'x');
+		LuaString a = LuaString.valueOf(bytes);
+		bytes[700] = (byte) 0x80;
+		LuaString b = LuaString.valueOf(bytes);
+		LuaString c = LuaString.valueOf(bytes).substring(1, 1000);
+		LuaString d = LuaString.valueOf(bytes).substring(0, 999);
+		assertFalse(a.raweq(b));
+		assertTrue(c.raweq(b.substring(1, 1000)));
+		assertTrue(d.raweq(b.substring(0, 999)));
+		assertTrue(a.strcmp(b) > 0);
+		assertTrue(b.strcmp(a) < 0);
+		assertTrue(d.strcmp(b) < 0);
+		assertEquals(0, d.strcmp(b.substring(0, 999)));
+		assertTrue(LuaString.equals(b, 1, c, 0, 999));
+		assertFalse(LuaString.equals(a, 1, c, 0, 999));
+		assertFalse(LuaString.equals(a, 1, c, 0, 1000));
+	}
 }
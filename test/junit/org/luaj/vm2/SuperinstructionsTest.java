@@ -0,0 +1,155 @@
+package org.luaj.vm2;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class SuperinstructionsTest extends TestCase {
+
+	Globals globals;
+
+	protected void setUp() throws Exception {
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Prototype compile(String script) throws Exception {
+		return globals.compilePrototype(new StringReader(script), "script");
+	}
+
+	private int countFused(Prototype p) {
+		int n = 0;
+		for (int i : p.superinstructions())
+			if (Lua.GET_OPCODE(i) >= Lua.NUM_OPCODES)
+				++n;
+		for (Prototype c : p.p)
+			n += countFused(c);
+		return n;
+	}
+
+	public void testCodeIsUnchanged() throws Exception {
+		Prototype p = compile("local s = string.format('%d', 1) return s");
+		int[] code = p.code.clone();
+		int[] fused = p.superinstructions();
+		assertNotSame(p.code, fused);
+		assertEquals(code.length, fused.length);
+		for (int pc = 0; pc < code.length; ++pc) {
+			assertEquals(code[pc], p.code[pc]);
+			assertEquals(Lua.GETARG_A(code[pc]), Lua.GETARG_A(fused[pc]));
+		}
+		assertEquals(Superinstructions.OP_GETTABUP_GETTABLE, Lua.GET_OPCODE(fused[0]));
+		assertSame(fused, p.superinstructions());
+	}
+
+	public void testRebuiltWhenCodeReplaced() throws Exception {
+		Prototype p = compile("return string.format('%d', 1)");
+		int[] fused = p.superinstructions();
+		p.code = p.code.clone();
+		assertNotSame(fused, p.superinstructions());
+	}
+
+	public void testFusedPairs() throws Exception {
+		String script =
+			"local t, u, n = {}, { y = 5 }, 0\n" +
+			"for i = 1, 20 do\n" +
+			"  t.x = u.y\n" +
+			"  if i == 3 then n = n + 1 end\n" +
+			"  if i < 5 then n = n + 10 end\n" +
+			"  if i <= 6 then n = n + 100 end\n" +
+			"  if t.x then n = n + 1000 end\n" +
+			"end\n" +
+			"local s = ('abc'):upper()\n" +
+			"return string.format('%d %s %d', n, s, t.x), ('x'):rep(3)\n";
+		Prototype p = compile(script);
+		assertTrue(countFused(p) >= 6);
+		Varargs v = new LuaClosure(p, globals).invoke();
+		assertEquals("20641 ABC 5", v.arg1().tojstring());
+		assertEquals("xxx", v.arg(2).tojstring());
+	}
+
+	public void testErrorInSecondInstructionReportsItsLine() throws Exception {
+		Prototype p = compile("local u = {}\nlocal t = nil\nlocal x = u.y\nt.x = x\n");
+		try {
+			new LuaClosure(p, globals).call();
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("script:4 "));
+		}
+	}
+
+	private int opcodeOf(Prototype p, int generic) {
+		int[] code = p.superinstructions();
+		for (int pc = 0; pc < code.length; ++pc)
+			if (Lua.GET_OPCODE(p.code[pc]) == generic)
+				return Lua.GET_OPCODE(code[pc]);
+		return -1;
+	}
+
+	public void testQuickenAndDeoptimize() throws Exception {
+		Prototype p = compile("local a, b = ...\nreturn a + b, a < b");
+		LuaClosure f = new LuaClosure(p, globals);
+		Varargs v = f.invoke(LuaValue.valueOf(2), LuaValue.valueOf(3));
+		assertEquals(5, v.arg1().toint());
+		assertTrue(v.arg(2).toboolean());
+		assertEquals(Superinstructions.OP_ADD_II, opcodeOf(p, Lua.OP_ADD));
+		assertEquals(Superinstructions.OP_LT_JMP_II, opcodeOf(p, Lua.OP_LT));
+
+		v = f.invoke(LuaValue.valueOf(Integer.MAX_VALUE), LuaValue.valueOf(1));
+		assertEquals((double) Integer.MAX_VALUE + 1, v.arg1().todouble());
+		assertFalse(v.arg(2).toboolean());
+
+		v = f.invoke(LuaValue.valueOf(1.5), LuaValue.valueOf(2));
+		assertEquals(3.5, v.arg1().todouble());
+		assertTrue(v.arg(2).toboolean());
+		assertEquals(Lua.OP_ADD, opcodeOf(p, Lua.OP_ADD));
+		assertEquals(Superinstructions.OP_LT_JMP, opcodeOf(p, Lua.OP_LT));
+
+		f.invoke(LuaValue.valueOf(1.5), LuaValue.valueOf(2));
+		assertEquals(Superinstructions.OP_ADD_DD, opcodeOf(p, Lua.OP_ADD));
+		assertEquals(Superinstructions.OP_LT_JMP_DD, opcodeOf(p, Lua.OP_LT));
+
+		v = f.invoke(LuaValue.valueOf("10"), LuaValue.valueOf("1"));
+		assertEquals(11, v.arg1().toint());
+		assertEquals(Lua.OP_ADD, opcodeOf(p, Lua.OP_ADD));
+	}
+
+	public void testDoubleVariantsKeepIntArithmeticExact() throws Exception {
+		String script =
+			"local function add(a, b) return a + b end\n" +
+			"local function sub(a, b) return a - b end\n" +
+			"local function mul(a, b) return a * b end\n" +
+			"add(1.5, 2) sub(1.5, 2) mul(1.5, 2)\n" +
+			"local m = 2147483647\n" +
+			"return tostring(mul(m, m)), tostring(add(m * m, m)), tostring(sub(-m * m, m)), tostring(mul(m, 0.5))";
+		Varargs quickened = globals.load(script, "script").invoke();
+		Varargs generic = JsePlatform.debugGlobals().load(script, "script").invoke();
+		assertEquals("4611686014132420609", quickened.arg1().tojstring());
+		for (int i = 1; i <= 4; i++)
+			assertEquals(generic.arg(i).tojstring(), quickened.arg(i).tojstring());
+		Prototype p = compile("local a, b = ...\nreturn a * b");
+		LuaClosure f = new LuaClosure(p, globals);
+		f.invoke(LuaValue.valueOf(1.5), LuaValue.valueOf(2));
+		f.invoke(LuaValue.valueOf(1.5), LuaValue.valueOf(2));
+		assertEquals(Superinstructions.OP_MUL_DD, opcodeOf(p, Lua.OP_MUL));
+		assertEquals(4611686014132420609L, f.invoke(LuaValue.valueOf(Integer.MAX_VALUE), LuaValue.valueOf(Integer.MAX_VALUE)).arg1().tolong());
+		assertEquals(Lua.OP_MUL, opcodeOf(p, Lua.OP_MUL));
+	}
+
+	public void testQuickenedForLoops() throws Exception {
+		Prototype p = compile(
+			"local n = 0\n" +
+			"local a, b, c = ...\n" +
+			"for i = a, b, c or 1 do n = n + i end\n" +
+			"return n");
+		LuaClosure f = new LuaClosure(p, globals);
+		assertEquals(55, f.invoke(LuaValue.valueOf(1), LuaValue.valueOf(10)).toint(1));
+		assertEquals(Superinstructions.OP_FORLOOP_I, opcodeOf(p, Lua.OP_FORLOOP));
+		assertEquals(2.0 * Integer.MAX_VALUE - 2, f.invoke(LuaValue.valueOf(Integer.MAX_VALUE - 2), LuaValue.valueOf(Integer.MAX_VALUE), LuaValue.valueOf(2)).todouble(1));
+		assertEquals(2.0, f.invoke(LuaValue.valueOf(0.5), LuaValue.valueOf(2)).todouble(1));
+		assertEquals(2.0, f.invoke(LuaValue.valueOf(0.5), LuaValue.valueOf(2)).todouble(1));
+		assertEquals(Superinstructions.OP_FORLOOP_D, opcodeOf(p, Lua.OP_FORLOOP));
+		assertEquals(-6, f.invoke(LuaValue.valueOf(-1), LuaValue.valueOf(-3), LuaValue.valueOf(-1)).toint(1));
+		assertEquals(Superinstructions.OP_FORLOOP_D, opcodeOf(p, Lua.OP_FORLOOP));
+	}
+}
@@ -415,5 +415,39 @@ public class TableTest extends TestCase {
 			actual.add(n.arg1() + "=" + n.arg(2));
 		}
 		assertEquals(expected, actual);
-	}	
+	}
+
+	public void testPrimitiveArrays() {
+		LuaTable t = LuaTable.fromIntArray(new int[] { 1, -2, 3 });
+		assertEquals(3, t.length());
+		assertEquals(LuaValue.valueOf(-2), t.get(2));
+		assertTrue(java.util.Arrays.equals(new int[] { 1, -2, 3 }, t.toIntArray()));
+		assertTrue(java.util.Arrays.equals(new double[] { 1, -2, 3 }, t.toDoubleArray()));
+
+		t = LuaTable.fromDoubleArray(new double[] { .5, 2 });
+		assertEquals(2, t.length());
+		assertEquals(LuaValue.valueOf(.5), t.get(1));
+		assertTrue(java.util.Arrays.equals(new double[] { .5, 2 }, t.toDoubleArray()));
+		assertTrue(java.util.Arrays.equals(new long[] { 0, 2 }, t.toLongArray()));
+
+		t = LuaTable.fromLongArray(new long[] { 1L << 40 });
+		assertTrue(java.util.Arrays.equals(new long[] { 1L << 40 }, t.toLongArray()));
+
+		t = LuaTable.fromStringArray(new String[] { "a", "b" });
+		assertTrue(java.util.Arrays.equals(new String[] { "a", "b" }, t.toStringArray()));
+		t = LuaValue.listOf(new LuaValue[] { LuaValue.valueOf("a"), LuaValue.NIL, LuaValue.valueOf(3), LuaValue.valueOf("d") });
+		t.set(5, LuaValue.valueOf("e"));
+		assertEquals(5, t.rawlen());
+		assertTrue(java.util.Arrays.equals(new String[] { "a", null, "3", "d", "e" }, t.toStringArray()));
+		assertEquals(0, LuaTable.fromIntArray(new int[0]).length());
+	}
+
+	public void testToArrayFromHashPart() {
+		LuaTable t = new_Table();
+		for (int i = 5; i >= 1; --i)
+			t.set(i, LuaValue.valueOf(i * 10));
+		t.set("n", LuaValue.valueOf(5));
+		assertTrue(java.util.Arrays.equals(new int[] { 10, 20, 30, 40, 50 }, t.toIntArray()));
+		assertTrue(java.util.Arrays.equals(new String[] { "10", "20", "30", "40", "50" }, t.toStringArray()));
+	}
 }
@@ -0,0 +1,133 @@
+package org.luaj.vm2.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.BufferLoadState;
+import org.luaj.vm2.ConstantTable;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.Lua;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class ConstantTableTest extends TestCase {
+
+	static final String DATA =
+		"return {\n" +
+		"	{ id = 1, name = 'first', tags = { 'a', 'b' }, pos = { x = 1.5, y = -2 } },\n" +
+		"	{ id = 2, name = 'second', tags = {}, [3.5] = true, ['key with space'] = false },\n" +
+		"	1, 'two', nil, 4,\n" +
+		"	[10] = 'ten', name = 'x', name = 'y', gone = nil,\n" +
+		"}\n";
+
+	static final String CHECK =
+		"local t = ...\n" +
+		"local a, b = t[1], t[2]\n" +
+		"return a.id, a.name, #a.tags, a.tags[2], a.pos.x, a.pos.y,\n" +
+		"	b.id, #b.tags, b[3.5], b['key with space'],\n" +
+		"	t[3], t[4], t[5], t[6], t[10], t.name, t.gone\n";
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private static Prototype compile(LuaC compiler, String script) throws IOException {
+		return compiler.compile(new ByteArrayInputStream(script.getBytes()), "script");
+	}
+
+	private LuaValue run(Prototype p) {
+		return new LuaClosure(p, globals).call();
+	}
+
+	private static int count(Prototype p, int op) {
+		int n = 0;
+		for (int i : p.code)
+			if (Lua.GET_OPCODE(i) == op)
+				++n;
+		return n;
+	}
+
+	private void checkData(LuaValue t) {
+		Varargs v = globals.load(CHECK, "check").invoke(t);
+		assertEquals(1, v.arg(1).toint());
+		assertEquals("first", v.arg(2).tojstring());
+		assertEquals(2, v.arg(3).toint());
+		assertEquals("b", v.arg(4).tojstring());
+		assertEquals(1.5, v.arg(5).todouble());
+		assertEquals(-2, v.arg(6).toint());
+		assertEquals(2, v.arg(7).toint());
+		assertEquals(0, v.arg(8).toint());
+		assertEquals(LuaValue.TRUE, v.arg(9));
+		assertEquals(LuaValue.FALSE, v.arg(10));
+		assertEquals(1, v.arg(11).toint());
+		assertEquals("two", v.arg(12).tojstring());
+		assertTrue(v.arg(13).isnil());
+		assertEquals(4, v.arg(14).toint());
+		assertEquals("ten", v.arg(15).tojstring());
+		assertEquals("y", v.arg(16).tojstring());
+		assertTrue(v.arg(17).isnil());
+	}
+
+	public void testDataFileIsOneTemplate() throws IOException {
+		Prototype p = compile(LuaC.optimizing, DATA);
+		assertEquals(0, count(p, Lua.OP_NEWTABLE));
+		assertEquals(0, count(p, Lua.OP_SETLIST));
+		assertEquals(1, p.k.length);
+		assertTrue(p.k[0] instanceof ConstantTable);
+		checkData(run(p));
+		checkData(run(compile(LuaC.instance, DATA)));
+	}
+
+	public void testFreshTablePerEvaluation() throws IOException {
+		Prototype p = compile(LuaC.optimizing,
+			"local function f() return { 1, { 2 }, x = { y = {} } } end\n" +
+			"local a, b = f(), f()\n" +
+			"a[2][1] = 20 a.x.y.z = 1\n" +
+			"return a ~= b, a[2] ~= b[2], a.x.y ~= b.x.y, b[2][1], b.x.y.z");
+		Varargs v = new LuaClosure(p, globals).invoke();
+		assertTrue(v.arg(1).toboolean());
+		assertTrue(v.arg(2).toboolean());
+		assertTrue(v.arg(3).toboolean());
+		assertEquals(2, v.arg(4).toint());
+		assertTrue(v.arg(5).isnil());
+	}
+
+	public void testNonConstantItems() throws IOException {
+		String script =
+			"local x = 5\n" +
+			"local t = { x, { x }, { 1 }, [1] = 'a', f = function() return 1 end }\n" +
+			"local u = { [1] = 'a', 'b' }\n" +
+			"local w = { 'b', [1] = 'a', [2] = 'c' }\n" +
+			"return t[1], t[2][1], t[3][1], t.f(), u[1], w[1], w[2], pcall(function() return { [nil] = 1 } end)";
+		Prototype p = compile(LuaC.optimizing, script);
+		assertEquals(4, count(p, Lua.OP_NEWTABLE));
+		Varargs v = new LuaClosure(p, globals).invoke();
+		Varargs e = new LuaClosure(compile(LuaC.instance, script), globals).invoke();
+		assertEquals(e.narg(), v.narg());
+		for (int i = 1; i <= e.narg(); i++)
+			assertEquals(e.arg(i).tojstring(), v.arg(i).tojstring());
+	}
+
+	public void testDumpAndUndump() throws IOException {
+		Prototype p = compile(LuaC.optimizing, DATA);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DumpState.dump(p, baos, true);
+		byte[] dumped = baos.toByteArray();
+		Prototype q = globals.loadPrototype(new ByteArrayInputStream(dumped), "data", "b");
+		assertTrue(q.k[0] instanceof ConstantTable);
+		checkData(run(q));
+		ConstantTable t = (ConstantTable) q.k[0];
+		assertSame(((ConstantTable) t.array[0]).keys[1], ((ConstantTable) t.array[1]).keys[1]);
+		checkData(run(BufferLoadState.undump(ByteBuffer.wrap(dumped), "data")));
+	}
+}
@@ -8,13 +8,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 
 import junit.framework.TestCase;
 
+import org.luaj.vm2.BufferLoadState;
 import org.luaj.vm2.Globals;
 import org.luaj.vm2.LoadState;
 import org.luaj.vm2.LuaClosure;
 import org.luaj.vm2.LuaFunction;
+import org.luaj.vm2.LuaString;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Prototype;
 import org.luaj.vm2.lib.jse.JsePlatform;
@@ -80,6 +83,28 @@ public class DumpLoadEndianIntTest extends TestCase {
 		doTest( true, DumpState.NUMBER_FORMAT_NUM_PATCH_INT32, true, mixedscript, withdoubles, withdoubles, SHOULDPASS );
 	}
 	
+	public void testBufferLoadLazyDebugInfo() throws IOException {
+		String script = "local a, b = 1, 2\nlocal function f() return a + b end\nreturn f()";
+		Prototype p = globals.compilePrototype(new StringReader(script), "script");
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DumpState.dump(p, baos, false);
+
+		Prototype q = BufferLoadState.undump(ByteBuffer.wrap(baos.toByteArray()), "script");
+		assertEquals( 0, q.lineinfo.length );
+		assertEquals( 0, q.locvars.length );
+		assertNull( q.p[0].upvalues[0].name );
+		assertEquals( LuaString.valueOf("a"), q.getlocalname(1, q.code.length - 1) );
+		assertEquals( p.lineinfo.length, q.lineinfo.length );
+		for ( int i = 0; i < p.lineinfo.length; ++i )
+			assertEquals( p.lineinfo[i], q.lineinfo[i] );
+		assertEquals( p.locvars.length, q.locvars.length );
+		q.p[0].loaddebug();
+		assertEquals( p.p[0].upvalues[0].name, q.p[0].upvalues[0].name );
+		assertEquals( 3, new LuaClosure(q, globals).call().toint() );
+
+		assertNull( BufferLoadState.undump(ByteBuffer.wrap(script.getBytes()), "script") );
+	}
+
 	public void doTest( boolean littleEndian, int numberFormat, boolean stripDebug, 
 			String script, String expectedPriorDump, String expectedPostDump, boolean shouldPass ) {
         try {
@@ -115,6 +140,14 @@ public class DumpLoadEndianIntTest extends TestCase {
             actual = r.tojstring();
             assertEquals( expectedPostDump, actual );
 
+            // load again from heap and direct buffers
+            f = new LuaClosure(BufferLoadState.undump(ByteBuffer.wrap(dumped), "dumped"), globals);
+            assertEquals( expectedPostDump, f.call().tojstring() );
+            ByteBuffer direct = ByteBuffer.allocateDirect(dumped.length);
+            direct.put(dumped).flip();
+            f = new LuaClosure(BufferLoadState.undump(direct, "dumped"), globals);
+            assertEquals( expectedPostDump, f.call().tojstring() );
+
             // write test chunk
             if ( System.getProperty(SAVECHUNKS) != null && script.equals(mixedscript) ) {
             	new File("build").mkdirs();
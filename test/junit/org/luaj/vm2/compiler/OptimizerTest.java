@@ -0,0 +1,166 @@
+package org.luaj.vm2.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LocVars;
+import org.luaj.vm2.Lua;
+import org.luaj.vm2.LuaBoolean;
+import org.luaj.vm2.LuaClosure;
+import org.luaj.vm2.LuaFunction;
+import org.luaj.vm2.LuaNil;
+import org.luaj.vm2.LuaNumber;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaThread;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class OptimizerTest extends TestCase {
+
+	private static final String dir = "test/lua/";
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private static Prototype compile(LuaC compiler, String script) throws IOException {
+		return compiler.compile(new ByteArrayInputStream(script.getBytes()), "script");
+	}
+
+	private static int count(Prototype p) {
+		int n = p.code.length;
+		for (Prototype sub : p.p)
+			n += count(sub);
+		return n;
+	}
+
+	private static int count(Prototype p, int op) {
+		int n = 0;
+		for (int i : p.code)
+			if (Lua.GET_OPCODE(i) == op)
+				++n;
+		return n;
+	}
+
+	private static void checkDebugInfo(Prototype p) {
+		assertEquals( p.code.length, p.lineinfo.length );
+		for (LocVars l : p.locvars) {
+			assertTrue( l.startpc <= l.endpc );
+			assertTrue( l.endpc <= p.code.length );
+		}
+		for (Prototype sub : p.p)
+			checkDebugInfo(sub);
+	}
+
+	private void doTest(String script, String expected, boolean shrinks) throws IOException {
+		Prototype p = compile(LuaC.instance, script);
+		Prototype q = compile(LuaC.optimizing, script);
+		checkDebugInfo(q);
+		if (shrinks)
+			assertTrue( count(q) < count(p) );
+		else
+			assertTrue( count(q) <= count(p) );
+		assertEquals( expected, new LuaClosure(p, globals).call().tojstring() );
+		assertEquals( expected, new LuaClosure(q, globals).call().tojstring() );
+	}
+
+	public void testDeadCodeAfterReturn() throws IOException {
+		doTest( "local a = 1\ndo return a end\nlocal b = 2\nreturn b", "1", true );
+	}
+
+	public void testJumpThreading() throws IOException {
+		doTest( "local n = 0\n" +
+				"for i = 1, 10 do\n" +
+				"  if i % 2 == 0 then\n" +
+				"    if i % 3 == 0 then n = n + 1 else n = n + 2 end\n" +
+				"  else\n" +
+				"    n = n + 3\n" +
+				"  end\n" +
+				"end\n" +
+				"return n", "24", true );
+	}
+
+	public void testLoopsAndBreaks() throws IOException {
+		doTest( "local t = {}\n" +
+				"local i = 0\n" +
+				"while true do\n" +
+				"  i = i + 1\n" +
+				"  if i > 5 then break end\n" +
+				"  repeat t[#t+1] = i until true\n" +
+				"end\n" +
+				"for _, v in ipairs(t) do if v == 3 then goto done end end\n" +
+				"::done::\n" +
+				"return table.concat(t, ',')", "1,2,3,4,5", false );
+	}
+
+	public void testLoadBoolAndTests() throws IOException {
+		doTest( "local a, b = 1, nil\n" +
+				"local x = a == 1\n" +
+				"local y = not b and a < 2\n" +
+				"local z = (a and b) or (b and a) or 'none'\n" +
+				"return tostring(x) .. tostring(y) .. z", "truetruenone", false );
+	}
+
+	public void testUpvaluesInLoops() throws IOException {
+		doTest( "local fs = {}\n" +
+				"for i = 1, 3 do\n" +
+				"  local j = i\n" +
+				"  fs[i] = function() return j end\n" +
+				"  if i == 2 then j = 20 end\n" +
+				"end\n" +
+				"return fs[1]() + fs[2]() + fs[3]()", "24", false );
+	}
+
+	public void testNotTestFolding() throws IOException {
+		String script = "local a, b = false, 'b'\nlocal c = not a\nif c then return b end\nreturn 'x'";
+		Prototype p = compile(LuaC.instance, script);
+		assertEquals( 1, count(p, Lua.OP_NOT) );
+
+		// a named local may be observed through the debug library, so is left alone
+		Prototype q = compile(LuaC.optimizing, script);
+		assertEquals( 1, count(q, Lua.OP_NOT) );
+
+		// without local variable info it is a temporary, so the not is folded into the test
+		p.locvars = new LocVars[0];
+		Optimizer.optimize(p);
+		assertEquals( 0, count(p, Lua.OP_NOT) );
+		assertEquals( "b", new LuaClosure(p, globals).call().tojstring() );
+	}
+
+	public void testScriptsMatchUnoptimized() throws IOException {
+		String[] scripts = { "functions", "manyupvals", "metatags", "tailcalls", "upvalues", "vm" };
+		for (String name : scripts)
+			assertEquals( name, runScript(name, LuaC.instance), runScript(name, LuaC.optimizing) );
+	}
+
+	private String runScript(String name, LuaC compiler) throws IOException {
+		Globals g = JsePlatform.debugGlobals();
+		LuaC.install(g, compiler == LuaC.optimizing);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		g.STDOUT = new PrintStream(output);
+		LuaValue saved = LuaString.s_metatable;
+		try (InputStream is = new FileInputStream(dir + name + ".lua")) {
+			g.load(is, "@" + name + ".lua", "t", g).call(LuaValue.valueOf("JSE"));
+		} finally {
+			LuaNil.s_metatable = null;
+			LuaBoolean.s_metatable = null;
+			LuaNumber.s_metatable = null;
+			LuaFunction.s_metatable = null;
+			LuaThread.s_metatable = null;
+			LuaString.s_metatable = saved;
+		}
+		g.STDOUT.flush();
+		return output.toString();
+	}
+}
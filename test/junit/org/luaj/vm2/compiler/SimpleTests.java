@@ -1,11 +1,15 @@
 package org.luaj.vm2.compiler;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
 import junit.framework.TestCase;
 
 import org.luaj.vm2.Globals;
 import org.luaj.vm2.LuaDouble;
 import org.luaj.vm2.LuaInteger;
 import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
 import org.luaj.vm2.lib.jse.JsePlatform;
 
 public class SimpleTests extends TestCase {
@@ -93,4 +97,30 @@ public class SimpleTests extends TestCase {
 			assertTrue("hash codes are same: "+hc,hc!=hd);
 		}
 	}
+
+	public void testTokensAcrossInputWindows() {
+		StringBuilder sb = new StringBuilder("local t, n = {}, 0 -- \u00e9t\u00e9\n");
+		for (int i = 0; i < 3000; i++)
+			sb.append("t[#t+1] = { name_").append(i).append(" = ").append(i).append(", ")
+				.append(i * 0.5).append(", 'q\\\'").append(i).append("', [==[long\r\n").append(i).append("]]==] }\n");
+		sb.append("for _, r in ipairs(t) do for k, v in pairs(r) do n = n + #tostring(v) + #tostring(k) end end\n");
+		sb.append("return #t, n, t[2999][2], t[2999][1], t[2999].name_2998, t[17][3], '\u00e9'");
+		final byte[] bytes = sb.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+		InputStream trickle = new ByteArrayInputStream(bytes) {
+			int n = 0;
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1 + (n++ % 7)));
+			}
+		};
+		Varargs expected = globals.load(sb.toString(), "script").invoke();
+		Varargs actual = globals.load(trickle, "script", "t", globals).invoke();
+		assertEquals(3000, expected.arg(1).toint());
+		assertEquals("q'2998", expected.arg(3).tojstring());
+		assertEquals(1499.0, expected.arg(4).todouble());
+		assertEquals(2998, expected.arg(5).toint());
+		assertEquals("long\n16]", expected.arg(6).tojstring());
+		assertEquals(2, expected.arg(7).length());
+		for (int i = 1; i <= 7; i++)
+			assertEquals(expected.arg(i), actual.arg(i));
+	}
 }
@@ -0,0 +1,162 @@
+package org.luaj.vm2.lib;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class ByteBufTest extends TestCase {
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Varargs run(String script, LuaValue... args) {
+		return globals.load(script, "script").invoke(LuaValue.varargsOf(args));
+	}
+
+	public void testBuildAndParse() {
+		Varargs v = run(
+			"local b = bytebuf.new()\n" +
+			"b:pack('>I2 s1', 7, 'hi'):append('xyz', 42, bytebuf.new('!'))\n" +
+			"b[#b + 1] = 65\n" +
+			"local n, s, next = b:unpack('>I2 s1')\n" +
+			"local i, j = b:find('z4')\n" +
+			"return #b, b:tostring(), b[1], b[2], b[100], n, s, next, i, j, b:find('q'), select('#', b:byte(2, -2))");
+		assertEquals(12, v.arg(1).toint());
+		assertEquals(LuaString.valueOf(new byte[] {0, 7, 2, 'h', 'i', 'x', 'y', 'z', '4', '2', '!', 'A'}), v.arg(2));
+		assertEquals(0, v.arg(3).toint());
+		assertEquals(7, v.arg(4).toint());
+		assertTrue(v.arg(5).isnil());
+		assertEquals(7, v.arg(6).toint());
+		assertEquals("hi", v.arg(7).tojstring());
+		assertEquals(6, v.arg(8).toint());
+		assertEquals(8, v.arg(9).toint());
+		assertEquals(9, v.arg(10).toint());
+		assertTrue(v.arg(11).isnil());
+		assertEquals(10, v.arg(12).toint());
+	}
+
+	public void testSlicesShareBytes() {
+		Varargs v = run(
+			"local b = bytebuf.new('abcdef')\n" +
+			"local s = b:slice(2, 4)\n" +
+			"s[1] = 66\n" +
+			"b:append(string.rep('x', 1000))\n" +
+			"b[3] = 67\n" +
+			"local ok, err = pcall(s.append, s, 'x')\n" +
+			"return s:tostring(), b:tostring(1, 6), #s, err, s:slice(-1):tostring()");
+		assertEquals("BCd", v.arg(1).tojstring());
+		assertEquals("aBCdef", v.arg(2).tojstring());
+		assertEquals(3, v.arg(3).toint());
+		assertTrue(v.arg(4).tojstring(), v.arg(4).tojstring().contains("cannot grow a slice"));
+		assertEquals("d", v.arg(5).tojstring());
+	}
+
+	public void testSlicesSeeShrinks() {
+		Varargs v = run(
+			"local b = bytebuf.new('abcdef')\n" +
+			"local s = b:slice(3, 6)\n" +
+			"b:resize(4)\n" +
+			"local n1, t1, last = #s, s:tostring(), s[3]\n" +
+			"b:resize(1)\n" +
+			"local n2, ok = #s, pcall(function() s[1] = 1 end)\n" +
+			"b:resize(8)\n" +
+			"return n1, t1, last, n2, ok, #s, s[4]");
+		assertEquals(2, v.arg(1).toint());
+		assertEquals("cd", v.arg(2).tojstring());
+		assertTrue(v.arg(3).isnil());
+		assertEquals(0, v.arg(4).toint());
+		assertFalse(v.arg(5).toboolean());
+		assertEquals(4, v.arg(6).toint());
+		assertEquals(0, v.arg(7).toint());
+	}
+
+	public void testFractionalIndexes() {
+		Varargs v = run(
+			"local b = bytebuf.new('ab')\n" +
+			"return b[1.5], b[1], b[2^40]");
+		assertTrue(v.arg(1).isnil());
+		assertEquals('a', v.arg(2).toint());
+		assertTrue(v.arg(3).isnil());
+	}
+
+	public void testStringsDoNotChange() {
+		ByteBuf b = new ByteBuf(0);
+		for (int i = 0; i < 100; i++)
+			b.append(LuaString.valueOf("a"));
+		LuaString s = b.tostring(0, 100);
+		assertSame(b.array(), s.m_bytes);
+		b.set(1, LuaValue.valueOf('b'));
+		assertEquals('a', s.luaByte(0));
+		assertEquals('b', b.byteAt(0));
+		assertNotSame(b.array(), s.m_bytes);
+		LuaString shortstring = b.tostring(0, 3);
+		assertNotSame(b.array(), shortstring.m_bytes);
+	}
+
+	public void testPackAtAndResize() {
+		Varargs v = run(
+			"local b = bytebuf.new('....')\n" +
+			"b:packat(1, '<i2', -2):packat(-1, 'B', 9):packat(5, '>I2', 258)\n" +
+			"local bytes = { b:byte(1, -1) }\n" +
+			"b:resize(2):resize(4)\n" +
+			"return table.concat(bytes, ','), table.concat({ b:byte(1, -1) }, ',')");
+		assertEquals("254,255,46,9,1,2", v.arg(1).tojstring());
+		assertEquals("254,255,0,0", v.arg(2).tojstring());
+	}
+
+	public void testErrors() {
+		String[][] cases = {
+			{"bytebuf.new('ab')[4] = 1", "index out of range"},
+			{"bytebuf.new('ab')[1] = 256", "byte value out of range"},
+			{"bytebuf.new('ab').x = 1", "cannot set field 'x' of a bytebuf"},
+			{"bytebuf.new('ab'):slice(1, 1):resize(2)", "cannot grow a slice"},
+			{"bytebuf.new('ab')[1.5] = 1", "index out of range"},
+			{"bytebuf.new(-5)", "negative size"},
+			{"bytebuf.new('ab'):unpack('i4')", "data string too short"},
+			{"bytebuf.new('ab'):packat(4, 'b', 1)", "position out of range"},
+			{"bytebuf.new().append('x')", "bytebuf expected, got string"},
+		};
+		for (String[] c : cases) {
+			Varargs v = run("return pcall(function() " + c[0] + " end)");
+			assertFalse(c[0], v.arg1().toboolean());
+			assertTrue(c[0] + ": " + v.arg(2), v.arg(2).tojstring().contains(c[1]));
+		}
+	}
+
+	public void testFiles() throws Exception {
+		File file = File.createTempFile("bytebuf", ".bin");
+		try {
+			Varargs v = run(
+				"local name = ...\n" +
+				"local b = bytebuf.new(string.rep('a', 100))\n" +
+				"local f = io.open(name, 'wb')\n" +
+				"f:write(b, b:slice(1, 5), 'z')\n" +
+				"f:close()\n" +
+				"local r = bytebuf.new()\n" +
+				"f = io.open(name, 'rb')\n" +
+				"local n1, n2, n3 = r:readfrom(f, 10), r:readfrom(f), r:readfrom(f)\n" +
+				"f:close()\n" +
+				"return n1, n2, n3, #r, r[#r]",
+				LuaValue.valueOf(file.getPath()));
+			assertEquals(10, v.arg(1).toint());
+			assertEquals(96, v.arg(2).toint());
+			assertTrue(v.arg(3).isnil());
+			assertEquals(106, v.arg(4).toint());
+			assertEquals('z', v.arg(5).toint());
+			assertEquals(106, Files.size(file.toPath()));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.luaj.vm2.lib;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Buffer;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class JsonLibTest extends TestCase {
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Varargs run(String script, LuaValue... args) {
+		return globals.load(script, "script").invoke(LuaValue.varargsOf(args));
+	}
+
+	public void testDecode() {
+		Varargs v = run(
+			"local t = json.decode(' {\"a\": [1, -2.5, 3e2, 1E-2, null, true, false], \"s\": \"q\\\\\"\\\\\\\\\\\\/\\\\n\\\\u00e9\\\\ud83d\\\\ude00\",\\n" +
+			"	\"big\": 12345678901234567890, \"o\": {}, \"e\": [] } ')\n" +
+			"return t.a[1], t.a[2], t.a[3], t.a[4], t.a[5] == json.null, t.a[6], t.a[7], #t.a, t.s, t.big, next(t.o), #t.e");
+		assertEquals(1, v.arg(1).toint());
+		assertEquals(-2.5, v.arg(2).todouble());
+		assertEquals(300, v.arg(3).toint());
+		assertEquals(0.01, v.arg(4).todouble());
+		assertTrue(v.arg(5).toboolean());
+		assertEquals(LuaValue.TRUE, v.arg(6));
+		assertEquals(LuaValue.FALSE, v.arg(7));
+		assertEquals(7, v.arg(8).toint());
+		assertEquals(LuaString.valueOf("q\"\\/\n\u00e9\ud83d\ude00".getBytes(StandardCharsets.UTF_8)), v.arg(9));
+		assertEquals(12345678901234567890.0, v.arg(10).todouble());
+		assertTrue(v.arg(11).isnil());
+		assertEquals(0, v.arg(12).toint());
+	}
+
+	public void testEncode() {
+		Varargs v = run(
+			"return json.encode({ 1, 2.5, 'x', true, false, json.null }), json.encode({}),\n" +
+			"	json.encode(setmetatable({}, json.array_mt)), json.encode({ a = json.empty_array }),\n" +
+			"	json.encode('a\"b\\\\c\\n\\1\\200'), json.encode({ [1.5] = 1 }), json.encode({ 0.1, 1/3, -0.05, 1e300, -2^53, 2^63, -2^63 }),\n" +
+			"	json.encode({ json.null, false }, { null = false }), json.encode(setmetatable({ 1 }, { __jsontype = 'object' }))");
+		assertEquals("[1,2.5,\"x\",true,false,null]", v.arg(1).tojstring());
+		assertEquals("{}", v.arg(2).tojstring());
+		assertEquals("[]", v.arg(3).tojstring());
+		assertEquals("{\"a\":[]}", v.arg(4).tojstring());
+		assertEquals(LuaString.valueOf(new byte[] {'"', 'a', '\\', '"', 'b', '\\', '\\', 'c', '\\', 'n', '\\', 'u', '0', '0', '0', '1', (byte) 200, '"'}), v.arg(5));
+		assertEquals("{\"1.5\":1}", v.arg(6).tojstring());
+		assertEquals("[0.1,0.3333333333333333,-0.05,1.0E300,-9007199254740992,9.223372036854776E18,-9223372036854775808]", v.arg(7).tojstring());
+		assertEquals("[null,null]", v.arg(8).tojstring());
+		assertEquals("{\"1\":1}", v.arg(9).tojstring());
+	}
+
+	public void testRoundTrip() {
+		Varargs v = run(
+			"local t = { list = { 1, 2, { x = 'y' } }, n = -123456789012, f = 0.125, s = '\\0\\31\\127 \\226\\130\\172' }\n" +
+			"local u = json.decode(json.encode(t))\n" +
+			"local e = json.decode('{\"a\": [], \"b\": [[]]}', { array_mt = true })\n" +
+			"return u.list[3].x, u.n, u.f, u.s == t.s, json.encode(e.a), json.encode(e.b), json.decode('[null]', { null = 0 })[1]");
+		assertEquals("y", v.arg(1).tojstring());
+		assertEquals(-123456789012L, v.arg(2).tolong());
+		assertEquals(0.125, v.arg(3).todouble());
+		assertTrue(v.arg(4).toboolean());
+		assertEquals("[]", v.arg(5).tojstring());
+		assertEquals("[[]]", v.arg(6).tojstring());
+		assertEquals(0, v.arg(7).toint());
+	}
+
+	public void testErrors() {
+		String[][] cases = {
+			{"json.decode('[1, 2')", "position 6: unexpected end of text"},
+			{"json.decode('{\"a\" 1}')", "position 6: unexpected character '1'"},
+			{"json.decode('[1] x')", "position 5: unexpected character 'x'"},
+			{"json.decode('[01]')", "malformed number"},
+			{"json.decode('[1.]')", "malformed number"},
+			{"json.decode('\"abc')", "unterminated string"},
+			{"json.decode('\"\\\\x\"')", "invalid escape"},
+			{"json.decode('\"\\\\ud800x\"')", "invalid surrogate pair"},
+			{"json.decode('[tru]')", "unexpected character ']'"},
+			{"json.decode(string.rep('[', 2000))", "nested too deeply"},
+			{"json.encode({ f = print })", "cannot encode a function"},
+			{"json.encode({ [{}] = 1 })", "cannot encode a table key of type table"},
+			{"local t = {} t[1] = t json.encode(t)", "nested too deeply or with cycles"},
+			{"json.encode(0/0)", "cannot encode nan"},
+		};
+		for (String[] c : cases) {
+			Varargs v = run("return pcall(function() " + c[0] + " end)");
+			assertFalse(c[0], v.arg1().toboolean());
+			assertTrue(c[0] + ": " + v.arg(2), v.arg(2).tojstring().contains(c[1]));
+		}
+	}
+
+	public void testReaderFunction() throws Exception {
+		Varargs v = run(
+			"local chunks, i = { '{\"ke', 'y\": [1', '23.4', '5, \"ab', 'c\\\\', 'u0041\"], \"e\":', 'tru', 'e}' }, 0\n" +
+			"local t = json.decode(function() i = i + 1 return chunks[i] end)\n" +
+			"return t.key[1], t.key[2], t.e");
+		assertEquals(123.45, v.arg(1).todouble());
+		assertEquals("abcA", v.arg(2).tojstring());
+		assertEquals(LuaValue.TRUE, v.arg(3));
+
+		File file = File.createTempFile("jsonlib", ".json");
+		try {
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 1; i <= 1000; i++)
+				sb.append(i > 1 ? "," : "").append("{\"id\":").append(i).append(",\"name\":\"n\\u0041").append(i).append("\"}");
+			Files.write(file.toPath(), sb.append("]").toString().getBytes());
+			for (int size : new int[] {1, 7, 4096}) {
+				v = run(
+					"local t = json.decode(io.lines(..., " + size + "))\n" +
+					"return #t, t[1000].id, t[1000].name, t[1] ~= t[2]",
+					LuaValue.valueOf(file.getPath()));
+				assertEquals(1000, v.arg(1).toint());
+				assertEquals(1000, v.arg(2).toint());
+				assertEquals("nA1000", v.arg(3).tojstring());
+				assertTrue(v.arg(4).toboolean());
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testEvents() {
+		Varargs v = run(
+			"local out = {}\n" +
+			"for ev, v in json.events('{\"a\": [1, {\"b\": null}], \"c\": \"d\", \"e\": {}}') do\n" +
+			"	out[#out + 1] = v ~= nil and ev .. '=' .. tostring(v) or ev\n" +
+			"end\n" +
+			"local ids = {}\n" +
+			"for ev, v in json.events('[{\"id\": 1}, {\"id\": 2}, 3]', { depth = 1 }) do\n" +
+			"	ids[#ids + 1] = ev == 'value' and (type(v) == 'table' and v.id or v) or ev\n" +
+			"end\n" +
+			"local co = coroutine.wrap(function()\n" +
+			"	for ev in json.events('[[1]]') do coroutine.yield(ev) end\n" +
+			"	return 'done'\n" +
+			"end)\n" +
+			"local steps = {}\n" +
+			"repeat steps[#steps + 1] = co() until steps[#steps] == 'done'\n" +
+			"local ok, err = pcall(function() for ev in json.events('[1 2]') do end end)\n" +
+			"return table.concat(out, ' '), table.concat(ids, ' '), table.concat(steps, ' '), err");
+		assertEquals("begin_object key=a begin_array value=1 begin_object key=b value=json.null end_object end_array " +
+			"key=c value=d key=e begin_object end_object end_object", v.arg(1).tojstring());
+		assertEquals("begin_array 1 2 3 end_array", v.arg(2).tojstring());
+		assertEquals("begin_array begin_array value end_array end_array done", v.arg(3).tojstring());
+		assertTrue(v.arg(4).tojstring(), v.arg(4).tojstring().contains("unexpected character '2'"));
+	}
+
+	public void testJavaApi() {
+		LuaTable t = new LuaTable();
+		t.set(1, LuaValue.valueOf("a"));
+		t.set(2, JsonLib.NULL);
+		Buffer b = new Buffer();
+		b.append("x=");
+		JsonLib.encode(t, b);
+		assertEquals("x=[\"a\",null]", b.tojstring());
+		assertEquals("[\"a\",null]", JsonLib.encode(t).tojstring());
+		LuaValue u = JsonLib.decode(LuaString.valueOf("{\"k\": [true]}"));
+		assertEquals(LuaValue.TRUE, u.get("k").get(1));
+	}
+}
@@ -0,0 +1,174 @@
+package org.luaj.vm2.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class MarshalLibTest extends TestCase {
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Varargs run(String script) {
+		return globals.load(script, "script").invoke();
+	}
+
+	public void testValues() {
+		Varargs v = run(
+			"local t = { 1, 2.5, 'three', true, false, [-7] = 2^40, [1.5] = 'f', name = 'three', nested = { 'x' } }\n" +
+			"local u, next = marshal.decode(marshal.encode(t))\n" +
+			"return u[1], u[2], u[3], u[4], u[5], u[-7], u[1.5], u.name, u.nested[1], #u, next, #marshal.encode(t)");
+		assertEquals(1, v.arg(1).toint());
+		assertEquals(2.5, v.arg(2).todouble());
+		assertEquals("three", v.arg(3).tojstring());
+		assertEquals(LuaValue.TRUE, v.arg(4));
+		assertEquals(LuaValue.FALSE, v.arg(5));
+		assertEquals(1L << 40, v.arg(6).tolong());
+		assertEquals("f", v.arg(7).tojstring());
+		assertEquals("three", v.arg(8).tojstring());
+		assertEquals("x", v.arg(9).tojstring());
+		assertEquals(5, v.arg(10).toint());
+		assertEquals(v.arg(12).toint() + 1, v.arg(11).toint());
+	}
+
+	public void testSharedReferencesAndMetatables() {
+		Varargs v = run(
+			"local t = { a = { 1 } }\n" +
+			"t.self, t.b = t, t.a\n" +
+			"setmetatable(t.a, { __index = function(_, k) return k .. '!' end })\n" +
+			"local u = marshal.decode(marshal.encode(t), 1, { functions = true })\n" +
+			"return u ~= t, u.self == u, u.a == u.b, u.a.x, _G == marshal.decode(marshal.encode(_G))");
+		for (int i = 1; i <= 3; i++)
+			assertTrue(String.valueOf(i), v.arg(i).toboolean());
+		assertEquals("x!", v.arg(4).tojstring());
+		assertTrue(v.arg(5).toboolean());
+	}
+
+	public void testFunctionsKeepSharedUpvalues() {
+		Varargs v = run(
+			"local n = 10\n" +
+			"local function inc() n = n + 1 return n end\n" +
+			"local function get() return n end\n" +
+			"local f = marshal.decode(marshal.encode({ inc = inc, get = get, alias = inc }), 1, { functions = true })\n" +
+			"f.inc() f.alias()\n" +
+			"return f.get(), n, f.inc == f.alias, type(f.get)");
+		assertEquals(12, v.arg(1).toint());
+		assertEquals(10, v.arg(2).toint());
+		assertTrue(v.arg(3).toboolean());
+		assertEquals("function", v.arg(4).tojstring());
+	}
+
+	public void testFunctionsAreOptIn() {
+		Varargs v = run(
+			"local s = marshal.encode({ f = function() return 1 end })\n" +
+			"local ok, e = pcall(marshal.decode, s)\n" +
+			"return ok, e, marshal.decode(s, 1, { functions = true }).f()");
+		assertFalse(v.arg(1).toboolean());
+		assertTrue(v.arg(2).tojstring(), v.arg(2).tojstring().contains("not enabled"));
+		assertEquals(1, v.arg(3).toint());
+	}
+
+	public void testTableSizesAreBoundedByInput() {
+		Varargs v = run(
+			"local _, a = pcall(marshal.decode, '\\7\\255\\255\\255\\255\\7\\255\\255\\255\\255\\7')\n" +
+			"local _, b = pcall(marshal.decode, '\\7\\0\\255\\255\\255\\255\\7' .. string.rep('\\2', 10))\n" +
+			"return a, b");
+		assertTrue(v.arg(1).tojstring(), v.arg(1).tojstring().contains("truncated"));
+		assertTrue(v.arg(2).tojstring(), v.arg(2).tojstring().contains("truncated"));
+	}
+
+	public void testSuccessiveValuesInOneString() {
+		Varargs v = run(
+			"local s = marshal.encode('a') .. marshal.encode(42) .. marshal.encode(nil) .. marshal.encode({})\n" +
+			"local a, p = marshal.decode(s)\n" +
+			"local b, q = marshal.decode(s, p)\n" +
+			"local c, r = marshal.decode(s, q)\n" +
+			"local d, e = marshal.decode(s, r)\n" +
+			"return a, b, c, type(d), e == #s + 1");
+		assertEquals("a", v.arg(1).tojstring());
+		assertEquals(42, v.arg(2).toint());
+		assertTrue(v.arg(3).isnil());
+		assertEquals("table", v.arg(4).tojstring());
+		assertTrue(v.arg(5).toboolean());
+	}
+
+	public void testErrors() {
+		Varargs v = run(
+			"local s = marshal.encode({ 1, 2, 3, 'four' })\n" +
+			"local _, a = pcall(marshal.encode, coroutine.create(print))\n" +
+			"local _, b = pcall(marshal.encode, print)\n" +
+			"local _, c = pcall(marshal.decode, s:sub(1, -2))\n" +
+			"local _, d = pcall(marshal.decode, '\\255')\n" +
+			"local _, e = pcall(marshal.decode, '\\7\\0\\1\\4\\0\\0\\0\\0\\0\\0\\248\\127\\2')\n" +
+			"return a, b, c, d, e");
+		assertTrue(v.arg(1).tojstring(), v.arg(1).tojstring().contains("cannot marshal a thread"));
+		assertTrue(v.arg(2).tojstring(), v.arg(2).tojstring().contains("cannot marshal a java function"));
+		assertTrue(v.arg(3).tojstring(), v.arg(3).tojstring().contains("truncated"));
+		assertTrue(v.arg(4).tojstring(), v.arg(4).tojstring().contains("malformed"));
+		assertTrue(v.arg(5).tojstring(), v.arg(5).tojstring().contains("table index is NaN"));
+	}
+
+	public void testStreams() throws IOException {
+		LuaTable t = new LuaTable();
+		for (int i = 1; i <= 5000; i++)
+			t.set(i, LuaValue.valueOf("value " + (i % 100)));
+		t.set("self", t);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MarshalLib.Encoder e = new MarshalLib.Encoder(out, globals);
+		e.write(t);
+		e.write(LuaValue.valueOf("next"));
+		/* deliver the input a few bytes at a time */
+		InputStream in = new FilterInputStream(new ByteArrayInputStream(out.toByteArray())) {
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+		MarshalLib.Decoder d = new MarshalLib.Decoder(in, globals);
+		LuaValue u = d.read();
+		assertEquals(5000, u.length());
+		assertEquals("value 99", u.get(99).tojstring());
+		assertSame(u, u.get("self"));
+		assertSame(u.get(1), u.get(101));
+		assertEquals("next", d.read().tojstring());
+		try {
+			d.read();
+			fail("expected error");
+		} catch (LuaError x) {
+			assertTrue(x.getMessage(), x.getMessage().contains("truncated"));
+		}
+	}
+
+	public void testByteBuffers() throws IOException {
+		for (ByteBuffer b : new ByteBuffer[] {ByteBuffer.allocate(100000), ByteBuffer.allocateDirect(100000)}) {
+			b.put((byte) 0x55);
+			MarshalLib.Encoder e = new MarshalLib.Encoder(b, globals);
+			LuaString big = LuaString.valueOf(new String(new char[20000]).replace('\0', 'x'));
+			e.write(big);
+			e.write(LuaValue.valueOf(-123456789L));
+			int end = b.position();
+			b.flip();
+			b.get();
+			MarshalLib.Decoder d = new MarshalLib.Decoder(b, globals);
+			assertEquals(big, d.read());
+			assertEquals(-123456789L, d.read().tolong());
+			assertEquals(end, b.position());
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.luaj.vm2.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class PackageLibTest extends TestCase {
+
+	private Globals globals;
+	private final Map<String, String> files = new HashMap<>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+		globals.finder = new ResourceFinder() {
+			public InputStream findResource(String filename) {
+				String script = files.get(filename);
+				return script != null? new ByteArrayInputStream(script.getBytes()): null;
+			}
+		};
+		files.put("a.lua", "return 'a-' .. select(1, ...) .. '-' .. select(2, ...)");
+		files.put("b/c.lua", "local a = require 'a' return a .. '+c'");
+		files.put("bad.lua", "return (");
+	}
+
+	public void testPreloadRegistersLoaders() {
+		int n = globals.preload(Arrays.asList("a", "b.c", "missing", "bad"));
+		assertEquals( 2, n );
+		LuaValue preload = globals.get("package").get("preload");
+		assertTrue( preload.get("a").isfunction() );
+		assertTrue( preload.get("b.c").isfunction() );
+		assertTrue( preload.get("missing").isnil() );
+		assertTrue( preload.get("bad").isnil() );
+	}
+
+	public void testRequirePreloaded() {
+		globals.preload(Arrays.asList("a", "b.c"));
+		files.clear();
+		LuaValue require = globals.get("require");
+		assertEquals( "a-a-a.lua+c", require.call("b.c").tojstring() );
+		assertEquals( "a-a-a.lua", globals.get("package").get("loaded").get("a").tojstring() );
+	}
+
+	public void testRequireNotPreloadedReportsError() {
+		globals.preload(Arrays.asList("bad"));
+		try {
+			globals.get("require").call("bad");
+			fail( "expected error loading bad module" );
+		} catch ( LuaError e ) {
+			assertTrue( e.getMessage().indexOf("bad.lua") >= 0 );
+		}
+	}
+
+	public void testPreloadSkipsLoadedModules() {
+		globals.get("require").call("a");
+		assertEquals( 0, globals.preload(Arrays.asList("a")) );
+	}
+}
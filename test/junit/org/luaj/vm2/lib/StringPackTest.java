@@ -0,0 +1,107 @@
+package org.luaj.vm2.lib;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Buffer;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+public class StringPackTest extends TestCase {
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Varargs run(String script) {
+		return globals.load(
+			"local function hex(s) return (s:gsub('.', function(c) return string.format('%02x', c:byte()) end)) end\n" +
+			script, "script").invoke();
+	}
+
+	public void testPack() {
+		Varargs v = run(
+			"return hex(string.pack('<i4', 1)), hex(string.pack('>i4', -2)), hex(string.pack('<h B b', -1, 255, -128)),\n" +
+			"	hex(string.pack('<d', 1.5)), hex(string.pack('>f', -2)), hex(string.pack('<s1', 'abc')), hex(string.pack('z', 'hi')),\n" +
+			"	hex(string.pack('<!4 b i4', 1, 2)), hex(string.pack('<!8 b Xi8 b', 1, 2)), hex(string.pack('c5', 'ab')),\n" +
+			"	hex(string.pack('<i16', -3)), hex(string.pack('>I3', 0x010203))");
+		String[] expected = {
+			"01000000", "fffffffe", "ffffff80",
+			"000000000000f83f", "c0000000", "03616263", "686900",
+			"0100000002000000", "010000000000000002", "6162000000",
+			"fdffffffffffffffffffffffffffffff", "010203",
+		};
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(expected[i], v.arg(i + 1).tojstring());
+	}
+
+	public void testUnpack() {
+		Varargs v = run(
+			"local a, b, c, p = string.unpack('<i4 h B', string.pack('<i4 h B', 100000, -5, 200))\n" +
+			"local s, z, d, q = string.unpack('>s2 z d', string.pack('>s2 z d', 'hello', 'world', 0.25))\n" +
+			"local u, i = string.unpack('<I3', '\\1\\2\\3'), string.unpack('<i3', '\\255\\255\\255')\n" +
+			"local big = string.unpack('<i16', string.pack('<i16', -3))\n" +
+			"local j = string.unpack('<j', string.pack('<j', 2^53))\n" +
+			"local y, r = string.unpack('B', 'xyz', -1)\n" +
+			"return a, b, c, p, s, z, d, q, u, i, big, j, y, r");
+		assertEquals(100000, v.arg(1).toint());
+		assertEquals(-5, v.arg(2).toint());
+		assertEquals(200, v.arg(3).toint());
+		assertEquals(8, v.arg(4).toint());
+		assertEquals("hello", v.arg(5).tojstring());
+		assertEquals("world", v.arg(6).tojstring());
+		assertEquals(0.25, v.arg(7).todouble());
+		assertEquals(22, v.arg(8).toint());
+		assertEquals(0x030201, v.arg(9).toint());
+		assertEquals(-1, v.arg(10).toint());
+		assertEquals(-3, v.arg(11).toint());
+		assertEquals(1L << 53, v.arg(12).tolong());
+		assertEquals('z', v.arg(13).toint());
+		assertEquals(4, v.arg(14).toint());
+	}
+
+	public void testPacksize() {
+		Varargs v = run("return string.packsize('<!8 b i8 d'), string.packsize('i4i4'), string.packsize('c3 x')");
+		assertEquals(24, v.arg(1).toint());
+		assertEquals(8, v.arg(2).toint());
+		assertEquals(4, v.arg(3).toint());
+	}
+
+	public void testErrors() {
+		String[][] cases = {
+			{"string.packsize('s')", "variable-length format"},
+			{"string.pack('i1', 200)", "integer overflow"},
+			{"string.pack('I1', -1)", "unsigned overflow"},
+			{"string.pack('i4', 1.5)", "number has no integer representation"},
+			{"string.pack('s1', string.rep('x', 256))", "string length does not fit in given size"},
+			{"string.pack('z', 'a\\0b')", "string contains zeros"},
+			{"string.pack('c2', 'abc')", "string longer than given size"},
+			{"string.pack('i17', 1)", "integral size (17) out of limits [1,16]"},
+			{"string.pack('y', 1)", "invalid format option 'y'"},
+			{"string.pack('c', 'a')", "missing size for format option 'c'"},
+			{"string.pack('X', 1)", "invalid next option for option 'X'"},
+			{"string.pack('!3 i4', 1)", "format asks for alignment not power of 2"},
+			{"string.unpack('i4', 'abc')", "data string too short"},
+			{"string.unpack('z', 'abc')", "unfinished string for format 'z'"},
+			{"string.unpack('B', 'abc', 5)", "initial position out of string"},
+			{"string.unpack('<i9', '\\0\\0\\0\\0\\0\\0\\0\\0\\1')", "9-byte integer does not fit into Lua Integer"},
+		};
+		for (String[] c : cases) {
+			Varargs v = run("return pcall(function() " + c[0] + " end)");
+			assertFalse(c[0], v.arg1().toboolean());
+			assertTrue(c[0] + ": " + v.arg(2), v.arg(2).tojstring().contains(c[1]));
+		}
+	}
+
+	public void testPackIntoBuffer() {
+		Buffer b = new Buffer();
+		b.append("hdr");
+		StringLib.pack(LuaString.valueOf(">I2 s1"), LuaValue.varargsOf(LuaValue.valueOf(258), LuaValue.valueOf("ab")), b);
+		assertEquals(LuaString.valueOf(new byte[] {'h', 'd', 'r', 1, 2, 2, 'a', 'b'}), b.tostring());
+	}
+}
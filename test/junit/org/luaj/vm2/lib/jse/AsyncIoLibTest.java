@@ -0,0 +1,133 @@
+package org.luaj.vm2.lib.jse;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+public class AsyncIoLibTest extends TestCase {
+
+	private Globals globals;
+	private AsyncIoLib lib;
+	private File dir;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+		lib = new AsyncIoLib();
+		globals.load(lib);
+		dir = Files.createTempDirectory("asynciolib").toFile();
+	}
+
+	protected void tearDown() throws Exception {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+		super.tearDown();
+	}
+
+	private Varargs run(String script) {
+		return globals.load(script, "script").invoke(LuaValue.valueOf(dir.getPath() + File.separator));
+	}
+
+	public void testTasksInterleave() {
+		Varargs v = run(
+			"local dir = ...\n" +
+			"local log = {}\n" +
+			"local function worker(name, n)\n" +
+			"	local f = io.open(dir .. name, 'w')\n" +
+			"	for i = 1, n do f:write(name, ' line ', i, '\\n') end\n" +
+			"	f:close()\n" +
+			"	local count = 0\n" +
+			"	for l in io.open(dir .. name):lines() do\n" +
+			"		count = count + 1\n" +
+			"		if count == 1 then log[#log + 1] = name end\n" +
+			"		coroutine.yield()\n" +
+			"	end\n" +
+			"	return count\n" +
+			"end\n" +
+			"local counts = {}\n" +
+			"for i = 1, 20 do io.spawn(function() counts[i] = worker('f' .. i, 1000 + i) end) end\n" +
+			"local main = io.run(function() io.sleep(0.01) return 'done' end)\n" +
+			"local ok = true\n" +
+			"for i = 1, 20 do ok = ok and counts[i] == 1000 + i end\n" +
+			"return main, ok, #log, io.open(dir .. 'f3'):read('*l')");
+		assertEquals("done", v.arg(1).tojstring());
+		assertTrue(v.arg(2).toboolean());
+		assertEquals(20, v.arg(3).toint());
+		assertEquals("f3 line 1", v.arg(4).tojstring());
+		assertEquals(0, lib.tasks());
+	}
+
+	public void testFormatsAndSeek() {
+		Varargs v = run(
+			"local dir = ...\n" +
+			"return io.run(function()\n" +
+			"	local f = io.open(dir .. 'a', 'w+')\n" +
+			"	f:write('12.5 abc\\r\\nline two\\n', string.rep('x', 20000))\n" +
+			"	f:seek('set', 0)\n" +
+			"	local n, l, L = f:read('*n', '*l', '*L')\n" +
+			"	local rest = f:read('*a')\n" +
+			"	local pos = f:seek('cur')\n" +
+			"	f:close()\n" +
+			"	local g = io.open(dir .. 'a', 'a')\n" +
+			"	g:write('end')\n" +
+			"	g:close()\n" +
+			"	return n, l, L, #rest, pos, io.open(dir .. 'a'):seek('end')\n" +
+			"end)");
+		assertEquals(12.5, v.arg(1).todouble());
+		assertEquals(" abc", v.arg(2).tojstring());
+		assertEquals("line two\n", v.arg(3).tojstring());
+		assertEquals(20000, v.arg(4).toint());
+		assertEquals(20019, v.arg(5).toint());
+		assertEquals(20022, v.arg(6).toint());
+	}
+
+	public void testUnclosedWritesReachTheFile() {
+		Varargs v = run(
+			"local dir = ...\n" +
+			"io.run(function()\n" +
+			"	local f = io.open(dir .. 'c', 'w')\n" +
+			"	f:write('abc', 'def')\n" +
+			"end)\n" +
+			"return io.open(dir .. 'c'):read('*a')");
+		assertEquals("abcdef", v.arg1().tojstring());
+	}
+
+	public void testOutsideTasksBlocks() {
+		Varargs v = run(
+			"local dir = ...\n" +
+			"local f = io.open(dir .. 'b', 'w') f:write('hello') f:close()\n" +
+			"io.sleep(0.001)\n" +
+			"return io.open(dir .. 'b'):read('*a'), io.open(dir .. 'missing')");
+		assertEquals("hello", v.arg(1).tojstring());
+		assertTrue(v.arg(2).isnil());
+	}
+
+	public void testPopen() {
+		Varargs v = run(
+			"return io.run(function()\n" +
+			"	local p = io.popen('echo hello')\n" +
+			"	local s = p:read('*l')\n" +
+			"	return s\n" +
+			"end)");
+		assertEquals("hello", v.arg(1).tojstring());
+	}
+
+	public void testErrorsInTasksAreRaised() {
+		try {
+			run("io.spawn(function() io.sleep(0.001) error('boom') end) io.run()");
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("boom"));
+		}
+		assertEquals(0, lib.tasks());
+		Varargs v = run("return io.run(function() return 1 end)");
+		assertEquals(1, v.arg1().toint());
+	}
+}
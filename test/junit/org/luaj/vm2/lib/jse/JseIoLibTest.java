@@ -0,0 +1,195 @@
+package org.luaj.vm2.lib.jse;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+public class JseIoLibTest extends TestCase {
+
+	private Globals globals;
+	private File file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+		file = File.createTempFile("jseiolib", ".txt");
+	}
+
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	private Varargs run(String script) {
+		return globals.load(script, "script").invoke(LuaValue.valueOf(file.getPath()));
+	}
+
+	public void testLinesAcrossBufferBoundaries() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+			sb.append("line ").append(i).append(i % 3 == 0 ? "\r\n" : "\n");
+		sb.append("last");
+		Files.write(file.toPath(), sb.toString().getBytes());
+		for (int size : new int[] {1, 3, 7, 8192}) {
+			Varargs v = run(
+				"local f = io.open(..., 'r')\n" +
+				"f:setvbuf('full', " + size + ")\n" +
+				"local n, last, first, withend = 0\n" +
+				"for l in f:lines() do n = n + 1 last = l first = first or l end\n" +
+				"f:seek('set', 0)\n" +
+				"withend = f:read('*L')\n" +
+				"f:close()\n" +
+				"return n, first, last, withend");
+			assertEquals(501, v.arg(1).toint());
+			assertEquals("line 0", v.arg(2).tojstring());
+			assertEquals("last", v.arg(3).tojstring());
+			assertEquals("line 0\r\n", v.arg(4).tojstring());
+		}
+	}
+
+	public void testReadFormats() throws Exception {
+		Files.write(file.toPath(), "12.5 -3\nabcdef\n".getBytes());
+		Varargs v = run(
+			"local f = io.open(...)\n" +
+			"local a, b = f:read('*n', '*n')\n" +
+			"f:read('*l')\n" +
+			"local c = f:read(2)\n" +
+			"local pos = f:seek()\n" +
+			"local rest = f:read('*a')\n" +
+			"local eof = f:read(1)\n" +
+			"f:close()\n" +
+			"return a, b, c, pos, rest, eof");
+		assertEquals(12.5, v.arg(1).todouble());
+		assertEquals(-3, v.arg(2).toint());
+		assertEquals("ab", v.arg(3).tojstring());
+		assertEquals(10, v.arg(4).toint());
+		assertEquals("cdef\n", v.arg(5).tojstring());
+		assertTrue(v.arg(6).isnil());
+	}
+
+	public void testBufferedWrites() throws Exception {
+		Varargs v = run(
+			"local name = ...\n" +
+			"local f = io.open(name, 'w')\n" +
+			"f:write('abc')\n" +
+			"local size0 = io.open(name):seek('end')\n" +
+			"f:setvbuf('full')\n" +
+			"f:write('abc')\n" +
+			"local size1 = io.open(name):seek('end')\n" +
+			"f:setvbuf('line')\n" +
+			"f:write('def\\n')\n" +
+			"local size2 = io.open(name):seek('end')\n" +
+			"f:setvbuf('no')\n" +
+			"f:write('g')\n" +
+			"local size3 = io.open(name):seek('end')\n" +
+			"f:setvbuf('full', 4096)\n" +
+			"f:write('h')\n" +
+			"local size4 = io.open(name):seek('end')\n" +
+			"f:close()\n" +
+			"return size0, size1, size2, size3, size4, io.open(name):read('*a')");
+		assertEquals(3, v.arg(1).toint());
+		assertEquals(3, v.arg(2).toint());
+		assertEquals(10, v.arg(3).toint());
+		assertEquals(11, v.arg(4).toint());
+		assertEquals(11, v.arg(5).toint());
+		assertEquals("abcabcdef\ngh", v.arg(6).tojstring());
+	}
+
+	public void testUnclosedWritesReachTheFile() throws Exception {
+		Varargs v = run(
+			"local name = ...\n" +
+			"io.output(name)\n" +
+			"io.write('abc')\n" +
+			"local f = io.open(name, 'a')\n" +
+			"f:write('def')\n" +
+			"return io.open(name):read('*a')");
+		assertEquals("abcdef", v.arg1().tojstring());
+	}
+
+	public void testUpdateModeMixesReadsAndWrites() throws Exception {
+		Files.write(file.toPath(), "0123456789".getBytes());
+		Varargs v = run(
+			"local f = io.open(..., 'r+')\n" +
+			"local a = f:read(2)\n" +
+			"f:write('xy')\n" +
+			"local b = f:read(2)\n" +
+			"f:seek('set', 8)\n" +
+			"f:write('Z')\n" +
+			"f:seek('set', 0)\n" +
+			"local all = f:read('*a')\n" +
+			"f:close()\n" +
+			"return a, b, all");
+		assertEquals("01", v.arg(1).tojstring());
+		assertEquals("45", v.arg(2).tojstring());
+		assertEquals("01xy4567Z9", v.arg(3).tojstring());
+	}
+
+	public void testSeekBeyondTwoGigabytes() throws Exception {
+		Varargs v = run(
+			"local f = io.open(..., 'w+')\n" +
+			"local p = f:seek('set', 3 * 1024 * 1024 * 1024)\n" +
+			"f:write('x')\n" +
+			"local e = f:seek('end')\n" +
+			"f:seek('set', p)\n" +
+			"local c = f:read(1)\n" +
+			"f:close()\n" +
+			"return p, e, c");
+		assertEquals(3L << 30, v.arg(1).tolong());
+		assertEquals((3L << 30) + 1, v.arg(2).tolong());
+		assertEquals("x", v.arg(3).tojstring());
+	}
+
+	public void testMappedReads() throws Exception {
+		Files.write(file.toPath(), "first\r\nsecond\n12.5 rest\nlast".getBytes());
+		Varargs v = run(
+			"local f = io.open(..., 'rm')\n" +
+			"local a, b = f:read('*l', '*L')\n" +
+			"local n = f:read('*n')\n" +
+			"local c = f:read(5)\n" +
+			"local pos = f:seek()\n" +
+			"f:seek('set', 1)\n" +
+			"local rest = f:read('*a')\n" +
+			"local eof = f:read('*l')\n" +
+			"local ok, err = f:write('x')\n" +
+			"f:close()\n" +
+			"return a, b, n, c, pos, rest, eof, ok, err");
+		assertEquals("first", v.arg(1).tojstring());
+		assertEquals("second\n", v.arg(2).tojstring());
+		assertEquals(12.5, v.arg(3).todouble());
+		assertEquals(" rest", v.arg(4).tojstring());
+		assertEquals(23, v.arg(5).toint());
+		assertEquals("irst\r\nsecond\n12.5 rest\nlast", v.arg(6).tojstring());
+		assertTrue(v.arg(7).isnil());
+		assertTrue(v.arg(8).isnil());
+		assertTrue(v.arg(9).tojstring(), v.arg(9).tojstring().contains("Bad file descriptor"));
+	}
+
+	public void testMappedLinesAcrossWindows() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			sb.append("line ").append(i).append(" ").append("x".repeat(i)).append(i % 3 == 0 ? "\r\n" : "\n");
+		sb.append("last");
+		Files.write(file.toPath(), sb.toString().getBytes());
+		JseIoLib lib = new JseIoLib();
+		lib.mmapwindow = 16;
+		globals.load(lib);
+		Varargs v = run(
+			"local n, bad = 0\n" +
+			"for l in io.open(..., 'rm'):lines() do\n" +
+			"	if n < 100 and l ~= 'line ' .. n .. ' ' .. string.rep('x', n) then bad = bad or l end\n" +
+			"	n = n + 1\n" +
+			"end\n" +
+			"local f = io.open(..., 'rm')\n" +
+			"local all = f:read('*a')\n" +
+			"f:close()\n" +
+			"return n, bad, #all");
+		assertEquals(101, v.arg(1).toint());
+		assertTrue(v.arg(2).tojstring(), v.arg(2).isnil());
+		assertEquals(sb.length(), v.arg(3).toint());
+	}
+}
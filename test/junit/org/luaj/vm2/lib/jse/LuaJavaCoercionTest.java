@@ -442,5 +442,78 @@ public class LuaJavaCoercionTest extends TestCase {
 		assertEquals(LuaString.class, value.getClass());
 		assertEquals(LuaValue.valueOf("abcd"), value);
 	}
-}
 
+	public void testTableToJavaArrays() {
+		LuaTable t = LuaValue.listOf(new LuaValue[] { ONE, TWO, LuaValue.valueOf(3.5) });
+		assertTrue(java.util.Arrays.equals(new long[] { 1, 2, 3 }, (long[]) CoerceLuaToJava.coerce(t, long[].class)));
+		assertTrue(java.util.Arrays.equals(new double[] { 1, 2, 3.5 }, (double[]) CoerceLuaToJava.coerce(t, double[].class)));
+		assertTrue(java.util.Arrays.equals(new String[] { "1", "2", "3.5" }, (String[]) CoerceLuaToJava.coerce(t, String[].class)));
+		assertTrue(java.util.Arrays.equals(new Integer[] { 1, 2, 3 }, (Integer[]) CoerceLuaToJava.coerce(t, Integer[].class)));
+		assertTrue(java.util.Arrays.equals(new float[] { 1, 2, 3.5f }, (float[]) CoerceLuaToJava.coerce(t, float[].class)));
+	}
+
+	public void testMapToTableAndBack() {
+		java.util.Map<String, Object> map = new java.util.LinkedHashMap<String, Object>();
+		map.put("name", "luaj");
+		map.put("version", 3);
+		map.put("ratio", 0.5);
+		map.put("tags", java.util.Arrays.asList("a", "b"));
+		map.put("ints", new int[] { 1, 2 });
+		java.util.Map<String, Object> nested = new java.util.LinkedHashMap<String, Object>();
+		nested.put("ok", true);
+		map.put("nested", nested);
+		map.put("self", map);
+
+		LuaTable t = CoerceJavaToLua.tableOf(map);
+		assertEquals("luaj", t.get("name").tojstring());
+		assertEquals(3, t.get("version").toint());
+		assertEquals(0.5, t.get("ratio").todouble());
+		assertEquals(LuaTable.class, t.get("tags").getClass());
+		assertEquals("b", t.get("tags").get(2).tojstring());
+		assertEquals(2, t.get("ints").length());
+		assertTrue(t.get("nested").get("ok").toboolean());
+		assertSame(t, t.get("self"));
+
+		java.util.Map<String, Object> back = CoerceLuaToJava.toMap(t);
+		assertEquals("luaj", back.get("name"));
+		assertEquals(3, back.get("version"));
+		assertEquals(0.5, back.get("ratio"));
+		assertEquals(java.util.Arrays.asList("a", "b"), back.get("tags"));
+		assertEquals(java.util.Arrays.asList(1, 2), back.get("ints"));
+		assertEquals(nested, back.get("nested"));
+		assertSame(back, back.get("self"));
+	}
+
+	public void testListToTableAndBack() {
+		java.util.List<Object> list = java.util.Arrays.asList((Object) "x", null, 2);
+		LuaTable t = CoerceJavaToLua.listOf(list);
+		assertEquals("x", t.get(1).tojstring());
+		assertTrue(t.get(2).isnil());
+		assertEquals(2, t.get(3).toint());
+		assertEquals(java.util.Arrays.asList("x"), CoerceLuaToJava.toList(LuaTable.fromStringArray(new String[] { "x" })));
+	}
+
+	public static class Ids {
+		public long id(long id) { return id; }
+		public long next(long id) { return id + 1; }
+		public Object box(Object o) { return o; }
+	}
+
+	public void testJavaLongIsLossless() {
+		long big = (1L << 62) + 1;
+		LuaValue v = CoerceJavaToLua.coerce(Long.valueOf(big));
+		assertEquals(big, v.tolong());
+		assertEquals(Long.valueOf(big), CoerceLuaToJava.coerce(v, long.class));
+		assertEquals(Long.valueOf(big), CoerceLuaToJava.coerce(v, Object.class));
+		assertEquals(LuaInteger.class, CoerceJavaToLua.coerce(Long.valueOf(5)).getClass());
+
+		globals.set("ids", CoerceJavaToLua.coerce(new Ids()));
+		globals.set("big", v);
+		Varargs r = ((org.luaj.vm2.Globals) globals).load(
+			"return ids:id(big), ids:next(big), ids:box(big), tostring(ids:next(big))", "script").invoke();
+		assertEquals(big, r.arg1().tolong());
+		assertEquals(big + 1, r.arg(2).tolong());
+		assertEquals(big, r.arg(3).tolong());
+		assertEquals(Long.toString(big + 1), r.arg(4).tojstring());
+	}
+}
@@ -0,0 +1,108 @@
+package org.luaj.vm2.lib.jse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+public class LuajavaCachesTest extends TestCase {
+
+	public static class Plugin {
+		public int n;
+		public Plugin() {}
+		public int add(int a, int b) { return a + b + n; }
+		public String loader() { return getClass().getClassLoader().getClass().getSimpleName(); }
+	}
+
+	/** Loads its own copy of {@link Plugin}, like a plugin class loader */
+	static class PluginLoader extends ClassLoader {
+		PluginLoader() {
+			super(LuajavaCachesTest.class.getClassLoader());
+		}
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(Plugin.class.getName()))
+				return super.loadClass(name, resolve);
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c != null)
+					return c;
+				try (InputStream is = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+					ByteArrayOutputStream b = new ByteArrayOutputStream();
+					is.transferTo(b);
+					return defineClass(name, b.toByteArray(), 0, b.size());
+				} catch (Exception e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+		}
+	}
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	public void testSameEntriesAcrossThreads() throws Exception {
+		final int threads = 16;
+		final Object[][] seen = new Object[threads][];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] t = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int k = i;
+			t[i] = new Thread(() -> {
+				try {
+					start.await();
+					seen[k] = new Object[] {
+						JavaClass.forClass(Plugin.class),
+						CoerceLuaToJava.getCoercion(Plugin[].class),
+						CoerceJavaToLua.COERCIONS.get(Plugin.class),
+						JavaMethod.forMethod(Plugin.class.getMethod("add", int.class, int.class)),
+						JavaConstructor.forConstructor(Plugin.class.getConstructor()),
+					};
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			t[i].start();
+		}
+		start.countDown();
+		for (Thread thread : t)
+			thread.join();
+		for (int i = 0; i < threads; i++)
+			for (int j = 0; j < seen[0].length; j++)
+				assertSame(seen[0][j], seen[i][j]);
+		assertSame(JavaClass.forClass(Plugin.class), CoerceJavaToLua.coerce(Plugin.class));
+		assertSame(seen[0][3], JavaMethod.forMethod(Plugin.class.getMethod("add", int.class, int.class)));
+	}
+
+	public void testClassFromPluginLoader() throws Exception {
+		Class<?> c = new PluginLoader().loadClass(Plugin.class.getName());
+		assertNotSame(Plugin.class, c);
+		assertFalse(JavaMember.isVisible(c));
+		assertTrue(JavaMember.isVisible(Plugin.class));
+		assertTrue(JavaMember.isVisible(String.class));
+		assertNotSame(JavaClass.forClass(Plugin.class), JavaClass.forClass(c));
+
+		LuaValue chunk = globals.load(
+			"local cls = ...\n" +
+			"local o = cls.new()\n" +
+			"o.n = 1\n" +
+			"return o:add(2, 3), o:loader(), o.n", "script");
+		Varargs v = chunk.invoke(CoerceJavaToLua.coerce(c));
+		assertEquals(6, v.arg1().toint());
+		assertEquals("PluginLoader", v.arg(2).tojstring());
+		assertEquals(1, v.arg(3).toint());
+		assertNull(JavaMethod.forMethod(c.getMethod("add", int.class, int.class)).invoker());
+
+		v = chunk.invoke(CoerceJavaToLua.coerce(Plugin.class));
+		assertEquals(6, v.arg1().toint());
+		assertNotNull(JavaMethod.forMethod(Plugin.class.getMethod("add", int.class, int.class)).invoker());
+	}
+}
@@ -39,6 +39,16 @@ public class LuajavaClassMembersTest extends TestCase {
 		public static String staticpick(int i)    { return "static-pick(int:"+i+")"; }
 		public static String staticpick(String s, int i) { return "static-pick(string:"+s+",int:"+i+")"; }
 		public static String staticpick(int i, String s) { return "static-pick(int:"+i+",string:"+s+")"; }
+
+		public String describe(A a)  { return "describe("+(a != null ? "A" : "null")+")"; }
+		public static String join(String... s) { return String.join(",", s); }
+		public void raise(String s)  { throw new IllegalStateException(s); }
+
+		public String size(byte b)   { return "size(byte)"; }
+		public String size(int i)    { return "size(int)"; }
+		public String size(double d) { return "size(double)"; }
+		public String size(A a)      { return "size(A)"; }
+		public String size(C c)      { return "size(C)"; }
 	}
 	public static class C extends B {
 		public C() {}
@@ -235,4 +245,79 @@ public class LuajavaClassMembersTest extends TestCase {
 		LuaValue e = ic.get("E");
 		assertTrue(e.isnil());
 	}
+	public static class Spun {
+		public int first(int i) { return i + 1; }
+		public int second(int i) { return i + 2; }
+	}
+	public void testInvokersAreSpunOnFirstCall() {
+		JavaInstance i = new JavaInstance(new Spun());
+		JavaMethod first = (JavaMethod) i.get("first");
+		JavaMethod second = (JavaMethod) i.get("second");
+		assertNull( first.invoker );
+		assertNull( second.invoker );
+		assertEquals( 2, first.call(i, ONE).toint() );
+		assertNotNull( first.invoker );
+		assertNull( second.invoker );
+	}
+	public void testDirectInvokerInvokers() {
+		JavaInstance ib = new JavaInstance(new B());
+		JavaMethod m = (JavaMethod) ib.get("uniqsi");
+		assertEquals( "uniqsi(string:abc,int:1)", m.call(SOMEB,ABC,ONE).tojstring() );
+		assertNotNull( m.invoker );
+		assertEquals( "uniqsi(string:abc,int:1)", m.invoke(LuaValue.varargsOf(new LuaValue[] {SOMEB,ABC,ONE,ONE})).arg1().tojstring() );
+		JavaMethod j = (JavaMethod) ib.get("join");
+		assertNull( j.invoker() );
+		JavaConstructor c = (JavaConstructor) JavaClass.forClass(B.class).getConstructor();
+		assertEquals( 5, ((B) c.call(LuaValue.valueOf(5)).touserdata()).m_int_field );
+		assertNotNull( c.invoker );
+		C sc = (C) JavaClass.forClass(C.class).getConstructor().call(ABC,ONE).touserdata();
+		assertEquals( "abc", sc.m_string_field );
+		assertEquals( 1, sc.m_int_field );
+	}
+	public void testDirectInvokerArgumentFallback() {
+		JavaInstance ib = new JavaInstance(new B());
+		LuaValue m = ib.get("describe");
+		assertEquals( "describe(A)",    m.call(SOMEB,SOMEA).tojstring() );
+		assertEquals( "describe(null)", m.call(SOMEB,LuaValue.NIL).tojstring() );
+		try {
+			m.call(SOMEB,ONE);
+			fail( "expected coercion error" );
+		} catch ( LuaError e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains("coercion error") );
+		}
+		try {
+			m.call(SOMEA,SOMEA);
+			fail( "expected coercion error" );
+		} catch ( LuaError e ) {
+			assertTrue( e.getMessage(), e.getMessage().contains("coercion error") );
+		}
+	}
+	public void testDirectInvokerException() {
+		JavaInstance ib = new JavaInstance(new B());
+		try {
+			ib.get("raise").call(SOMEB,ABC);
+			fail( "expected error" );
+		} catch ( LuaError e ) {
+			assertTrue( e.getCause() instanceof IllegalStateException );
+			assertEquals( "abc", e.getCause().getMessage() );
+		}
+	}
+	public void testOverloadCache() {
+		JavaInstance ib = new JavaInstance(new B());
+		JavaMethod.Overload p = (JavaMethod.Overload) ib.get("size");
+		for ( int i = 0; i < 3; i++ ) {
+			assertEquals( "size(byte)",   p.call(SOMEB,ONE).tojstring() );
+			assertEquals( "size(int)",    p.call(SOMEB,LuaValue.valueOf(1000)).tojstring() );
+			assertEquals( "size(double)", p.call(SOMEB,PI).tojstring() );
+			assertEquals( "size(byte)",   p.call(SOMEB,LuaValue.valueOf("1")).tojstring() );
+			assertEquals( "size(A)",      p.call(SOMEB,SOMEA).tojstring() );
+			assertEquals( "size(C)",      p.call(SOMEB,SOMEC).tojstring() );
+		}
+		assertEquals( JavaMethod.Overload.shape(LuaValue.varargsOf(SOMEB,ONE)),
+				JavaMethod.Overload.shape(LuaValue.varargsOf(SOMEC,LuaValue.valueOf(2))) );
+		assertFalse( JavaMethod.Overload.shape(LuaValue.varargsOf(SOMEB,ONE)) ==
+				JavaMethod.Overload.shape(LuaValue.varargsOf(SOMEB,LuaValue.valueOf(1000))) );
+		assertEquals( JavaMethod.Overload.UNCACHEABLE,
+				JavaMethod.Overload.shape(LuaValue.varargsOf(SOMEB,LuaValue.tableOf())) );
+	}
 }
@@ -0,0 +1,177 @@
+package org.luaj.vm2.lib.jse;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+
+public class LuajavaProxyTest extends TestCase {
+
+	public interface Primitives {
+		boolean negate(boolean b);
+		byte b(byte b);
+		char c(char c);
+		short s(short s);
+		int add(int a, int b);
+		long l(long l);
+		float f(float f);
+		double sum(double a, float b, long c, int d, short e);
+		String name(Object o);
+		int[] ints(int n);
+		void run();
+	}
+
+	public interface Greeter {
+		String name();
+		default String greet() { return "hello " + name(); }
+	}
+
+	public interface Counter {
+		int next();
+	}
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Object proxy(String ifaces, String impl) {
+		return globals.load("return luajava.createProxy(" + ifaces + ", " + impl + ")", "script").call().touserdata();
+	}
+
+	public void testPrimitives() {
+		Primitives p = (Primitives) proxy("'" + Primitives.class.getName() + "'",
+			"{ negate = function(b) return not b end," +
+			"  b = function(b) return b + 1 end," +
+			"  c = function(c) return c + 1 end," +
+			"  s = function(s) return s * 2 end," +
+			"  add = function(a, b) return a + b end," +
+			"  l = function(l) return l / 2 end," +
+			"  f = function(f) return f * 2 end," +
+			"  sum = function(...) local s = 0 for _, v in ipairs({...}) do s = s + v end return s end," +
+			"  name = function(o) return 'size ' .. o:size() end," +
+			"  ints = function(n) local t = {} for i = 1, n do t[i] = i * i end return t end," +
+			"  run = function() ran = true end }");
+		assertFalse(Proxy.isProxyClass(p.getClass()));
+		assertFalse(p.negate(true));
+		assertEquals((byte) -128, p.b((byte) 127));
+		assertEquals('b', p.c('a'));
+		assertEquals((short) 600, p.s((short) 300));
+		assertEquals(5, p.add(2, 3));
+		assertEquals(1L << 40, p.l(1L << 41));
+		assertEquals(3.0f, p.f(1.5f));
+		assertEquals(15.5, p.sum(1.5, 2f, 3L, 4, (short) 5));
+		assertEquals("size 0", p.name(new ArrayList<Object>()));
+		assertTrue(Arrays.equals(new int[] {1, 4, 9}, p.ints(3)));
+		p.run();
+		assertTrue(globals.get("ran").toboolean());
+	}
+
+	public void testFunctionalInterface() {
+		@SuppressWarnings("unchecked")
+		Comparator<String> c = (Comparator<String>) proxy("'java.util.Comparator'",
+			"function(a, b) return #a - #b end");
+		List<String> list = new ArrayList<String>(Arrays.asList("ccc", "a", "bb"));
+		Collections.sort(list, c);
+		assertEquals(Arrays.asList("a", "bb", "ccc"), list);
+		Collections.sort(list, c.reversed());
+		assertEquals(Arrays.asList("ccc", "bb", "a"), list);
+		assertTrue(c.equals(c));
+		assertFalse(c.equals(null));
+		assertEquals(System.identityHashCode(c), c.hashCode());
+
+		IntBinaryOperator op = (IntBinaryOperator) proxy("'" + IntBinaryOperator.class.getName() + "'",
+			"function(a, b) return a * b end");
+		assertEquals(42, op.applyAsInt(6, 7));
+	}
+
+	public void testFunctionNeedsSingleAbstractMethod() {
+		try {
+			proxy("'" + Primitives.class.getName() + "'", "function() end");
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("not a functional interface"));
+		}
+	}
+
+	public void testDefaultAndObjectMethods() {
+		Greeter g = (Greeter) proxy("'" + Greeter.class.getName() + "'",
+			"{ name = function() return 'lua' end }");
+		assertEquals("hello lua", g.greet());
+		assertEquals(System.identityHashCode(g), g.hashCode());
+
+		Greeter h = (Greeter) proxy("'" + Greeter.class.getName() + "'",
+			"{ name = function() return 'lua' end," +
+			"  greet = function() return 'hi' end," +
+			"  toString = function() return 'greeter' end }");
+		assertEquals("hi", h.greet());
+		assertEquals("greeter", h.toString());
+		assertNotSame(g.getClass(), h.getClass());
+
+		Greeter i = (Greeter) proxy("'" + Greeter.class.getName() + "'",
+			"{ name = function() return 'other' end }");
+		assertSame(g.getClass(), i.getClass());
+		assertEquals("hello other", i.greet());
+	}
+
+	public void testMissingMethodReturnsDefault() {
+		Primitives p = (Primitives) proxy("'" + Primitives.class.getName() + "'", "{}");
+		assertEquals(0, p.add(1, 2));
+		assertFalse(p.negate(false));
+		assertNull(p.name("x"));
+		p.run();
+	}
+
+	public void testFunctionsAreLookedUpOnCreation() {
+		Counter c = (Counter) proxy("'" + Counter.class.getName() + "'",
+			"(function() local n = 0 impl = { next = function() n = n + 1 return n end } return impl end)()");
+		assertEquals(1, c.next());
+		assertEquals(2, c.next());
+	}
+
+	public void testSeveralInterfaces() {
+		Object o = proxy("'" + Counter.class.getName() + "', 'java.lang.Runnable'",
+			"{ next = function() return 7 end, run = function() ran = 1 end }");
+		assertEquals(7, ((Counter) o).next());
+		((Runnable) o).run();
+		assertEquals(1, globals.get("ran").toint());
+		Object p = proxy("'" + Counter.class.getName() + "', 'java.lang.Runnable'", "{}");
+		assertSame(o.getClass(), p.getClass());
+	}
+
+	public void testErrorsPropagate() {
+		Runnable r = (Runnable) proxy("'java.lang.Runnable'", "function() error('boom') end");
+		try {
+			r.run();
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("boom"));
+		}
+	}
+
+	public void testVarargsInterfaceUsesProxy() {
+		Object o = proxy("'" + LuaJavaCoercionTest.VarArgsInterface.class.getName() + "'", "{}");
+		assertTrue(Proxy.isProxyClass(o.getClass()));
+	}
+
+	public void testBadImplementation() {
+		try {
+			proxy("'java.lang.Runnable'", "1");
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("table or function expected"));
+		}
+		assertEquals(LuaValue.NIL, globals.get("ran"));
+	}
+}
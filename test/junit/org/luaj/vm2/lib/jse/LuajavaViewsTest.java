@@ -0,0 +1,188 @@
+package org.luaj.vm2.lib.jse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+public class LuajavaViewsTest extends TestCase {
+
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		globals = JsePlatform.standardGlobals();
+	}
+
+	private Varargs run(String script, Object arg) {
+		return globals.load(script, "script").invoke(CoerceJavaToLua.coerce(arg));
+	}
+
+	public void testIntArray() {
+		int[] a = {3, 1, 2};
+		Varargs v = run(
+			"local a = ...\n" +
+			"local s = 0 for i, x in ipairs(a) do s = s + i * x end\n" +
+			"a[1] = a[1] * 10\n" +
+			"table.sort(a)\n" +
+			"return #a, a.length, s, table.concat(a, ','), a[0], a[4]", a);
+		assertEquals(3, v.arg1().toint());
+		assertEquals(3, v.arg(2).toint());
+		assertEquals(3 + 2 + 6, v.arg(3).toint());
+		assertEquals("1,2,30", v.arg(4).tojstring());
+		assertTrue(v.arg(5).isnil());
+		assertTrue(v.arg(6).isnil());
+		assertTrue(Arrays.equals(new int[] {1, 2, 30}, a));
+	}
+
+	public void testPrimitiveArrays() {
+		double[] d = {0.5, 1.5};
+		long[] l = {1L << 40};
+		char[] c = {'a'};
+		boolean[] b = {false};
+		Varargs v = globals.load(
+			"local d, l, c, b = ...\n" +
+			"d[2] = d[1] + d[2]; l[1] = l[1] * 2; c[1] = c[1] + 1; b[1] = not b[1]\n" +
+			"return d[2], l[1], c[1], b[1]", "script").invoke(LuaValue.varargsOf(new LuaValue[] {
+				CoerceJavaToLua.coerce(d), CoerceJavaToLua.coerce(l),
+				CoerceJavaToLua.coerce(c), CoerceJavaToLua.coerce(b)}));
+		assertEquals(2.0, d[1]);
+		assertEquals(1L << 41, l[0]);
+		assertEquals('b', c[0]);
+		assertTrue(b[0]);
+		assertEquals(2.0, v.arg1().todouble());
+		assertEquals((double) (1L << 41), v.arg(2).todouble());
+		assertEquals('b', v.arg(3).toint());
+		assertTrue(v.arg(4).toboolean());
+	}
+
+	public void testArrayOutOfBounds() {
+		try {
+			run("local a = ... a[3] = 1", new String[2]);
+			fail("expected error");
+		} catch (LuaError e) {
+		}
+	}
+
+	public void testObjectArrayPairs() {
+		String[] a = {"x", null, "z"};
+		Varargs v = run(
+			"local a = ...\n" +
+			"local p, i = {}, 0\n" +
+			"for k, x in pairs(a) do p[#p + 1] = k .. '=' .. tostring(x) end\n" +
+			"for k in ipairs(a) do i = k end\n" +
+			"a[2] = 'y'\n" +
+			"return table.concat(p, ' '), i, table.unpack(a)", a);
+		assertEquals("1=x 2=nil 3=z", v.arg1().tojstring());
+		assertEquals(1, v.arg(2).toint());
+		assertEquals("x", v.arg(3).tojstring());
+		assertEquals("y", v.arg(4).tojstring());
+		assertEquals("z", v.arg(5).tojstring());
+		assertEquals("y", a[1]);
+	}
+
+	public void testList() {
+		List<Object> list = new ArrayList<Object>(Arrays.asList("b", "c"));
+		Varargs v = run(
+			"local l = ...\n" +
+			"table.insert(l, 1, 'a')\n" +
+			"table.insert(l, 'e')\n" +
+			"l[#l + 1] = 'f'\n" +
+			"l[4] = 'd'\n" +
+			"local removed = table.remove(l)\n" +
+			"local n = 0 for i, x in ipairs(l) do n = n + 1 end\n" +
+			"return #l, l:size(), removed, n, table.concat(l), l[0], l[9]", list);
+		assertEquals(Arrays.asList("a", "b", "c", "d"), list);
+		assertEquals(4, v.arg1().toint());
+		assertEquals(4, v.arg(2).toint());
+		assertEquals("f", v.arg(3).tojstring());
+		assertEquals(4, v.arg(4).toint());
+		assertEquals("abcd", v.arg(5).tojstring());
+		assertTrue(v.arg(6).isnil());
+		assertTrue(v.arg(7).isnil());
+
+		run("local l = ... table.sort(l, function(a, b) return a > b end) l[#l] = nil", list);
+		assertEquals(Arrays.asList("d", "c", "b"), list);
+		try {
+			run("local l = ... l[9] = 'x'", list);
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("out of bounds"));
+		}
+	}
+
+	public void testInsertAndRemoveKeepNulls() {
+		List<Object> list = new ArrayList<Object>(Arrays.asList("a", null, "c"));
+		Varargs v = run(
+			"local l = ...\n" +
+			"table.insert(l, 1, 'x')\n" +
+			"local r = table.remove(l, 2)\n" +
+			"return r, #l", list);
+		assertEquals(Arrays.asList("x", null, "c"), list);
+		assertEquals("a", v.arg1().tojstring());
+		assertEquals(3, v.arg(2).toint());
+
+		String[] a = {"a", null, "c"};
+		v = run(
+			"local a = ...\n" +
+			"local ok1, e1 = pcall(table.insert, a, 1, 'x')\n" +
+			"local ok2, e2 = pcall(table.remove, a)\n" +
+			"return ok1, e1, ok2, e2", a);
+		assertFalse(v.arg1().toboolean());
+		assertTrue(v.arg(2).tojstring(), v.arg(2).tojstring().contains("cannot insert into a java array"));
+		assertFalse(v.arg(3).toboolean());
+		assertTrue(v.arg(4).tojstring(), v.arg(4).tojstring().contains("cannot remove from a java array"));
+		assertTrue(Arrays.equals(new String[] {"a", null, "c"}, a));
+	}
+
+	public void testMap() {
+		Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+		map.put("a", 1);
+		map.put("size", "entry");
+		Varargs v = run(
+			"local m = ...\n" +
+			"m.b = 'two'\n" +
+			"m[3] = true\n" +
+			"m.a = nil\n" +
+			"local keys = {}\n" +
+			"for k, x in pairs(m) do keys[#keys + 1] = tostring(k) .. '=' .. tostring(x) end\n" +
+			"return #m, table.concat(keys, ' '), m:get('size'), m:containsKey('b'), m.missing, m:size()", map);
+		assertEquals(3, v.arg1().toint());
+		assertEquals("size=entry b=two 3=true", v.arg(2).tojstring());
+		assertEquals("entry", v.arg(3).tojstring());
+		assertEquals(3, v.arg(6).toint());
+		assertTrue(v.arg(4).toboolean());
+		assertTrue(v.arg(5).isnil());
+		assertFalse(map.containsKey("a"));
+		assertEquals(Boolean.TRUE, map.get(3));
+
+		Map<Integer, String> sorted = new TreeMap<Integer, String>();
+		sorted.put(1, "one");
+		v = run("local m = ... return m[1], m:size(), m.missing", sorted);
+		assertEquals("one", v.arg1().tojstring());
+		assertEquals(1, v.arg(2).toint());
+		assertTrue(v.arg(3).isnil());
+	}
+
+	public void testOnlyViewsPassForTables() {
+		Varargs v = run(
+			"local a = ...\n" +
+			"local ok1, e1 = pcall(table.unpack, 'abc')\n" +
+			"local ok2, e2 = pcall(table.insert, 'abc', 1)\n" +
+			"local ok3, e3 = pcall(table.sort, a)\n" +
+			"return e1, e2, ok3, a[1]", new String[] {"b", "a"});
+		assertTrue(v.arg1().tojstring(), v.arg1().tojstring().contains("table expected, got string"));
+		assertTrue(v.arg(2).tojstring(), v.arg(2).tojstring().contains("table expected, got string"));
+		assertTrue(v.arg(3).toboolean());
+		assertEquals("a", v.arg(4).tojstring());
+	}
+}
@@ -0,0 +1,147 @@
+package org.luaj.vm2.lib.jse;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+
+public class ParallelLibTest extends TestCase {
+
+	private ForkJoinPool pool;
+	private ParallelLib lib;
+	private Globals globals;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		pool = new ForkJoinPool(4);
+		lib = new ParallelLib(pool, JsePlatform::standardGlobals);
+		globals = JsePlatform.standardGlobals();
+		globals.load(lib);
+	}
+
+	protected void tearDown() throws Exception {
+		pool.shutdown();
+		super.tearDown();
+	}
+
+	private Varargs run(String script) {
+		return globals.load(script, "script").invoke();
+	}
+
+	public void testMap() {
+		Varargs v = run(
+			"local t = {} for i = 1, 1000 do t[i] = i end\n" +
+			"local r = parallel.map(t, function(x, i) return x * x + i end)\n" +
+			"local ok = #r == 1000\n" +
+			"for i = 1, 1000 do ok = ok and r[i] == i * i + i end\n" +
+			"return ok, #parallel.map({}, print), parallel.workers");
+		assertTrue(v.arg1().toboolean());
+		assertEquals(0, v.arg(2).toint());
+		assertEquals(4, v.arg(3).toint());
+		assertTrue(lib.idleWorkers() > 0);
+		assertTrue(lib.idleWorkers() <= 5);
+	}
+
+	public void testMapChunkSizeAndHoles() {
+		Varargs v = run(
+			"local r = parallel.map({1, 2, 3, 4, 5}, function(x) if x % 2 == 1 then return x end end, 2)\n" +
+			"return r[1], r[2], r[3], r[4], r[5]");
+		assertEquals(1, v.arg(1).toint());
+		assertTrue(v.arg(2).isnil());
+		assertEquals(3, v.arg(3).toint());
+		assertTrue(v.arg(4).isnil());
+		assertEquals(5, v.arg(5).toint());
+	}
+
+	public void testReduce() {
+		Varargs v = run(
+			"local t = {} for i = 1, 10000 do t[i] = i end\n" +
+			"local add = function(a, b) return a + b end\n" +
+			"return parallel.reduce(t, add), parallel.reduce(t, add, 5), parallel.reduce({}, add, 7), parallel.reduce({}, add)");
+		assertEquals(50005000, v.arg(1).toint());
+		assertEquals(50005005, v.arg(2).toint());
+		assertEquals(7, v.arg(3).toint());
+		assertTrue(v.arg(4).isnil());
+	}
+
+	public void testValuesCross() {
+		Varargs v = run(
+			"local scale = { factor = 3 }\n" +
+			"local sqrt, fmt = math.sqrt, string.format\n" +
+			"local function fact(n) if n <= 1 then return 1 end return n * fact(n - 1) end\n" +
+			"local r = parallel.map({ {v = 16}, {v = 4} }, function(rec)\n" +
+			"	local shared = { n = fact(rec.v / 4) }\n" +
+			"	return { root = sqrt(rec.v) * scale.factor, text = fmt('%d', rec.v), a = shared, b = shared,\n" +
+			"		f = function() return rec.v end, g = _G == _ENV and type(print) }\n" +
+			"end)\n" +
+			"return r[1].root, r[2].text, r[1].a == r[1].b, r[1].a.n, r[2].f(), r[1].g, r[1].f ~= r[2].f");
+		assertEquals(12, v.arg(1).toint());
+		assertEquals("4", v.arg(2).tojstring());
+		assertTrue(v.arg(3).toboolean());
+		assertEquals(24, v.arg(4).toint());
+		assertEquals(4, v.arg(5).toint());
+		assertEquals("function", v.arg(6).tojstring());
+		assertTrue(v.arg(7).toboolean());
+	}
+
+	public void testWorkersAreIsolated() {
+		Varargs v = run(
+			"counter = 0\n" +
+			"local t = {} for i = 1, 100 do t[i] = i end\n" +
+			"local r = parallel.map(t, function(x) counter = (counter or 0) + 1 return x end)\n" +
+			"return counter, #r");
+		assertEquals(0, v.arg1().toint());
+		assertEquals(100, v.arg(2).toint());
+	}
+
+	public void testWorkersAreReset() {
+		Varargs v = run(
+			"local t = {1, 2, 3, 4, 5, 6, 7, 8}\n" +
+			"parallel.map(t, function() leak = true string.upper = nil setmetatable(_G, {}) return 0 end, 1)\n" +
+			"local r = parallel.map(t, function() return leak == nil and string.upper ~= nil and getmetatable(_G) == nil end, 1)\n" +
+			"for i = 1, #t do if not r[i] then return false end end\n" +
+			"return true");
+		assertTrue(v.arg1().toboolean());
+		assertTrue(lib.idleWorkers() > 0);
+	}
+
+	public void testNotInStandardGlobals() {
+		assertTrue(JsePlatform.standardGlobals().get("parallel").isnil());
+	}
+
+	public void testSharedTablesCrossByReference() {
+		Varargs v = run(
+			"local s = shared.new()\n" +
+			"local t = {} for i = 1, 100 do t[i] = i end\n" +
+			"local r = parallel.map(t, function(x) shared.incr(s, 'n', x) return s end)\n" +
+			"return s.n, r[1] == s and r[100] == s");
+		assertEquals(5050, v.arg1().toint());
+		assertTrue(v.arg(2).toboolean());
+	}
+
+	public void testValuesThatCannotCross() {
+		assertError("local u = luajava.newInstance('java.lang.Object') return parallel.map({1}, function() return u end)", "userdata");
+		assertError("return parallel.map({ setmetatable({}, {}) }, function(x) return x end)", "metatable");
+		assertError("return parallel.map({1}, function() return coroutine.create(print) end)", "thread");
+		assertError("local f = string.gmatch('a', 'a') return parallel.map({1}, function() return f end)", "cannot pass");
+	}
+
+	public void testErrorsPropagate() {
+		assertError("return parallel.map({1, 2, 3}, function(x) if x == 2 then error('boom') end return x end)", "boom");
+		assertError("return parallel.map({1}, function() end, 0)", "chunk size");
+		assertEquals(LuaValue.valueOf(6), run("return parallel.reduce({1, 2, 3}, function(a, b) return a + b end)").arg1());
+	}
+
+	private void assertError(String script, String message) {
+		try {
+			run(script);
+			fail("expected error");
+		} catch (LuaError e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+}
@@ -0,0 +1,16 @@
+-- Calls an overloaded Java method in a loop.
+-- Requires luaj with the luajava library, for example:
+--   java -cp luaj-jse.jar lua test/lua/perf/javaoverload.lua 1000000
+
+local N = tonumber(arg and arg[1]) or 1000000
+local StringBuilder = luajava.bindClass("java.lang.StringBuilder")
+
+local t0 = os.clock()
+local sb = StringBuilder.new()
+for i = 1, N do
+  sb:append("x")
+  sb:append(i)
+  sb:append(0.5)
+  if sb:length() > 4096 then sb:setLength(0) end
+end
+io.write(string.format("%d iterations in %.3f s\n", N, os.clock() - t0))